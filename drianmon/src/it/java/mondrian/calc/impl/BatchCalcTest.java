@@ -0,0 +1,138 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.DoubleCalc;
+import mondrian.calc.DummyExp;
+import mondrian.calc.TupleList;
+import mondrian.olap.Member;
+import mondrian.olap.fun.FunUtil;
+import mondrian.olap.type.NullType;
+import mondrian.olap.type.NumericType;
+import mondrian.olap.type.StringType;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for batch evaluation of calcs over tuple lists.
+ */
+public class BatchCalcTest extends TestCase {
+    private final TupleList tupleList = createTupleList(3);
+
+    private static TupleList createTupleList(int size) {
+        final List<Member> members = new ArrayList<Member>();
+        for (int i = 0; i < size; i++) {
+            members.add(mock(Member.class));
+        }
+        return new UnaryTupleList(members);
+    }
+
+    private static DoubleCalc plus(DoubleCalc calc0, DoubleCalc calc1) {
+        return new AbstractBinaryDoubleCalc(
+            new DummyExp(new NumericType()), calc0, calc1)
+        {
+            protected double apply(double v0, double v1) {
+                if (v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull) {
+                    return FunUtil.DoubleNull;
+                }
+                return v0 + v1;
+            }
+        };
+    }
+
+    public void testConstantBatch() {
+        final BitSet nulls = new BitSet();
+        final double[] values =
+            new ConstantCalc(new NumericType(), 2.5)
+                .evaluateDoubleBatch(null, tupleList, nulls);
+        assertEquals(3, values.length);
+        for (double value : values) {
+            assertEquals(2.5, value);
+        }
+        assertTrue(nulls.isEmpty());
+    }
+
+    public void testConstantNullBatch() {
+        final BitSet nulls = new BitSet();
+        final double[] values =
+            new ConstantCalc(new NullType(), null)
+                .evaluateDoubleBatch(null, tupleList, nulls);
+        assertEquals(FunUtil.DoubleNull, values[0]);
+        assertEquals(3, nulls.cardinality());
+    }
+
+    public void testNonNumericConstantHasNoBatch() {
+        assertNull(
+            new ConstantCalc(new StringType(), "x")
+                .evaluateDoubleBatch(null, tupleList, new BitSet()));
+    }
+
+    public void testBinaryBatchMatchesScalar() {
+        final DoubleCalc calc =
+            plus(
+                ConstantCalc.constantDouble(1.5),
+                ConstantCalc.constantDouble(2));
+        final BitSet nulls = new BitSet();
+        final double[] values =
+            BatchCalcUtil.evaluateDoubles(null, tupleList, calc, nulls);
+        for (double value : values) {
+            assertEquals(calc.evaluateDouble(null), value);
+        }
+        assertTrue(nulls.isEmpty());
+    }
+
+    public void testBinaryBatchNull() {
+        final DoubleCalc calc =
+            plus(
+                ConstantCalc.constantDouble(1.5),
+                ConstantCalc.constantNull(new NumericType()));
+        final BitSet nulls = new BitSet();
+        final double[] values =
+            BatchCalcUtil.evaluateDoubles(null, tupleList, calc, nulls);
+        assertEquals(FunUtil.DoubleNull, values[2]);
+        assertEquals(3, nulls.cardinality());
+    }
+
+    public void testComparisonBatch() {
+        final AbstractDoubleComparisonCalc greater =
+            new AbstractDoubleComparisonCalc(
+                new DummyExp(new NumericType()),
+                ConstantCalc.constantDouble(2),
+                ConstantCalc.constantDouble(1))
+            {
+                protected boolean compare(double v0, double v1) {
+                    return v0 > v1;
+                }
+            };
+        assertEquals(3, greater.evaluateBooleanBatch(null, tupleList)
+            .cardinality());
+
+        final AbstractDoubleComparisonCalc nullGreater =
+            new AbstractDoubleComparisonCalc(
+                new DummyExp(new NumericType()),
+                ConstantCalc.constantNull(new NumericType()),
+                ConstantCalc.constantDouble(1))
+            {
+                protected boolean compare(double v0, double v1) {
+                    return v0 > v1;
+                }
+            };
+        assertTrue(
+            nullGreater.evaluateBooleanBatch(null, tupleList).isEmpty());
+    }
+}
+
+// End BatchCalcTest.java
@@ -0,0 +1,88 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.olap.Connection;
+import mondrian.olap.Query;
+import mondrian.olap.Result;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Test for {@link CommonSubexpressionCompiler}.
+ */
+public class CommonSubexpressionCompilerTest extends FoodMartTestCase {
+    private static final String QUERY =
+        "with member [Measures].[Growth] as\n"
+        + " '[Measures].[Unit Sales]\n"
+        + "   - ([Measures].[Unit Sales], [Time].PrevMember)'\n"
+        + "member [Measures].[Growth Pct] as\n"
+        + " '[Measures].[Growth]\n"
+        + "   / ([Measures].[Unit Sales], [Time].PrevMember)',\n"
+        + " FORMAT_STRING = '0.00%'\n"
+        + "select {[Measures].[Unit Sales], [Measures].[Growth],\n"
+        + "  [Measures].[Growth Pct]} on columns,\n"
+        + " {[Time].[1997].Children} * {[Gender].Children} on rows\n"
+        + "from [Sales]";
+
+    public void testNoCommonSubexpressions() {
+        propSaver.set(
+            propSaver.properties.EliminateCommonSubexpressions, true);
+        final Query query =
+            getConnection().parseQuery(
+                "with member [Measures].[Double] as\n"
+                + " '[Measures].[Unit Sales] * 2'\n"
+                + "select {[Measures].[Double]} on columns\n"
+                + "from [Sales]");
+        assertNull(query.getCommonSubexpressions());
+    }
+
+    public void testFind() {
+        propSaver.set(
+            propSaver.properties.EliminateCommonSubexpressions, true);
+        final Query query = getConnection().parseQuery(QUERY);
+        final CommonSubexpressionCompiler.Subexpressions subexpressions =
+            query.getCommonSubexpressions();
+        assertNotNull(subexpressions);
+        // The tuple "([Measures].[Unit Sales], [Time].PrevMember)" occurs in
+        // both calculated members.
+        assertEquals(1, subexpressions.getSharedCount());
+    }
+
+    public void testDisabled() {
+        propSaver.set(
+            propSaver.properties.EliminateCommonSubexpressions, false);
+        final Query query = getConnection().parseQuery(QUERY);
+        assertNull(query.getCommonSubexpressions());
+    }
+
+    /**
+     * Tests that a query whose calculated members share a sub-expression
+     * returns the same result with and without the optimization, and that
+     * the shared sub-expression is evaluated fewer times.
+     */
+    public void testSameResult() {
+        propSaver.set(
+            propSaver.properties.EliminateCommonSubexpressions, false);
+        final String expected =
+            TestContext.toString(executeQuery(QUERY));
+
+        propSaver.set(
+            propSaver.properties.EliminateCommonSubexpressions, true);
+        final Connection connection = getConnection();
+        final Query query = connection.parseQuery(QUERY);
+        final Result result = connection.execute(query);
+        assertEquals(expected, TestContext.toString(result));
+        assertTrue(
+            query.getCommonSubexpressions().getEliminatedCount() > 0);
+    }
+}
+
+// End CommonSubexpressionCompilerTest.java
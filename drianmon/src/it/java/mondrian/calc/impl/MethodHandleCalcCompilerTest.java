@@ -0,0 +1,170 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.BooleanCalc;
+import mondrian.calc.Calc;
+import mondrian.calc.DoubleCalc;
+import mondrian.calc.DummyExp;
+import mondrian.olap.Evaluator;
+import mondrian.olap.fun.FunUtil;
+import mondrian.olap.type.BooleanType;
+import mondrian.olap.type.NumericType;
+
+import junit.framework.TestCase;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test for {@link MethodHandleCalcCompiler}.
+ */
+public class MethodHandleCalcCompilerTest extends TestCase {
+    private final Evaluator evaluator = mock(Evaluator.class);
+
+    private static DoubleCalc divide(DoubleCalc calc0, DoubleCalc calc1) {
+        return new AbstractBinaryDoubleCalc(
+            new DummyExp(new NumericType()), calc0, calc1)
+        {
+            protected double apply(double v0, double v1) {
+                if (v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull) {
+                    return FunUtil.DoubleNull;
+                }
+                return v0 / v1;
+            }
+        };
+    }
+
+    private static BooleanCalc greater(DoubleCalc calc0, DoubleCalc calc1) {
+        return new AbstractDoubleComparisonCalc(
+            new DummyExp(new BooleanType()), calc0, calc1)
+        {
+            protected boolean compare(double v0, double v1) {
+                return v0 > v1;
+            }
+        };
+    }
+
+    private static DoubleCalc leaf(double value) {
+        final DoubleCalc calc = mock(DoubleCalc.class);
+        when(calc.evaluateDouble(any(Evaluator.class))).thenReturn(value);
+        return calc;
+    }
+
+    /**
+     * Returns a leaf whose {@link Calc#evaluate} returns a Double, as does
+     * that of a fused calc.
+     */
+    private static DoubleCalc doubleLeaf(final double value) {
+        return new AbstractDoubleCalc(
+            new DummyExp(new NumericType()), new Calc[0])
+        {
+            public double evaluateDouble(Evaluator evaluator) {
+                return value;
+            }
+        };
+    }
+
+    public void testLeafNotFused() {
+        final DoubleCalc calc = leaf(1);
+        assertSame(calc, MethodHandleCalcCompiler.compile(calc));
+    }
+
+    public void testArithmetic() {
+        final DoubleCalc leaf = leaf(6);
+        final DoubleCalc calc =
+            divide(leaf, ConstantCalc.constantDouble(4));
+        final Calc fused = MethodHandleCalcCompiler.compile(calc);
+        assertNotSame(calc, fused);
+        assertEquals(1.5, ((DoubleCalc) fused).evaluateDouble(evaluator));
+        verify(leaf).evaluateDouble(evaluator);
+    }
+
+    public void testIif() {
+        final DoubleCalc ratio = divide(leaf(6), leaf(3));
+        for (double threshold : new double[] {1, 10}) {
+            final Calc calc =
+                new IifCalc(
+                    new DummyExp(new NumericType()),
+                    greater(ratio, ConstantCalc.constantDouble(threshold)),
+                    ratio,
+                    ConstantCalc.constantNull(new NumericType()));
+            final Calc fused = MethodHandleCalcCompiler.compile(calc);
+            assertNotSame(calc, fused);
+            assertEquals(
+                ((DoubleCalc) calc).evaluateDouble(evaluator),
+                ((DoubleCalc) fused).evaluateDouble(evaluator));
+        }
+    }
+
+    public void testComparisonNull() {
+        final BooleanCalc calc =
+            greater(
+                ConstantCalc.constantNull(new NumericType()),
+                leaf(-1));
+        final Calc fused = MethodHandleCalcCompiler.compile(calc);
+        assertNotSame(calc, fused);
+        assertFalse(((BooleanCalc) fused).evaluateBoolean(evaluator));
+    }
+
+    public void testCoalesceEmpty() {
+        final Calc calc =
+            new CoalesceEmptyCalc(
+                new DummyExp(new NumericType()),
+                new Calc[] {
+                    ConstantCalc.constantNull(new NumericType()),
+                    doubleLeaf(FunUtil.DoubleNull),
+                    doubleLeaf(7),
+                    doubleLeaf(8)
+                });
+        final Calc fused = MethodHandleCalcCompiler.compile(calc);
+        assertNotSame(calc, fused);
+        assertEquals(7.0, ((DoubleCalc) fused).evaluateDouble(evaluator));
+        assertEquals(7.0, fused.evaluate(evaluator));
+    }
+
+    /**
+     * Tests that an IIf whose branch returns a value other than a Double is
+     * not fused, so that it still returns that value; but that the same IIf
+     * inside an arithmetic operator is.
+     */
+    public void testIifNotDouble() {
+        final Calc calc =
+            new IifCalc(
+                new DummyExp(new NumericType()),
+                greater(doubleLeaf(2), ConstantCalc.constantDouble(1)),
+                ConstantCalc.constantInteger(5),
+                ConstantCalc.constantNull(new NumericType()));
+        assertSame(calc, MethodHandleCalcCompiler.compile(calc));
+        assertEquals(5, calc.evaluate(evaluator));
+
+        final DoubleCalc outer =
+            divide((DoubleCalc) calc, ConstantCalc.constantDouble(2));
+        final Calc fused = MethodHandleCalcCompiler.compile(outer);
+        assertNotSame(outer, fused);
+        assertEquals(2.5, fused.evaluate(evaluator));
+    }
+
+    public void testExceptionPropagated() {
+        final DoubleCalc leaf = mock(DoubleCalc.class);
+        final RuntimeException e = new IllegalStateException("bad");
+        when(leaf.evaluateDouble(any(Evaluator.class))).thenThrow(e);
+        final Calc fused =
+            MethodHandleCalcCompiler.compile(
+                divide(leaf, ConstantCalc.constantDouble(1)));
+        try {
+            ((DoubleCalc) fused).evaluateDouble(evaluator);
+            fail("expected exception");
+        } catch (IllegalStateException e2) {
+            assertSame(e, e2);
+        }
+    }
+}
+
+// End MethodHandleCalcCompilerTest.java
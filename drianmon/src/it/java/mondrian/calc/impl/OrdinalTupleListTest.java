@@ -0,0 +1,159 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleList;
+import mondrian.olap.Member;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+
+public class OrdinalTupleListTest extends TestCase {
+    private final Member a1 = mock(Member.class);
+    private final Member a2 = mock(Member.class);
+    private final Member b1 = mock(Member.class);
+    private final Member b2 = mock(Member.class);
+
+    public void testAddGetRemove() {
+        final OrdinalTupleList list = new OrdinalTupleList(2, 1);
+        list.addTuple(a1, b1);
+        list.add(Arrays.asList(a2, b2));
+        list.addTuple(a1, b2);
+        assertEquals(3, list.size());
+        assertEquals(Arrays.asList(a2, b2), list.get(1));
+        assertSame(b2, list.get(1, 2));
+        assertEquals(Arrays.asList(a1, a2, a1), list.slice(0));
+
+        final Member[] members = new Member[3];
+        final TupleCursor cursor = list.tupleCursor();
+        assertTrue(cursor.forward());
+        cursor.currentToArray(members, 1);
+        assertEquals(Arrays.asList(null, a1, b1), Arrays.asList(members));
+
+        list.remove(0);
+        assertEquals(
+            Arrays.asList(Arrays.asList(a2, b2), Arrays.asList(a1, b2)),
+            list);
+        final TupleList copy = list.cloneList(-1);
+        list.clear();
+        assertTrue(list.isEmpty());
+        assertEquals(2, copy.size());
+        assertEquals(Arrays.asList(a1, b2), copy.get(1));
+    }
+
+    public void testTupleIndex() {
+        final OrdinalTupleList list = new OrdinalTupleList(2);
+        final OrdinalTupleList.TupleIndex index =
+            new OrdinalTupleList.TupleIndex(list);
+        // Enough tuples to rehash several times.
+        for (int i = 0; i < 100; i++) {
+            list.addTuple(i % 2 == 0 ? a1 : a2, i % 3 == 0 ? b1 : b2);
+            if (!index.add(list.size() - 1)) {
+                list.removeLast();
+            }
+        }
+        assertEquals(
+            Arrays.asList(
+                Arrays.asList(a1, b1),
+                Arrays.asList(a2, b2),
+                Arrays.asList(a1, b2),
+                Arrays.asList(a2, b1)),
+            list);
+
+        final TupleList other = new ArrayTupleList(2);
+        other.addTuple(a2, b1);
+        other.addTuple(b1, a2);
+        final TupleCursor cursor = other.tupleCursor();
+        assertTrue(cursor.forward());
+        assertEquals(3, index.indexOf(cursor));
+        assertTrue(cursor.forward());
+        assertEquals(-1, index.indexOf(cursor));
+    }
+
+    public void testOrdinals() {
+        final TupleList list1 = new UnaryTupleList(Arrays.asList(a1, a2));
+        final TupleList list2 = new UnaryTupleList(Arrays.asList(b1, b2));
+        final OrdinalTupleList product = new OrdinalTupleList(2);
+        final int[] ordinals1 = product.toOrdinals(list1, 0);
+        final int[] ordinals2 = product.toOrdinals(list2, 1);
+        final int[] tuple = new int[2];
+        for (int ordinal1 : ordinals1) {
+            for (int ordinal2 : ordinals2) {
+                tuple[0] = ordinal1;
+                tuple[1] = ordinal2;
+                product.addOrdinals(tuple, 0);
+            }
+        }
+        assertEquals(
+            Arrays.asList(
+                Arrays.asList(a1, b1),
+                Arrays.asList(a1, b2),
+                Arrays.asList(a2, b1),
+                Arrays.asList(a2, b2)),
+            product);
+    }
+
+    /**
+     * Tests that {@link OrdinalTupleList.TupleIndex#addDistinct} returns the
+     * same tuples, in the same order, as eliminating duplicates using a
+     * {@link HashSet} of member lists.
+     *
+     * <p>The time taken for a large list is measured by
+     * {@link mondrian.test.PerformanceTest#testTupleIndexAddDistinct}.
+     */
+    public void testAddDistinctRandom() {
+        // Mostly distinct tuples, and mostly duplicates.
+        checkAddDistinct(10000, 1000000);
+        checkAddDistinct(10000, 100);
+    }
+
+    private void checkAddDistinct(int tupleCount, int space) {
+        final int memberCount = 100;
+        final Member[][] members = new Member[3][memberCount];
+        for (Member[] column : members) {
+            for (int i = 0; i < memberCount; i++) {
+                column[i] = mock(Member.class);
+            }
+        }
+        assert space <= memberCount * memberCount * memberCount;
+        final TupleList list = new ArrayTupleList(3, tupleCount);
+        final Random random = new Random(1234);
+        for (int i = 0; i < tupleCount; i++) {
+            final int k = random.nextInt(space);
+            list.addTuple(
+                members[0][k % memberCount],
+                members[1][k / memberCount % memberCount],
+                members[2][k / memberCount / memberCount]);
+        }
+
+        final OrdinalTupleList result = new OrdinalTupleList(3, list.size());
+        new OrdinalTupleList.TupleIndex(result).addDistinct(list);
+        final Set<List<Member>> set = new HashSet<List<Member>>();
+        final List<List<Member>> expected = new ArrayList<List<Member>>();
+        for (List<Member> tuple : list) {
+            if (set.add(tuple)) {
+                expected.add(tuple);
+            }
+        }
+        assertEquals(expected.size(), result.size());
+        assertTrue(result.equals(expected));
+    }
+}
+
+// End OrdinalTupleListTest.java
@@ -0,0 +1,175 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.olap.Exp;
+import mondrian.olap.Query;
+import mondrian.olap.Util;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Test for {@link SimplifyingExpCompiler}.
+ */
+public class SimplifyingExpCompilerTest extends FoodMartTestCase {
+    /**
+     * Returns the expression of a calculated measure, simplified if
+     * {@code simplify} is true.
+     */
+    private String unparse(String expression, boolean simplify) {
+        final Query query =
+            getConnection().parseQuery(
+                "with member [Measures].[Foo] as '" + expression + "'\n"
+                + "select {[Measures].[Foo]} on columns\n"
+                + "from [Sales]");
+        Exp exp = query.getFormulas()[0].getExpression();
+        if (simplify) {
+            exp = new SimplifyingExpCompiler(query.createCompiler())
+                .simplify(exp);
+        }
+        return Util.unparse(exp);
+    }
+
+    private void assertSimplifiesTo(String expression, String expected) {
+        assertEquals(unparse(expected, false), unparse(expression, true));
+    }
+
+    public void testFoldConstants() {
+        assertEquals("7.0", unparse("2 * 3 + 1", true));
+        assertEquals("\"ab\"", unparse("\"a\" || \"b\"", true));
+        assertSimplifiesTo(
+            "[Measures].[Unit Sales] * (10 / 2)",
+            "[Measures].[Unit Sales] * 5.0");
+    }
+
+    public void testUnchanged() {
+        assertSimplifiesTo(
+            "[Measures].[Unit Sales] + [Measures].[Store Sales]",
+            "[Measures].[Unit Sales] + [Measures].[Store Sales]");
+        assertSimplifiesTo(
+            "IIf([Measures].[Unit Sales] > 100, 1, 2)",
+            "IIf([Measures].[Unit Sales] > 100, 1, 2)");
+    }
+
+    public void testIif() {
+        assertSimplifiesTo(
+            "IIf(1 = 1, [Measures].[Unit Sales], 0)",
+            "[Measures].[Unit Sales]");
+        assertSimplifiesTo(
+            "IIf(1 > 2 OR 2 > 3, [Measures].[Unit Sales],"
+            + " [Measures].[Store Sales])",
+            "[Measures].[Store Sales]");
+    }
+
+    public void testCoalesceEmpty() {
+        assertSimplifiesTo(
+            "CoalesceEmpty(NULL, [Measures].[Unit Sales], 0,"
+            + " [Measures].[Store Sales])",
+            "CoalesceEmpty([Measures].[Unit Sales], 0)");
+        assertSimplifiesTo(
+            "CoalesceEmpty(NULL, [Measures].[Unit Sales])",
+            "[Measures].[Unit Sales]");
+    }
+
+    public void testCase() {
+        // The condition "2 > 1" is folded in both.
+        assertEquals(
+            unparse(
+                "Case\n"
+                + " When [Measures].[Unit Sales] > 100 Then 2\n"
+                + " When 2 > 1 Then 3\n"
+                + "End",
+                true),
+            unparse(
+                "Case\n"
+                + " When 1 = 0 Then 1\n"
+                + " When [Measures].[Unit Sales] > 100 Then 2\n"
+                + " When 2 > 1 Then 3\n"
+                + " Else 4\n"
+                + "End",
+                true));
+        assertSimplifiesTo(
+            "Case When 1 = 0 Then 1 When 1 = 1 Then [Measures].[Unit Sales]"
+            + " End",
+            "[Measures].[Unit Sales]");
+        assertSimplifiesTo(
+            "Case 2 When 1 Then [Measures].[Store Sales]"
+            + " When 2 Then [Measures].[Unit Sales] End",
+            "[Measures].[Unit Sales]");
+    }
+
+    /**
+     * Tests that a query returns the same result with and without
+     * simplification.
+     */
+    public void testSameResult() {
+        final String query =
+            "with member [Measures].[Iif] as\n"
+            + " 'IIf(1 = 1, [Measures].[Unit Sales], 0) * (2 + 3)'\n"
+            + "member [Measures].[Iif String] as\n"
+            + " 'IIf(1 = 1, [Measures].[Unit Sales], \"none\")'\n"
+            + "member [Measures].[Iif Boolean] as\n"
+            + " 'IIf(1 = 1, [Measures].[Unit Sales] > 20000, False)'\n"
+            + "member [Measures].[Coalesce] as\n"
+            + " 'CoalesceEmpty(NULL, [Measures].[Unit Sales], 0)'\n"
+            + "member [Measures].[Case] as\n"
+            + " 'Case When 1 = 0 Then \"zero\"\n"
+            + "  When [Measures].[Unit Sales] > 20000 Then \"big\"\n"
+            + "  When 2 > 1 Then \"small\" Else \"none\" End'\n"
+            + "member [Measures].[Month Count] as\n"
+            + " 'Count(Descendants([Time].[1997], [Time].[Month]))'\n"
+            + "member [Measures].[Month Avg] as\n"
+            + " 'Avg(Descendants([Time].[1997], [Time].[Month]),"
+            + " [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[Iif], [Measures].[Iif String],\n"
+            + "  [Measures].[Iif Boolean], [Measures].[Coalesce],\n"
+            + "  [Measures].[Case], [Measures].[Month Count],\n"
+            + "  [Measures].[Month Avg]} on columns,\n"
+            + " {[Product].Children} on rows\n"
+            + "from [Sales]";
+        propSaver.set(propSaver.properties.SimplifyExpressions, false);
+        final String expected = TestContext.toString(executeQuery(query));
+        propSaver.set(propSaver.properties.SimplifyExpressions, true);
+        assertEquals(expected, TestContext.toString(executeQuery(query)));
+    }
+
+    /**
+     * Tests that a set that reads the position of an iteration over a named
+     * set is not evaluated once and cached, although it does not depend on
+     * the current member of any hierarchy.
+     */
+    public void testNamedSetIterationNotHoisted() {
+        final String query =
+            "with set [Months] as\n"
+            + " 'Descendants([Time].[1997], [Time].[Month])'\n"
+            + "member [Measures].[Quarter Count] as\n"
+            + " 'Count(Generate([Months], {[Months].Current.Parent}))'\n"
+            + "member [Measures].[Early Months] as\n"
+            + " 'Count(Generate([Months],"
+            + " Filter({[Months].Current}, [Months].CurrentOrdinal < 2)))'\n"
+            + "select {[Measures].[Quarter Count],"
+            + " [Measures].[Early Months]} on columns\n"
+            + "from [Sales]";
+        final String expected =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Quarter Count]}\n"
+            + "{[Measures].[Early Months]}\n"
+            + "Row #0: 4\n"
+            + "Row #0: 2\n";
+        propSaver.set(propSaver.properties.SimplifyExpressions, false);
+        assertQueryReturns(query, expected);
+        propSaver.set(propSaver.properties.SimplifyExpressions, true);
+        assertQueryReturns(query, expected);
+    }
+}
+
+// End SimplifyingExpCompilerTest.java
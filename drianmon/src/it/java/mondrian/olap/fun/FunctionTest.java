@@ -13,6 +13,7 @@ package mondrian.olap.fun;
 import junit.framework.Assert;
 import junit.framework.ComparisonFailure;
 import mondrian.olap.Axis;
+import mondrian.olap.CacheControl;
 import mondrian.olap.Cell;
 import mondrian.olap.Connection;
 import mondrian.olap.Member;
@@ -30,6 +31,7 @@ import mondrian.udf.CurrentDateMemberExactUdf;
 import mondrian.udf.CurrentDateMemberUdf;
 import mondrian.udf.CurrentDateStringUdf;
 import mondrian.util.Bug;
+import mondrian.util.Counters;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -3101,6 +3103,63 @@ public class FunctionTest extends FoodMartTestCase {
   }
 
 
+  /**
+   * Aggregate over many members. The second execution finds the cells in
+   * the cache, and rolls them up without evaluating each member.
+   */
+  public void testAggregateOverCachedCells() {
+    final String query =
+      "WITH MEMBER [Customers].[All Names] AS 'Aggregate([Customers].[Name].Members)'\n"
+        + "  MEMBER [Customers].[All Cities] AS 'Aggregate([Customers].[City].Members)'\n"
+        + "SELECT {[Measures].[Unit Sales], [Measures].[Store Sales]} ON COLUMNS,\n"
+        + "  {[Customers].[All Customers], [Customers].[All Names], [Customers].[All Cities]} ON ROWS\n"
+        + "FROM Sales";
+    final String expected =
+      "Axis #0:\n"
+        + "{}\n"
+        + "Axis #1:\n"
+        + "{[Measures].[Unit Sales]}\n"
+        + "{[Measures].[Store Sales]}\n"
+        + "Axis #2:\n"
+        + "{[Customers].[All Customers]}\n"
+        + "{[Customers].[All Names]}\n"
+        + "{[Customers].[All Cities]}\n"
+        + "Row #0: 266,773\n"
+        + "Row #0: 565,238.13\n"
+        + "Row #1: 266,773\n"
+        + "Row #1: 565,238.13\n"
+        + "Row #2: 266,773\n"
+        + "Row #2: 565,238.13\n";
+    assertQueryReturns( query, expected );
+    final long count = Counters.CACHED_ROLLUP_COUNT.get();
+    assertQueryReturns( query, expected );
+    // Two aggregates, of two measures
+    assertTrue( Counters.CACHED_ROLLUP_COUNT.get() - count >= 4 );
+  }
+
+  /**
+   * Sum and Aggregate over ranges of periods return the same result whether
+   * or not they are computed as one cell.
+   */
+  public void testSumOverPeriodRangeAsOneCell() {
+    final String query =
+      "WITH MEMBER [Measures].[YTD Sales] AS 'Sum(Ytd(), [Measures].[Unit Sales])'\n"
+        + "  MEMBER [Measures].[Last 3] AS 'Sum(LastPeriods(3), [Measures].[Store Sales])'\n"
+        + "  MEMBER [Measures].[QTD Count] AS 'Aggregate(PeriodsToDate([Time].[Quarter]), [Measures].[Sales Count])'\n"
+        + "  MEMBER [Measures].[Range] AS 'Sum([Time].[1997].[Q1].[2]:[Time].[1997].[Q3].[7], [Measures].[Unit Sales])'\n"
+        + "  MEMBER [Measures].[Calc] AS 'Sum(Ytd(), [Measures].[Profit])'\n"
+        + "SELECT {[Measures].[YTD Sales], [Measures].[Last 3], [Measures].[QTD Count],\n"
+        + "  [Measures].[Range], [Measures].[Calc]} ON COLUMNS,\n"
+        + "  CrossJoin({[Gender].[F], [Gender].[M]}, [Time].[1997].[Q2].Children) ON ROWS\n"
+        + "FROM Sales";
+    propSaver.set( propSaver.properties.EnableNativeTimeRange, false );
+    final String expected = TestContext.toString( executeQuery( query ) );
+    propSaver.set( propSaver.properties.EnableNativeTimeRange, true );
+    assertQueryReturns( query, expected );
+    // Again, with the cells in the cache.
+    assertQueryReturns( query, expected );
+  }
+
   public void testAggregateToSimulateCompoundSlicer() {
     assertQueryReturns(
       "WITH MEMBER [Time].[Time].[1997 H1] as 'Aggregate({[Time].[1997].[Q1], [Time].[1997].[Q2]})'\n"
@@ -6800,6 +6859,46 @@ public class FunctionTest extends FoodMartTestCase {
     }
   }
 
+  /**
+   * Tests that NonEmptyCrossJoin, and Head, TopCount and BottomCount over it,
+   * return the same tuples when the product is generated in batches smaller
+   * than the product as when it is generated in one batch.
+   */
+  public void testNonEmptyCrossJoinBatched() {
+    // Native evaluation would compute the crossjoin in SQL, without batches.
+    propSaver.set( propSaver.properties.EnableNativeCrossJoin, false );
+    final String crossJoin =
+      "NonEmptyCrossJoin([Store].[Store City].Members,"
+        + " [Product].[Product Department].Members)";
+    final String[] sets = {
+      crossJoin,
+      "Head(" + crossJoin + ", 10)",
+      "Head(" + crossJoin + ", 1000)",
+      "TopCount(" + crossJoin + ", 5, [Measures].[Unit Sales])",
+      "TopCount(" + crossJoin + ", 5)",
+      "BottomCount(" + crossJoin + ", 5, [Measures].[Unit Sales])",
+      "TopCount(Filter(" + crossJoin + ", [Measures].[Unit Sales] > 1000),"
+        + " 5, [Measures].[Store Sales])",
+    };
+    final String[] expected = new String[ sets.length ];
+    for ( int i = 0; i < sets.length; i++ ) {
+      expected[ i ] =
+        TestContext.toString( executeQuery( unitSalesQuery( sets[ i ] ) ) );
+    }
+    // 24 cities and 22 departments; a batch is much smaller than that.
+    propSaver.set( propSaver.properties.CrossJoinBatchSize, 7 );
+    for ( int i = 0; i < sets.length; i++ ) {
+      assertQueryReturns( unitSalesQuery( sets[ i ] ), expected[ i ] );
+    }
+  }
+
+  private static String unitSalesQuery( String set ) {
+    return "select {[Measures].[Unit Sales]} on 0,\n"
+      + set + " on 1\n"
+      + "from [Sales]\n"
+      + "where [Time].[1997].[Q2]";
+  }
+
 
   public void testNot() {
     assertBooleanExprReturns( " NOT 1=1 ", false );
@@ -7036,6 +7135,83 @@ public class FunctionTest extends FoodMartTestCase {
     Assert.assertEquals( "WA", rows.get( 2 ).get( 1 ).getName() );
   }
 
+  /**
+   * Tests that Filter and Generate return the same result, in the same order, when they evaluate large sets in
+   * parallel.
+   */
+  public void testFilterAndGenerateParallel() {
+    final String query =
+      "WITH MEMBER [Measures].[Price] AS '[Measures].[Store Sales] / [Measures].[Unit Sales]'\n"
+        + "  SET [Cities] AS 'Filter([Customers].[City].Members,"
+        + " Not IsEmpty([Measures].[Unit Sales]) And [Measures].[Price] > 2.1)'\n"
+        + "  MEMBER [Measures].[Stores] AS 'Generate([Store].[Store State].Members,"
+        + " IIf([Measures].[Unit Sales] > 1000, [Store].CurrentMember.Name, \"-\"), \", \")'\n"
+        + "SELECT {[Measures].[Unit Sales], [Measures].[Price], [Measures].[Stores]} ON COLUMNS,\n"
+        + "  Generate(TopCount([Cities], 20, [Measures].[Unit Sales]),\n"
+        + "    Filter(CrossJoin({[Customers].CurrentMember}, [Gender].Children),\n"
+        + "      [Gender].CurrentMember.Name = \"F\" Or [Measures].[Unit Sales] > 100)) ON ROWS\n"
+        + "FROM Sales\n"
+        + "WHERE [Time].[1997].[Q1]";
+    // The conditions are not comparisons of numbers, which Filter would
+    // evaluate as a batch rather than in parallel.
+    propSaver.set( propSaver.properties.SetEvaluationParallelism, 1 );
+    final String expected = TestContext.toString( executeQuery( query ) );
+    propSaver.set( propSaver.properties.SetEvaluationParallelism, 4 );
+    propSaver.set( propSaver.properties.SetEvaluationParallelThreshold, 2 );
+    // Flush the cells, so that the parallel workers load them.
+    final Connection connection = getConnection();
+    final CacheControl cacheControl = connection.getCacheControl( null );
+    cacheControl.flush(
+      cacheControl.createMeasuresRegion(
+        connection.getSchema().lookupCube( "Sales", true ) ) );
+    final long count = Counters.PARALLEL_SET_EVALUATION_COUNT.get();
+    assertQueryReturns( query, expected );
+    assertTrue( Counters.PARALLEL_SET_EVALUATION_COUNT.get() > count );
+    // Again, with the cells in the cache.
+    assertQueryReturns( query, expected );
+  }
+
+  /**
+   * Tests that Filter and Generate iterate over a named set serially, even if
+   * the set is large enough to be evaluated in parallel, because
+   * <code>&lt;Named Set&gt;.Current</code> and <code>&lt;Named Set&gt;.CurrentOrdinal</code> read the position of the
+   * iteration.
+   */
+  public void testNamedSetIterationParallel() {
+    if ( Util.Retrowoven ) {
+      return;
+    }
+    final String generateQuery =
+      "with set [Time Regular] as [Time].[Time].Members\n"
+        + " member [Measures].[Ordinal] as [Time Regular].CurrentOrdinal\n"
+        + " set [Generated] as Generate([Time Regular], {[Time Regular].Current})\n"
+        + " set [Filtered] as Filter([Time Regular], [Measures].[Ordinal] < 4)\n"
+        + "select {[Measures].[Unit Sales]} on 0,\n"
+        + " {[Generated], [Filtered]} on 1\n"
+        + "from [Sales]";
+    propSaver.set( propSaver.properties.SetEvaluationParallelism, 1 );
+    final String expected = TestContext.toString( executeQuery( generateQuery ) );
+    propSaver.set( propSaver.properties.SetEvaluationParallelism, 4 );
+    propSaver.set( propSaver.properties.SetEvaluationParallelThreshold, 2 );
+    final long count = Counters.PARALLEL_SET_EVALUATION_COUNT.get();
+    assertQueryReturns(
+      "with set [Time Regular] as [Time].[Time].Members\n"
+        + " set [Time Subset] as "
+        + "   Filter([Time Regular], [Time Regular].CurrentOrdinal = 3"
+        + "                       or [Time Regular].CurrentOrdinal = 5)\n"
+        + "select [Time Subset] on 0\n"
+        + "from [Sales]",
+      "Axis #0:\n"
+        + "{}\n"
+        + "Axis #1:\n"
+        + "{[Time].[1997].[Q1].[2]}\n"
+        + "{[Time].[1997].[Q2]}\n"
+        + "Row #0: 20,957\n"
+        + "Row #0: 62,610\n" );
+    assertQueryReturns( generateQuery, expected );
+    assertEquals( count, Counters.PARALLEL_SET_EVALUATION_COUNT.get() );
+  }
+
   public void testGenerateDepends() {
     getTestContext().assertSetExprDependsOn(
       "Generate([Product].CurrentMember.Children, Crossjoin({[Product].CurrentMember}, Crossjoin([Store].[Store "
@@ -9186,6 +9362,25 @@ public class FunctionTest extends FoodMartTestCase {
       "CA" );
   }
 
+  /**
+   * Tests that a member qualified by its level, rather than by its
+   * ancestors, is found whether or not the level's members are cached.
+   */
+  public void testStrToMemberLevelQualifiedName() {
+    propSaver.set( propSaver.properties.CaseSensitive, false );
+    getTestContext().flushSchemaCache();
+    assertExprReturns(
+      "StrToMember(\"[Store].[Store City].[Seattle]\").UniqueName",
+      "[Store].[USA].[WA].[Seattle]" );
+    executeQuery( "select [Store].[Store City].Members on 0 from [Sales]" );
+    assertExprReturns(
+      "StrToMember(\"[Store].[Store City].[Seattle]\").UniqueName",
+      "[Store].[USA].[WA].[Seattle]" );
+    assertExprReturns(
+      "StrToMember(\"[Store].[Store City].[seattle]\").UniqueName",
+      "[Store].[USA].[WA].[Seattle]" );
+  }
+
   public void testStrToMemberNull() {
     // SSAS 2005 gives "#Error An MDX expression was expected. An empty
     // expression was specified."
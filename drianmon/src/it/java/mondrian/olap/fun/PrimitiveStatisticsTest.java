@@ -0,0 +1,147 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Test for {@link PrimitiveStatistics}.
+ */
+public class PrimitiveStatisticsTest extends TestCase {
+
+  private static final double EPSILON = 1e-9;
+
+  public void testSelect() {
+    final Random random = new Random( 1234 );
+    for ( int round = 0; round < 200; round++ ) {
+      final int n = 1 + random.nextInt( 100 );
+      final double[] values = new double[ n ];
+      for ( int i = 0; i < n; i++ ) {
+        // Few distinct values, so that there are many duplicates.
+        values[ i ] = random.nextInt( 10 );
+        if ( random.nextInt( 20 ) == 0 ) {
+          values[ i ] = random.nextBoolean() ? Double.NaN : -0.0;
+        }
+      }
+      final double[] sorted = values.clone();
+      Arrays.sort( sorted );
+      for ( int k = 0; k < n; k++ ) {
+        final double[] copy = values.clone();
+        assertEquals(
+          Double.valueOf( sorted[ k ] ),
+          Double.valueOf( PrimitiveStatistics.select( copy, n, k ) ) );
+        if ( k + 1 < n ) {
+          assertEquals(
+            Double.valueOf( sorted[ k + 1 ] ),
+            Double.valueOf( PrimitiveStatistics.selectNext( copy, n, k ) ) );
+        }
+      }
+    }
+  }
+
+  public void testSelectSorted() {
+    // Sorted and reverse-sorted input, the worst case for a naive pivot.
+    final int n = 10000;
+    final double[] ascending = new double[ n ];
+    final double[] descending = new double[ n ];
+    for ( int i = 0; i < n; i++ ) {
+      ascending[ i ] = i;
+      descending[ i ] = n - i;
+    }
+    assertEquals( 5000d, PrimitiveStatistics.select( ascending, n, 5000 ) );
+    assertEquals( 5001d, PrimitiveStatistics.select( descending, n, 5000 ) );
+  }
+
+  public void testPercentile() {
+    final double[] values = { 5, 1, 4, 2, 3, 6 };
+    // Median of an even number of values is the mean of the middle two.
+    assertEquals( 3.5, FunUtil.percentile( values.clone(), 6, 0.5 ) );
+    assertEquals( 1d, FunUtil.percentile( values.clone(), 6, 0 ) );
+    assertEquals( 6d, FunUtil.percentile( values.clone(), 6, 1 ) );
+    // Rank is 5 * 0.3 + 1 = 2.5, halfway between 2 and 3.
+    assertEquals( 2.5, FunUtil.percentile( values.clone(), 6, 0.3 ) );
+    assertEquals( 3d, FunUtil.percentile( values.clone(), 5, 0.5 ) );
+  }
+
+  public void testVariance() {
+    final Random random = new Random( 5678 );
+    final int n = 1000;
+    final double[] xs = new double[ n ];
+    final double[] ys = new double[ n ];
+    for ( int i = 0; i < n; i++ ) {
+      xs[ i ] = 1e6 + random.nextGaussian() * 10;
+      ys[ i ] = 2 * xs[ i ] + random.nextGaussian();
+    }
+    double meanX = 0;
+    double meanY = 0;
+    for ( int i = 0; i < n; i++ ) {
+      meanX += xs[ i ];
+      meanY += ys[ i ];
+    }
+    meanX /= n;
+    meanY /= n;
+    double varX = 0;
+    double varY = 0;
+    double covar = 0;
+    for ( int i = 0; i < n; i++ ) {
+      varX += ( xs[ i ] - meanX ) * ( xs[ i ] - meanX );
+      varY += ( ys[ i ] - meanY ) * ( ys[ i ] - meanY );
+      covar += ( xs[ i ] - meanX ) * ( ys[ i ] - meanY );
+    }
+    assertEquals(
+      varX / n, PrimitiveStatistics.variance( xs, n, true ),
+      EPSILON * varX );
+    assertEquals(
+      varX / ( n - 1 ), PrimitiveStatistics.variance( xs, n, false ),
+      EPSILON * varX );
+    assertEquals(
+      covar / ( n - 1 ), PrimitiveStatistics.covariance( xs, ys, n, false ),
+      EPSILON * Math.abs( covar ) );
+    assertEquals(
+      covar / Math.sqrt( varX * varY ),
+      PrimitiveStatistics.correlation( xs, ys, n ),
+      EPSILON );
+    // As before, the unbiased variance of one value is not a number.
+    assertTrue(
+      Double.isNaN( PrimitiveStatistics.variance( xs, 1, false ) ) );
+  }
+
+  public void testSum() {
+    final Random random = new Random( 9012 );
+    final int n = PrimitiveStatistics.PARALLEL_SUM_THRESHOLD * 3 + 17;
+    final double[] values = new double[ n ];
+    final BitSet nulls = new BitSet();
+    double expected = 0;
+    for ( int i = 0; i < n; i++ ) {
+      values[ i ] = random.nextInt( 1000 );
+      if ( random.nextInt( 10 ) == 0 ) {
+        nulls.set( i );
+      } else {
+        expected += values[ i ];
+      }
+    }
+    // Integer values, so the sum is exact in any order.
+    final double sum = PrimitiveStatistics.sum( values, nulls );
+    assertEquals( expected, sum );
+    assertEquals( sum, PrimitiveStatistics.sum( values, nulls ) );
+
+    final BitSet allNulls = new BitSet();
+    allNulls.set( 0, 3 );
+    assertEquals(
+      FunUtil.DoubleNull,
+      PrimitiveStatistics.sum( new double[ 3 ], allNulls ) );
+  }
+}
+
+// End PrimitiveStatisticsTest.java
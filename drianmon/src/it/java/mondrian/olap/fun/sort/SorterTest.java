@@ -23,6 +23,8 @@ import mondrian.olap.Evaluator;
 import mondrian.olap.Hierarchy;
 import mondrian.olap.Member;
 import mondrian.olap.Query;
+import mondrian.olap.QueryTiming;
+import mondrian.olap.Util;
 import mondrian.olap.fun.MemberOrderKeyFunDef;
 import mondrian.server.Execution;
 import mondrian.server.Statement;
@@ -32,11 +34,18 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static java.util.Arrays.asList;
 import static java.util.stream.IntStream.range;
+import static mondrian.olap.fun.FunUtil.DoubleNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -136,6 +145,93 @@ public class SorterTest extends TestCase {
   }
 
 
+  public void testPartiallySortTuplesIterable() {
+    final List<Member> members = new ArrayList<>();
+    final TupleList tupleList = TupleCollections.createList( 1 );
+    range( 0, 6 ).forEach( i -> {
+      Member member = mock( Member.class );
+      members.add( member );
+      tupleList.addTuple( member );
+    } );
+    // Each tuple's value is evaluated once, in order; ties keep input order.
+    when( calc1.evaluate( evaluator ) ).thenReturn( 3, 5, null, 5, 1, 7 );
+    TupleList result = Sorter.partiallySortTuples( evaluator, (TupleIterable) tupleList, calc1, 3, true );
+    assertEquals( asList( members.get( 5 ), members.get( 1 ), members.get( 3 ) ), result.slice( 0 ) );
+    verify( calc1, times( 6 ) ).evaluate( evaluator );
+    verify( execution, atLeastOnce() ).checkCancelOrTimeout();
+
+    when( calc1.evaluate( evaluator ) ).thenReturn( 3, 5, null, 5, 1, 7 );
+    result = Sorter.partiallySortTuples( evaluator, (TupleIterable) tupleList, calc1, 2, false );
+    assertEquals( asList( members.get( 2 ), members.get( 4 ) ), result.slice( 0 ) );
+  }
+
+  public void testSortTuplesOnPrimitiveKeys() {
+    final List<Member> members = genMembers( 6 );
+    final TupleList tupleList = TupleCollections.createList( 1 );
+    members.forEach( tupleList::addTuple );
+    setupSortKeyMocks( false, Sorter.Flag.BASC, Sorter.Flag.BDESC );
+    when( calc2.dependsOn( hierarchy1 ) ).thenReturn( true );
+    // Each key is evaluated once per tuple, in order. Strings rank without regard to case; nulls sort first.
+    when( calc1.evaluate( evaluator ) ).thenReturn( "b", "A", "a", "B", null, "c" );
+    when( calc2.evaluate( evaluator ) ).thenReturn( 1, 2, 3, 4, 5, 6 );
+    TupleList result =
+      Sorter.sortTuples( evaluator, tupleIterable, tupleList, asList( sortKeySpec1, sortKeySpec2 ), 1 );
+    assertEquals(
+      asList( members.get( 4 ), members.get( 2 ), members.get( 1 ), members.get( 3 ), members.get( 0 ),
+        members.get( 5 ) ),
+      result.slice( 0 ) );
+    verify( calc1, times( 6 ) ).evaluate( evaluator );
+    verify( calc2, times( 6 ) ).evaluate( evaluator );
+  }
+
+  public void testSortMembersOnPrimitiveKeysSameAsCompareValues() {
+    final List<Member> members = genMembers( 8 );
+    final Object[] values = {
+      Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, DoubleNull, 5, 0d, -0d, null };
+    setupSortKeyMocks( false, Sorter.Flag.BASC, Sorter.Flag.BDESC );
+    when( calc1.evaluate( evaluator ) ).thenReturn( values[ 0 ], Arrays.copyOfRange( values, 1, values.length ) );
+    final List<Integer> expected = new ArrayList<>();
+    range( 0, values.length ).forEach( expected::add );
+    expected.sort( ( i0, i1 ) -> Sorter.compareValues(
+      values[ i0 ] == null ? Util.nullValue : values[ i0 ],
+      values[ i1 ] == null ? Util.nullValue : values[ i1 ] ) );
+    List<Member> result =
+      Sorter.sortMembers( evaluator, members, new ArrayList<>( members ), asList( sortKeySpec1 ) );
+    assertEquals( asList( 7, 2, 3, 5, 6, 4, 0, 1 ), expected );
+    for ( int i = 0; i < values.length; i++ ) {
+      assertSame( members.get( expected.get( i ) ), result.get( i ) );
+    }
+  }
+
+  public void testSortMembersEmpty() {
+    when( evaluator.getTiming() ).thenReturn( mock( QueryTiming.class ) );
+    setupSortKeyMocks( false, Sorter.Flag.BASC, Sorter.Flag.BDESC );
+    when( calc1.evaluate( evaluator ) ).thenReturn( "a" );
+    // As Order({}, <key>, BASC) does, pass an iterable and no list.
+    assertEquals(
+      Collections.emptyList(),
+      Sorter.sortMembers( evaluator, Collections.<Member>emptyList(), null, calc1, false, true ) );
+    assertEquals(
+      Collections.emptyList(),
+      Sorter.sortMembers( evaluator, Collections.<Member>emptyList(), null, asList( sortKeySpec1 ) ) );
+    assertEquals(
+      0,
+      Sorter.sortTuples(
+        evaluator, tupleIterable, TupleCollections.createList( 1 ), asList( sortKeySpec1, sortKeySpec2 ), 1 )
+        .size() );
+    verify( calc1, times( 0 ) ).evaluate( evaluator );
+  }
+
+  private List<Member> genMembers( int n ) {
+    final List<Member> members = new ArrayList<>();
+    range( 0, n ).forEach( i -> {
+      Member member = mock( Member.class );
+      when( member.getHierarchy() ).thenReturn( hierarchy1 );
+      members.add( member );
+    } );
+    return members;
+  }
+
   private void setupSortKeyMocks( boolean isOrderKeyCalc, Sorter.Flag flag1, Sorter.Flag flag2 ) {
     when( sortKeySpec1.getDirection() ).thenReturn( flag1 );
     when( sortKeySpec2.getDirection() ).thenReturn( flag2 );
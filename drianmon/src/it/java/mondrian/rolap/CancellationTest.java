@@ -8,15 +8,25 @@
 */
 package mondrian.rolap;
 
+import mondrian.calc.Calc;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.UnaryTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.fun.CrossJoinFunDef;
 import mondrian.olap.fun.CrossJoinTest;
+import mondrian.olap.fun.sort.Sorter;
+import mondrian.olap.type.MemberType;
+import mondrian.olap.type.NumericType;
+import mondrian.olap.type.SetType;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.spi.UserDefinedFunction;
 import mondrian.test.FoodMartTestCase;
+import mondrian.udf.LastNonEmptyUdf;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.mockito.Mockito.*;
 
@@ -85,6 +95,64 @@ public class CancellationTest extends FoodMartTestCase {
         verify(execution, times(expectedCallsQuantity)).checkCancelOrTimeout();
     }
 
+    public void testLastNonEmptyCancellation() throws MondrianException {
+        // tests that cancellation/timeout is checked in LastNonEmptyUdf,
+        // which sets each member on the evaluator rather than pushing an
+        // evaluator per member
+        propSaver.set(propSaver.properties.CheckCancelOrTimeoutInterval, 1);
+        Result result =
+            executeQuery("select store.[store name].members on 0 from sales");
+        Evaluator eval = ((RolapResult) result).getEvaluator(new int[]{0});
+        List<Member> members = getMembers(result);
+        UserDefinedFunction.Argument setArg =
+            mock(UserDefinedFunction.Argument.class);
+        when(setArg.evaluate(eval)).thenReturn(members);
+        when(setArg.getType()).thenReturn(
+            new SetType(
+                MemberType.forHierarchy(members.get(0).getHierarchy())));
+        // every value is empty, so every member is visited
+        UserDefinedFunction.Argument valueArg =
+            mock(UserDefinedFunction.Argument.class);
+        when(valueArg.evaluateScalar(eval)).thenReturn(null);
+        Execution exec = spy(new Execution(eval.getQuery().getStatement(), 0));
+        eval.getQuery().getStatement().start(exec);
+        new LastNonEmptyUdf().execute(
+            eval, new UserDefinedFunction.Argument[] {setArg, valueArg});
+        // checkCancelOrTimeout should be called once
+        // for each member since phase interval is 1
+        verify(exec, times(members.size())).checkCancelOrTimeout();
+    }
+
+    public void testPartiallySortMembersCancellation()
+        throws MondrianException
+    {
+        // tests that cancellation/timeout is checked while TopCount
+        // evaluates the members it sorts, now that it no longer pushes an
+        // evaluator
+        propSaver.set(propSaver.properties.CheckCancelOrTimeoutInterval, 1);
+        Result result =
+            executeQuery("select store.[store name].members on 0 from sales");
+        Evaluator eval = ((RolapResult) result).getEvaluator(new int[]{0});
+        List<Member> members = getMembers(result);
+        Calc calc = mock(Calc.class);
+        when(calc.getType()).thenReturn(new NumericType());
+        when(calc.evaluate(eval)).thenReturn(1d);
+        Execution exec = spy(new Execution(eval.getQuery().getStatement(), 0));
+        eval.getQuery().getStatement().start(exec);
+        Sorter.partiallySortMembers(eval, members, calc, 3, true);
+        // checkCancelOrTimeout should be called once
+        // for each member since phase interval is 1
+        verify(exec, times(members.size())).checkCancelOrTimeout();
+    }
+
+    private static List<Member> getMembers(Result result) {
+        List<Member> members = new ArrayList<Member>();
+        for (Position pos : result.getAxes()[0].getPositions()) {
+            members.add(pos.get(0));
+        }
+        return members;
+    }
+
     private TupleList mutableCrossJoin(
         final TupleList list1, final TupleList list2, final Execution execution)
         {
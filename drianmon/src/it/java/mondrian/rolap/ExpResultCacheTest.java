@@ -0,0 +1,91 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+import static org.mockito.Mockito.*;
+
+public class ExpResultCacheTest extends TestCase {
+    private final RolapSchema schema = mock(RolapSchema.class);
+    private final RolapStar salesStar = mock(RolapStar.class);
+    private final RolapStar warehouseStar = mock(RolapStar.class);
+    private final RolapCube sales = mockCube(salesStar, false);
+    private final RolapCube warehouse = mockCube(warehouseStar, false);
+    private final RolapCube virtual = mockCube(null, true);
+    private final ExpResultCache cache =
+        ExpResultCache.createConnectionCache();
+    private int savedSize;
+
+    protected void setUp() throws Exception {
+        savedSize = MondrianProperties.instance().ExpResultCacheSize.get();
+    }
+
+    protected void tearDown() throws Exception {
+        MondrianProperties.instance().ExpResultCacheSize.set(savedSize);
+    }
+
+    private RolapCube mockCube(RolapStar star, boolean isVirtual) {
+        final RolapCube cube = mock(RolapCube.class);
+        when(cube.getSchema()).thenReturn(schema);
+        when(cube.getStar()).thenReturn(star);
+        when(cube.isVirtual()).thenReturn(isVirtual);
+        return cube;
+    }
+
+    private void put(String key, RolapCube cube) {
+        cache.put(key, cube, key + " value", ExpResultCache.flushCount());
+    }
+
+    public void testSizeBounded() {
+        MondrianProperties.instance().ExpResultCacheSize.set(2);
+        put("a", sales);
+        put("b", sales);
+        assertEquals("a value", cache.get("a"));
+        put("c", sales);
+        // "b" was least recently used
+        assertNull(cache.get("b"));
+        assertEquals("a value", cache.get("a"));
+        assertEquals("c value", cache.get("c"));
+    }
+
+    public void testFlushCellsOfStar() {
+        put("sales", sales);
+        put("warehouse", warehouse);
+        put("virtual", virtual);
+        ExpResultCache.flush(schema, Collections.singletonList(salesStar));
+        assertNull(cache.get("sales"));
+        assertEquals("warehouse value", cache.get("warehouse"));
+        // Results of virtual cubes are flushed with any of their schema's
+        // cells.
+        assertNull(cache.get("virtual"));
+    }
+
+    public void testFlushOtherSchema() {
+        put("sales", sales);
+        ExpResultCache.flush(mock(RolapSchema.class));
+        assertEquals("sales value", cache.get("sales"));
+        ExpResultCache.flush(schema);
+        assertNull(cache.get("sales"));
+    }
+
+    public void testResultComputedDuringFlushNotCached() {
+        final int flushCount = ExpResultCache.flushCount();
+        ExpResultCache.flush(schema);
+        cache.put("sales", sales, "stale", flushCount);
+        assertNull(cache.get("sales"));
+    }
+}
+
+// End ExpResultCacheTest.java
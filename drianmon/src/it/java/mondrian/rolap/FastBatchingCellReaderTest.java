@@ -926,6 +926,57 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
     assertQuerySql( testContext, query, patterns );
   }
 
+  /**
+   * Tests that, if {@link MondrianProperties#EnableNativeTimeRange} is true, a compound slicer that is a run of
+   * consecutive members of a time level with unique, ascending numeric keys is constrained in SQL by a range of keys,
+   * and a set of members with a gap by a list of keys.
+   */
+  public void testTimeRangePredicate() {
+    final String cube =
+      "<Cube name=\"Daily Sales\">\n"
+        + "  <Table name=\"sales_fact_1997\"/>\n"
+        + "  <Dimension name=\"Day\" type=\"TimeDimension\" foreignKey=\"time_id\">\n"
+        + "    <Hierarchy hasAll=\"true\" primaryKey=\"time_id\">\n"
+        + "      <Table name=\"time_by_day\"/>\n"
+        + "      <Level name=\"Day\" column=\"time_id\" type=\"Numeric\" uniqueMembers=\"true\"\n"
+        + "          levelType=\"TimeDays\"/>\n"
+        + "    </Hierarchy>\n"
+        + "  </Dimension>\n"
+        + "  <Measure name=\"Unit Sales\" column=\"unit_sales\" aggregator=\"sum\" formatString=\"Standard\"/>\n"
+        + "</Cube>";
+    final TestContext testContext = TestContext.instance().create( null, cube, null, null, null, null );
+    final String rangeQuery =
+      "select {[Measures].[Unit Sales]} on columns from [Daily Sales]\n"
+        + "where {[Day].[367] : [Day].[369]}";
+    final String listQuery =
+      "select {[Measures].[Unit Sales]} on columns from [Daily Sales]\n"
+        + "where {[Day].[367], [Day].[368], [Day].[370]}";
+    propSaver.set( MondrianProperties.instance().EnableNativeTimeRange, false );
+    final String rangeExpected = TestContext.toString( testContext.executeQuery( rangeQuery ) );
+    final String listExpected = TestContext.toString( testContext.executeQuery( listQuery ) );
+    propSaver.set( MondrianProperties.instance().EnableNativeTimeRange, true );
+
+    final String rangeSql =
+      "select sum(`sales_fact_1997`.`unit_sales`) as `m0` "
+        + "from `sales_fact_1997` as `sales_fact_1997`, `time_by_day` as `time_by_day` "
+        + "where `sales_fact_1997`.`time_id` = `time_by_day`.`time_id` "
+        + "and `time_by_day`.`time_id` >= 367 and `time_by_day`.`time_id` <= 369";
+    assertQuerySql(
+      testContext, rangeQuery,
+      new SqlPattern[] { new SqlPattern( Dialect.DatabaseProduct.MYSQL, rangeSql, rangeSql ) } );
+    testContext.assertQueryReturns( rangeQuery, rangeExpected );
+
+    final String listSql =
+      "select sum(`sales_fact_1997`.`unit_sales`) as `m0` "
+        + "from `sales_fact_1997` as `sales_fact_1997`, `time_by_day` as `time_by_day` "
+        + "where `sales_fact_1997`.`time_id` = `time_by_day`.`time_id` "
+        + "and `time_by_day`.`time_id` in (367, 368, 370)";
+    assertQuerySql(
+      testContext, listQuery,
+      new SqlPattern[] { new SqlPattern( Dialect.DatabaseProduct.MYSQL, listSql, listSql ) } );
+    testContext.assertQueryReturns( listQuery, listExpected );
+  }
+
   public void testAggregateDistinctCount() {
     // solve_order=1 says to aggregate [CA] and [OR] before computing their
     // sums
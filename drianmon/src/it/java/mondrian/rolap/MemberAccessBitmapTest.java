@@ -0,0 +1,96 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Access;
+import mondrian.olap.Role;
+
+import junit.framework.TestCase;
+
+import static org.mockito.Mockito.*;
+
+public class MemberAccessBitmapTest extends TestCase {
+
+    private final RolapLevel level = mock(RolapLevel.class);
+    private final Role.HierarchyAccess hierarchyAccess =
+        mock(Role.HierarchyAccess.class);
+    private final MemberAccessBitmap bitmap = new MemberAccessBitmap();
+
+    protected void setUp() throws Exception {
+        when(level.getDepth()).thenReturn(1);
+    }
+
+    private RolapMemberBase mockMember(int bitmapIndex) {
+        final RolapMemberBase member = mock(RolapMemberBase.class);
+        when(member.getLevel()).thenReturn(level);
+        when(member.getBitmapIndex()).thenReturn(bitmapIndex);
+        return member;
+    }
+
+    public void testAccessComputedOnce() {
+        final RolapMemberBase visible = mockMember(0);
+        final RolapMemberBase custom = mockMember(1);
+        final RolapMemberBase hidden = mockMember(2);
+        when(hierarchyAccess.getAccess(visible)).thenReturn(Access.ALL);
+        when(hierarchyAccess.getAccess(custom)).thenReturn(Access.CUSTOM);
+        when(hierarchyAccess.getAccess(hidden)).thenReturn(Access.NONE);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(
+                Access.ALL, bitmap.getAccess(hierarchyAccess, visible));
+            assertEquals(
+                Access.CUSTOM, bitmap.getAccess(hierarchyAccess, custom));
+            assertEquals(
+                Access.NONE, bitmap.getAccess(hierarchyAccess, hidden));
+        }
+        verify(hierarchyAccess, times(1)).getAccess(visible);
+        verify(hierarchyAccess, times(1)).getAccess(custom);
+        verify(hierarchyAccess, times(1)).getAccess(hidden);
+    }
+
+    public void testUnrepresentableAccessNotRecorded() {
+        final RolapMemberBase member = mockMember(5);
+        when(hierarchyAccess.getAccess(member)).thenReturn(Access.RESTRICTED);
+
+        assertEquals(
+            Access.RESTRICTED, bitmap.getAccess(hierarchyAccess, member));
+        assertEquals(
+            Access.RESTRICTED, bitmap.getAccess(hierarchyAccess, member));
+        verify(hierarchyAccess, times(2)).getAccess(member);
+    }
+
+    public void testCalculatedMemberNotRecorded() {
+        final RolapMemberBase member = mockMember(0);
+        when(member.isCalculated()).thenReturn(true);
+        when(hierarchyAccess.getAccess(member)).thenReturn(Access.ALL);
+
+        bitmap.getAccess(hierarchyAccess, member);
+        bitmap.getAccess(hierarchyAccess, member);
+        verify(hierarchyAccess, times(2)).getAccess(member);
+        verify(member, never()).getBitmapIndex();
+    }
+
+    public void testOtherLevelAtSameDepthNotShared() {
+        final RolapLevel otherLevel = mock(RolapLevel.class);
+        when(otherLevel.getDepth()).thenReturn(1);
+        final RolapMemberBase member = mockMember(0);
+        final RolapMemberBase otherMember = mock(RolapMemberBase.class);
+        when(otherMember.getLevel()).thenReturn(otherLevel);
+        when(otherMember.getBitmapIndex()).thenReturn(0);
+        when(hierarchyAccess.getAccess(member)).thenReturn(Access.ALL);
+        when(hierarchyAccess.getAccess(otherMember)).thenReturn(Access.NONE);
+
+        assertEquals(Access.ALL, bitmap.getAccess(hierarchyAccess, member));
+        assertEquals(
+            Access.NONE, bitmap.getAccess(hierarchyAccess, otherMember));
+    }
+}
+
+// End MemberAccessBitmapTest.java
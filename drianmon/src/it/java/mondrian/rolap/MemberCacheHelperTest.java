@@ -163,6 +163,81 @@ public class MemberCacheHelperTest extends TestCase {
             children.subList(1, 3), members);
     }
 
+    public void testChildrenRetrievedIgnoringCase() {
+        List<String> childNames = fillChildren(children, 3);
+        when(childByNameConstraint.getChildNames()).thenReturn(
+            Arrays.asList(childNames.get(2).toUpperCase()));
+
+        cacheHelper.putChildren(
+            parentMember, defMemChildrenConstraint, children);
+
+        List<RolapMember> retrievedChildren =
+            cacheHelper.getChildrenFromCache(
+                parentMember, childByNameConstraint);
+
+        assertEquals(children.subList(2, 3), retrievedChildren);
+    }
+
+    public void testLevelMembersByName() {
+        fillChildren(children, 3);
+        RolapLevel level = mock(RolapLevel.class);
+        for (RolapMember member : children) {
+            when(member.getLevel()).thenReturn(level);
+            when(member.getParentMember()).thenReturn(parentMember);
+        }
+
+        cacheHelper.putChildren(
+            level, DefaultTupleConstraint.instance(), children);
+
+        assertEquals(
+            children.subList(1, 2),
+            cacheHelper.getLevelMembersByName(level, "member-1"));
+        assertTrue(
+            cacheHelper.getLevelMembersByName(level, "Other Name")
+                .isEmpty());
+
+        // level members are indexed under their parent, too
+        when(childByNameConstraint.getChildNames()).thenReturn(
+            Arrays.asList("Member-0", "Member-2"));
+        assertEquals(
+            Arrays.asList(children.get(0), children.get(2)),
+            cacheHelper.getChildrenFromCache(
+                parentMember, childByNameConstraint));
+    }
+
+    public void testDuplicateSiblingNames() {
+        fillChildren(children, 4);
+        final RolapMember child1 = children.get(1);
+        final RolapMember child2 = children.get(2);
+        final RolapMember child3 = children.get(3);
+        // two siblings share a name
+        when(child3.getName()).thenReturn("Member-1");
+        when(childByNameConstraint.getChildNames()).thenReturn(
+            Arrays.asList("Member-1", "Member-2"));
+
+        cacheHelper.putChildren(
+            parentMember, defMemChildrenConstraint, children);
+
+        assertEquals(
+            Arrays.asList(child1, child3, child2),
+            cacheHelper.getChildrenFromCache(
+                parentMember, childByNameConstraint));
+
+        // removing one of them leaves the other
+        final List<MemberKey> childKeys = new ArrayList<MemberKey>();
+        for (RolapMember member : children) {
+            when(member.getParentMember()).thenReturn(parentMember);
+            MemberKey key = mockMemberKey();
+            childKeys.add(key);
+            cacheHelper.putMember(key, member);
+        }
+        cacheHelper.removeMember(childKeys.get(1));
+        assertEquals(
+            Arrays.asList(child3, child2),
+            cacheHelper.getChildrenFromCache(
+                parentMember, childByNameConstraint));
+    }
+
     private MemberKey mockMemberKey() {
         MemberKey mock = mock(MemberKey.class);
         when(mock.getLevel()).thenReturn(mock(RolapLevel.class));
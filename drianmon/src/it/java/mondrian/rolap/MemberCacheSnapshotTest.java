@@ -0,0 +1,228 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Level;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for {@link MemberCacheSnapshot}.
+ */
+public class MemberCacheSnapshotTest extends FoodMartTestCase {
+
+    private static final String FRESHNESS_SQL =
+        "select count(*) as snapshot_token from store";
+
+    private static final String QUERY =
+        "select {[Store].[Store Country].Members,\n"
+        + "  [Store].[Store State].Members} on 0\n"
+        + "from [Sales]";
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("member-cache-snapshot", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        // Schemas created before the property is set have no snapshot.
+        getTestContext().flushSchemaCache();
+        propSaver.set(
+            propSaver.properties.MemberCacheSnapshotDir, dir.getPath());
+    }
+
+    protected void tearDown() throws Exception {
+        getTestContext().flushSchemaCache();
+        super.tearDown();
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Returns a context whose Store dimension has a freshness query, and
+     * therefore may be written to a snapshot.
+     */
+    private TestContext getSnapshotContext() {
+        final String schema =
+            TestContext.getRawFoodMartSchema().replaceFirst(
+                "<Dimension name=\"Store\">",
+                "<Dimension name=\"Store\">\n"
+                + "<Annotations><Annotation name=\""
+                + MemberCacheSnapshot.FRESHNESS_ANNOTATION + "\">"
+                + FRESHNESS_SQL
+                + "</Annotation></Annotations>");
+        return getTestContext().withSchema(schema);
+    }
+
+    private static RolapSchema getSchema(TestContext context) {
+        return (RolapSchema) context.getConnection().getSchema();
+    }
+
+    private static RolapHierarchy getStoreHierarchy(RolapSchema schema) {
+        for (Hierarchy hierarchy : schema.getSharedHierarchies()) {
+            if (hierarchy.getUniqueName().equals("[Store]")) {
+                return (RolapHierarchy) hierarchy;
+            }
+        }
+        fail("Store hierarchy not found");
+        return null;
+    }
+
+    private static RolapLevel getLevel(RolapSchema schema, String name) {
+        for (Level level : getStoreHierarchy(schema).getLevels()) {
+            if (level.getName().equals(name)) {
+                return (RolapLevel) level;
+            }
+        }
+        fail("Level " + name + " not found");
+        return null;
+    }
+
+    /**
+     * Returns the names of the cached members of a level, or null if the
+     * level's members are not cached.
+     */
+    private static List<String> getCachedMemberNames(
+        RolapSchema schema,
+        String levelName)
+    {
+        final RolapLevel level = getLevel(schema, levelName);
+        final SmartMemberReader reader =
+            (SmartMemberReader) level.getHierarchy().getMemberReader();
+        final MemberCacheHelper cache =
+            (MemberCacheHelper) reader.getMemberCache();
+        final List<RolapMember> members;
+        synchronized (cache) {
+            members = cache.getLevelMembersFromCache(
+                level, DefaultTupleConstraint.instance());
+        }
+        if (members == null) {
+            return null;
+        }
+        final List<String> names = new ArrayList<String>();
+        for (RolapMember member : members) {
+            names.add(member.getUniqueName());
+        }
+        return names;
+    }
+
+    /**
+     * Tests that the member caches are written when the schema is flushed,
+     * and restored by the next schema with the same content.
+     */
+    public void testSaveAndLoad() {
+        final TestContext context = getSnapshotContext();
+        context.executeQuery(QUERY);
+        final RolapSchema schema = getSchema(context);
+        assertNotNull(schema.getMemberCacheSnapshot());
+        final List<String> countries =
+            getCachedMemberNames(schema, "Store Country");
+        final List<String> states =
+            getCachedMemberNames(schema, "Store State");
+        assertNotNull(countries);
+        assertNotNull(states);
+        assertEquals(0, dir.listFiles().length);
+
+        context.flushSchemaCache();
+        final File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+
+        // The snapshot is written only once, even if the schema is cleaned
+        // up again.
+        final File saved = new File(dir.getParentFile(), dir.getName() + ".1");
+        assertTrue(files[0].renameTo(saved));
+        schema.getMemberCacheSnapshot().save();
+        assertEquals(0, dir.listFiles().length);
+        assertTrue(saved.renameTo(files[0]));
+
+        final RolapSchema schema2 =
+            getSchema(context.withFreshConnection());
+        assertNotSame(schema, schema2);
+        assertEquals(countries, getCachedMemberNames(schema2, "Store Country"));
+        assertEquals(states, getCachedMemberNames(schema2, "Store State"));
+        assertNull(getCachedMemberNames(schema2, "Store City"));
+    }
+
+    /**
+     * Tests that a hierarchy is restored only if its freshness query returns
+     * the value it returned when the members were read.
+     */
+    public void testFreshness() {
+        final TestContext context = getSnapshotContext();
+        context.executeQuery(QUERY);
+        final RolapSchema schema = getSchema(context);
+        final MemberCacheSnapshot snapshot = schema.getMemberCacheSnapshot();
+        final RolapLevel country = getLevel(schema, "Store Country");
+        final String token = snapshot.getLevelToken(country);
+        assertNotNull(token);
+        assertEquals(
+            token, snapshot.getLevelToken(getLevel(schema, "Store State")));
+        assertTrue(snapshot.isFresh(country.getHierarchy(), token));
+        assertFalse(snapshot.isFresh(country.getHierarchy(), "bogus"));
+    }
+
+    /**
+     * Tests that the freshness query runs before the members are read, and
+     * not when the snapshot is written.
+     */
+    public void testTokenReadBeforeMembers() {
+        final TestContext context = getSnapshotContext();
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            context.executeQuery(QUERY);
+            int tokenIndex = -1;
+            int membersIndex = -1;
+            for (int i = 0; i < sqls.size(); i++) {
+                final String sql = sqls.get(i);
+                if (sql.contains("snapshot_token") && tokenIndex < 0) {
+                    tokenIndex = i;
+                } else if (sql.contains("store_country")
+                    && !sql.contains("sales_fact")
+                    && membersIndex < 0)
+                {
+                    membersIndex = i;
+                }
+            }
+            assertTrue(sqls.toString(), tokenIndex >= 0);
+            assertTrue(sqls.toString(), membersIndex >= 0);
+            assertTrue(sqls.toString(), tokenIndex < membersIndex);
+
+            sqls.clear();
+            context.flushSchemaCache();
+            for (String sql : sqls) {
+                assertFalse(sql, sql.contains("snapshot_token"));
+            }
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            RolapUtil.setHook(null);
+        }
+    }
+}
+
+// End MemberCacheSnapshotTest.java
@@ -21,6 +21,7 @@ import org.eigenbase.util.property.StringProperty;
 
 import junit.framework.Assert;
 import mondrian.olap.Axis;
+import mondrian.olap.CacheControl;
 import mondrian.olap.Cell;
 import mondrian.olap.Connection;
 import mondrian.olap.Evaluator;
@@ -6694,6 +6695,48 @@ public class NonEmptyTest extends BatchTestCase {
         + " from [virtual] ",
       "", context );
   }
+
+  /**
+   * Tests that a NON EMPTY crossjoin that is not evaluated in SQL returns the
+   * same tuples whether or not empty tuples are pruned using the occupancy
+   * of cached segments: with a cold cache, and with a segment that holds the
+   * cells of some of the tuples but not of the others.
+   */
+  public void testOccupancyPruning() {
+    propSaver.set( propSaver.properties.EnableNativeCrossJoin, false );
+    final String mdx =
+      "select {[Measures].[Unit Sales], [Measures].[Store Sales]} on 0,\n"
+        + " NON EMPTY Crossjoin([Store].[Store City].Members,"
+        + " [Product].[Product Department].Members) on 1\n"
+        + "from [Sales]\n"
+        + "where [Time].[1997].[Q1]";
+    final String partialMdx =
+      "select {[Measures].[Unit Sales], [Measures].[Store Sales]} on 0,\n"
+        + " Crossjoin([Store].[USA].[CA].Children,"
+        + " [Product].[Product Department].Members) on 1\n"
+        + "from [Sales]\n"
+        + "where [Time].[1997].[Q1]";
+
+    propSaver.set( propSaver.properties.EnableOccupancyPruning, false );
+    flushSalesCells();
+    final String expected = TestContext.toString( executeQuery( mdx ) );
+
+    propSaver.set( propSaver.properties.EnableOccupancyPruning, true );
+    flushSalesCells();
+    assertQueryReturns( mdx, expected );
+
+    flushSalesCells();
+    executeQuery( partialMdx );
+    assertQueryReturns( mdx, expected );
+  }
+
+  private void flushSalesCells() {
+    final Connection connection = getConnection();
+    final CacheControl cacheControl = connection.getCacheControl( null );
+    cacheControl.flush(
+      cacheControl.createMeasuresRegion(
+        connection.getSchema().lookupCube( "Sales", true ) ) );
+  }
 }
 
 // End NonEmptyTest.java
@@ -0,0 +1,184 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.FunTable;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Parameter;
+import mondrian.olap.Query;
+import mondrian.server.Statement;
+
+import junit.framework.TestCase;
+
+import java.util.Locale;
+
+import static org.mockito.Mockito.*;
+
+public class QueryPlanCacheTest extends TestCase {
+    private static final String MDX = "select from [Sales]";
+
+    private final QueryPlanCache cache = new QueryPlanCache();
+    private final RolapConnection connection = mock(RolapConnection.class);
+    private final RolapSchema schema = mock(RolapSchema.class);
+    private final Statement statement1 = mock(Statement.class);
+    private final Statement statement2 = mock(Statement.class);
+    private int savedSize;
+
+    protected void setUp() throws Exception {
+        savedSize = MondrianProperties.instance().QueryPlanCacheSize.get();
+        MondrianProperties.instance().QueryPlanCacheSize.set(10);
+        when(connection.getSchema()).thenReturn(schema);
+        when(connection.getLocale()).thenReturn(Locale.US);
+    }
+
+    protected void tearDown() throws Exception {
+        MondrianProperties.instance().QueryPlanCacheSize.set(savedSize);
+    }
+
+    private Query mockQuery() {
+        final Query query = mock(Query.class);
+        when(query.getParameters()).thenReturn(new Parameter[0]);
+        return query;
+    }
+
+    public void testReleasedQueryIsReused() {
+        final Query query = mockQuery();
+        when(connection.parseStatement(statement1, MDX, null, false))
+            .thenReturn(query);
+
+        assertSame(query, cache.parse(connection, statement1, MDX));
+        assertEquals(1, cache.getMissCount());
+        cache.release(query);
+
+        assertSame(query, cache.parse(connection, statement2, MDX));
+        assertEquals(1, cache.getHitCount());
+        verify(query).bind(statement2);
+        verify(connection, never())
+            .parseStatement(statement2, MDX, null, false);
+    }
+
+    public void testCheckedOutQueryIsNotShared() {
+        final Query query1 = mockQuery();
+        final Query query2 = mockQuery();
+        when(connection.parseStatement(statement1, MDX, null, false))
+            .thenReturn(query1);
+        when(connection.parseStatement(statement2, MDX, null, false))
+            .thenReturn(query2);
+
+        assertSame(query1, cache.parse(connection, statement1, MDX));
+        assertSame(query2, cache.parse(connection, statement2, MDX));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testFlushRemovesQueries() {
+        final Query query1 = mockQuery();
+        final Query query2 = mockQuery();
+        when(connection.parseStatement(statement1, MDX, null, false))
+            .thenReturn(query1);
+        when(connection.parseStatement(statement2, MDX, null, false))
+            .thenReturn(query2);
+
+        // One query idle, one checked out; neither survives the flush.
+        cache.parse(connection, statement1, MDX);
+        cache.release(query1);
+        cache.parse(connection, statement1, MDX);
+        cache.flush(schema);
+        cache.release(query1);
+
+        assertSame(query2, cache.parse(connection, statement2, MDX));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testQueryWithParametersNotCached() {
+        final Query query = mock(Query.class);
+        when(query.getParameters())
+            .thenReturn(new Parameter[] {mock(Parameter.class)});
+        when(connection.parseStatement(
+                any(Statement.class), eq(MDX), isNull(FunTable.class),
+                eq(false)))
+            .thenReturn(query);
+
+        cache.parse(connection, statement1, MDX);
+        cache.release(query);
+        cache.parse(connection, statement2, MDX);
+        assertEquals(0, cache.getHitCount());
+        verify(query, never()).bind(any(Statement.class));
+    }
+
+    public void testDisabled() {
+        MondrianProperties.instance().QueryPlanCacheSize.set(0);
+        final Query query = mockQuery();
+        when(connection.parseStatement(statement1, MDX, null, false))
+            .thenReturn(query);
+
+        cache.parse(connection, statement1, MDX);
+        cache.release(query);
+        cache.parse(connection, statement1, MDX);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        verify(connection, times(2))
+            .parseStatement(statement1, MDX, null, false);
+    }
+
+    public void testCompilePropertiesInKey() {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final boolean saved = properties.NullDenominatorProducesNull.get();
+        final Query query1 = mockQuery();
+        final Query query2 = mockQuery();
+        when(connection.parseStatement(statement1, MDX, null, false))
+            .thenReturn(query1);
+        when(connection.parseStatement(statement2, MDX, null, false))
+            .thenReturn(query2);
+
+        cache.parse(connection, statement1, MDX);
+        cache.release(query1);
+        try {
+            // A query compiled with a different value is not reused.
+            properties.NullDenominatorProducesNull.set(!saved);
+            assertSame(query2, cache.parse(connection, statement2, MDX));
+            assertEquals(0, cache.getHitCount());
+            cache.release(query2);
+        } finally {
+            properties.NullDenominatorProducesNull.set(saved);
+        }
+        assertSame(query1, cache.parse(connection, statement2, MDX));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testParsePropertiesInKey() {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final boolean saved = properties.CaseSensitive.get();
+        final Query query1 = mockQuery();
+        final Query query2 = mockQuery();
+        when(connection.parseStatement(statement1, MDX, null, false))
+            .thenReturn(query1);
+        when(connection.parseStatement(statement2, MDX, null, false))
+            .thenReturn(query2);
+
+        cache.parse(connection, statement1, MDX);
+        cache.release(query1);
+        try {
+            // A query whose names were resolved with a different value is
+            // not reused.
+            properties.CaseSensitive.set(!saved);
+            assertSame(query2, cache.parse(connection, statement2, MDX));
+            assertEquals(0, cache.getHitCount());
+            cache.release(query2);
+        } finally {
+            properties.CaseSensitive.set(saved);
+        }
+        assertSame(query1, cache.parse(connection, statement2, MDX));
+        assertEquals(1, cache.getHitCount());
+    }
+}
+
+// End QueryPlanCacheTest.java
@@ -9,7 +9,11 @@
 */
 package mondrian.rolap;
 
+import mondrian.olap.CacheControl;
+import mondrian.olap.Connection;
 import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+import mondrian.util.Counters;
 
 public class RolapEvaluatorTest extends FoodMartTestCase {
 
@@ -70,7 +74,85 @@ public class RolapEvaluatorTest extends FoodMartTestCase {
           slicerPredicateInfo.getPredicateString());
       assertTrue(slicerPredicateInfo.isSatisfiable());
     }
-    
+
+    /**
+     * Tests that, if expression results outlive a query, a later query reuses
+     * the result of <code>Cache()</code> that an earlier query computed, and
+     * that flushing the cells of the cube removes it.
+     */
+    public void testSharedCachedResult() {
+        propSaver.set(propSaver.properties.ExpResultCacheScope, "connection");
+        final TestContext testContext =
+            getTestContext().withFreshConnection();
+        final String cachedSet =
+            "Cache(TopCount([Product].[Product Name].Members, 5,"
+            + " ([Measures].[Unit Sales], [Time].[1997])))";
+        final String query1 =
+            "with member [Measures].[Top] as 'Count(" + cachedSet + ")'\n"
+            + "select {[Measures].[Top]} on 0 from [Sales]";
+        final String query2 =
+            "with member [Measures].[Top Again] as 'Count(" + cachedSet + ")'\n"
+            + "select {[Measures].[Top Again]} on 0 from [Sales]";
+        final String expected2 =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Top Again]}\n"
+            + "Row #0: 5\n";
+
+        long hitCount = Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get();
+        testContext.assertQueryReturns(
+            query1,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Top]}\n"
+            + "Row #0: 5\n");
+        assertEquals(
+            hitCount, Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get());
+
+        // A different query evaluates the same expression, and finds the
+        // result of the first query.
+        testContext.assertQueryReturns(query2, expected2);
+        assertTrue(
+            Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get() > hitCount);
+
+        // Flushing the cells of the cube removes the result.
+        final Connection connection = testContext.getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true)));
+        hitCount = Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get();
+        testContext.assertQueryReturns(query2, expected2);
+        assertEquals(
+            hitCount, Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get());
+        testContext.assertQueryReturns(query2, expected2);
+        assertTrue(
+            Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get() > hitCount);
+    }
+
+    /**
+     * Tests that the result of an expression that calls
+     * <code>StrToSet</code> is not shared between queries, because its
+     * string may name a member that only one query defines.
+     */
+    public void testSharedCachedResultNotForStrToSet() {
+        propSaver.set(propSaver.properties.ExpResultCacheScope, "connection");
+        final TestContext testContext =
+            getTestContext().withFreshConnection();
+        final String query =
+            "with member [Product].[Foo] as '[Product].[Drink]'\n"
+            + "member [Measures].[Count] as"
+            + " 'Count(Cache(StrToSet(\"{[Product].[Foo]}\")))'\n"
+            + "select {[Measures].[Count]} on 0 from [Sales]";
+        testContext.executeQuery(query);
+        final long hitCount =
+            Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get();
+        testContext.executeQuery(query);
+        assertEquals(
+            hitCount, Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.get());
+    }
 }
 
 // End RolapEvaluatorTest.java
\ No newline at end of file
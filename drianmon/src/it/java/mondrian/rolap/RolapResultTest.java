@@ -9,6 +9,8 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.CacheControl;
+import mondrian.olap.Connection;
 import mondrian.olap.Result;
 import mondrian.rolap.aggmatcher.AggTableTestCase;
 import mondrian.test.TestContext;
@@ -318,6 +320,104 @@ Axis #2:
             + "Row #2: \n"
             + "Row #2: \n");
     }
+
+    /**
+     * Tests that evaluating cells in parallel gives the same result as
+     * evaluating them serially, for a query that needs several passes.
+     */
+    public void testParallelCellEvaluation() {
+        final String mdx =
+            "with set [Top Cities] as "
+            + "'TopCount([Store].[Store City].Members, 5, [Measures].[Unit Sales])'\n"
+            + "member [Measures].[Top Sales] as "
+            + "'Sum([Top Cities], [Measures].[Store Sales])'\n"
+            + "member [Measures].[Share] as "
+            + "'[Measures].[Store Sales] / [Measures].[Top Sales]', "
+            + "format_string = '0.00%'\n"
+            + "select {[Measures].[Store Sales], [Measures].[Top Sales],"
+            + " [Measures].[Share]} on columns,\n"
+            + " Crossjoin([Time].[Quarter].Members,"
+            + " [Product].[Product Family].Members) on rows\n"
+            + "from [Sales]";
+        final TestContext testContext = TestContext.instance();
+        propSaver.set(propSaver.properties.CellEvaluationParallelism, 1);
+        final String serial =
+            TestContext.toString(testContext.executeQuery(mdx));
+        propSaver.set(propSaver.properties.CellEvaluationParallelism, 4);
+        // Flush the cells, so that the parallel evaluation loads them rather
+        // than finding them in the cache.
+        final Connection connection = testContext.getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true)));
+        final String parallel =
+            TestContext.toString(testContext.executeQuery(mdx));
+        assertEquals(serial, parallel);
+    }
+
+    /**
+     * Tests that evaluating axes and named sets concurrently gives the same
+     * result as evaluating them in sequence. Set [Cities] is used by both
+     * axes, and set [Top Cities] depends on it.
+     */
+    public void testConcurrentAxisEvaluation() {
+        final String mdx =
+            "with set [Cities] as "
+            + "'Filter([Store].[Store City].Members,"
+            + " [Measures].[Unit Sales] > 10000)'\n"
+            + "set [Top Cities] as "
+            + "'TopCount([Cities], 3, [Measures].[Store Sales])'\n"
+            + "member [Measures].[City Count] as 'Count([Cities])'\n"
+            + "select NON EMPTY Crossjoin([Top Cities],"
+            + " [Gender].[Gender].Members) on columns,\n"
+            + " NON EMPTY Crossjoin([Product].[Product Family].Members,"
+            + " {[Measures].[Unit Sales], [Measures].[City Count]}) on rows\n"
+            + "from [Sales]";
+        final TestContext testContext = TestContext.instance();
+        propSaver.set(propSaver.properties.ConcurrentAxisEvaluation, false);
+        final String sequential =
+            TestContext.toString(testContext.executeQuery(mdx));
+        propSaver.set(propSaver.properties.ConcurrentAxisEvaluation, true);
+        final String concurrent =
+            TestContext.toString(testContext.executeQuery(mdx));
+        assertEquals(sequential, concurrent);
+    }
+
+    /**
+     * Tests that loading the predicted cells of nested calculated measures
+     * before evaluation does not change the result.
+     */
+    public void testSpeculativeCellRequests() {
+        final String mdx =
+            "with member [Measures].[Prev Sales] as "
+            + "'([Measures].[Unit Sales], [Time].[Time].CurrentMember.PrevMember)'\n"
+            + "member [Measures].[Last Year Sales] as "
+            + "'([Measures].[Unit Sales], ParallelPeriod([Time].[Year]))'\n"
+            + "member [Measures].[Growth] as "
+            + "'IIf([Measures].[Prev Sales] > 0,"
+            + " [Measures].[Unit Sales] / [Measures].[Prev Sales],"
+            + " [Measures].[Last Year Sales])'\n"
+            + "member [Measures].[Year Share] as "
+            + "'[Measures].[Store Sales]"
+            + " / ([Measures].[Store Sales], Ancestor([Time].[Time].CurrentMember,"
+            + " [Time].[Year]))'\n"
+            + "select {[Measures].[Growth], [Measures].[Year Share],"
+            + " [Measures].[Last Year Sales]} on columns,\n"
+            + " Crossjoin([Time].[1998].Children,"
+            + " [Gender].[Gender].Members) on rows\n"
+            + "from [Sales]";
+        final TestContext testContext = TestContext.instance();
+        propSaver.set(propSaver.properties.SpeculativeCellRequests, false);
+        testContext.flushSchemaCache();
+        final String evaluated =
+            TestContext.toString(testContext.executeQuery(mdx));
+        propSaver.set(propSaver.properties.SpeculativeCellRequests, true);
+        testContext.flushSchemaCache();
+        final String predicted =
+            TestContext.toString(testContext.executeQuery(mdx));
+        assertEquals(evaluated, predicted);
+    }
 }
 
 // End RolapResultTest.java
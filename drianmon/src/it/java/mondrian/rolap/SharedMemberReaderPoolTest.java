@@ -0,0 +1,153 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Position;
+import mondrian.olap.Result;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.List;
+
+/**
+ * Unit test for {@link SharedMemberReaderPool}.
+ */
+public class SharedMemberReaderPoolTest extends FoodMartTestCase {
+
+    private static final String QUERY =
+        "select [Store].[Store State].Members on 0\n"
+        + "from [Sales]";
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        getTestContext().flushSchemaCache();
+        propSaver.set(propSaver.properties.ShareMemberCaches, true);
+    }
+
+    protected void tearDown() throws Exception {
+        getTestContext().flushSchemaCache();
+        super.tearDown();
+    }
+
+    /**
+     * Returns a context whose schema differs from FoodMart, and from that of
+     * any other tenant, only in a comment; so its shared dimensions are
+     * identical.
+     */
+    private TestContext getTenantContext(String tenant) {
+        return getTestContext().withSchema(
+            TestContext.getRawFoodMartSchema().replaceFirst(
+                "</Schema>", "<!-- " + tenant + " --></Schema>"));
+    }
+
+    private static RolapSchema getSchema(TestContext context) {
+        return (RolapSchema) context.getConnection().getSchema();
+    }
+
+    private static RolapHierarchy getStoreHierarchy(RolapSchema schema) {
+        for (Hierarchy hierarchy : schema.getSharedHierarchies()) {
+            if (hierarchy.getUniqueName().equals("[Store]")) {
+                return (RolapHierarchy) hierarchy;
+            }
+        }
+        fail("Store hierarchy not found");
+        return null;
+    }
+
+    private static List<RolapMember> getStates(RolapSchema schema) {
+        final RolapHierarchy hierarchy = getStoreHierarchy(schema);
+        return hierarchy.getMemberReader().getMembersInLevel(
+            (RolapLevel) hierarchy.getLevels()[2],
+            DefaultTupleConstraint.instance());
+    }
+
+    private static boolean isPooled(RolapSchema schema) {
+        for (RolapSchema pooled
+            : RolapSchemaPool.instance().getRolapSchemas())
+        {
+            if (pooled == schema) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests that two schemas with an identical shared dimension share its
+     * members, that the shared cache refers only to the schema that owns
+     * it, and that flushing either schema leaves no reference to it in a
+     * schema that remains in the pool.
+     */
+    public void testShareAndFlush() {
+        final TestContext context1 = getTenantContext("tenant 1");
+        final TestContext context2 = getTenantContext("tenant 2");
+        final TestContext context3 = getTenantContext("tenant 3");
+        context1.executeQuery(QUERY);
+        context2.executeQuery(QUERY);
+        context3.executeQuery(QUERY);
+        final RolapSchema schema1 = getSchema(context1);
+        final RolapSchema schema2 = getSchema(context2);
+        final RolapSchema schema3 = getSchema(context3);
+        assertNotSame(schema1, schema2);
+        assertNotSame(schema1, schema3);
+
+        // The member lists are the same objects, and their members belong to
+        // the first schema.
+        final RolapHierarchy hierarchy1 = getStoreHierarchy(schema1);
+        final List<RolapMember> states1 = getStates(schema1);
+        assertSame(states1, getStates(schema2));
+        assertSame(states1, getStates(schema3));
+        for (RolapMember member : states1) {
+            assertSame(hierarchy1, member.getHierarchy());
+            assertSame(
+                hierarchy1, member.getParentMember().getHierarchy());
+        }
+
+        // Queries in the second schema see members of its own cubes.
+        final Result result =
+            context2.executeQuery(
+                "select [Store].[USA].Children on 0 from [Sales]");
+        final List<Position> positions = result.getAxes()[0].getPositions();
+        assertEquals(3, positions.size());
+        for (Position position : positions) {
+            final RolapCubeMember member = (RolapCubeMember) position.get(0);
+            assertSame(schema2, member.getCube().getSchema());
+            assertSame(schema2, member.getLevel().getCube().getSchema());
+        }
+
+        // Flushing a schema that uses the shared reader leaves the owner
+        // and the others alone.
+        context3.getConnection().getCacheControl(null).flushSchema(schema3);
+        assertFalse(isPooled(schema3));
+        assertTrue(isPooled(schema1));
+        assertTrue(isPooled(schema2));
+        for (RolapMember member : states1) {
+            assertSame(hierarchy1, member.getHierarchy());
+        }
+
+        // Flushing the owner flushes the schemas that share its readers, and
+        // the next schema loads its own.
+        context1.getConnection().getCacheControl(null).flushSchema(schema1);
+        assertFalse(isPooled(schema1));
+        assertFalse(isPooled(schema2));
+        final RolapSchema schema4 =
+            getSchema(getTenantContext("tenant 2").withFreshConnection());
+        assertNotSame(schema2, schema4);
+        assertTrue(
+            getStoreHierarchy(schema4).getMemberReader()
+                instanceof SmartMemberReader);
+        for (RolapMember member : getStates(schema4)) {
+            assertSame(getStoreHierarchy(schema4), member.getHierarchy());
+        }
+    }
+}
+
+// End SharedMemberReaderPoolTest.java
@@ -0,0 +1,105 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.sql.SqlQuery;
+import mondrian.spi.Dialect;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test for {@link RangeColumnPredicate}.
+ */
+public class RangeColumnPredicateTest extends TestCase {
+
+  private RolapStar.Column column;
+  private SqlQuery sqlQuery;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    column = mock(RolapStar.Column.class);
+    sqlQuery = mock(SqlQuery.class);
+    final RolapStar star = mock(RolapStar.class);
+    final Dialect dialect = mock(Dialect.class);
+    when(column.getTable()).thenReturn(mock(RolapStar.Table.class));
+    when(column.getStar()).thenReturn(star);
+    when(column.getBitPosition()).thenReturn(1);
+    when(star.getColumnCount()).thenReturn(4);
+    when(column.generateExprString(sqlQuery)).thenReturn("t.k");
+    when(sqlQuery.getDialect()).thenReturn(dialect);
+    doAnswer(
+      new Answer<Object>() {
+        public Object answer(InvocationOnMock invocation) {
+          final Object[] args = invocation.getArguments();
+          ((StringBuilder) args[0]).append(args[1]);
+          return null;
+        }
+      })
+      .when(dialect)
+      .quote(
+        any(StringBuilder.class), any(),
+        any(Dialect.Datatype.class));
+  }
+
+  private RangeColumnPredicate range(
+    boolean lowerInclusive, Integer lower,
+    boolean upperInclusive, Integer upper)
+  {
+    return new RangeColumnPredicate(
+      column,
+      lowerInclusive,
+      lower == null ? null : new ValueColumnPredicate(column, lower),
+      upperInclusive,
+      upper == null ? null : new ValueColumnPredicate(column, upper));
+  }
+
+  private String toSql(RangeColumnPredicate predicate) {
+    final StringBuilder buf = new StringBuilder();
+    predicate.toSql(sqlQuery, buf);
+    return buf.toString();
+  }
+
+  public void testToSql() {
+    assertEquals("t.k >= 3 and t.k <= 9", toSql(range(true, 3, true, 9)));
+    assertEquals("t.k > 3 and t.k < 9", toSql(range(false, 3, false, 9)));
+    assertEquals("t.k > 3", toSql(range(false, 3, false, null)));
+    assertEquals("t.k <= 9", toSql(range(false, null, true, 9)));
+    assertEquals("true", toSql(range(false, null, false, null)));
+  }
+
+  public void testEvaluate() {
+    final RangeColumnPredicate predicate = range(true, 3, false, 9);
+    assertFalse(predicate.evaluate(2));
+    assertTrue(predicate.evaluate(3));
+    assertTrue(predicate.evaluate(8));
+    assertFalse(predicate.evaluate(9));
+  }
+
+  public void testEquals() {
+    assertTrue(range(true, 3, true, 9).equalConstraint(range(true, 3, true, 9)));
+    assertFalse(range(true, 3, true, 9).equalConstraint(range(true, 3, true, 8)));
+    assertFalse(range(true, 3, true, 9).equalConstraint(range(false, 3, true, 9)));
+    // Unbounded ranges can be hashed and compared.
+    assertEquals(
+      range(false, null, true, 9).hashCode(),
+      range(false, null, true, 9).hashCode());
+    assertEquals(range(false, null, true, 9), range(false, null, true, 9));
+    assertFalse(range(false, null, true, 9).equals(range(true, 9, true, 9)));
+  }
+}
+
+// End RangeColumnPredicateTest.java
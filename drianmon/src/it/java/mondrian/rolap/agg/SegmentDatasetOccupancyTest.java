@@ -0,0 +1,72 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+
+/**
+ * Tests {@link SegmentDataset#getOccupancy(int[])}.
+ */
+public class SegmentDatasetOccupancyTest extends TestCase {
+    // Two axes, of lengths 2 and 3.
+    private final SegmentAxis[] axes = {
+        new SegmentAxis(null, new Comparable[] {1, 2}),
+        new SegmentAxis(null, new Comparable[] {"a", "b", "c"})
+    };
+    private final int[] axisMultipliers = {3, 1};
+    private final BitSet expected = new BitSet();
+
+    protected void setUp() throws Exception {
+        // Cells (1, "b") and (2, "c") have values.
+        expected.set(1);
+        expected.set(5);
+    }
+
+    public void testDenseNative() {
+        final BitSet nullIndicators = new BitSet();
+        nullIndicators.set(0, 6);
+        nullIndicators.clear(1);
+        nullIndicators.clear(5);
+        final SegmentDataset dataset =
+            new DenseDoubleSegmentDataset(
+                axes, new double[] {0, 1.5, 0, 0, 0, 2.5}, nullIndicators);
+        assertEquals(expected, dataset.getOccupancy(axisMultipliers));
+    }
+
+    public void testDenseNativeAllNull() {
+        final BitSet nullIndicators = new BitSet();
+        nullIndicators.set(0, 6);
+        final SegmentDataset dataset =
+            new DenseDoubleSegmentDataset(
+                axes, new double[6], nullIndicators);
+        assertTrue(dataset.getOccupancy(axisMultipliers).isEmpty());
+    }
+
+    public void testDenseObject() {
+        final SegmentDataset dataset =
+            new DenseObjectSegmentDataset(
+                axes, new Object[] {null, "x", null, null, null, "y"});
+        assertEquals(expected, dataset.getOccupancy(axisMultipliers));
+    }
+
+    public void testSparse() {
+        final SparseSegmentDataset dataset = new SparseSegmentDataset();
+        dataset.put(CellKey.Generator.newCellKey(new int[] {0, 1}), "x");
+        dataset.put(CellKey.Generator.newCellKey(new int[] {1, 2}), "y");
+        dataset.put(CellKey.Generator.newCellKey(new int[] {1, 0}), null);
+        assertEquals(expected, dataset.getOccupancy(axisMultipliers));
+    }
+}
+
+// End SegmentDatasetOccupancyTest.java
@@ -210,6 +210,65 @@ public class Olap4jTest extends FoodMartTestCase {
         assertNotNull(properties.get("Store Type"));
     }
 
+    /**
+     * Tests that the XMLA handler's hook to prefetch the member properties
+     * of an axis loads the children of the members in bulk, and that
+     * CHILDREN_CARDINALITY is then the same as without the prefetch but is
+     * computed without a query per member.
+     */
+    public void testPrefetchMemberProperties() throws SQLException {
+        final String mdx =
+            "select [Store].[Store State].Members on 0\n"
+            + "from [Sales]";
+        final Property cardinality =
+            Property.StandardMemberProperty.CHILDREN_CARDINALITY;
+        getTestContext().flushSchemaCache();
+        final CellSetAxis axis0 =
+            getTestContext().getOlap4jConnection().createStatement()
+                .executeOlapQuery(mdx).getAxes().get(0);
+        final Map<String, Object> expected = new LinkedHashMap<String, Object>();
+        for (Position position : axis0.getPositions()) {
+            final Member member = position.getMembers().get(0);
+            expected.put(
+                member.getUniqueName(), member.getPropertyValue(cardinality));
+        }
+        assertEquals(5, expected.get("[Store].[USA].[CA]"));
+
+        getTestContext().flushSchemaCache();
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        final CellSetAxis axis =
+            connection.createStatement().executeOlapQuery(mdx).getAxes()
+                .get(0);
+        final List<String> sqls = new ArrayList<String>();
+        mondrian.rolap.RolapUtil.setHook(
+            new mondrian.rolap.RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            XmlaHandler.getExtra(connection).prefetchMemberProperties(
+                axis, Collections.singletonList(cardinality));
+            // All states are on one level, so one query reads their
+            // children.
+            assertEquals(sqls.toString(), 1, sqls.size());
+            sqls.clear();
+            final Map<String, Object> actual =
+                new LinkedHashMap<String, Object>();
+            for (Position position : axis.getPositions()) {
+                final Member member = position.getMembers().get(0);
+                actual.put(
+                    member.getUniqueName(),
+                    member.getPropertyValue(cardinality));
+            }
+            assertEquals(expected, actual);
+            assertEquals(sqls.toString(), 0, sqls.size());
+        } finally {
+            mondrian.rolap.RolapUtil.setHook(null);
+        }
+    }
+
     private Property findProperty(CellSetAxis axis, String name) {
         for (Property property : axis.getAxisMetaData().getProperties()) {
             if (property.getName().equals(name)) {
@@ -913,6 +913,82 @@ public class FormatTest extends TestCase {
       checkFormat(null, new BigDecimal("100000001.1"), format, "0000100000001");
       checkFormat(null, new BigDecimal("100000000.5"), format, "0000100000001");
       }
+
+    /**
+     * Tests a format with a thousand separator between every digit, for
+     * numbers too long to fit the default size of the per-thread result
+     * buffer along with their separators.
+     */
+    public void testSeparatorEveryDigit() {
+        checkFormat(null, 12345, "#,#,#", "1,2,3,4,5");
+        final StringBuilder buf = new StringBuilder("1");
+        for (int i = 0; i < 60; i++) {
+            buf.append(",0");
+        }
+        checkFormat(null, 1e60, "#,#,#", buf.toString());
+    }
+
+    /**
+     * Tests that integers, which are formatted directly into a per-thread
+     * buffer, are formatted the same as via
+     * {@link MondrianFloatingDecimal}, for a range of numeric formats.
+     */
+    public void testIntegralMatchesFloatingDecimal() {
+        final Random random = new Random(1234);
+        final long[] values = new long[1000];
+        for (int i = 1; i < values.length; i++) {
+            // Up to 16 digits, and less than 2^53 in magnitude.
+            values[i] =
+                random.nextLong() % (long) Math.pow(10, random.nextInt(16));
+        }
+        final StringBuilder buf = new StringBuilder();
+        final StringBuilder buf2 = new StringBuilder();
+        for (Format.FormatLocale locale
+            : new Format.FormatLocale[] {Format.locale_US, localeFra})
+        {
+            for (String formatString
+                : new String[] {"0", "#,##0", "#,##,##0"})
+            {
+                for (int zeroesLeft : new int[] {0, 1, 4}) {
+                    for (int zeroesRight : new int[] {0, 2}) {
+                        for (int digitsRight : new int[] {0, 2}) {
+                            for (int decimalShift : new int[] {0, 2}) {
+                                for (boolean useDecimal
+                                    : new boolean[] {false, true})
+                                {
+                                    final Format.NumericFormat format =
+                                        new Format.NumericFormat(
+                                            formatString, locale, 0,
+                                            1, zeroesLeft,
+                                            digitsRight, zeroesRight,
+                                            0, 0, useDecimal,
+                                            !formatString.equals("0"),
+                                            formatString);
+                                    format.decimalShift = decimalShift;
+                                    for (long value : values) {
+                                        buf.setLength(0);
+                                        buf2.setLength(0);
+                                        format.format(value, buf);
+                                        format.formatFloatingDecimal(
+                                            value, buf2);
+                                        assertEquals(
+                                            buf2.toString(), buf.toString());
+                                        buf.setLength(0);
+                                        buf2.setLength(0);
+                                        format.format((double) value, buf);
+                                        format.formatFloatingDecimal(
+                                            (double) value, buf2);
+                                        assertEquals(
+                                            buf2.toString(), buf.toString());
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
 
 // End FormatTest.java
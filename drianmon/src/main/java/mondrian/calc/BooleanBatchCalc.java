@@ -0,0 +1,39 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc;
+
+import mondrian.olap.Evaluator;
+
+import java.util.BitSet;
+
+/**
+ * Compiled expression that can compute its <code>boolean</code> value for
+ * every tuple of a list in one call.
+ *
+ * @see DoubleBatchCalc
+ */
+public interface BooleanBatchCalc extends BooleanCalc {
+    /**
+     * Evaluates this expression for each tuple in a list.
+     *
+     * <p>Bit <code>i</code> of the result is set if this expression would
+     * return true from {@link #evaluateBoolean(mondrian.olap.Evaluator)}
+     * with tuple <code>i</code> set as the context of the evaluator.
+     *
+     * <p>The context of the evaluator is the same on return as on entry.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @return Bit set of the tuples for which the expression is true
+     */
+    BitSet evaluateBooleanBatch(Evaluator evaluator, TupleList tupleList);
+}
+
+// End BooleanBatchCalc.java
@@ -0,0 +1,59 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc;
+
+import mondrian.olap.Evaluator;
+
+import java.util.BitSet;
+
+/**
+ * Compiled expression that can compute its <code>double</code> value for
+ * every tuple of a list in one call.
+ *
+ * <p>Functions such as <code>Sum</code>, <code>Filter</code> and
+ * <code>Order</code> evaluate an expression once per tuple of a set. If the
+ * expression implements this interface, they call
+ * {@link #evaluateDoubleBatch} instead of
+ * {@link #evaluateDouble(mondrian.olap.Evaluator)}, and the implementation
+ * can work on whole arrays of values rather than one value at a time.
+ *
+ * <p>Callers that do not care whether a calc supports batch evaluation
+ * should use
+ * {@link mondrian.calc.impl.BatchCalcUtil#evaluateDoubles}.
+ */
+public interface DoubleBatchCalc extends DoubleCalc {
+    /**
+     * Evaluates this expression for each tuple in a list.
+     *
+     * <p>Element <code>i</code> of the result is the value this expression
+     * would return from {@link #evaluateDouble(mondrian.olap.Evaluator)}
+     * with tuple <code>i</code> set as the context of the evaluator. If that
+     * value is null, the element is
+     * {@link mondrian.olap.fun.FunUtil#DoubleNull} and bit <code>i</code> of
+     * <code>nulls</code> is set.
+     *
+     * <p>The context of the evaluator is the same on return as on entry.
+     *
+     * <p>Returns null if the expression yields a value that is not numeric
+     * for any tuple; the caller must then evaluate the expression tuple at a
+     * time, and handle the value as it would have without batching.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @param nulls Bit set, initially empty, in which to flag null values
+     * @return Array of values, one per tuple, or null
+     */
+    double[] evaluateDoubleBatch(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BitSet nulls);
+}
+
+// End DoubleBatchCalc.java
@@ -0,0 +1,104 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+import mondrian.olap.fun.FunUtil;
+
+import java.util.BitSet;
+
+/**
+ * Abstract implementation of a <code>double</code> expression that combines
+ * the values of two <code>double</code> expressions, such as an arithmetic
+ * operator.
+ *
+ * <p>The derived class must implement {@link #apply(double, double)}.
+ * If both operands support batch evaluation, so does this expression: it
+ * evaluates each operand over the whole list, then combines the two arrays.
+ */
+public abstract class AbstractBinaryDoubleCalc
+    extends AbstractDoubleCalc
+    implements DoubleBatchCalc
+{
+    protected final DoubleCalc calc0;
+    protected final DoubleCalc calc1;
+
+    /**
+     * Creates an AbstractBinaryDoubleCalc.
+     *
+     * @param exp Source expression
+     * @param calc0 Left operand
+     * @param calc1 Right operand
+     */
+    protected AbstractBinaryDoubleCalc(
+        Exp exp,
+        DoubleCalc calc0,
+        DoubleCalc calc1)
+    {
+        super(exp, new Calc[] {calc0, calc1});
+        this.calc0 = calc0;
+        this.calc1 = calc1;
+    }
+
+    /**
+     * Combines the values of the operands.
+     *
+     * @param v0 Value of left operand, or
+     *   {@link mondrian.olap.fun.FunUtil#DoubleNull}
+     * @param v1 Value of right operand, or
+     *   {@link mondrian.olap.fun.FunUtil#DoubleNull}
+     * @return Result, or {@link mondrian.olap.fun.FunUtil#DoubleNull}
+     */
+    protected abstract double apply(double v0, double v1);
+
+    public double evaluateDouble(Evaluator evaluator) {
+        final double v0 = calc0.evaluateDouble(evaluator);
+        final double v1 = calc1.evaluateDouble(evaluator);
+        return apply(v0, v1);
+    }
+
+    /**
+     * Returns whether both operands support batch evaluation, and therefore
+     * batch evaluation of this expression is worthwhile.
+     */
+    boolean isBatched() {
+        return calc0 instanceof DoubleBatchCalc
+            && calc1 instanceof DoubleBatchCalc;
+    }
+
+    public double[] evaluateDoubleBatch(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BitSet nulls)
+    {
+        if (!isBatched()) {
+            return BatchCalcUtil.evaluateDoublesByTuple(
+                evaluator, tupleList, this, nulls);
+        }
+        final double[] values0 =
+            BatchCalcUtil.evaluateDoubles(
+                evaluator, tupleList, calc0, new BitSet());
+        final double[] values1 =
+            BatchCalcUtil.evaluateDoubles(
+                evaluator, tupleList, calc1, new BitSet());
+        for (int i = 0; i < values0.length; i++) {
+            final double value = apply(values0[i], values1[i]);
+            if (value == FunUtil.DoubleNull) {
+                nulls.set(i);
+            }
+            values0[i] = value;
+        }
+        return values0;
+    }
+}
+
+// End AbstractBinaryDoubleCalc.java
@@ -0,0 +1,116 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+import mondrian.olap.fun.FunUtil;
+
+import java.util.BitSet;
+
+/**
+ * Abstract implementation of a <code>boolean</code> expression that compares
+ * the values of two <code>double</code> expressions.
+ *
+ * <p>The derived class must implement {@link #compare(double, double)}.
+ * If either value is null or NaN, the result is
+ * {@link mondrian.olap.fun.FunUtil#BooleanNull}.
+ * If both operands support batch evaluation, so does this expression.
+ */
+public abstract class AbstractDoubleComparisonCalc
+    extends AbstractBooleanCalc
+    implements BooleanBatchCalc
+{
+    protected final DoubleCalc calc0;
+    protected final DoubleCalc calc1;
+
+    /**
+     * Creates an AbstractDoubleComparisonCalc.
+     *
+     * @param exp Source expression
+     * @param calc0 Left operand
+     * @param calc1 Right operand
+     */
+    protected AbstractDoubleComparisonCalc(
+        Exp exp,
+        DoubleCalc calc0,
+        DoubleCalc calc1)
+    {
+        super(exp, new Calc[] {calc0, calc1});
+        this.calc0 = calc0;
+        this.calc1 = calc1;
+    }
+
+    /**
+     * Compares the values of the operands. Neither is null or NaN.
+     *
+     * @param v0 Value of left operand
+     * @param v1 Value of right operand
+     * @return Result of comparison
+     */
+    protected abstract boolean compare(double v0, double v1);
+
+    public boolean evaluateBoolean(Evaluator evaluator) {
+        final double v0 = calc0.evaluateDouble(evaluator);
+        final double v1 = calc1.evaluateDouble(evaluator);
+        return apply(v0, v1);
+    }
+
+    /**
+     * Compares the values of the operands, returning
+     * {@link mondrian.olap.fun.FunUtil#BooleanNull} if either is null or NaN.
+     * Called by {@link MethodHandleCalcCompiler}.
+     */
+    boolean apply(double v0, double v1) {
+        if (Double.isNaN(v0)
+            || Double.isNaN(v1)
+            || v0 == FunUtil.DoubleNull
+            || v1 == FunUtil.DoubleNull)
+        {
+            return FunUtil.BooleanNull;
+        }
+        return compare(v0, v1);
+    }
+
+    /**
+     * Returns whether both operands support batch evaluation, and therefore
+     * batch evaluation of this expression is worthwhile.
+     */
+    boolean isBatched() {
+        return calc0 instanceof DoubleBatchCalc
+            && calc1 instanceof DoubleBatchCalc;
+    }
+
+    public BitSet evaluateBooleanBatch(
+        Evaluator evaluator,
+        TupleList tupleList)
+    {
+        if (!isBatched()) {
+            return BatchCalcUtil.evaluateBooleansByTuple(
+                evaluator, tupleList, this);
+        }
+        final double[] values0 =
+            BatchCalcUtil.evaluateDoubles(
+                evaluator, tupleList, calc0, new BitSet());
+        final double[] values1 =
+            BatchCalcUtil.evaluateDoubles(
+                evaluator, tupleList, calc1, new BitSet());
+        final BitSet result = new BitSet(values0.length);
+        for (int i = 0; i < values0.length; i++) {
+            if (apply(values0[i], values1[i])) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+}
+
+// End AbstractDoubleComparisonCalc.java
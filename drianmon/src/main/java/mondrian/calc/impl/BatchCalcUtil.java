@@ -0,0 +1,206 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.Evaluator;
+import mondrian.olap.fun.FunUtil;
+import mondrian.server.Execution;
+import mondrian.util.CancellationChecker;
+
+import java.util.BitSet;
+
+/**
+ * Utilities for evaluating compiled expressions over lists of tuples.
+ *
+ * @see DoubleBatchCalc
+ * @see BooleanBatchCalc
+ */
+public class BatchCalcUtil {
+    private BatchCalcUtil() {
+    }
+
+    /**
+     * Evaluates a <code>double</code> expression for each tuple in a list,
+     * using {@link DoubleBatchCalc#evaluateDoubleBatch} if the expression
+     * supports it.
+     *
+     * <p>Unlike {@link DoubleBatchCalc#evaluateDoubleBatch}, never returns
+     * null; if the expression yields a value that is not numeric, throws the
+     * same error as {@link DoubleCalc#evaluateDouble}.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @param calc Expression
+     * @param nulls Bit set, initially empty, in which to flag null values
+     * @return Array of values, one per tuple
+     */
+    public static double[] evaluateDoubles(
+        Evaluator evaluator,
+        TupleList tupleList,
+        DoubleCalc calc,
+        BitSet nulls)
+    {
+        if (calc instanceof DoubleBatchCalc) {
+            final double[] values =
+                ((DoubleBatchCalc) calc).evaluateDoubleBatch(
+                    evaluator, tupleList, nulls);
+            if (values != null) {
+                return values;
+            }
+            nulls.clear();
+        }
+        return evaluateDoublesByTuple(evaluator, tupleList, calc, nulls);
+    }
+
+    /**
+     * Evaluates a <code>double</code> expression for each tuple in a list,
+     * one tuple at a time.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @param calc Expression
+     * @param nulls Bit set, initially empty, in which to flag null values
+     * @return Array of values, one per tuple
+     */
+    public static double[] evaluateDoublesByTuple(
+        Evaluator evaluator,
+        TupleList tupleList,
+        DoubleCalc calc,
+        BitSet nulls)
+    {
+        final double[] values = new double[tupleList.size()];
+        final int savepoint = evaluator.savepoint();
+        try {
+            final TupleCursor cursor = tupleList.tupleCursor();
+            final Execution execution = getExecution(evaluator);
+            for (int i = 0; cursor.forward(); i++) {
+                CancellationChecker.checkCancelOrTimeout(i, execution);
+                cursor.setContext(evaluator);
+                final double value = calc.evaluateDouble(evaluator);
+                if (value == FunUtil.DoubleNull) {
+                    nulls.set(i);
+                }
+                values[i] = value;
+            }
+            return values;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Evaluates a <code>boolean</code> expression for each tuple in a list,
+     * using {@link BooleanBatchCalc#evaluateBooleanBatch} if the expression
+     * supports it.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @param calc Expression
+     * @return Bit set of the tuples for which the expression is true
+     */
+    public static BitSet evaluateBooleans(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BooleanCalc calc)
+    {
+        if (calc instanceof BooleanBatchCalc) {
+            return ((BooleanBatchCalc) calc).evaluateBooleanBatch(
+                evaluator, tupleList);
+        }
+        return evaluateBooleansByTuple(evaluator, tupleList, calc);
+    }
+
+    /**
+     * Evaluates a <code>boolean</code> expression for each tuple in a list,
+     * one tuple at a time.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @param calc Expression
+     * @return Bit set of the tuples for which the expression is true
+     */
+    public static BitSet evaluateBooleansByTuple(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BooleanCalc calc)
+    {
+        final BitSet result = new BitSet(tupleList.size());
+        final int savepoint = evaluator.savepoint();
+        try {
+            final TupleCursor cursor = tupleList.tupleCursor();
+            final Execution execution = getExecution(evaluator);
+            for (int i = 0; cursor.forward(); i++) {
+                CancellationChecker.checkCancelOrTimeout(i, execution);
+                cursor.setContext(evaluator);
+                if (calc.evaluateBoolean(evaluator)) {
+                    result.set(i);
+                }
+            }
+            return result;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Evaluates a scalar expression for each tuple in a list, and converts
+     * the values to <code>double</code>. Implements
+     * {@link DoubleBatchCalc#evaluateDoubleBatch} for expressions, such as
+     * {@link ValueCalc}, whose natural result is an object.
+     *
+     * <p>All the cells the expression needs are requested in one pass over
+     * the list, so a batching cell reader can load those that are missing in
+     * one round trip. A cell that is not loaded yet has the value 0, as in
+     * {@link GenericCalc#evaluateDouble}.
+     *
+     * @param evaluator Evaluation context
+     * @param tupleList List of tuples
+     * @param calc Expression
+     * @param nulls Bit set, initially empty, in which to flag null values
+     * @return Array of values, one per tuple, or null if a value is not
+     *   numeric
+     */
+    static double[] evaluateValues(
+        Evaluator evaluator,
+        TupleList tupleList,
+        Calc calc,
+        BitSet nulls)
+    {
+        final double[] values = new double[tupleList.size()];
+        final int savepoint = evaluator.savepoint();
+        try {
+            final TupleCursor cursor = tupleList.tupleCursor();
+            final Execution execution = getExecution(evaluator);
+            for (int i = 0; cursor.forward(); i++) {
+                CancellationChecker.checkCancelOrTimeout(i, execution);
+                cursor.setContext(evaluator);
+                final Object o = calc.evaluate(evaluator);
+                if (o == null) {
+                    nulls.set(i);
+                    values[i] = FunUtil.DoubleNull;
+                } else if (o instanceof Number) {
+                    values[i] = ((Number) o).doubleValue();
+                } else {
+                    return null;
+                }
+            }
+            return values;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    private static Execution getExecution(Evaluator evaluator) {
+        return evaluator.getQuery().getStatement().getCurrentExecution();
+    }
+}
+
+// End BatchCalcUtil.java
@@ -0,0 +1,49 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+
+/**
+ * Expression that yields the value of the first of a list of expressions
+ * that is not null. Implements the <code>CoalesceEmpty</code> function.
+ */
+public class CoalesceEmptyCalc extends GenericCalc {
+    final Calc[] calcs;
+
+    /**
+     * Creates a CoalesceEmptyCalc.
+     *
+     * @param exp Source expression
+     * @param calcs Expressions to evaluate, in order
+     */
+    public CoalesceEmptyCalc(Exp exp, Calc[] calcs) {
+        super(exp);
+        this.calcs = calcs;
+    }
+
+    public Object evaluate(Evaluator evaluator) {
+        for (Calc calc : calcs) {
+            final Object o = calc.evaluate(evaluator);
+            if (o != null) {
+                return o;
+            }
+        }
+        return null;
+    }
+
+    public Calc[] getCalcs() {
+        return calcs;
+    }
+}
+
+// End CoalesceEmptyCalc.java
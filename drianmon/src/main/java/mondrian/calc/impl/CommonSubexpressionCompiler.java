@@ -0,0 +1,279 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ExpCompiler;
+import mondrian.calc.ResultStyle;
+import mondrian.mdx.MdxVisitorImpl;
+import mondrian.mdx.MemberExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+import mondrian.olap.ExpCacheDescriptor;
+import mondrian.olap.Formula;
+import mondrian.olap.Member;
+import mondrian.olap.Query;
+import mondrian.olap.QueryAxis;
+import mondrian.olap.Util;
+import mondrian.olap.type.ScalarType;
+import mondrian.olap.type.SymbolType;
+import mondrian.olap.type.TupleType;
+import mondrian.olap.type.Type;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiler that evaluates sub-expressions that occur more than once in the
+ * calculated members of a query only once per context.
+ *
+ * <p>Calculated measures often repeat sub-expressions, such as the sales of
+ * the same period a year ago, or the denominator of a share of the parent.
+ * {@link Subexpressions#find(Query)} finds the scalar function calls and
+ * tuples whose text occurs more than once in the expressions of a query and
+ * of the calculated members they use. This compiler compiles each of them
+ * once, and wraps it in a calc that looks its result up in the evaluator's
+ * expression cache (see
+ * {@link Evaluator#getCachedResult(ExpCacheDescriptor)}), keyed by the
+ * current members of the hierarchies that the sub-expression depends on, as
+ * the <code>Cache</code> function does.
+ *
+ * @see mondrian.olap.MondrianProperties#EliminateCommonSubexpressions
+ */
+public class CommonSubexpressionCompiler extends DelegatingExpCompiler {
+    private final Subexpressions subexpressions;
+
+    /**
+     * Creates a CommonSubexpressionCompiler.
+     *
+     * @param parent Parent compiler
+     * @param subexpressions Common sub-expressions of the query
+     */
+    public CommonSubexpressionCompiler(
+        ExpCompiler parent,
+        Subexpressions subexpressions)
+    {
+        super(parent);
+        this.subexpressions = subexpressions;
+    }
+
+    protected Calc afterCompile(Exp exp, Calc calc, boolean mutable) {
+        return subexpressions.share(exp, calc, getEvaluator());
+    }
+
+    /**
+     * Sub-expressions that occur more than once in a query, their compiled
+     * form, and statistics.
+     */
+    public static class Subexpressions {
+        private final Set<String> texts;
+        private final Map<List<Object>, Calc> calcs =
+            new ConcurrentHashMap<List<Object>, Calc>();
+        private final AtomicLong callCount = new AtomicLong();
+        private final AtomicLong evaluationCount = new AtomicLong();
+
+        private Subexpressions(Set<String> texts) {
+            this.texts = texts;
+        }
+
+        /**
+         * Finds the sub-expressions that occur more than once in the
+         * formulas, axes and slicer of a query, and in the calculated members
+         * they reference, recursively.
+         *
+         * @param query Resolved query
+         * @return Common sub-expressions, or null if there are none
+         */
+        public static Subexpressions find(Query query) {
+            final Finder finder = new Finder();
+            if (query.getFormulas() != null) {
+                for (Formula formula : query.getFormulas()) {
+                    if (formula.isMember()) {
+                        finder.visitMember(formula.getMdxMember());
+                    } else {
+                        finder.visitExp(formula.getExpression());
+                    }
+                }
+            }
+            if (query.getAxes() != null) {
+                for (QueryAxis axis : query.getAxes()) {
+                    finder.visitExp(axis.getSet());
+                }
+            }
+            if (query.getSlicerAxis() != null) {
+                finder.visitExp(query.getSlicerAxis().getSet());
+            }
+            final Set<String> texts = new HashSet<String>();
+            for (Map.Entry<String, Map<Exp, Boolean>> entry
+                : finder.occurrences.entrySet())
+            {
+                if (entry.getValue().size() > 1) {
+                    texts.add(entry.getKey());
+                }
+            }
+            return texts.isEmpty() ? null : new Subexpressions(texts);
+        }
+
+        /**
+         * Returns the number of distinct sub-expressions that are shared.
+         */
+        public int getSharedCount() {
+            return texts.size();
+        }
+
+        /**
+         * Returns the number of times that a shared sub-expression was
+         * required, but its result was found in the cache.
+         */
+        public long getEliminatedCount() {
+            return callCount.get() - evaluationCount.get();
+        }
+
+        /**
+         * Resets the statistics, at the start of an execution of the query.
+         */
+        public void resetCounts() {
+            callCount.set(0);
+            evaluationCount.set(0);
+        }
+
+        /**
+         * Returns the shared calc for an expression, creating it from a
+         * compiled expression the first time, or the compiled expression
+         * itself if the expression is not shared.
+         */
+        private Calc share(Exp exp, Calc calc, Evaluator evaluator) {
+            // A tuple is shared when compiled as a scalar, which yields the
+            // value of the cell, not when compiled as a tuple of members.
+            if (!(exp instanceof ResolvedFunCall)
+                || !(calc.getType() instanceof ScalarType)
+                || calc.getType() instanceof SymbolType
+                || calc instanceof ConstantCalc)
+            {
+                return calc;
+            }
+            final String text = Util.unparse(exp);
+            if (!texts.contains(text)) {
+                return calc;
+            }
+            // Different compiler methods may convert the value differently,
+            // so share only among calcs of the same class.
+            final List<Object> key =
+                Arrays.<Object>asList(text, calc.getClass());
+            Calc sharedCalc = calcs.get(key);
+            if (sharedCalc == null) {
+                sharedCalc = new SharedCalc(exp, calc, evaluator);
+                final Calc previous = calcs.putIfAbsent(key, sharedCalc);
+                if (previous != null) {
+                    sharedCalc = previous;
+                }
+            }
+            return sharedCalc;
+        }
+
+        /**
+         * Calc that evaluates a shared sub-expression once per context of
+         * the hierarchies it depends on.
+         */
+        private class SharedCalc extends GenericCalc {
+            private final Calc calc;
+            private final ExpCacheDescriptor descriptor;
+
+            SharedCalc(Exp exp, Calc calc, Evaluator evaluator) {
+                super(exp, new Calc[] {calc});
+                this.calc = calc;
+                this.descriptor =
+                    new ExpCacheDescriptor(exp, calc, evaluator) {
+                        public Object evaluate(Evaluator evaluator) {
+                            evaluationCount.incrementAndGet();
+                            return super.evaluate(evaluator);
+                        }
+
+                        public String getSharedText() {
+                            // Values depend on the compiled form, so are not
+                            // shared with other queries.
+                            return null;
+                        }
+                    };
+            }
+
+            public Object evaluate(Evaluator evaluator) {
+                callCount.incrementAndGet();
+                return evaluator.getCachedResult(descriptor);
+            }
+
+            public ResultStyle getResultStyle() {
+                return calc.getResultStyle();
+            }
+        }
+    }
+
+    /**
+     * Returns whether a type is that of a value that can be cached: a
+     * scalar, or a tuple, whose value is that of a cell.
+     */
+    private static boolean isValue(Type type) {
+        return type instanceof ScalarType && !(type instanceof SymbolType)
+            || type instanceof TupleType;
+    }
+
+    /**
+     * Counts the distinct occurrences of the text of each function call that
+     * yields a value.
+     */
+    private static class Finder extends MdxVisitorImpl {
+        final Map<String, Map<Exp, Boolean>> occurrences =
+            new HashMap<String, Map<Exp, Boolean>>();
+        private final Set<Member> visitedMembers = new HashSet<Member>();
+
+        void visitExp(Exp exp) {
+            if (exp != null) {
+                exp.accept(this);
+            }
+        }
+
+        void visitMember(Member member) {
+            if (member != null
+                && member.isCalculated()
+                && visitedMembers.add(member))
+            {
+                visitExp(member.getExpression());
+            }
+        }
+
+        public Object visit(MemberExpr memberExpr) {
+            visitMember(memberExpr.getMember());
+            return null;
+        }
+
+        public Object visit(ResolvedFunCall call) {
+            if (isValue(call.getType())) {
+                final String text = Util.unparse(call);
+                Map<Exp, Boolean> exps = occurrences.get(text);
+                if (exps == null) {
+                    exps = new IdentityHashMap<Exp, Boolean>();
+                    occurrences.put(text, exps);
+                }
+                exps.put(call, Boolean.TRUE);
+            }
+            return null;
+        }
+    }
+}
+
+// End CommonSubexpressionCompiler.java
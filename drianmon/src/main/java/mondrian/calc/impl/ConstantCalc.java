@@ -9,6 +9,8 @@
 
 package mondrian.calc.impl;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 
 import mondrian.calc.*;
@@ -26,7 +28,7 @@ import java.util.Map;
  * @author jhyde
  * @since Sep 27, 2005
  */
-public class ConstantCalc extends GenericCalc {
+public class ConstantCalc extends GenericCalc implements DoubleBatchCalc {
     private final Object o;
     private final int i;
     private final double d;
@@ -95,6 +97,22 @@ public class ConstantCalc extends GenericCalc {
         return d;
     }
 
+    public double[] evaluateDoubleBatch(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BitSet nulls)
+    {
+        if (o != null && !(o instanceof Number)) {
+            return null;
+        }
+        final double[] values = new double[tupleList.size()];
+        Arrays.fill(values, d);
+        if (o == null) {
+            nulls.set(0, values.length);
+        }
+        return values;
+    }
+
     public boolean dependsOn(Hierarchy hierarchy) {
         // A constant -- including a catalog element -- will evaluate to the
         // same result regardless of the evaluation context. For example, the
@@ -0,0 +1,58 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.BooleanCalc;
+import mondrian.calc.Calc;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+
+/**
+ * Expression that evaluates a condition, then yields the value of one of two
+ * expressions. Implements the <code>IIf</code> function for numeric, tuple
+ * and other non-set arguments.
+ */
+public class IifCalc extends GenericCalc {
+    final BooleanCalc booleanCalc;
+    final Calc calc1;
+    final Calc calc2;
+
+    /**
+     * Creates an IifCalc.
+     *
+     * @param exp Source expression
+     * @param booleanCalc Condition
+     * @param calc1 Expression to evaluate if condition is true
+     * @param calc2 Expression to evaluate if condition is false
+     */
+    public IifCalc(
+        Exp exp,
+        BooleanCalc booleanCalc,
+        Calc calc1,
+        Calc calc2)
+    {
+        super(exp);
+        this.booleanCalc = booleanCalc;
+        this.calc1 = calc1;
+        this.calc2 = calc2;
+    }
+
+    public Object evaluate(Evaluator evaluator) {
+        final boolean b = booleanCalc.evaluateBoolean(evaluator);
+        Calc calc = b ? calc1 : calc2;
+        return calc.evaluate(evaluator);
+    }
+
+    public Calc[] getCalcs() {
+        return new Calc[] {booleanCalc, calc1, calc2};
+    }
+}
+
+// End IifCalc.java
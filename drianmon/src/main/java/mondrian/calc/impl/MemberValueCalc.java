@@ -10,11 +10,15 @@
 package mondrian.calc.impl;
 
 import mondrian.calc.Calc;
+import mondrian.calc.DoubleBatchCalc;
 import mondrian.calc.MemberCalc;
+import mondrian.calc.TupleList;
 import mondrian.olap.*;
 import mondrian.olap.type.ScalarType;
 import mondrian.olap.type.Type;
 
+import java.util.BitSet;
+
 /**
  * Expression which evaluates a few member expressions,
  * sets the dimensional context to the result of those expressions,
@@ -29,7 +33,10 @@ import mondrian.olap.type.Type;
  * @author jhyde
  * @since Sep 27, 2005
  */
-public class MemberValueCalc extends GenericCalc {
+public class MemberValueCalc
+    extends GenericCalc
+    implements DoubleBatchCalc
+{
     private final MemberCalc memberCalc;
     private final boolean nullCheck;
 
@@ -104,6 +111,15 @@ public class MemberValueCalc extends GenericCalc {
         }
     }
 
+    public double[] evaluateDoubleBatch(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BitSet nulls)
+    {
+        return BatchCalcUtil.evaluateValues(
+            evaluator, tupleList, this, nulls);
+    }
+
     public Calc[] getCalcs() {
         return new MemberCalc[] {memberCalc};
     }
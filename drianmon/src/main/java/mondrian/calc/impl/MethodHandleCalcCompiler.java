@@ -0,0 +1,383 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Util;
+import mondrian.olap.fun.FunUtil;
+import mondrian.olap.type.BooleanType;
+import mondrian.olap.type.NumericType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.BitSet;
+
+/**
+ * Fuses a tree of compiled expressions into a single method handle.
+ *
+ * <p>A calculated member such as
+ * <code>IIf([Measures].[Unit Sales] &gt; 0, [Measures].[Store Sales] /
+ * [Measures].[Unit Sales], NULL)</code> compiles to a tree of calcs, and
+ * each evaluation makes a virtual call per node. The call sites see many
+ * different calc classes, so the JIT cannot inline them.
+ *
+ * <p>This compiler converts the inner nodes of the tree (arithmetic
+ * operators, numeric comparisons, numeric <code>IIf</code> and
+ * <code>CoalesceEmpty</code>) into method handle combinators; the leaves,
+ * and any node of another kind, are called through a handle bound to the
+ * calc. The result is one method handle per tree, which the JVM compiles to
+ * a specialized method once it is hot.
+ *
+ * <p>A fused calc returns its value as a {@link Double}. An <code>IIf</code>
+ * or <code>CoalesceEmpty</code> at the top of the tree, or in a branch of
+ * one, is fused only if all of its branches return doubles too, so that
+ * fusion never changes the type of a value, nor turns an error value into
+ * an exception.
+ *
+ * <p>Used by {@link mondrian.olap.Query#compileExpression} if
+ * {@link mondrian.olap.MondrianProperties#CompileCalcsToMethodHandles} is
+ * true.
+ */
+public class MethodHandleCalcCompiler {
+    private static final MethodType DOUBLE_TYPE =
+        MethodType.methodType(double.class, Evaluator.class);
+    private static final MethodType BOOLEAN_TYPE =
+        MethodType.methodType(boolean.class, Evaluator.class);
+
+    private static final MethodHandle EVALUATE_DOUBLE;
+    private static final MethodHandle EVALUATE_BOOLEAN;
+    private static final MethodHandle BINARY_APPLY;
+    private static final MethodHandle COMPARISON_APPLY;
+    private static final MethodHandle IS_NOT_NULL;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final MethodType doubleDouble =
+            MethodType.methodType(double.class, double.class, double.class);
+        try {
+            EVALUATE_DOUBLE =
+                lookup.findVirtual(DoubleCalc.class, "evaluateDouble",
+                    DOUBLE_TYPE);
+            EVALUATE_BOOLEAN =
+                lookup.findVirtual(BooleanCalc.class, "evaluateBoolean",
+                    BOOLEAN_TYPE);
+            BINARY_APPLY =
+                lookup.findVirtual(AbstractBinaryDoubleCalc.class, "apply",
+                    doubleDouble);
+            COMPARISON_APPLY =
+                lookup.findVirtual(AbstractDoubleComparisonCalc.class,
+                    "apply",
+                    doubleDouble.changeReturnType(boolean.class));
+            IS_NOT_NULL =
+                lookup.findStatic(MethodHandleCalcCompiler.class,
+                    "isNotNull",
+                    MethodType.methodType(boolean.class, double.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MethodHandleCalcCompiler() {
+    }
+
+    /**
+     * Fuses a compiled expression, if it is a tree of supported nodes.
+     *
+     * @param calc Compiled expression
+     * @return Fused expression, or the original if it cannot be fused
+     */
+    public static Calc compile(Calc calc) {
+        if (!isFusible(calc)) {
+            return calc;
+        }
+        if (calc.getType() instanceof BooleanType) {
+            final MethodHandle handle = booleanHandle(calc);
+            return handle == null
+                ? calc
+                : new FusedBooleanCalc((AbstractCalc) calc, handle);
+        } else {
+            final MethodHandle handle = doubleHandle(calc);
+            return handle == null
+                ? calc
+                : new FusedDoubleCalc((AbstractCalc) calc, handle);
+        }
+    }
+
+    /**
+     * Returns whether a calc is an inner node that this compiler can
+     * convert to a combinator.
+     */
+    private static boolean isFusible(Calc calc) {
+        if (calc instanceof AbstractBinaryDoubleCalc
+            || calc instanceof AbstractDoubleComparisonCalc)
+        {
+            return true;
+        }
+        return (calc instanceof IifCalc || calc instanceof CoalesceEmptyCalc)
+            && calc.getType() instanceof NumericType
+            && producesDouble(calc);
+    }
+
+    /**
+     * Returns whether {@link Calc#evaluate} of a calc returns a
+     * {@link Double} or null, as does that of a fused calc.
+     *
+     * <p><code>IIf</code> and <code>CoalesceEmpty</code> return the value of
+     * a branch as is, which may be an Integer, a BigDecimal or an error.
+     * Inside an arithmetic operator or a comparison that does not matter,
+     * because the operator converts the value to double anyway.
+     */
+    private static boolean producesDouble(Calc calc) {
+        if (calc instanceof IifCalc) {
+            final IifCalc iifCalc = (IifCalc) calc;
+            return producesDouble(iifCalc.calc1)
+                && producesDouble(iifCalc.calc2);
+        }
+        if (calc instanceof CoalesceEmptyCalc) {
+            for (Calc branch : ((CoalesceEmptyCalc) calc).calcs) {
+                if (!producesDouble(branch)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (calc instanceof ConstantCalc) {
+            final Object o = calc.evaluate(null);
+            return o == null || o instanceof Double;
+        }
+        return calc instanceof AbstractDoubleCalc;
+    }
+
+    /**
+     * Returns a method handle of type <code>(Evaluator)double</code> that
+     * computes the same value as {@link DoubleCalc#evaluateDouble}, or null.
+     */
+    private static MethodHandle doubleHandle(Calc calc) {
+        if (calc instanceof ConstantCalc) {
+            final Object o = calc.evaluate(null);
+            if (o == null || o instanceof Number) {
+                return MethodHandles.dropArguments(
+                    MethodHandles.constant(
+                        double.class,
+                        ((ConstantCalc) calc).evaluateDouble(null)),
+                    0,
+                    Evaluator.class);
+            }
+            return null;
+        }
+        if (calc instanceof AbstractBinaryDoubleCalc) {
+            final AbstractBinaryDoubleCalc binaryCalc =
+                (AbstractBinaryDoubleCalc) calc;
+            return binary(
+                BINARY_APPLY.bindTo(binaryCalc),
+                doubleHandle(binaryCalc.calc0),
+                doubleHandle(binaryCalc.calc1),
+                DOUBLE_TYPE);
+        }
+        if (calc instanceof IifCalc
+            && calc.getType() instanceof NumericType)
+        {
+            final IifCalc iifCalc = (IifCalc) calc;
+            final MethodHandle test = booleanHandle(iifCalc.booleanCalc);
+            final MethodHandle handle1 = doubleHandle(iifCalc.calc1);
+            final MethodHandle handle2 = doubleHandle(iifCalc.calc2);
+            if (test == null || handle1 == null || handle2 == null) {
+                return null;
+            }
+            return MethodHandles.guardWithTest(test, handle1, handle2);
+        }
+        if (calc instanceof CoalesceEmptyCalc
+            && calc.getType() instanceof NumericType)
+        {
+            final Calc[] calcs = ((CoalesceEmptyCalc) calc).calcs;
+            MethodHandle handle = doubleHandle(calcs[calcs.length - 1]);
+            for (int i = calcs.length - 2; i >= 0 && handle != null; i--) {
+                final MethodHandle first = doubleHandle(calcs[i]);
+                if (first == null) {
+                    return null;
+                }
+                // (double d, Evaluator e) -> d != DoubleNull ? d : rest(e)
+                final MethodHandle choose =
+                    MethodHandles.guardWithTest(
+                        MethodHandles.dropArguments(
+                            IS_NOT_NULL, 1, Evaluator.class),
+                        MethodHandles.dropArguments(
+                            MethodHandles.identity(double.class),
+                            1,
+                            Evaluator.class),
+                        MethodHandles.dropArguments(handle, 0, double.class));
+                handle = MethodHandles.foldArguments(choose, first);
+            }
+            return handle;
+        }
+        if (calc instanceof DoubleCalc) {
+            return EVALUATE_DOUBLE.bindTo(calc);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a method handle of type <code>(Evaluator)boolean</code> that
+     * computes the same value as {@link BooleanCalc#evaluateBoolean}, or
+     * null.
+     */
+    private static MethodHandle booleanHandle(Calc calc) {
+        if (calc instanceof AbstractDoubleComparisonCalc) {
+            final AbstractDoubleComparisonCalc comparisonCalc =
+                (AbstractDoubleComparisonCalc) calc;
+            return binary(
+                COMPARISON_APPLY.bindTo(comparisonCalc),
+                doubleHandle(comparisonCalc.calc0),
+                doubleHandle(comparisonCalc.calc1),
+                BOOLEAN_TYPE);
+        }
+        if (calc instanceof BooleanCalc) {
+            return EVALUATE_BOOLEAN.bindTo(calc);
+        }
+        return null;
+    }
+
+    /**
+     * Combines a handle of type <code>(double, double)T</code> with handles
+     * for its operands into a handle of type <code>(Evaluator)T</code>.
+     */
+    private static MethodHandle binary(
+        MethodHandle apply,
+        MethodHandle handle0,
+        MethodHandle handle1,
+        MethodType type)
+    {
+        if (handle0 == null || handle1 == null) {
+            return null;
+        }
+        return MethodHandles.permuteArguments(
+            MethodHandles.filterArguments(apply, 0, handle0, handle1),
+            type,
+            0, 0);
+    }
+
+    private static boolean isNotNull(double d) {
+        return d != FunUtil.DoubleNull;
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw Util.newInternal(e, "while evaluating fused expression");
+    }
+
+    /**
+     * Calc that evaluates a <code>double</code> expression via a method
+     * handle.
+     */
+    private static class FusedDoubleCalc
+        extends AbstractDoubleCalc
+        implements DoubleBatchCalc
+    {
+        private final AbstractCalc calc;
+        private final MethodHandle handle;
+
+        FusedDoubleCalc(AbstractCalc calc, MethodHandle handle) {
+            super(calc.exp, calc.getCalcs());
+            this.calc = calc;
+            this.handle = handle;
+        }
+
+        public double evaluateDouble(Evaluator evaluator) {
+            try {
+                return (double) handle.invokeExact(evaluator);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        public double[] evaluateDoubleBatch(
+            Evaluator evaluator,
+            TupleList tupleList,
+            BitSet nulls)
+        {
+            // Batch evaluation, if the whole tree supports it, beats
+            // evaluating tuple by tuple, even fused.
+            if (calc instanceof AbstractBinaryDoubleCalc
+                && ((AbstractBinaryDoubleCalc) calc).isBatched())
+            {
+                return ((AbstractBinaryDoubleCalc) calc).evaluateDoubleBatch(
+                    evaluator, tupleList, nulls);
+            }
+            return BatchCalcUtil.evaluateDoublesByTuple(
+                evaluator, tupleList, this, nulls);
+        }
+
+        public boolean dependsOn(Hierarchy hierarchy) {
+            return calc.dependsOn(hierarchy);
+        }
+
+        public ResultStyle getResultStyle() {
+            return calc.getResultStyle();
+        }
+    }
+
+    /**
+     * Calc that evaluates a <code>boolean</code> expression via a method
+     * handle.
+     */
+    private static class FusedBooleanCalc
+        extends AbstractBooleanCalc
+        implements BooleanBatchCalc
+    {
+        private final AbstractCalc calc;
+        private final MethodHandle handle;
+
+        FusedBooleanCalc(AbstractCalc calc, MethodHandle handle) {
+            super(calc.exp, calc.getCalcs());
+            this.calc = calc;
+            this.handle = handle;
+        }
+
+        public boolean evaluateBoolean(Evaluator evaluator) {
+            try {
+                return (boolean) handle.invokeExact(evaluator);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        public BitSet evaluateBooleanBatch(
+            Evaluator evaluator,
+            TupleList tupleList)
+        {
+            if (calc instanceof AbstractDoubleComparisonCalc
+                && ((AbstractDoubleComparisonCalc) calc).isBatched())
+            {
+                return ((AbstractDoubleComparisonCalc) calc)
+                    .evaluateBooleanBatch(evaluator, tupleList);
+            }
+            return BatchCalcUtil.evaluateBooleansByTuple(
+                evaluator, tupleList, this);
+        }
+
+        public boolean dependsOn(Hierarchy hierarchy) {
+            return calc.dependsOn(hierarchy);
+        }
+
+        public ResultStyle getResultStyle() {
+            return calc.getResultStyle();
+        }
+    }
+}
+
+// End MethodHandleCalcCompiler.java
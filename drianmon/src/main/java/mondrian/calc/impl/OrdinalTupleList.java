@@ -0,0 +1,649 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleIterator;
+import mondrian.calc.TupleList;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Member;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.resource.MondrianResource;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of {@link TupleList} that stores each member as an int
+ * ordinal into a dictionary of the members of its column.
+ *
+ * <p>Tuples are stored end-to-end in an int array, as in
+ * {@link ArrayTupleList}. Each column holds members of one hierarchy and has
+ * its own dictionary, so a large list, such as a crossjoin, holds each
+ * distinct member once, and {@link #addCurrent},
+ * {@link TupleCursor#member} and {@link TupleCursor#currentToArray} do not
+ * allocate.
+ *
+ * <p>Members that are equal but not identical (for example a visual total
+ * member and the member it wraps) have different ordinals, so that the list
+ * returns the same objects that were added, but the same <em>canonical
+ * ordinal</em>. A {@link TupleIndex} hashes and compares tuples on their
+ * canonical ordinals, which gives the same result as hashing and comparing
+ * tuples as lists of members.
+ *
+ * <p>Lists created by {@link #cloneList(int)} have their own dictionaries.
+ * Like other tuple lists, this class is not thread-safe.
+ */
+public class OrdinalTupleList extends AbstractEndToEndTupleList {
+    private final MemberDictionary[] dictionaries;
+    private int[] ordinals;
+    private int size;
+    private final int cjMaxSize =
+        MondrianProperties.instance().ResultLimit.get();
+
+    /**
+     * Creates an empty OrdinalTupleList with an initial capacity of 10 tuples.
+     *
+     * @param arity Arity
+     */
+    public OrdinalTupleList(int arity) {
+        this(arity, 10);
+    }
+
+    /**
+     * Creates an empty OrdinalTupleList.
+     *
+     * @param arity Arity
+     * @param initialCapacity Initial capacity
+     */
+    public OrdinalTupleList(int arity, int initialCapacity) {
+        this(newDictionaries(arity), new int[initialCapacity * arity], 0);
+    }
+
+    private OrdinalTupleList(
+        MemberDictionary[] dictionaries,
+        int[] ordinals,
+        int size)
+    {
+        super(dictionaries.length);
+        assert arity > 0;
+        this.dictionaries = dictionaries;
+        this.ordinals = ordinals;
+        this.size = size;
+    }
+
+    private static MemberDictionary[] newDictionaries(int arity) {
+        final MemberDictionary[] dictionaries = new MemberDictionary[arity];
+        for (int i = 0; i < arity; i++) {
+            dictionaries[i] = new MemberDictionary();
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Creates an OrdinalTupleList with the same contents as a given list.
+     *
+     * @param list List
+     * @return Copy of list
+     */
+    public static OrdinalTupleList copyOf(TupleList list) {
+        final OrdinalTupleList result =
+            new OrdinalTupleList(list.getArity(), list.size());
+        final TupleCursor cursor = list.tupleCursor();
+        while (cursor.forward()) {
+            result.addCurrent(cursor);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a list as an OrdinalTupleList: the list itself if it is one,
+     * otherwise a copy.
+     *
+     * @param list List
+     * @return List, or copy of list
+     */
+    public static OrdinalTupleList of(TupleList list) {
+        return list instanceof OrdinalTupleList
+            ? (OrdinalTupleList) list
+            : copyOf(list);
+    }
+
+    @Override
+    protected List<Member> backingList() {
+        return new AbstractList<Member>() {
+            public Member get(int index) {
+                return dictionaries[index % arity].member(ordinals[index]);
+            }
+
+            public int size() {
+                return size * arity;
+            }
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Member get(int slice, int index) {
+        return dictionaries[slice].member(ordinals[index * arity + slice]);
+    }
+
+    @Override
+    public List<Member> get(int index) {
+        final int startIndex = index * arity;
+        final List<Member> list =
+            new AbstractList<Member>() {
+                public Member get(int index) {
+                    return dictionaries[index].member(
+                        ordinals[startIndex + index]);
+                }
+
+                public int size() {
+                    return arity;
+                }
+            };
+        if (mutable) {
+            return Util.flatList(list);
+        }
+        return list;
+    }
+
+    @Override
+    public List<Member> set(int index, List<Member> element) {
+        assert mutable;
+        for (int i = 0, startIndex = index * arity; i < arity; i++) {
+            ordinals[startIndex + i] = dictionaries[i].ordinal(element.get(i));
+        }
+        return null; // not compliant with List contract
+    }
+
+    @Override
+    public boolean add(List<Member> members) {
+        add(size, members);
+        return true;
+    }
+
+    @Override
+    public void add(int index, List<Member> members) {
+        assert mutable;
+        if (members.size() != arity) {
+            throw new IllegalArgumentException(
+                "Tuple length does not match arity");
+        }
+        final int n = insertSpace(index, 1);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n + i] = dictionaries[i].ordinal(members.get(i));
+        }
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends List<Member>> c) {
+        assert mutable;
+        int n = insertSpace(index, c.size());
+        for (List<Member> members : c) {
+            for (int i = 0; i < arity; i++) {
+                ordinals[n++] = dictionaries[i].ordinal(members.get(i));
+            }
+        }
+        return !c.isEmpty();
+    }
+
+    public void addTuple(Member... members) {
+        assert mutable;
+        if (members.length != arity) {
+            throw new IllegalArgumentException(
+                "Tuple length does not match arity");
+        }
+        final int n = insertSpace(size, 1);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n + i] = dictionaries[i].ordinal(members[i]);
+        }
+    }
+
+    @Override
+    public void addCurrent(TupleCursor tupleIter) {
+        assert mutable;
+        final int n = insertSpace(size, 1);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n + i] = dictionaries[i].ordinal(tupleIter.member(i));
+        }
+    }
+
+    /**
+     * Appends a tuple given as ordinals into the dictionaries of this list,
+     * as returned by {@link #toOrdinals}.
+     *
+     * @param tuple Ordinals; length must equal arity
+     * @param offset Offset of the first ordinal in the array
+     */
+    public void addOrdinals(int[] tuple, int offset) {
+        assert mutable;
+        final int n = insertSpace(size, 1);
+        System.arraycopy(tuple, offset, ordinals, n, arity);
+    }
+
+    /**
+     * Converts the tuples of a list into ordinals into the dictionaries of
+     * some columns of this list, adding members to the dictionaries as
+     * necessary.
+     *
+     * <p>For example, to build the crossjoin of lists of arity 2 and 1, call
+     * this method on a list of arity 3 for the first list with
+     * {@code firstColumn} 0 and for the second list with {@code firstColumn}
+     * 2, then call {@link #addOrdinals} with combinations of the results.
+     *
+     * @param list List whose tuples to convert
+     * @param firstColumn Column of this list that holds the first member of
+     *   each tuple of {@code list}
+     * @return Ordinals of tuples of list, stored end-to-end
+     */
+    public int[] toOrdinals(TupleList list, int firstColumn) {
+        final int listArity = list.getArity();
+        assert firstColumn + listArity <= arity;
+        final int[] result = new int[list.size() * listArity];
+        final TupleCursor cursor = list.tupleCursor();
+        int n = 0;
+        while (cursor.forward()) {
+            for (int i = 0; i < listArity; i++) {
+                result[n++] =
+                    dictionaries[firstColumn + i].ordinal(cursor.member(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the last tuple.
+     */
+    public void removeLast() {
+        assert mutable;
+        --size;
+    }
+
+    @Override
+    @SuppressWarnings("squid:S1168") // null expected downstream.
+    public List<Member> remove(int index) {
+        assert mutable;
+        final int n = index * arity;
+        System.arraycopy(
+            ordinals, n + arity, ordinals, n, (size - index - 1) * arity);
+        --size;
+        return null; // not compliant with List contract
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        assert mutable;
+        System.arraycopy(
+            ordinals, toIndex * arity, ordinals, fromIndex * arity,
+            (size - toIndex) * arity);
+        size -= toIndex - fromIndex;
+    }
+
+    public List<Member> slice(final int column) {
+        if (column < 0 || column >= arity) {
+            throw new IllegalArgumentException();
+        }
+        return new AbstractList<Member>() {
+            public Member get(int index) {
+                return dictionaries[column].member(
+                    ordinals[index * arity + column]);
+            }
+
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public TupleList cloneList(int capacity) {
+        if (capacity < 0) {
+            // copy of this list with the same contents
+            final MemberDictionary[] newDictionaries =
+                new MemberDictionary[arity];
+            for (int i = 0; i < arity; i++) {
+                newDictionaries[i] = dictionaries[i].copy();
+            }
+            return new OrdinalTupleList(
+                newDictionaries, ordinals.clone(), size);
+        } else {
+            // empty copy of this list with given capacity
+            return new OrdinalTupleList(arity, capacity);
+        }
+    }
+
+    public TupleIterator tupleIteratorInternal() {
+        return new AbstractTupleListIterator() {
+            @Override public void setContext(Evaluator evaluator) {
+                for (int i = 0, x = lastRet * arity; i < arity; i++) {
+                    evaluator.setContext(
+                        dictionaries[i].member(ordinals[x + i]));
+                }
+            }
+
+            @Override public Member member(int column) {
+                return dictionaries[column].member(
+                    ordinals[lastRet * arity + column]);
+            }
+
+            @Override public void currentToArray(
+                Member[] members, int offset)
+            {
+                for (int i = 0, x = lastRet * arity; i < arity; i++) {
+                    members[offset + i] =
+                        dictionaries[i].member(ordinals[x + i]);
+                }
+            }
+        };
+    }
+
+    /**
+     * Makes room for {@code count} tuples at position {@code index}, and
+     * returns the offset of the first ordinal to fill in.
+     */
+    private int insertSpace(int index, int count) {
+        final int n = index * arity;
+        ensureCapacity((size + count) * arity);
+        System.arraycopy(
+            ordinals, n, ordinals, n + count * arity, size * arity - n);
+        size += count;
+        return n;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (cjMaxSize > 0 && minCapacity / arity > cjMaxSize) {
+            throw MondrianResource.instance().LimitExceededDuringCrossjoin.ex(
+                minCapacity / arity, cjMaxSize);
+        }
+        final int oldCapacity = ordinals.length;
+        if (minCapacity > oldCapacity) {
+            int newCapacity = (oldCapacity * 3) / 2 + arity;
+            if (newCapacity < minCapacity) {
+                newCapacity = minCapacity;
+            }
+            // Up to next multiple of arity.
+            newCapacity += (arity - newCapacity % arity) % arity;
+            ordinals = Util.copyOf(ordinals, newCapacity);
+        }
+    }
+
+    /**
+     * Dictionary of the members of one column.
+     *
+     * <p>Each distinct member object has an ordinal. Members that are equal
+     * have the same canonical ordinal, which is the ordinal of the first of
+     * them to be added.
+     */
+    private static class MemberDictionary {
+        private Member[] members;
+        private int[] canonicals;
+        private int size;
+        private final Map<Member, Integer> canonicalMap;
+        /** Ordinals of members that are equal to, but not the same object
+         * as, the member of their canonical ordinal. Usually empty. */
+        private Map<Member, Integer> aliasMap;
+
+        MemberDictionary() {
+            this(new Member[16], new int[16], 0, new HashMap<Member, Integer>());
+        }
+
+        private MemberDictionary(
+            Member[] members,
+            int[] canonicals,
+            int size,
+            Map<Member, Integer> canonicalMap)
+        {
+            this.members = members;
+            this.canonicals = canonicals;
+            this.size = size;
+            this.canonicalMap = canonicalMap;
+        }
+
+        MemberDictionary copy() {
+            final MemberDictionary copy =
+                new MemberDictionary(
+                    members.clone(), canonicals.clone(), size,
+                    new HashMap<Member, Integer>(canonicalMap));
+            if (aliasMap != null) {
+                copy.aliasMap = new IdentityHashMap<Member, Integer>(aliasMap);
+            }
+            return copy;
+        }
+
+        Member member(int ordinal) {
+            return members[ordinal];
+        }
+
+        int canonical(int ordinal) {
+            return canonicals[ordinal];
+        }
+
+        /**
+         * Returns the ordinal of a member, adding it if it is not present.
+         */
+        int ordinal(Member member) {
+            final Integer canonical = canonicalMap.get(member);
+            if (canonical == null) {
+                final int ordinal = append(member, size);
+                canonicalMap.put(member, ordinal);
+                return ordinal;
+            }
+            if (members[canonical] == member) {
+                return canonical;
+            }
+            if (aliasMap == null) {
+                aliasMap = new IdentityHashMap<Member, Integer>();
+            } else {
+                final Integer alias = aliasMap.get(member);
+                if (alias != null) {
+                    return alias;
+                }
+            }
+            final int ordinal = append(member, canonical);
+            aliasMap.put(member, ordinal);
+            return ordinal;
+        }
+
+        /**
+         * Returns the canonical ordinal of a member, or -1 if no member equal
+         * to it is present. Does not add the member.
+         */
+        int lookupCanonical(Member member) {
+            final Integer canonical = canonicalMap.get(member);
+            return canonical == null ? -1 : canonical;
+        }
+
+        private int append(Member member, int canonical) {
+            if (size == members.length) {
+                members = Util.copyOf(members, size * 2);
+                canonicals = Util.copyOf(canonicals, size * 2);
+            }
+            members[size] = member;
+            canonicals[size] = canonical;
+            return size++;
+        }
+    }
+
+    /**
+     * Hash index of the tuples of an {@link OrdinalTupleList}.
+     *
+     * <p>Tuples are hashed and compared on the canonical ordinals of their
+     * members, so lookups neither allocate nor call
+     * {@link Object#equals(Object)} on tuples. Two tuples are equal if their
+     * members are equal, as for {@link List#equals(Object)}.
+     *
+     * <p>The index refers to tuples by their position; it is invalid after
+     * tuples are inserted or removed before the last indexed tuple.
+     */
+    public static class TupleIndex {
+        private final OrdinalTupleList list;
+        private final int[] key;
+        /** Open-addressing hash table; each entry is a tuple's position plus
+         * 1, or 0 if empty. */
+        private int[] table = new int[16];
+        private int count;
+
+        /**
+         * Creates an empty index of a list.
+         *
+         * @param list List whose tuples to index
+         */
+        public TupleIndex(OrdinalTupleList list) {
+            this.list = list;
+            this.key = new int[list.arity];
+        }
+
+        /**
+         * Creates an index of a list, containing all of its tuples.
+         *
+         * @param list List whose tuples to index
+         * @return Index
+         */
+        public static TupleIndex of(OrdinalTupleList list) {
+            final TupleIndex index = new TupleIndex(list);
+            for (int i = 0; i < list.size; i++) {
+                index.add(i);
+            }
+            return index;
+        }
+
+        /**
+         * Appends to the indexed list, and adds to this index, each tuple of
+         * another list that is not equal to a tuple already in the index.
+         * Tuples are added in order, so the list holds the first occurrence
+         * of each distinct tuple.
+         *
+         * @param tuples Tuples to add; same arity as the indexed list
+         */
+        public void addDistinct(TupleList tuples) {
+            final TupleCursor cursor = tuples.tupleCursor();
+            while (cursor.forward()) {
+                list.addCurrent(cursor);
+                if (!add(list.size - 1)) {
+                    list.removeLast();
+                }
+            }
+        }
+
+        /**
+         * Adds a tuple of the list to this index, unless an equal tuple is
+         * already present.
+         *
+         * @param position Position of the tuple in the list
+         * @return Whether the tuple was added
+         */
+        public boolean add(int position) {
+            final int[] ordinals = list.ordinals;
+            final int start = position * list.arity;
+            for (int i = 0; i < key.length; i++) {
+                key[i] = list.dictionaries[i].canonical(ordinals[start + i]);
+            }
+            final int slot = find(key);
+            if (table[slot] != 0) {
+                return false;
+            }
+            table[slot] = position + 1;
+            if (++count * 2 > table.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        /**
+         * Returns the position in the list of a tuple equal to the current
+         * tuple of a cursor, or -1 if there is none.
+         *
+         * @param cursor Cursor positioned on a tuple of the same arity as the
+         *   list
+         * @return Position of equal tuple, or -1
+         */
+        public int indexOf(TupleCursor cursor) {
+            for (int i = 0; i < key.length; i++) {
+                final int canonical =
+                    list.dictionaries[i].lookupCanonical(cursor.member(i));
+                if (canonical < 0) {
+                    return -1;
+                }
+                key[i] = canonical;
+            }
+            return table[find(key)] - 1;
+        }
+
+        /** Returns the slot that holds a tuple with the given canonical
+         * ordinals, or the empty slot where it would be added. */
+        private int find(int[] key) {
+            final int mask = table.length - 1;
+            int slot = hash(key) & mask;
+            for (;;) {
+                final int entry = table[slot];
+                if (entry == 0 || matches(entry - 1, key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private boolean matches(int position, int[] key) {
+            final int[] ordinals = list.ordinals;
+            final int start = position * list.arity;
+            for (int i = 0; i < key.length; i++) {
+                if (list.dictionaries[i].canonical(ordinals[start + i])
+                    != key[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(int[] key) {
+            int h = 1;
+            for (int k : key) {
+                h = h * 31 + k;
+            }
+            // Spread bits, as HashMap does, because ordinals are small.
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private void rehash() {
+            final int[] oldTable = table;
+            table = new int[oldTable.length * 2];
+            final int mask = table.length - 1;
+            final int[] rowKey = new int[key.length];
+            for (int entry : oldTable) {
+                if (entry == 0) {
+                    continue;
+                }
+                final int start = (entry - 1) * list.arity;
+                for (int i = 0; i < rowKey.length; i++) {
+                    rowKey[i] =
+                        list.dictionaries[i].canonical(
+                            list.ordinals[start + i]);
+                }
+                int slot = hash(rowKey) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry;
+            }
+        }
+    }
+}
+
+// End OrdinalTupleList.java
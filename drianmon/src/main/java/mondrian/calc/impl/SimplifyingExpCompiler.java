@@ -0,0 +1,581 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ExpCompiler;
+import mondrian.calc.ListCalc;
+import mondrian.calc.ResultStyle;
+import mondrian.calc.TupleList;
+import mondrian.mdx.MdxVisitor;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.Category;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+import mondrian.olap.ExpCacheDescriptor;
+import mondrian.olap.Literal;
+import mondrian.olap.Member;
+import mondrian.olap.Util;
+import mondrian.olap.Validator;
+import mondrian.olap.fun.FunUtil;
+import mondrian.olap.type.BooleanType;
+import mondrian.olap.type.ScalarType;
+import mondrian.olap.type.SymbolType;
+import mondrian.olap.type.Type;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiler that simplifies expressions before they are compiled, and
+ * evaluates sets that do not depend on the context only once.
+ *
+ * <p>{@link #simplify(Exp)} rewrites a resolved expression as follows:<ul>
+ * <li>An operator, or a call to <code>IIf</code>, <code>CoalesceEmpty</code>
+ *     or <code>Case</code>, whose arguments are all constant, is evaluated
+ *     and replaced by its value. For example, <code>2 * 3 + 1</code> becomes
+ *     <code>7</code>.</li>
+ * <li>A call to <code>IIf</code> whose condition is constant is replaced by
+ *     the branch that would be evaluated.</li>
+ * <li>Clauses of <code>Case</code> whose condition (or match value) is
+ *     constant are removed if they cannot match, and the clauses after the
+ *     first that always matches are removed.</li>
+ * <li>Constant null arguments of <code>CoalesceEmpty</code>, and the
+ *     arguments after the first constant non-null argument, are removed.</li>
+ * </ul>
+ *
+ * <p>The original expression is not modified; the calls on the path from the
+ * root to a simplified call are copied.
+ *
+ * <p>When this compiler compiles an expression, a set that does not depend on
+ * the current member of any hierarchy, such as
+ * <code>Descendants([Time].[1997], [Time].[Month])</code> within a calculated
+ * measure, is evaluated once and kept in the evaluator's expression cache, as
+ * if it were wrapped in <code>Cache()</code>, rather than evaluated for every
+ * cell. Sets that read the position of an iteration over a named set, by
+ * calling <code>&lt;Named Set&gt;.Current</code> or
+ * <code>&lt;Named Set&gt;.CurrentOrdinal</code>, are evaluated every time.
+ *
+ * @see mondrian.olap.MondrianProperties#SimplifyExpressions
+ */
+public class SimplifyingExpCompiler extends DelegatingExpCompiler {
+    /**
+     * Names of operators and functions that return the same value whenever
+     * their arguments have the same values, and can therefore be evaluated
+     * at compile time if their arguments are constant.
+     */
+    private static final Set<String> FOLDABLE_FUNCTIONS =
+        new HashSet<String>(
+            Arrays.asList(
+                "()", "+", "-", "*", "/", "||", "AND", "OR", "XOR", "NOT",
+                "=", "<>", "<", "<=", ">", ">=", "IIf", "CoalesceEmpty",
+                "_CaseTest", "_CaseMatch"));
+
+    /**
+     * Compiler used to evaluate constant expressions. It does not delegate to
+     * the parent, so that constant expressions are not profiled or cached.
+     */
+    private final ExpCompiler constantCompiler;
+
+    /**
+     * Creates a SimplifyingExpCompiler.
+     *
+     * @param parent Parent compiler
+     */
+    public SimplifyingExpCompiler(ExpCompiler parent) {
+        super(parent);
+        this.constantCompiler =
+            new BetterExpCompiler(parent.getEvaluator(), parent.getValidator());
+    }
+
+    protected Calc afterCompile(Exp exp, Calc calc, boolean mutable) {
+        // A cached list is shared, so it cannot be returned to a caller that
+        // wants a list it can modify.
+        if (mutable
+            || !(calc instanceof ListCalc)
+            || !(exp instanceof ResolvedFunCall)
+            || ((ResolvedFunCall) exp).getFunName().equals("Cache")
+            || dependsOnContext(calc)
+            || dependsOnIteration((ResolvedFunCall) exp))
+        {
+            return calc;
+        }
+        return new HoistedListCalc(exp, (ListCalc) calc, getEvaluator());
+    }
+
+    /**
+     * Returns whether a calc depends on the current member of any hierarchy.
+     */
+    private boolean dependsOnContext(Calc calc) {
+        for (Member member : getEvaluator().getMembers()) {
+            if (calc.dependsOn(member.getHierarchy())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a call depends on the position of an iteration over a
+     * named set, which {@link Calc#dependsOn} does not report; or defines an
+     * inline named set, whose list reports its position as it is iterated.
+     */
+    private static boolean dependsOnIteration(ResolvedFunCall call) {
+        return call.getFunName().equals("AS")
+            || FunUtil.dependsOnNamedSetIteration(call);
+    }
+
+    /**
+     * Simplifies a resolved expression.
+     *
+     * @param exp Expression
+     * @return Simplified expression, or the expression itself if it cannot
+     *     be simplified
+     */
+    public Exp simplify(Exp exp) {
+        if (!(exp instanceof ResolvedFunCall)) {
+            return exp;
+        }
+        ResolvedFunCall call = (ResolvedFunCall) exp;
+        final Exp[] args = call.getArgs();
+        Exp[] newArgs = null;
+        for (int i = 0; i < args.length; i++) {
+            final Exp arg = simplify(args[i]);
+            if (arg != args[i]) {
+                if (newArgs == null) {
+                    newArgs = args.clone();
+                }
+                newArgs[i] = arg;
+            }
+        }
+        if (newArgs != null) {
+            call = new ResolvedFunCall(
+                call.getFunDef(), newArgs, call.getType());
+        }
+        final String name = call.getFunName();
+        if (!FOLDABLE_FUNCTIONS.contains(name)) {
+            return call;
+        }
+        final Exp simplified;
+        if (name.equals("IIf")) {
+            simplified = simplifyIif(call);
+        } else if (name.equals("CoalesceEmpty")) {
+            simplified = simplifyCoalesceEmpty(call);
+        } else if (name.equals("_CaseTest")) {
+            simplified = simplifyCaseTest(call);
+        } else if (name.equals("_CaseMatch")) {
+            simplified = simplifyCaseMatch(call);
+        } else {
+            simplified = call;
+        }
+        if (simplified instanceof ResolvedFunCall) {
+            return fold((ResolvedFunCall) simplified);
+        }
+        return simplified;
+    }
+
+    /**
+     * Replaces a call whose arguments are all constant by its value.
+     */
+    private Exp fold(ResolvedFunCall call) {
+        final Type type = call.getType();
+        if (!(type instanceof ScalarType) || type instanceof SymbolType) {
+            return call;
+        }
+        for (Exp arg : call.getArgs()) {
+            if (!isConstant(arg)) {
+                return call;
+            }
+        }
+        final Object value;
+        try {
+            value = constantCompiler.compileScalar(call, false)
+                .evaluate(getEvaluator());
+        } catch (RuntimeException e) {
+            // Leave the error to be raised if the expression is evaluated.
+            return call;
+        }
+        if (value == null
+            ? type instanceof BooleanType
+            : !(value instanceof Number
+                || value instanceof String
+                || value instanceof Boolean))
+        {
+            return call;
+        }
+        return new ConstantExp(call, value);
+    }
+
+    /**
+     * Replaces <code>IIf(condition, exp1, exp2)</code> by the expression
+     * that would be evaluated, if the condition is constant.
+     */
+    private Exp simplifyIif(ResolvedFunCall call) {
+        final Boolean b = evaluateCondition(call.getArg(0));
+        if (b == null) {
+            return call;
+        }
+        final Exp exp = call.getArg(b ? 1 : 2);
+        if (call.getType() instanceof ScalarType) {
+            // Convert the branch as IIf would for its return type.
+            switch (call.getCategory() & Category.Mask) {
+            case Category.Numeric:
+                return new BranchExp(call, exp, Mode.SPECIFIC);
+            case Category.String:
+                return new BranchExp(call, exp, Mode.STRING);
+            case Category.Logical:
+                return new BranchExp(call, exp, Mode.BOOLEAN);
+            default:
+                return call;
+            }
+        }
+        if ((exp.getCategory() & Category.Mask)
+            == (call.getCategory() & Category.Mask))
+        {
+            return exp;
+        }
+        return call;
+    }
+
+    /**
+     * Removes constant null arguments of <code>CoalesceEmpty</code>, and
+     * the arguments after the first constant non-null argument.
+     */
+    private Exp simplifyCoalesceEmpty(ResolvedFunCall call) {
+        final Exp[] args = call.getArgs();
+        final List<Exp> newArgs = new ArrayList<Exp>();
+        for (Exp arg : args) {
+            if (isConstant(arg)) {
+                final Object value;
+                try {
+                    value = constantCompiler.compileScalar(arg, true)
+                        .evaluate(getEvaluator());
+                } catch (RuntimeException e) {
+                    newArgs.add(arg);
+                    continue;
+                }
+                if (value == null) {
+                    continue;
+                }
+                newArgs.add(arg);
+                break;
+            }
+            newArgs.add(arg);
+        }
+        switch (newArgs.size()) {
+        case 0:
+            return new ConstantExp(call, null);
+        case 1:
+            // CoalesceEmpty converts each argument to its specific type.
+            return new BranchExp(call, newArgs.get(0), Mode.SPECIFIC);
+        default:
+            if (newArgs.size() == args.length) {
+                return call;
+            }
+            return new ResolvedFunCall(
+                call.getFunDef(),
+                newArgs.toArray(new Exp[newArgs.size()]),
+                call.getType());
+        }
+    }
+
+    /**
+     * Simplifies
+     * <code>CASE WHEN condition THEN exp ... [ELSE exp] END</code>.
+     */
+    private Exp simplifyCaseTest(ResolvedFunCall call) {
+        if (!(call.getType() instanceof ScalarType)) {
+            return call;
+        }
+        final Exp[] args = call.getArgs();
+        final List<Exp> newArgs = new ArrayList<Exp>();
+        int i = 0;
+        for (; i + 1 < args.length; i += 2) {
+            final Boolean b = evaluateCondition(args[i]);
+            if (b == null) {
+                newArgs.add(args[i]);
+                newArgs.add(args[i + 1]);
+            } else if (b) {
+                if (newArgs.isEmpty()) {
+                    return new BranchExp(call, args[i + 1], Mode.NONE);
+                }
+                // Later clauses and the ELSE clause are never reached. The
+                // clause is kept, rather than becoming the ELSE clause, which
+                // would convert its value differently.
+                newArgs.add(args[i]);
+                newArgs.add(args[i + 1]);
+                break;
+            }
+        }
+        if (i + 1 == args.length) {
+            // No clause always matched; keep the ELSE clause.
+            if (newArgs.isEmpty()) {
+                return new BranchExp(call, args[i], Mode.SPECIFIC);
+            }
+            newArgs.add(args[i]);
+        } else if (newArgs.isEmpty()) {
+            return new ConstantExp(call, null);
+        }
+        return rebuild(call, newArgs);
+    }
+
+    /**
+     * Simplifies
+     * <code>CASE value WHEN match THEN exp ... [ELSE exp] END</code>.
+     */
+    private Exp simplifyCaseMatch(ResolvedFunCall call) {
+        if (!(call.getType() instanceof ScalarType)) {
+            return call;
+        }
+        final Exp[] args = call.getArgs();
+        final Object value = evaluateConstant(args[0]);
+        if (value == null) {
+            return call;
+        }
+        final List<Exp> newArgs = new ArrayList<Exp>();
+        newArgs.add(args[0]);
+        int i = 1;
+        for (; i + 1 < args.length; i += 2) {
+            final Object match = evaluateConstant(args[i]);
+            if (match == null) {
+                newArgs.add(args[i]);
+                newArgs.add(args[i + 1]);
+            } else if (match.equals(value)) {
+                if (newArgs.size() == 1) {
+                    return new BranchExp(call, args[i + 1], Mode.NONE);
+                }
+                newArgs.add(args[i]);
+                newArgs.add(args[i + 1]);
+                break;
+            }
+        }
+        if (i + 1 == args.length) {
+            if (newArgs.size() == 1) {
+                return new BranchExp(call, args[i], Mode.NONE);
+            }
+            newArgs.add(args[i]);
+        } else if (newArgs.size() == 1) {
+            return new ConstantExp(call, null);
+        }
+        return rebuild(call, newArgs);
+    }
+
+    private static Exp rebuild(ResolvedFunCall call, List<Exp> newArgs) {
+        if (newArgs.size() == call.getArgCount()) {
+            return call;
+        }
+        return new ResolvedFunCall(
+            call.getFunDef(),
+            newArgs.toArray(new Exp[newArgs.size()]),
+            call.getType());
+    }
+
+    /**
+     * Evaluates a constant condition.
+     *
+     * @return Value of the condition, or null if it is not constant
+     */
+    private Boolean evaluateCondition(Exp exp) {
+        if (!isConstant(exp)) {
+            return null;
+        }
+        try {
+            return constantCompiler.compileBoolean(exp)
+                .evaluateBoolean(getEvaluator());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates a constant expression as <code>Case</code> evaluates the
+     * value and match expressions.
+     *
+     * @return Value of the expression, or null if it is not constant or is
+     *     null
+     */
+    private Object evaluateConstant(Exp exp) {
+        if (!isConstant(exp)) {
+            return null;
+        }
+        try {
+            return constantCompiler.compileScalar(exp, true)
+                .evaluate(getEvaluator());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static boolean isConstant(Exp exp) {
+        if (exp instanceof Literal) {
+            return exp.getCategory() != Category.Symbol;
+        }
+        if (exp instanceof BranchExp) {
+            return isConstant(((BranchExp) exp).exp);
+        }
+        return exp instanceof ConstantExp;
+    }
+
+    /**
+     * How a {@link BranchExp} converts the branch that it replaces a call
+     * with, in order to compile to a calc that returns the same values as the
+     * call would have.
+     */
+    private enum Mode {
+        /** Compiles the branch as it is. */
+        NONE,
+        /** Compiles the branch as a scalar of its specific type. */
+        SPECIFIC,
+        /** Compiles the branch as a string. */
+        STRING,
+        /** Compiles the branch as a boolean. */
+        BOOLEAN
+    }
+
+    /**
+     * Expression that replaces a call by one of its arguments.
+     */
+    private static class BranchExp implements Exp {
+        private final Exp call;
+        private final Exp exp;
+        private final Mode mode;
+
+        BranchExp(Exp call, Exp exp, Mode mode) {
+            this.call = call;
+            this.exp = exp;
+            this.mode = mode;
+        }
+
+        public Exp clone() {
+            return this;
+        }
+
+        public int getCategory() {
+            return call.getCategory();
+        }
+
+        public Type getType() {
+            return call.getType();
+        }
+
+        public void unparse(PrintWriter pw) {
+            exp.unparse(pw);
+        }
+
+        public Exp accept(Validator validator) {
+            return this;
+        }
+
+        public Calc accept(ExpCompiler compiler) {
+            switch (mode) {
+            case SPECIFIC:
+                return compiler.compileScalar(exp, true);
+            case STRING:
+                return compiler.compileString(exp);
+            case BOOLEAN:
+                return compiler.compileBoolean(exp);
+            default:
+                return compiler.compile(exp);
+            }
+        }
+
+        public Object accept(MdxVisitor visitor) {
+            return exp.accept(visitor);
+        }
+    }
+
+    /**
+     * Expression that replaces a call by its value.
+     */
+    private static class ConstantExp implements Exp {
+        private final Exp call;
+        private final Object value;
+
+        ConstantExp(Exp call, Object value) {
+            this.call = call;
+            this.value = value;
+        }
+
+        public Exp clone() {
+            return this;
+        }
+
+        public int getCategory() {
+            return call.getCategory();
+        }
+
+        public Type getType() {
+            return call.getType();
+        }
+
+        public void unparse(PrintWriter pw) {
+            if (value == null) {
+                pw.print("NULL");
+            } else if (value instanceof String) {
+                pw.print(Util.quoteForMdx((String) value));
+            } else if (value instanceof Boolean) {
+                pw.print((Boolean) value ? "TRUE" : "FALSE");
+            } else {
+                pw.print(value);
+            }
+        }
+
+        public Exp accept(Validator validator) {
+            return this;
+        }
+
+        public Calc accept(ExpCompiler compiler) {
+            return new ConstantCalc(call.getType(), value);
+        }
+
+        public Object accept(MdxVisitor visitor) {
+            return null;
+        }
+    }
+
+    /**
+     * Calc that evaluates a set that does not depend on the context once,
+     * and keeps it in the evaluator's expression cache.
+     */
+    private static class HoistedListCalc extends GenericIterCalc {
+        private final ExpCacheDescriptor descriptor;
+
+        HoistedListCalc(Exp exp, final ListCalc listCalc, Evaluator evaluator) {
+            super(exp, new Calc[] {listCalc});
+            this.descriptor =
+                new ExpCacheDescriptor(exp, listCalc, evaluator) {
+                    public Object evaluate(Evaluator evaluator) {
+                        // Materialize the list, so that it does not depend
+                        // on the evaluator when it is iterated later.
+                        return listCalc.evaluateList(evaluator);
+                    }
+                };
+        }
+
+        public Object evaluate(Evaluator evaluator) {
+            return evaluator.getCachedResult(descriptor);
+        }
+
+        public TupleList evaluateList(Evaluator evaluator) {
+            return (TupleList) evaluate(evaluator);
+        }
+
+        public ResultStyle getResultStyle() {
+            // cached lists are immutable
+            return ResultStyle.LIST;
+        }
+    }
+}
+
+// End SimplifyingExpCompiler.java
@@ -10,8 +10,12 @@
 package mondrian.calc.impl;
 
 import mondrian.calc.Calc;
+import mondrian.calc.DoubleBatchCalc;
+import mondrian.calc.TupleList;
 import mondrian.olap.*;
 
+import java.util.BitSet;
+
 /**
  * Expression which yields the value of the current member in the current
  * dimensional context.
@@ -21,7 +25,7 @@ import mondrian.olap.*;
  * @author jhyde
  * @since Sep 27, 2005
  */
-public class ValueCalc extends GenericCalc {
+public class ValueCalc extends GenericCalc implements DoubleBatchCalc {
     /**
      * Creates a ValueCalc.
      *
@@ -35,6 +39,15 @@ public class ValueCalc extends GenericCalc {
         return evaluator.evaluateCurrent();
     }
 
+    public double[] evaluateDoubleBatch(
+        Evaluator evaluator,
+        TupleList tupleList,
+        BitSet nulls)
+    {
+        return BatchCalcUtil.evaluateValues(
+            evaluator, tupleList, this, nulls);
+    }
+
     public boolean dependsOn(Hierarchy hierarchy) {
         return true;
     }
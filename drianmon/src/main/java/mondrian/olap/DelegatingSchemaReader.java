@@ -272,6 +272,15 @@ public abstract class DelegatingSchemaReader implements SchemaReader {
             parent, childNames, matchType);
     }
 
+    public List<Member> lookupMemberChildrenByNames(
+        List<Member> parents,
+        List<Id.NameSegment> childNames,
+        MatchType matchType)
+    {
+        return schemaReader.lookupMemberChildrenByNames(
+            parents, childNames, matchType);
+    }
+
     public NativeEvaluator getNativeSetEvaluator(
         FunDef fun, Exp[] args, Evaluator evaluator, Calc calc)
     {
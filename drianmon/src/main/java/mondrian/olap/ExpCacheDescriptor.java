@@ -12,10 +12,19 @@
 package mondrian.olap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import mondrian.calc.*;
 import mondrian.calc.impl.BetterExpCompiler;
+import mondrian.mdx.MdxVisitorImpl;
+import mondrian.mdx.MemberExpr;
+import mondrian.mdx.NamedSetExpr;
+import mondrian.mdx.ParameterExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.fun.UdfResolver;
 
 /**
  * Holds information necessary to add an expression to the expression result
@@ -25,10 +34,33 @@ import mondrian.calc.impl.BetterExpCompiler;
  * @since Aug 16, 2005
  */
 public class ExpCacheDescriptor {
+    /**
+     * Names of functions whose result may differ between queries or
+     * connections although the text of the call is the same: the strings
+     * passed to <code>StrToMember</code>, <code>StrToSet</code> and
+     * <code>StrToTuple</code> may name members defined by a query,
+     * <code>Now</code> changes over time, and <code>Format</code> depends
+     * on the locale of the connection.
+     */
+    private static final Set<String> LOCAL_FUNCTIONS =
+        new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        LOCAL_FUNCTIONS.addAll(
+            Arrays.asList(
+                "StrToMember", "StrToSet", "StrToTuple", "Now", "Format"));
+    }
+
     private final Exp exp;
     private int[] dependentHierarchyOrdinals;
     private final Calc calc;
 
+    /**
+     * Text of the expression, or "" if it cannot be shared; null until
+     * computed.
+     */
+    private String sharedText;
+
     /**
      * Creates a descriptor with a given compiled expression.
      *
@@ -109,6 +141,50 @@ public class ExpCacheDescriptor {
         return dependentHierarchyOrdinals;
     }
 
+    /**
+     * Returns the text of the expression, which identifies it in caches that
+     * outlive a query; or null if the expression refers to calculated
+     * members, named sets or parameters, whose definition may differ from
+     * one query to the next, or calls a user-defined function or a function
+     * in {@link #LOCAL_FUNCTIONS}, whose result may differ.
+     */
+    public String getSharedText() {
+        String text = sharedText;
+        if (text == null) {
+            final boolean[] local = {false};
+            exp.accept(
+                new MdxVisitorImpl() {
+                    public Object visit(MemberExpr memberExpr) {
+                        if (memberExpr.getMember().isCalculated()) {
+                            local[0] = true;
+                        }
+                        return null;
+                    }
+
+                    public Object visit(ResolvedFunCall call) {
+                        if (LOCAL_FUNCTIONS.contains(call.getFunName())
+                            || UdfResolver.isUdf(call.getFunDef()))
+                        {
+                            local[0] = true;
+                        }
+                        return null;
+                    }
+
+                    public Object visit(NamedSetExpr namedSetExpr) {
+                        local[0] = true;
+                        return null;
+                    }
+
+                    public Object visit(ParameterExpr parameterExpr) {
+                        local[0] = true;
+                        return null;
+                    }
+                });
+            text = local[0] ? "" : Util.unparse(exp);
+            sharedText = text;
+        }
+        return text.length() == 0 ? null : text;
+    }
 }
 
 // End ExpCacheDescriptor.java
@@ -141,6 +141,8 @@ public final class IdBatchResolver {
      *  The loop below assumes the the SortedSet is ordered by segment
      *  size from smallest to largest, such that parent identifiers will
      *  occur before their children.
+     *  Each time the segment size grows, the children of all parents
+     *  already resolved are prefetched, one lookup per level.
      */
     private  Map<QueryPart, QueryPart> resolveInParentGroupings(
         SortedSet<Id> identifiers)
@@ -148,8 +150,15 @@ public final class IdBatchResolver {
         final Map<QueryPart, QueryPart> resolvedIdentifiers =
             new HashMap<QueryPart, QueryPart>();
 
+        int prefetchedSize = 0;
         while (identifiers.size() > 0) {
             Id parent = identifiers.first();
+            final int size = parent.getSegments().size();
+            if (size > prefetchedSize) {
+                prefetchChildrenByLevel(
+                    size, identifiers, resolvedIdentifiers);
+                prefetchedSize = size;
+            }
             identifiers.remove(parent);
 
             if (!supportedIdentifier(parent)) {
@@ -191,6 +200,59 @@ public final class IdBatchResolver {
         }
     }
 
+    /**
+     * Loads the children of all identifiers of a given segment size which
+     * have already been resolved to members, issuing one lookup for all
+     * parents in the same level rather than one per parent. The loaded
+     * members are indexed by name in the member cache, so the per-parent
+     * lookups in {@link #batchResolveChildren} do not need to go to SQL.
+     */
+    private void prefetchChildrenByLevel(
+        int size, SortedSet<Id> identifiers,
+        Map<QueryPart, QueryPart> resolvedIdentifiers)
+    {
+        final Map<Level, List<Member>> parentsByLevel =
+            new LinkedHashMap<Level, List<Member>>();
+        final Map<Level, Set<Id.NameSegment>> childNamesByLevel =
+            new HashMap<Level, Set<Id.NameSegment>>();
+        for (Id id : identifiers) {
+            if (id.getSegments().size() != size) {
+                break;
+            }
+            final Member parentMember =
+                getMemberFromExp((Exp) resolvedIdentifiers.get(id));
+            if (!supportedMember(parentMember)) {
+                continue;
+            }
+            final List<Id.NameSegment> childNameSegments =
+                collectChildrenNameSegments(
+                    parentMember, findChildIds(id, identifiers));
+            if (childNameSegments.isEmpty()) {
+                continue;
+            }
+            final Level level = parentMember.getLevel();
+            List<Member> parents = parentsByLevel.get(level);
+            if (parents == null) {
+                parents = new ArrayList<Member>();
+                parentsByLevel.put(level, parents);
+                childNamesByLevel.put(
+                    level, new LinkedHashSet<Id.NameSegment>());
+            }
+            parents.add(parentMember);
+            childNamesByLevel.get(level).addAll(childNameSegments);
+        }
+        for (Map.Entry<Level, List<Member>> entry : parentsByLevel.entrySet())
+        {
+            final List<Member> parents = entry.getValue();
+            if (parents.size() > 1) {
+                lookupChildrenByNames(
+                    parents,
+                    new ArrayList<Id.NameSegment>(
+                        childNamesByLevel.get(entry.getKey())));
+            }
+        }
+    }
+
     private Exp lookupExp(Id parent)
     {
         try {
@@ -252,6 +314,30 @@ public final class IdBatchResolver {
         return Collections.emptyList();
     }
 
+    /**
+     * Performs a lookup of a set of children under several parent members
+     * of the same level.
+     */
+    private List<Member> lookupChildrenByNames(
+        List<Member> parentMembers,
+        List<Id.NameSegment> childNameSegments)
+    {
+        try {
+            return query.getSchemaReader(true)
+                .lookupMemberChildrenByNames(
+                    parentMembers,
+                    childNameSegments, MatchType.EXACT);
+        } catch (Exception e) {
+            LOGGER.info(
+                String.format(
+                    "Failure while looking up children of %s during  "
+                    + "batch member resolution.  Child member refs:  %s",
+                    parentMembers,
+                    Arrays.toString(childNameSegments.toArray())), e);
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * Filters the children list to those that contain identifiers
      * we think we can batch resolve, then transforms the Id list
@@ -18,6 +18,9 @@ import org.olap4j.impl.*;
 import org.olap4j.mdx.IdentifierSegment;
 
 import mondrian.calc.*;
+import mondrian.calc.impl.CommonSubexpressionCompiler;
+import mondrian.calc.impl.MethodHandleCalcCompiler;
+import mondrian.calc.impl.SimplifyingExpCompiler;
 import mondrian.mdx.*;
 import mondrian.olap.fun.ParameterFunDef;
 import mondrian.olap.type.*;
@@ -30,6 +33,7 @@ import mondrian.resource.MondrianResource;
 import java.io.PrintWriter;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <code>Query</code> is an MDX query.
@@ -87,7 +91,7 @@ public class Query extends QueryPart {
    */
   private final Cube cube;
 
-  private final Statement statement;
+  private Statement statement;
   public Calc[] axisCalcs;
   public Calc slicerCalc;
 
@@ -118,13 +122,19 @@ public class Query extends QueryPart {
    */
   private boolean strictValidation;
 
+  private static final ResultStyle DEFAULT_RESULT_STYLE = Util.Retrowoven ? ResultStyle.LIST : ResultStyle.ITERABLE;
+
   /**
    * How should the query be returned? Valid values are: ResultStyle.ITERABLE ResultStyle.LIST ResultStyle.MUTABLE_LIST
    * For java4, use LIST
    */
-  private ResultStyle resultStyle = Util.Retrowoven ? ResultStyle.LIST : ResultStyle.ITERABLE;
+  private ResultStyle resultStyle = DEFAULT_RESULT_STYLE;
 
-  private Map<String, Object> evalCache = new HashMap<String, Object>();
+  /**
+   * Concurrent, because cells may be evaluated by several threads; see
+   * {@link MondrianProperties#CellEvaluationParallelism}.
+   */
+  private final Map<String, Object> evalCache = new ConcurrentHashMap<String, Object>();
 
   /**
    * List of aliased expressions defined in this query, and where they are defined. There might be more than one aliased
@@ -133,6 +143,12 @@ public class Query extends QueryPart {
   private final List<ScopedNamedSet> scopedNamedSets = new ArrayList<>();
   private boolean ownStatement;
 
+  /**
+   * Sub-expressions that occur more than once in the calculated members of this query, or null if there are none or
+   * they are not to be shared.
+   */
+  private CommonSubexpressionCompiler.Subexpressions commonSubexpressions;
+
   /**
    * Creates a Query.
    */
@@ -160,9 +176,13 @@ public class Query extends QueryPart {
     // processed natively; as we parse the query, we'll know otherwise
     this.nativeCrossJoinVirtualCube = true;
     this.strictValidation = strictValidation;
-    this.alertedNonNativeFunDefs = new HashSet<FunDef>();
+    this.alertedNonNativeFunDefs = Collections.newSetFromMap( new ConcurrentHashMap<FunDef, Boolean>() );
     statement.setQuery( this );
+    enableProfiling( statement );
+    resolve();
+  }
 
+  private static void enableProfiling( Statement statement ) {
     if ( RolapUtil.PROFILE_LOGGER.isDebugEnabled() && statement.getProfileHandler() == null ) {
       statement.enableProfiling( new ProfileHandler() {
         public void explain( String plan, QueryTiming timing ) {
@@ -173,7 +193,26 @@ public class Query extends QueryPart {
         }
       } );
     }
-    resolve();
+  }
+
+  /**
+   * Binds this query to another statement, so that a query that has already been validated and compiled can be executed
+   * again without being parsed. Used by {@link mondrian.rolap.QueryPlanCache}.
+   *
+   * <p>
+   * The caller must ensure that the query is not being executed by its previous statement, and that the new statement
+   * belongs to a connection with the same schema, role and locale.
+   *
+   * @param statement
+   *          Statement
+   */
+  public void bind( Statement statement ) {
+    this.statement = statement;
+    this.ownStatement = false;
+    this.resultStyle = DEFAULT_RESULT_STYLE;
+    this.evalCache.clear();
+    statement.setQuery( this );
+    enableProfiling( statement );
   }
 
   /**
@@ -390,6 +429,9 @@ public class Query extends QueryPart {
     Map<QueryPart, QueryPart> resolvedIdentifiers = new IdBatchResolver( this ).resolve();
     final Validator validator = createValidator( resolvedIdentifiers );
     resolve( validator ); // resolve self and children
+    commonSubexpressions =
+        MondrianProperties.instance().EliminateCommonSubexpressions.get()
+            ? CommonSubexpressionCompiler.Subexpressions.find( this ) : null;
     // Create a dummy result so we can use its evaluator
     final Evaluator evaluator = RolapUtil.createEvaluator( statement );
     ExpCompiler compiler = createCompiler( evaluator, validator, Collections.singletonList( resultStyle ) );
@@ -940,6 +982,16 @@ public class Query extends QueryPart {
     return bestScopedNamedSet;
   }
 
+  /**
+   * Returns the sub-expressions that are evaluated once per context although they occur more than once in the
+   * calculated members of this query, or null if there are none.
+   *
+   * @see MondrianProperties#EliminateCommonSubexpressions
+   */
+  public CommonSubexpressionCompiler.Subexpressions getCommonSubexpressions() {
+    return commonSubexpressions;
+  }
+
   /**
    * Returns an array of the formulas used in this query.
    */
@@ -1126,9 +1178,22 @@ public class Query extends QueryPart {
     final Validator validator = createValidator();
     List<ResultStyle> resultStyleList;
     resultStyleList = Collections.singletonList( resultStyle != null ? resultStyle : this.resultStyle );
-    final ExpCompiler compiler = createCompiler( evaluator, validator, resultStyleList );
+    ExpCompiler compiler = createCompiler( evaluator, validator, resultStyleList );
+    if ( MondrianProperties.instance().SimplifyExpressions.get() ) {
+      final SimplifyingExpCompiler simplifyingCompiler = new SimplifyingExpCompiler( compiler );
+      exp = simplifyingCompiler.simplify( exp );
+      if ( scalar ) {
+        // Sets within a scalar expression would otherwise be evaluated for
+        // every cell.
+        compiler = simplifyingCompiler;
+      }
+    }
     if ( scalar ) {
-      return compiler.compileScalar( exp, false );
+      final Calc calc = compiler.compileScalar( exp, false );
+      if ( MondrianProperties.instance().CompileCalcsToMethodHandles.get() ) {
+        return MethodHandleCalcCompiler.compile( calc );
+      }
+      return calc;
     } else {
       return compiler.compile( exp );
     }
@@ -1148,6 +1213,9 @@ public class Query extends QueryPart {
     ExpCompiler compiler = ExpCompiler.Factory.getExpCompiler( evaluator, validator, resultStyleList );
 
     final int expDeps = MondrianProperties.instance().TestExpDependencies.get();
+    if ( commonSubexpressions != null && expDeps <= 0 ) {
+      compiler = new CommonSubexpressionCompiler( compiler, commonSubexpressions );
+    }
     final ProfileHandler profileHandler = statement.getProfileHandler();
     if ( profileHandler != null ) {
       // Cannot test dependencies and profile at the same time. Profiling
@@ -1243,7 +1311,11 @@ public class Query extends QueryPart {
    *          the cache value
    */
   public void putEvalCache( String key, Object value ) {
-    evalCache.put( key, value );
+    if ( value == null ) {
+      evalCache.remove( key );
+    } else {
+      evalCache.put( key, value );
+    }
   }
 
   /**
@@ -467,6 +467,19 @@ public interface SchemaReader {
         List<Id.NameSegment> childNames,
         MatchType matchType);
 
+    /**
+     * Finds the children with the given names of a list of members, which
+     * must all belong to the same level. Issues at most one lookup for the
+     * whole list, so is efficient when resolving many identifiers at once.
+     *
+     * <p>The result is not correlated with the parents; a child is returned
+     * if its name matches any of the names, whichever its parent.
+     */
+    List<Member> lookupMemberChildrenByNames(
+        List<Member> parents,
+        List<Id.NameSegment> childNames,
+        MatchType matchType);
+
     /**
      * Returns an object which can evaluate an expression in native SQL, or
      * null if this is not possible.
@@ -15,6 +15,7 @@ import java.util.*;
 
 import mondrian.calc.*;
 import mondrian.calc.impl.DelegatingTupleList;
+import mondrian.mdx.ResolvedFunCall;
 import mondrian.mdx.UnresolvedFunCall;
 import mondrian.olap.*;
 import mondrian.rolap.*;
@@ -121,6 +122,32 @@ public class AbstractAggregateFunDef extends FunDefBase {
         evaluator.setIterationLength(currLen);
     }
 
+    /**
+     * Returns whether an expression is a call to a function that returns a
+     * contiguous range of periods: <code>Ytd</code> and the other
+     * <code>Xtd</code> functions, <code>PeriodsToDate</code>,
+     * <code>LastPeriods</code> or the <code>:</code> operator. An aggregate
+     * over such a set can be computed as one cell by
+     * {@link TimeRangeAggregator}.
+     *
+     * @param exp Set expression, possibly wrapped in <code>Cache</code>
+     * @return whether the expression is a range of periods
+     */
+    static boolean isPeriodRange(Exp exp) {
+        while (exp instanceof ResolvedFunCall) {
+            final FunDef funDef = ((ResolvedFunCall) exp).getFunDef();
+            if (funDef instanceof CacheFunDef) {
+                exp = ((ResolvedFunCall) exp).getArg(0);
+                continue;
+            }
+            return funDef instanceof XtdFunDef
+                || funDef instanceof PeriodsToDateFunDef
+                || funDef instanceof LastPeriodsFunDef
+                || funDef instanceof RangeFunDef;
+        }
+        return false;
+    }
+
     /**
      * Pushes unrelated dimensions to the top level member from the given list
      * of tuples if the ignoreUnrelatedDimensions property is set on the base
@@ -21,8 +21,10 @@ import mondrian.mdx.MemberExpr;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.Role.RollupPolicy;
+import mondrian.rolap.CachedRollupAggregator;
 import mondrian.rolap.RolapAggregator;
 import mondrian.rolap.RolapEvaluator;
+import mondrian.rolap.TimeRangeAggregator;
 
 import java.util.*;
 
@@ -77,21 +79,50 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                 : new ValueCalc(call);
         final Member member =
             call.getArgCount() > 1 ? getMember(call.getArg(1)) : null;
-        return new AggregateCalc(call, listCalc, calc, member);
+        // The aggregate of a stored measure over a range of periods, such
+        // as Aggregate(Ytd()), can be computed as one cell.
+        final boolean periodRange =
+            MondrianProperties.instance().EnableNativeTimeRange.get()
+            && isPeriodRange(call.getArg(0))
+            && (call.getArgCount() == 1 || member != null);
+        return new AggregateCalc(call, listCalc, calc, member, periodRange);
     }
 
     public static class AggregateCalc extends GenericCalc {
         private final ListCalc listCalc;
         private final Calc calc;
         private final Member member;
+        private final boolean periodRange;
 
+        /**
+         * Creates an AggregateCalc.
+         *
+         * @param exp Expression
+         * @param listCalc Compiled set expression
+         * @param calc Compiled value expression
+         * @param member Stored measure to aggregate, or null
+         * @param periodRange Whether the set is a range of periods, whose
+         *     aggregate can be computed as one cell by
+         *     {@link TimeRangeAggregator}
+         */
         public AggregateCalc(
-            Exp exp, ListCalc listCalc, Calc calc, Member member)
+            Exp exp,
+            ListCalc listCalc,
+            Calc calc,
+            Member member,
+            boolean periodRange)
         {
             super(exp, new Calc[]{listCalc, calc});
             this.listCalc = listCalc;
             this.calc = calc;
             this.member = member;
+            this.periodRange = periodRange;
+        }
+
+        public AggregateCalc(
+            Exp exp, ListCalc listCalc, Calc calc, Member member)
+        {
+            this(exp, listCalc, calc, member, false);
         }
 
         public AggregateCalc(Exp exp, ListCalc listCalc, Calc calc) {
@@ -106,6 +137,14 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                 if (member != null) {
                     evaluator.setContext(member);
                 }
+                if (periodRange && evaluator instanceof RolapEvaluator) {
+                    final Object o =
+                        TimeRangeAggregator.aggregate(
+                            (RolapEvaluator) evaluator, list, false);
+                    if (o != null) {
+                        return o;
+                    }
+                }
                 return aggregate(calc, evaluator, list);
             } finally {
                 evaluator.restore(savepoint);
@@ -148,6 +187,18 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
+                    if (calc instanceof ValueCalc
+                        && evaluator instanceof RolapEvaluator)
+                    {
+                        // If the cells are cached, roll them up without
+                        // evaluating each tuple.
+                        final Object o =
+                            CachedRollupAggregator.aggregate(
+                                (RolapEvaluator) evaluator, tupleList, rollup);
+                        if (o != null) {
+                            return o;
+                        }
+                    }
                     final Object o =
                         rollup.aggregate(
                             evaluator, tupleList, calc);
@@ -28,8 +28,10 @@ import mondrian.calc.ListCalc;
 import mondrian.calc.MemberCalc;
 import mondrian.calc.StringCalc;
 import mondrian.calc.TupleList;
+import mondrian.calc.impl.AbstractBinaryDoubleCalc;
 import mondrian.calc.impl.AbstractBooleanCalc;
 import mondrian.calc.impl.AbstractDoubleCalc;
+import mondrian.calc.impl.AbstractDoubleComparisonCalc;
 import mondrian.calc.impl.AbstractIntegerCalc;
 import mondrian.calc.impl.AbstractLevelCalc;
 import mondrian.calc.impl.AbstractListCalc;
@@ -1443,10 +1445,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractDoubleCalc(call, new Calc[] {calc0, calc1}) {
-                    public double evaluateDouble(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
+                return new AbstractBinaryDoubleCalc(call, calc0, calc1) {
+                    protected double apply(double v0, double v1) {
                         if (v0 == DoubleNull) {
                             if (v1 == DoubleNull) {
                                 return DoubleNull;
@@ -1476,10 +1476,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractDoubleCalc(call, new Calc[] {calc0, calc1}) {
-                    public double evaluateDouble(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
+                return new AbstractBinaryDoubleCalc(call, calc0, calc1) {
+                    protected double apply(double v0, double v1) {
                         if (v0 == DoubleNull) {
                             if (v1 == DoubleNull) {
                                 return DoubleNull;
@@ -1509,10 +1507,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractDoubleCalc(call, new Calc[] {calc0, calc1}) {
-                    public double evaluateDouble(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
+                return new AbstractBinaryDoubleCalc(call, calc0, calc1) {
+                    protected double apply(double v0, double v1) {
                         // Multiply and divide return null if EITHER arg is
                         // null.
                         if (v0 == DoubleNull || v1 == DoubleNull) {
@@ -1549,12 +1545,8 @@ public class BuiltinFunTable extends FunTableImpl {
                 // Null. This is only used by certain applications and does not
                 // conform to MSAS behavior.
                 if (!isNullDenominatorProducesNull) {
-                    return new AbstractDoubleCalc(
-                        call, new Calc[] {calc0, calc1})
-                    {
-                        public double evaluateDouble(Evaluator evaluator) {
-                            final double v0 = calc0.evaluateDouble(evaluator);
-                            final double v1 = calc1.evaluateDouble(evaluator);
+                    return new AbstractBinaryDoubleCalc(call, calc0, calc1) {
+                        protected double apply(double v0, double v1) {
                             // Null in numerator always returns DoubleNull.
                             //
                             if (v0 == DoubleNull) {
@@ -1568,12 +1560,8 @@ public class BuiltinFunTable extends FunTableImpl {
                         }
                     };
                 } else {
-                    return new AbstractDoubleCalc(
-                        call, new Calc[] {calc0, calc1})
-                    {
-                        public double evaluateDouble(Evaluator evaluator) {
-                            final double v0 = calc0.evaluateDouble(evaluator);
-                            final double v1 = calc1.evaluateDouble(evaluator);
+                    return new AbstractBinaryDoubleCalc(call, calc0, calc1) {
+                        protected double apply(double v0, double v1) {
                             // Null in numerator or denominator returns
                             // DoubleNull.
                             if (v0 == DoubleNull || v1 == DoubleNull) {
@@ -1770,18 +1758,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractBooleanCalc(call, new Calc[] {calc0, calc1})
-                {
-                    public boolean evaluateBoolean(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
-                        if (Double.isNaN(v0)
-                            || Double.isNaN(v1)
-                            || v0 == DoubleNull
-                            || v1 == DoubleNull)
-                        {
-                            return BooleanNull;
-                        }
+                return new AbstractDoubleComparisonCalc(call, calc0, calc1) {
+                    protected boolean compare(double v0, double v1) {
                         return v0 == v1;
                     }
                 };
@@ -1824,18 +1802,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractBooleanCalc(call, new Calc[] {calc0, calc1})
-                {
-                    public boolean evaluateBoolean(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
-                        if (Double.isNaN(v0)
-                            || Double.isNaN(v1)
-                            || v0 == DoubleNull
-                            || v1 == DoubleNull)
-                        {
-                            return BooleanNull;
-                        }
+                return new AbstractDoubleComparisonCalc(call, calc0, calc1) {
+                    protected boolean compare(double v0, double v1) {
                         return v0 != v1;
                     }
                 };
@@ -1853,18 +1821,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractBooleanCalc(call, new Calc[] {calc0, calc1})
-                {
-                    public boolean evaluateBoolean(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
-                        if (Double.isNaN(v0)
-                            || Double.isNaN(v1)
-                            || v0 == DoubleNull
-                            || v1 == DoubleNull)
-                        {
-                            return BooleanNull;
-                        }
+                return new AbstractDoubleComparisonCalc(call, calc0, calc1) {
+                    protected boolean compare(double v0, double v1) {
                         return v0 < v1;
                     }
                 };
@@ -1907,18 +1865,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractBooleanCalc(call, new Calc[] {calc0, calc1})
-                {
-                    public boolean evaluateBoolean(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
-                        if (Double.isNaN(v0)
-                            || Double.isNaN(v1)
-                            || v0 == DoubleNull
-                            || v1 == DoubleNull)
-                        {
-                            return BooleanNull;
-                        }
+                return new AbstractDoubleComparisonCalc(call, calc0, calc1) {
+                    protected boolean compare(double v0, double v1) {
                         return v0 <= v1;
                     }
                 };
@@ -1961,18 +1909,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractBooleanCalc(call, new Calc[] {calc0, calc1})
-                {
-                    public boolean evaluateBoolean(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
-                        if (Double.isNaN(v0)
-                            || Double.isNaN(v1)
-                            || v0 == DoubleNull
-                            || v1 == DoubleNull)
-                        {
-                            return BooleanNull;
-                        }
+                return new AbstractDoubleComparisonCalc(call, calc0, calc1) {
+                    protected boolean compare(double v0, double v1) {
                         return v0 > v1;
                     }
                 };
@@ -2015,18 +1953,8 @@ public class BuiltinFunTable extends FunTableImpl {
             {
                 final DoubleCalc calc0 = compiler.compileDouble(call.getArg(0));
                 final DoubleCalc calc1 = compiler.compileDouble(call.getArg(1));
-                return new AbstractBooleanCalc(call, new Calc[] {calc0, calc1})
-                {
-                    public boolean evaluateBoolean(Evaluator evaluator) {
-                        final double v0 = calc0.evaluateDouble(evaluator);
-                        final double v1 = calc1.evaluateDouble(evaluator);
-                        if (Double.isNaN(v0)
-                            || Double.isNaN(v1)
-                            || v0 == DoubleNull
-                            || v1 == DoubleNull)
-                        {
-                            return BooleanNull;
-                        }
+                return new AbstractDoubleComparisonCalc(call, calc0, calc1) {
+                    protected boolean compare(double v0, double v1) {
                         return v0 >= v1;
                     }
                 };
@@ -15,7 +15,7 @@ import java.util.List;
 
 import mondrian.calc.Calc;
 import mondrian.calc.ExpCompiler;
-import mondrian.calc.impl.GenericCalc;
+import mondrian.calc.impl.CoalesceEmptyCalc;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 
@@ -41,21 +41,7 @@ public class CoalesceEmptyFunDef extends FunDefBase {
         for (int i = 0; i < args.length; i++) {
             calcs[i] = compiler.compileScalar(args[i], true);
         }
-        return new GenericCalc(call) {
-            public Object evaluate(Evaluator evaluator) {
-                for (Calc calc : calcs) {
-                    final Object o = calc.evaluate(evaluator);
-                    if (o != null) {
-                        return o;
-                    }
-                }
-                return null;
-            }
-
-            public Calc[] getCalcs() {
-                return calcs;
-            }
-        };
+        return new CoalesceEmptyCalc(call, calcs);
     }
 
     private static class ResolverImpl extends ResolverBase {
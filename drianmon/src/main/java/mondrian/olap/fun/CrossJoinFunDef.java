@@ -30,6 +30,7 @@ import mondrian.calc.impl.AbstractTupleCursor;
 import mondrian.calc.impl.AbstractTupleIterable;
 import mondrian.calc.impl.DelegatingTupleList;
 import mondrian.calc.impl.ListTupleList;
+import mondrian.calc.impl.OrdinalTupleList;
 import mondrian.mdx.MdxVisitorImpl;
 import mondrian.mdx.MemberExpr;
 import mondrian.mdx.ParameterExpr;
@@ -52,6 +53,7 @@ import mondrian.olap.type.MemberType;
 import mondrian.olap.type.SetType;
 import mondrian.olap.type.TupleType;
 import mondrian.olap.type.Type;
+import mondrian.rolap.OccupancyPruner;
 import mondrian.rolap.RolapEvaluator;
 import mondrian.rolap.SqlConstraintUtils;
 import mondrian.server.Execution;
@@ -535,34 +537,153 @@ public class CrossJoinFunDef extends FunDefBase {
     // Now we can safely cast size to an integer. It still might be very
     // large - which means we're allocating a huge array which we might
     // pare down later by applying NON EMPTY constraints - which is a
-    // concern.
-    List<Member> result = new ArrayList<Member>( (int) size * arity );
-
-    final Member[] partialArray = new Member[arity];
-    final List<Member> partial = Arrays.asList( partialArray );
-    cartesianProductRecurse( 0, lists, partial, partialArray, 0, result );
-    return new ListTupleList( arity, result );
+    // concern. Each member is stored as an int ordinal, and each input
+    // tuple is converted to ordinals once.
+    final OrdinalTupleList result = new OrdinalTupleList( arity, (int) size );
+    final int[][] ordinals = new int[lists.size()][];
+    for ( int i = 0, column = 0; i < lists.size(); i++ ) {
+      ordinals[i] = result.toOrdinals( lists.get( i ), column );
+      column += lists.get( i ).getArity();
+    }
+    cartesianProductRecurse( 0, lists, ordinals, new int[arity], 0, result );
+    return result;
   }
 
-  private static void cartesianProductRecurse( int i, List<TupleList> lists, List<Member> partial,
-      Member[] partialArray, int partialSize, List<Member> result ) {
-    final TupleList tupleList = lists.get( i );
-    final int partialSizeNext = partialSize + tupleList.getArity();
+  private static void cartesianProductRecurse( int i, List<TupleList> lists, int[][] ordinals,
+      int[] partial, int partialSize, OrdinalTupleList result ) {
+    final int listArity = lists.get( i ).getArity();
+    final int[] listOrdinals = ordinals[i];
+    final int partialSizeNext = partialSize + listArity;
     final int iNext = i + 1;
-    final TupleCursor cursor = tupleList.tupleCursor();
     int currentIteration = 0;
     Execution execution = Locus.peek().execution;
-    while ( cursor.forward() ) {
+    for ( int n = 0; n < listOrdinals.length; n += listArity ) {
       CancellationChecker.checkCancelOrTimeout( currentIteration++, execution );
-      cursor.currentToArray( partialArray, partialSize );
+      System.arraycopy( listOrdinals, n, partial, partialSize, listArity );
       if ( i == lists.size() - 1 ) {
-        result.addAll( partial );
+        result.addOrdinals( partial, 0 );
       } else {
-        cartesianProductRecurse( iNext, lists, partial, partialArray, partialSizeNext, result );
+        cartesianProductRecurse( iNext, lists, ordinals, partial, partialSizeNext, result );
       }
     }
   }
 
+  /**
+   * Returns the non-empty tuples of the cartesian product of some lists, as a list.
+   *
+   * <p>Equivalent to {@code nonEmptyList(evaluator, mutableCrossJoin(lists), call)}, but never materializes the
+   * product; see {@link #nonEmptyCrossJoinIterable}.
+   */
+  protected TupleList nonEmptyCrossJoin( Evaluator evaluator, List<TupleList> lists, ResolvedFunCall call ) {
+    return TupleCollections.materialize( nonEmptyCrossJoinIterable( evaluator, lists, call ), true );
+  }
+
+  /**
+   * Returns an iterable over the non-empty tuples of the cartesian product of some lists.
+   *
+   * <p>The cursor generates the product in batches of {@link MondrianProperties#CrossJoinBatchSize} tuples, and
+   * filters each batch with {@link #nonEmptyList} before generating the next, so the cells of a batch are requested
+   * together, and memory is proportional to the batch and to the tuples that the consumer keeps, not to the product.
+   * A consumer that stops early, such as {@code Head}, never generates the rest of the product.
+   *
+   * <p>The evaluator is used each time the cursor moves to a new batch, so its context must not change while the
+   * iterable is in use.
+   */
+  protected TupleIterable nonEmptyCrossJoinIterable( final Evaluator evaluator, final List<TupleList> lists,
+      final ResolvedFunCall call ) {
+    long size = 1;
+    int arity = 0;
+    for ( TupleList list : lists ) {
+      size *= (long) list.size();
+      arity += list.getArity();
+    }
+    if ( size == 0L ) {
+      return TupleCollections.emptyList( arity );
+    }
+    Util.checkCJResultLimit( size );
+    final int batchSize =
+        (int) Math.min( size, Math.max( 1, MondrianProperties.instance().CrossJoinBatchSize.get() ) );
+
+    return new AbstractTupleIterable( arity ) {
+      public TupleCursor tupleCursor() {
+        return new AbstractTupleCursor( getArity() ) {
+          final OrdinalTupleList batch = new OrdinalTupleList( arity, batchSize );
+          final int[][] ordinals = new int[lists.size()][];
+          // Offset in ordinals of the current tuple of each list; the last
+          // list varies fastest.
+          final int[] offsets = new int[lists.size()];
+          final int[] tuple = new int[arity];
+          boolean exhausted;
+          TupleCursor cursor = TupleCollections.emptyList( arity ).tupleCursor();
+
+          int currentIteration = 0;
+          Execution execution = Locus.peek().execution;
+
+          {
+            for ( int i = 0, column = 0; i < lists.size(); i++ ) {
+              ordinals[i] = batch.toOrdinals( lists.get( i ), column );
+              column += lists.get( i ).getArity();
+            }
+          }
+
+          public boolean forward() {
+            while ( !cursor.forward() ) {
+              if ( exhausted ) {
+                return false;
+              }
+              // The previous batch's cursor is exhausted, so the batch can
+              // be reused, even if nonEmptyList returned it unchanged.
+              fill();
+              cursor = nonEmptyList( evaluator, batch, call ).tupleCursor();
+            }
+            return true;
+          }
+
+          private void fill() {
+            batch.clear();
+            while ( !exhausted && batch.size() < batchSize ) {
+              CancellationChecker.checkCancelOrTimeout( currentIteration++, execution );
+              for ( int i = 0, column = 0; i < lists.size(); i++ ) {
+                final int listArity = lists.get( i ).getArity();
+                System.arraycopy( ordinals[i], offsets[i], tuple, column, listArity );
+                column += listArity;
+              }
+              batch.addOrdinals( tuple, 0 );
+              int i = lists.size() - 1;
+              for ( ; i >= 0; i-- ) {
+                offsets[i] += lists.get( i ).getArity();
+                if ( offsets[i] < ordinals[i].length ) {
+                  break;
+                }
+                offsets[i] = 0;
+              }
+              exhausted = i < 0;
+            }
+          }
+
+          public List<Member> current() {
+            return cursor.current();
+          }
+
+          @Override
+          public Member member( int column ) {
+            return cursor.member( column );
+          }
+
+          @Override
+          public void setContext( Evaluator evaluator ) {
+            cursor.setContext( evaluator );
+          }
+
+          @Override
+          public void currentToArray( Member[] members, int offset ) {
+            cursor.currentToArray( members, offset );
+          }
+        };
+      }
+    };
+  }
+
   /**
    * Traverses the function call tree of the non empty crossjoin function and populates the queryMeasureSet with base
    * measures
@@ -869,6 +990,10 @@ public class CrossJoinFunDef extends FunDefBase {
       // combination of
       // Measure and non-All Members evaluation is non-null, then
       // add it to the result List.
+      // If the measures are stored and the context has no members to
+      // enumerate, decide from the cached segments which tuples are empty.
+      final OccupancyPruner pruner =
+          nonAllMembers.length == 0 ? OccupancyPruner.create( evaluator, measureSet ) : null;
       final TupleCursor cursor = list.tupleCursor();
       int currentIteration = 0;
       Execution execution = query.getStatement().getCurrentExecution();
@@ -886,9 +1011,23 @@ public class CrossJoinFunDef extends FunDefBase {
         // Throws an exception in case of timeout is exceeded
         // see MONDRIAN-2425
         CancellationChecker.checkCancelOrTimeout( currentIteration++, execution );
-        if ( tupleContainsCalcs( cursor.current() ) || checkData( nonAllMembers, nonAllMembers.length - 1, measureSet,
-            evaluator ) ) {
+        if ( tupleContainsCalcs( cursor.current() ) ) {
           result.addCurrent( cursor );
+          continue;
+        }
+        final OccupancyPruner.Occupancy occupancy =
+            pruner == null ? OccupancyPruner.Occupancy.UNKNOWN : pruner.check();
+        switch ( occupancy ) {
+          case EMPTY:
+            break;
+          case OCCUPIED:
+          case PENDING:
+            result.addCurrent( cursor );
+            break;
+          default:
+            if ( checkData( nonAllMembers, nonAllMembers.length - 1, measureSet, evaluator ) ) {
+              result.addCurrent( cursor );
+            }
         }
       }
       return result;
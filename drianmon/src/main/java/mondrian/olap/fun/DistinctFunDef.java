@@ -9,13 +9,11 @@
 
 package mondrian.olap.fun;
 
-import java.util.*;
-
 import mondrian.calc.*;
 import mondrian.calc.impl.AbstractListCalc;
+import mondrian.calc.impl.OrdinalTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.Evaluator;
-import mondrian.olap.Member;
 
 /**
  * Definition of the <code>Distinct</code> MDX function.
@@ -52,13 +50,9 @@ class DistinctFunDef extends FunDefBase {
 
         public TupleList evaluateList(Evaluator evaluator) {
             TupleList list = listCalc.evaluateList(evaluator);
-            Set<List<Member>> set = new HashSet<List<Member>>(list.size());
-            TupleList result = list.cloneList(list.size());
-            for (List<Member> element : list) {
-                if (set.add(element)) {
-                    result.add(element);
-                }
-            }
+            final OrdinalTupleList result =
+                new OrdinalTupleList(list.getArity(), list.size());
+            new OrdinalTupleList.TupleIndex(result).addDistinct(list);
             return result;
         }
     }
@@ -9,11 +9,9 @@
 
 package mondrian.olap.fun;
 
-import java.util.*;
-
 import mondrian.calc.*;
 import mondrian.calc.impl.AbstractListCalc;
-import mondrian.calc.impl.ArrayTupleList;
+import mondrian.calc.impl.OrdinalTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 
@@ -51,12 +49,15 @@ class ExceptFunDef extends FunDefBase {
                 if (list1.isEmpty()) {
                     return list0;
                 }
-                final Set<List<Member>> set1 = new HashSet<List<Member>>(list1);
+                final OrdinalTupleList.TupleIndex index1 =
+                    OrdinalTupleList.TupleIndex.of(
+                        OrdinalTupleList.of(list1));
                 final TupleList result =
-                    new ArrayTupleList(list0.getArity(), list0.size());
-                for (List<Member> tuple1 : list0) {
-                    if (!set1.contains(tuple1)) {
-                        result.add(tuple1);
+                    new OrdinalTupleList(list0.getArity(), list0.size());
+                final TupleCursor cursor = list0.tupleCursor();
+                while (cursor.forward()) {
+                    if (index1.indexOf(cursor) < 0) {
+                        result.addCurrent(cursor);
                     }
                 }
                 return result;
@@ -10,12 +10,14 @@
 */
 package mondrian.olap.fun;
 
+import java.util.BitSet;
 import java.util.List;
 
 import mondrian.calc.*;
 import mondrian.calc.impl.*;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
+import mondrian.rolap.ParallelSetEvaluator;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.util.CancellationChecker;
@@ -37,6 +39,18 @@ class FilterFunDef extends FunDefBase {
 
     static final FilterFunDef instance = new FilterFunDef();
 
+    /**
+     * Evaluates the condition for a tuple, when tuples are filtered in
+     * parallel.
+     */
+    private static final ParallelSetEvaluator.TupleFunction<Boolean>
+        CONDITION_FUNCTION =
+        new ParallelSetEvaluator.TupleFunction<Boolean>() {
+            public Boolean apply(Evaluator evaluator, Calc calc) {
+                return Boolean.TRUE.equals(calc.evaluate(evaluator));
+            }
+        };
+
     private FilterFunDef() {
         super(
             "Filter",
@@ -130,6 +144,10 @@ class FilterFunDef extends FunDefBase {
 
         protected abstract TupleIterable makeIterable(Evaluator evaluator);
 
+        protected ResolvedFunCall getCall() {
+            return (ResolvedFunCall) exp;
+        }
+
         public boolean dependsOn(Hierarchy hierarchy) {
             return anyDependsButFirst(getCalcs(), hierarchy);
         }
@@ -157,18 +175,7 @@ class FilterFunDef extends FunDefBase {
                     TupleCollections.createList(
                         list.getArity(), list.size() / 2);
                 evaluator.setNonEmpty(false);
-                TupleCursor cursor = list.tupleCursor();
-                int currentIteration = 0;
-                Execution execution =
-                    evaluator.getQuery().getStatement().getCurrentExecution();
-                while (cursor.forward()) {
-                    CancellationChecker.checkCancelOrTimeout(
-                        currentIteration++, execution);
-                    cursor.setContext(evaluator);
-                    if (bcalc.evaluateBoolean(evaluator)) {
-                        result.addCurrent(cursor);
-                    }
-                }
+                filter(evaluator, list, getCall(), bcalc, result);
                 return result;
             } finally {
                 evaluator.restore(savepoint);
@@ -195,18 +202,7 @@ class FilterFunDef extends FunDefBase {
             final int savepoint = evaluator.savepoint();
             try {
                 evaluator.setNonEmpty(false);
-                TupleCursor cursor = members.tupleCursor();
-                int currentIteration = 0;
-                Execution execution =
-                    evaluator.getQuery().getStatement().getCurrentExecution();
-                while (cursor.forward()) {
-                    CancellationChecker.checkCancelOrTimeout(
-                        currentIteration++, execution);
-                    cursor.setContext(evaluator);
-                    if (bcalc.evaluateBoolean(evaluator)) {
-                        result.addCurrent(cursor);
-                    }
-                }
+                filter(evaluator, members, getCall(), bcalc, result);
                 return result;
             } finally {
                 evaluator.restore(savepoint);
@@ -312,6 +308,10 @@ class FilterFunDef extends FunDefBase {
         }
         protected abstract TupleList makeList(Evaluator evaluator);
 
+        protected ResolvedFunCall getCall() {
+            return (ResolvedFunCall) exp;
+        }
+
         public boolean dependsOn(Hierarchy hierarchy) {
             return anyDependsButFirst(getCalcs(), hierarchy);
         }
@@ -336,18 +336,7 @@ class FilterFunDef extends FunDefBase {
             final int savepoint = evaluator.savepoint();
             try {
                 evaluator.setNonEmpty(false);
-                final TupleCursor cursor = members0.tupleCursor();
-                int currentIteration = 0;
-                Execution execution =
-                    evaluator.getQuery().getStatement().getCurrentExecution();
-                while (cursor.forward()) {
-                    CancellationChecker.checkCancelOrTimeout(
-                        currentIteration++, execution);
-                    cursor.setContext(evaluator);
-                    if (bcalc.evaluateBoolean(evaluator)) {
-                        result.addCurrent(cursor);
-                    }
-                }
+                filter(evaluator, members0, getCall(), bcalc, result);
                 return result;
             } finally {
                 evaluator.restore(savepoint);
@@ -375,18 +364,7 @@ class FilterFunDef extends FunDefBase {
                 // for capacity planning, guess selectivity = .5
                 TupleList result = members0.cloneList(members0.size() / 2);
                 evaluator.setNonEmpty(false);
-                final TupleCursor cursor = members0.tupleCursor();
-                int currentIteration = 0;
-                Execution execution = evaluator.getQuery()
-                    .getStatement().getCurrentExecution();
-                while (cursor.forward()) {
-                    CancellationChecker.checkCancelOrTimeout(
-                        currentIteration++, execution);
-                    cursor.setContext(evaluator);
-                    if (bcalc.evaluateBoolean(evaluator)) {
-                        result.addCurrent(cursor);
-                    }
-                }
+                filter(evaluator, members0, getCall(), bcalc, result);
                 return result;
             } finally {
                 evaluator.restore(savepoint);
@@ -394,6 +372,64 @@ class FilterFunDef extends FunDefBase {
             }
         }
     }
+
+    /**
+     * Adds to a list the tuples of another list for which a condition is
+     * true. If the condition supports batch evaluation, evaluates it for all
+     * tuples in one call; otherwise, if the list is large, evaluates it in
+     * parallel (see {@link ParallelSetEvaluator}).
+     *
+     * @param evaluator Evaluator
+     * @param list List of tuples to filter
+     * @param call Call to <code>Filter</code>; its first argument is the set
+     *     expression, its second the condition
+     * @param bcalc Compiled condition
+     * @param result List to which to add the tuples that pass the condition
+     */
+    private static void filter(
+        Evaluator evaluator,
+        TupleList list,
+        ResolvedFunCall call,
+        BooleanCalc bcalc,
+        TupleList result)
+    {
+        if (bcalc instanceof BooleanBatchCalc) {
+            final BitSet matches =
+                ((BooleanBatchCalc) bcalc).evaluateBooleanBatch(
+                    evaluator, list);
+            for (int i = matches.nextSetBit(0);
+                 i >= 0;
+                 i = matches.nextSetBit(i + 1))
+            {
+                result.add(list.get(i));
+            }
+            return;
+        }
+        final List<Boolean> conditions =
+            ParallelSetEvaluator.evaluate(
+                evaluator, list, call.getArg(0), call.getArg(1), true,
+                ResultStyle.VALUE, CONDITION_FUNCTION);
+        if (conditions != null) {
+            for (int i = 0; i < conditions.size(); i++) {
+                if (conditions.get(i)) {
+                    result.add(list.get(i));
+                }
+            }
+            return;
+        }
+        TupleCursor cursor = list.tupleCursor();
+        int currentIteration = 0;
+        Execution execution =
+            evaluator.getQuery().getStatement().getCurrentExecution();
+        while (cursor.forward()) {
+            CancellationChecker.checkCancelOrTimeout(
+                currentIteration++, execution);
+            cursor.setContext(evaluator);
+            if (bcalc.evaluateBoolean(evaluator)) {
+                result.addCurrent(cursor);
+            }
+        }
+    }
 }
 
 // End FilterFunDef.java
@@ -16,23 +16,28 @@ import static mondrian.olap.fun.sort.Sorter.hierarchizeTupleList;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
 import mondrian.calc.Calc;
+import mondrian.calc.DoubleBatchCalc;
 import mondrian.calc.DoubleCalc;
 import mondrian.calc.ResultStyle;
 import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleIterable;
 import mondrian.calc.TupleList;
+import mondrian.calc.impl.BatchCalcUtil;
 import mondrian.calc.impl.UnaryTupleList;
 import mondrian.mdx.DimensionExpr;
 import mondrian.mdx.HierarchyExpr;
 import mondrian.mdx.LevelExpr;
+import mondrian.mdx.MdxVisitorImpl;
 import mondrian.mdx.MemberExpr;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.Access;
@@ -269,26 +274,6 @@ public class FunUtil extends Util {
     }
   }
 
-  /**
-   * Adds every element of {@code right} which is not in {@code set} to both {@code set} and {@code left}.
-   */
-  static void addUnique(
-    TupleList left,
-    TupleList right,
-    Set<List<Member>> set ) {
-    assert left != null;
-    assert right != null;
-    if ( right.isEmpty() ) {
-      return;
-    }
-    for ( int i = 0, n = right.size(); i < n; i++ ) {
-      List<Member> o = right.get( i );
-      if ( set.add( o ) ) {
-        left.add( o );
-      }
-    }
-  }
-
   /**
    * Returns the default hierarchy of a dimension, or null if there is no default.
    *
@@ -401,6 +386,44 @@ public class FunUtil extends Util {
     return false;
   }
 
+  /**
+   * Returns whether an expression reads the position of an iteration over a named set, by calling
+   * <code>&lt;Named Set&gt;.Current</code> or <code>&lt;Named Set&gt;.CurrentOrdinal</code>, either directly or in
+   * the formula of a calculated member that it refers to.
+   *
+   * <p>{@link Calc#dependsOn} does not report such a dependency, because the position is held by the named set's
+   * evaluator, not by the context of the evaluator. An expression for which this method returns true must be
+   * evaluated afresh, and in order, for each step of the iteration.
+   *
+   * @param exp Expression
+   * @return whether expression depends on the iteration over a named set
+   */
+  public static boolean dependsOnNamedSetIteration( Exp exp ) {
+    final boolean[] found = { false };
+    final Set<Member> visitedMembers = new HashSet<>();
+    exp.accept( new MdxVisitorImpl() {
+      public Object visit( ResolvedFunCall call ) {
+        if ( call.getFunDef() instanceof NamedSetCurrentFunDef
+          || call.getFunDef() instanceof NamedSetCurrentOrdinalFunDef ) {
+          found[0] = true;
+        }
+        return null;
+      }
+
+      public Object visit( MemberExpr memberExpr ) {
+        final Member member = memberExpr.getMember();
+        if ( member.isCalculated() && visitedMembers.add( member ) ) {
+          final Exp memberExp = member.getExpression();
+          if ( memberExp != null ) {
+            memberExp.accept( this );
+          }
+        }
+        return null;
+      }
+    } );
+    return found[0];
+  }
+
   /**
    * Compares double-precision values according to MDX semantics.
    *
@@ -700,6 +723,15 @@ public class FunUtil extends Util {
     TupleList members,
     Calc exp,
     double p ) {
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, exp );
+    if ( values != null ) {
+      return values.errorCount > 0
+        ? Double.NaN
+        : values.count == 0
+        ? DoubleNull
+        : percentile( values.values, values.count, p );
+    }
     SetWrapper sw = evaluateSet( evaluator, members, exp );
     if ( sw.errorCount > 0 ) {
       return Double.NaN;
@@ -755,6 +787,41 @@ public class FunUtil extends Util {
     }
   }
 
+  /**
+   * Returns the percentile of the first {@code length} values of an array, selecting the values it needs rather than
+   * sorting. The result is the same as that of {@link #percentile(Evaluator, TupleList, Calc, double)} over a sorted
+   * array. Rearranges the values.
+   */
+  static double percentile( double[] values, int length, double p ) {
+    if ( length == 1 ) {
+      return values[ 0 ];
+    }
+    if ( p <= 0.0 ) {
+      return PrimitiveStatistics.select( values, length, 0 );
+    } else if ( p >= 1.0 ) {
+      return PrimitiveStatistics.select( values, length, length - 1 );
+    } else if ( p == 0.5 ) {
+      final int mid = length >> 1;
+      if ( ( length & 1 ) == 1 ) {
+        return PrimitiveStatistics.select( values, length, mid );
+      } else {
+        final double lower =
+          PrimitiveStatistics.select( values, length, mid - 1 );
+        return ( lower
+          + PrimitiveStatistics.selectNext( values, length, mid - 1 ) )
+          / 2.0;
+      }
+    } else {
+      final double rank = ( ( length - 1 ) * p ) + 1;
+      final int integerPart = (int) Math.floor( rank );
+      final double decimalPart = rank - integerPart;
+      final int k = integerPart - 1;
+      final double lower = PrimitiveStatistics.select( values, length, k );
+      final double upper = PrimitiveStatistics.selectNext( values, length, k );
+      return lower + ( ( upper - lower ) * decimalPart );
+    }
+  }
+
   /**
    * Returns the member which lies upon a particular quartile according to a given expression.
    *
@@ -771,6 +838,26 @@ public class FunUtil extends Util {
     int range ) {
     assert range >= 1 && range <= 3;
 
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, exp );
+    if ( values != null ) {
+      if ( values.errorCount > 0 ) {
+        return Double.NaN;
+      } else if ( values.count == 0 ) {
+        return DoubleNull;
+      }
+      final int length = values.count;
+      final double dm = 0.25 * length * range;
+      final int median = (int) Math.floor( dm );
+      final double value =
+        PrimitiveStatistics.select( values.values, length, median );
+      return dm == median && median < length - 1
+        ? ( value
+        + PrimitiveStatistics.selectNext( values.values, length, median ) )
+        / 2
+        : value;
+    }
+
     SetWrapper sw = evaluateSet( evaluator, members, exp );
     if ( sw.errorCount > 0 ) {
       return Double.NaN;
@@ -796,6 +883,22 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc calc ) {
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, calc );
+    if ( values != null ) {
+      if ( values.errorCount > 0 ) {
+        return Double.NaN;
+      } else if ( values.count == 0 ) {
+        return Util.nullValue;
+      }
+      double min = values.values[ 0 ];
+      for ( int i = 1; i < values.count; i++ ) {
+        if ( values.values[ i ] < min ) {
+          min = values.values[ i ];
+        }
+      }
+      return min;
+    }
     SetWrapper sw = evaluateSet( evaluator, members, calc );
     if ( sw.errorCount > 0 ) {
       return Double.NaN;
@@ -820,6 +923,22 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc exp ) {
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, exp );
+    if ( values != null ) {
+      if ( values.errorCount > 0 ) {
+        return Double.NaN;
+      } else if ( values.count == 0 ) {
+        return Util.nullValue;
+      }
+      double max = values.values[ 0 ];
+      for ( int i = 1; i < values.count; i++ ) {
+        if ( values.values[ i ] > max ) {
+          max = values.values[ i ];
+        }
+      }
+      return max;
+    }
     SetWrapper sw = evaluateSet( evaluator, members, exp );
     if ( sw.errorCount > 0 ) {
       return Double.NaN;
@@ -845,6 +964,17 @@ public class FunUtil extends Util {
     TupleList members,
     Calc exp,
     boolean biased ) {
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, exp );
+    if ( values != null ) {
+      return values.errorCount > 0
+        ? new Double( Double.NaN )
+        : values.count == 0
+        ? Util.nullValue
+        : new Double(
+        PrimitiveStatistics.variance(
+          values.values, values.count, biased ) );
+    }
     SetWrapper sw = evaluateSet( evaluator, members, exp );
     return _var( sw, biased );
   }
@@ -874,6 +1004,21 @@ public class FunUtil extends Util {
     TupleList memberList,
     Calc exp1,
     Calc exp2 ) {
+    final PrimitiveStatistics.Values values1 =
+      PrimitiveStatistics.evaluate( evaluator, memberList, exp1 );
+    final PrimitiveStatistics.Values values2 =
+      values1 == null
+        ? null
+        : PrimitiveStatistics.evaluate( evaluator, memberList, exp2 );
+    if ( values2 != null
+      && values1.errorCount == 0
+      && values2.errorCount == 0
+      && values1.count == values2.count
+      && values1.count > 0 ) {
+      return PrimitiveStatistics.correlation(
+        values1.values, values2.values, values1.count );
+    }
+    // Errors, empty or mismatched lists, or values that are not numeric.
     SetWrapper sw1 = evaluateSet( evaluator, memberList, exp1 );
     SetWrapper sw2 = evaluateSet( evaluator, memberList, exp2 );
     Object covar = _covariance( sw1, sw2, false );
@@ -892,6 +1037,20 @@ public class FunUtil extends Util {
     Calc exp1,
     Calc exp2,
     boolean biased ) {
+    final PrimitiveStatistics.Values values1 =
+      PrimitiveStatistics.evaluate( evaluator, members, exp1 );
+    final PrimitiveStatistics.Values values2 =
+      values1 == null
+        ? null
+        : PrimitiveStatistics.evaluate( evaluator, members, exp2 );
+    if ( values2 != null ) {
+      // As below, nulls are skipped, so the lists may be mismatched.
+      return values1.count != values2.count
+        ? Util.nullValue
+        : new Double(
+        PrimitiveStatistics.covariance(
+          values1.values, values2.values, values1.count, biased ) );
+    }
     final int savepoint = evaluator.savepoint();
     SetWrapper sw1;
     try {
@@ -950,6 +1109,20 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc calc ) {
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, calc );
+    if ( values != null ) {
+      if ( values.errorCount > 0 ) {
+        return new Double( Double.NaN );
+      } else if ( values.count == 0 ) {
+        return Util.nullValue;
+      }
+      double sum = 0.0;
+      for ( int i = 0; i < values.count; i++ ) {
+        sum += values.values[ i ];
+      }
+      return new Double( sum / (double) values.count );
+    }
     SetWrapper sw = evaluateSet( evaluator, members, calc );
     return ( sw.errorCount > 0 )
       ? new Double( Double.NaN )
@@ -981,6 +1154,28 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc exp ) {
+    if ( exp instanceof DoubleBatchCalc ) {
+      final BitSet nulls = new BitSet();
+      final double[] values =
+        ( (DoubleBatchCalc) exp ).evaluateDoubleBatch( evaluator, members, nulls );
+      if ( values != null ) {
+        return sumDouble( values, nulls );
+      }
+    }
+    final PrimitiveStatistics.Values values =
+      PrimitiveStatistics.evaluate( evaluator, members, exp );
+    if ( values != null ) {
+      if ( values.errorCount > 0 ) {
+        return Double.NaN;
+      } else if ( values.count == 0 ) {
+        return DoubleNull;
+      }
+      double sum = 0.0;
+      for ( int i = 0; i < values.count; i++ ) {
+        sum += values.values[ i ];
+      }
+      return sum;
+    }
     SetWrapper sw = evaluateSet( evaluator, members, exp );
     if ( sw.errorCount > 0 ) {
       return Double.NaN;
@@ -999,6 +1194,9 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleIterable iterable,
     Calc exp ) {
+    if ( iterable instanceof TupleList ) {
+      return sumDouble( evaluator, (TupleList) iterable, exp );
+    }
     SetWrapper sw = evaluateSet( evaluator, iterable, exp );
     if ( sw.errorCount > 0 ) {
       return Double.NaN;
@@ -1013,6 +1211,14 @@ public class FunUtil extends Util {
     }
   }
 
+  /**
+   * Sums the values computed by {@link DoubleBatchCalc#evaluateDoubleBatch}, skipping nulls. Returns {@link
+   * #DoubleNull} if all values are null.
+   */
+  private static double sumDouble( double[] values, BitSet nulls ) {
+    return PrimitiveStatistics.sum( values, nulls );
+  }
+
   public static int count(
     Evaluator evaluator,
     TupleIterable iterable,
@@ -1102,27 +1308,20 @@ public class FunUtil extends Util {
     Util.assertPrecondition( calcs != null, "calcs != null" );
 
     // todo: treat constant exps as evaluateMembers() does
+    // Each expression is evaluated over the whole list, in one call if it
+    // supports batch evaluation.
     SetWrapper[] retvals = new SetWrapper[ calcs.length ];
     for ( int i = 0; i < calcs.length; i++ ) {
-      retvals[ i ] = new SetWrapper();
-    }
-    final TupleCursor cursor = list.tupleCursor();
-    int currentIteration = 0;
-    Execution execution =
-      evaluator.getQuery().getStatement().getCurrentExecution();
-    while ( cursor.forward() ) {
-      CancellationChecker.checkCancelOrTimeout(
-        currentIteration++, execution );
-      cursor.setContext( evaluator );
-      for ( int i = 0; i < calcs.length; i++ ) {
-        DoubleCalc calc = calcs[ i ];
-        SetWrapper retval = retvals[ i ];
-        double o = calc.evaluateDouble( evaluator );
-        if ( o == FunUtil.DoubleNull ) {
+      final SetWrapper retval = retvals[ i ] = new SetWrapper();
+      final BitSet nulls = new BitSet();
+      final double[] values =
+        BatchCalcUtil.evaluateDoubles( evaluator, list, calcs[ i ], nulls );
+      for ( int j = 0; j < values.length; j++ ) {
+        if ( nulls.get( j ) ) {
           retval.nullCount++;
           retval.v.add( null );
         } else {
-          retval.v.add( o );
+          retval.v.add( values[ j ] );
         }
         // TODO: If the expression yielded an error, carry on
         // summing, so that if we are running in a
@@ -17,6 +17,7 @@ import mondrian.calc.impl.*;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
+import mondrian.rolap.ParallelSetEvaluator;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.util.CancellationChecker;
@@ -46,6 +47,31 @@ class GenerateFunDef extends FunDefBase {
 
     private static final String[] ReservedWords = new String[] {"ALL"};
 
+    /**
+     * Evaluates the set expression for a tuple, when a set is generated in
+     * parallel.
+     */
+    private static final ParallelSetEvaluator.TupleFunction<TupleList>
+        SET_FUNCTION =
+        new ParallelSetEvaluator.TupleFunction<TupleList>() {
+            public TupleList apply(Evaluator evaluator, Calc calc) {
+                return TupleCollections.materialize(
+                    (TupleIterable) calc.evaluate(evaluator), true);
+            }
+        };
+
+    /**
+     * Evaluates the string expression for a tuple, when a string is generated
+     * in parallel.
+     */
+    private static final ParallelSetEvaluator.TupleFunction<String>
+        STRING_FUNCTION =
+        new ParallelSetEvaluator.TupleFunction<String>() {
+            public String apply(Evaluator evaluator, Calc calc) {
+                return (String) calc.evaluate(evaluator);
+            }
+        };
+
     public GenerateFunDef(FunDef dummyFunDef) {
         super(dummyFunDef);
     }
@@ -114,6 +140,26 @@ class GenerateFunDef extends FunDefBase {
                         iterCalc1.evaluateIterable(evaluator);
                 evaluator.restore(savepoint);
                 TupleList result = TupleCollections.createList(arityOut);
+                final List<TupleList> result2s =
+                    iterable1 instanceof TupleList
+                        ? ParallelSetEvaluator.evaluate(
+                            evaluator, (TupleList) iterable1,
+                            ((ResolvedFunCall) exp).getArg(0),
+                            ((ResolvedFunCall) exp).getArg(1), false,
+                            ResultStyle.LIST, SET_FUNCTION)
+                        : null;
+                if (result2s != null) {
+                    final Set<List<Member>> emitted =
+                        all ? null : new HashSet<List<Member>>();
+                    for (TupleList result2 : result2s) {
+                        if (all) {
+                            result.addAll(result2);
+                        } else {
+                            addDistinctTuples(result, result2, emitted);
+                        }
+                    }
+                    return result;
+                }
                 Execution execution = Locus.peek().execution;
                 if (all) {
                     final TupleCursor cursor = iterable1.tupleCursor();
@@ -189,6 +235,29 @@ class GenerateFunDef extends FunDefBase {
                 int k = 0;
                 final TupleIterable iter11 =
                     iterCalc.evaluateIterable(evaluator);
+                final List<String> result2s =
+                    iter11 instanceof TupleList
+                        ? ParallelSetEvaluator.evaluate(
+                            evaluator, (TupleList) iter11,
+                            ((ResolvedFunCall) exp).getArg(0),
+                            ((ResolvedFunCall) exp).getArg(1), true,
+                            ResultStyle.VALUE, STRING_FUNCTION)
+                        : null;
+                if (result2s != null) {
+                    // The separator is evaluated in the context of each
+                    // tuple but the first, as below.
+                    final TupleCursor cursor =
+                        ((TupleList) iter11).tupleCursor();
+                    for (String result2 : result2s) {
+                        cursor.forward();
+                        if (k++ > 0) {
+                            cursor.setContext(evaluator);
+                            buf.append(sepCalc.evaluateString(evaluator));
+                        }
+                        buf.append(result2);
+                    }
+                    return buf.toString();
+                }
                 final TupleCursor cursor = iter11.tupleCursor();
                 int currentIteration = 0;
                 Execution execution =
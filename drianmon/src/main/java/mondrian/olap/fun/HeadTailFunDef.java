@@ -48,29 +48,37 @@ class HeadTailFunDef extends FunDefBase {
     }
 
     public Calc compileCall(ResolvedFunCall call, ExpCompiler compiler) {
-        final ListCalc listCalc =
-            compiler.compileList(call.getArg(0));
         final IntegerCalc integerCalc =
             call.getArgCount() > 1
             ? compiler.compileInteger(call.getArg(1))
             : ConstantCalc.constantInteger(1);
         if (head) {
+            // Ask for an iterable, so that Head can stop reading the set
+            // after the first tuples, without materializing the rest.
+            final IterCalc iterCalc =
+                (IterCalc) compiler.compileAs(
+                    call.getArg(0),
+                    null,
+                    ResultStyle.ITERABLE_LIST_MUTABLELIST);
             return new AbstractListCalc(
-                call, new Calc[] {listCalc, integerCalc})
+                call, new Calc[] {iterCalc, integerCalc})
             {
                 public TupleList evaluateList(Evaluator evaluator) {
                     final int savepoint = evaluator.savepoint();
                     try {
                         evaluator.setNonEmpty(false);
-                        TupleList list = listCalc.evaluateList(evaluator);
+                        TupleIterable iterable =
+                            iterCalc.evaluateIterable(evaluator);
                         int count = integerCalc.evaluateInteger(evaluator);
-                        return head(count, list);
+                        return head(count, iterable);
                     } finally {
                         evaluator.restore(savepoint);
                     }
                 }
             };
         } else {
+            final ListCalc listCalc =
+                compiler.compileList(call.getArg(0));
             return new AbstractListCalc(
                 call, new Calc[] {listCalc, integerCalc})
             {
@@ -108,6 +116,26 @@ class HeadTailFunDef extends FunDefBase {
         }
         return members.subList(0, Math.min(count, members.size()));
     }
+
+    /**
+     * Returns the first {@code count} tuples of an iterable. If the iterable
+     * is not a list, reads no further than the last of those tuples.
+     */
+    static TupleList head(final int count, final TupleIterable iterable) {
+        assert iterable != null;
+        if (iterable instanceof TupleList) {
+            return head(count, (TupleList) iterable);
+        }
+        final TupleList list =
+            TupleCollections.createList(iterable.getArity());
+        if (count > 0) {
+            final TupleCursor cursor = iterable.tupleCursor();
+            while (list.size() < count && cursor.forward()) {
+                list.addCurrent(cursor);
+            }
+        }
+        return list;
+    }
 }
 
 // End HeadTailFunDef.java
@@ -90,18 +90,7 @@ public class IifFunDef extends FunDefBase {
               }
             };
         } else {
-            return new GenericCalc(call) {
-                public Object evaluate(Evaluator evaluator) {
-                    final boolean b =
-                        booleanCalc.evaluateBoolean(evaluator);
-                    Calc calc = b ? calc1 : calc2;
-                    return calc.evaluate(evaluator);
-                }
-
-                public Calc[] getCalcs() {
-                    return new Calc[] {booleanCalc, calc1, calc2};
-                }
-            };
+            return new IifCalc(call, booleanCalc, calc1, calc2);
         }
     }
 
@@ -141,18 +130,7 @@ public class IifFunDef extends FunDefBase {
                     compiler.compileBoolean(call.getArg(0));
                 final Calc calc1 = compiler.compileScalar(call.getArg(1), true);
                 final Calc calc2 = compiler.compileScalar(call.getArg(2), true);
-                return new GenericCalc(call) {
-                    public Object evaluate(Evaluator evaluator) {
-                        final boolean b =
-                            booleanCalc.evaluateBoolean(evaluator);
-                        Calc calc = b ? calc1 : calc2;
-                        return calc.evaluate(evaluator);
-                    }
-
-                    public Calc[] getCalcs() {
-                        return new Calc[] {booleanCalc, calc1, calc2};
-                    }
-                };
+                return new IifCalc(call, booleanCalc, calc1, calc2);
             }
         };
 
@@ -169,18 +147,7 @@ public class IifFunDef extends FunDefBase {
                     compiler.compileBoolean(call.getArg(0));
                 final Calc calc1 = compiler.compileTuple(call.getArg(1));
                 final Calc calc2 = compiler.compileTuple(call.getArg(2));
-                return new GenericCalc(call) {
-                    public Object evaluate(Evaluator evaluator) {
-                        final boolean b =
-                            booleanCalc.evaluateBoolean(evaluator);
-                        Calc calc = b ? calc1 : calc2;
-                        return calc.evaluate(evaluator);
-                    }
-
-                    public Calc[] getCalcs() {
-                        return new Calc[] {booleanCalc, calc1, calc2};
-                    }
-                };
+                return new IifCalc(call, booleanCalc, calc1, calc2);
             }
         };
 
@@ -11,10 +11,9 @@
 
 package mondrian.olap.fun;
 
-import java.util.*;
-
 import mondrian.calc.*;
 import mondrian.calc.impl.AbstractListCalc;
+import mondrian.calc.impl.OrdinalTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 
@@ -64,124 +63,73 @@ class IntersectFunDef extends FunDefBase
                     return rightList;
                 }
 
-                // Set of members from the right side of the intersect.
-                // We use a RetrievableSet because distinct keys
-                // (regular members and visual totals members) compare
-                // identical using hashCode and equals, we want to retrieve
-                // the actual key, and java.util.Set only has containsKey.
-                RetrievableSet<List<Member>> rightSet =
-                    new RetrievableHashSet<List<Member>>(
-                        rightList.size() * 3 / 2);
-                for (List<Member> tuple : rightList) {
-                    rightSet.add(tuple);
+                // Index of tuples from the right side of the intersect.
+                // Distinct keys (regular members and visual totals members)
+                // compare identical, and we want to retrieve the actual key,
+                // so the index returns the position of the right tuple. Of
+                // several equal tuples, the last one wins.
+                final OrdinalTupleList rightTuples =
+                    OrdinalTupleList.of(rightList);
+                final OrdinalTupleList.TupleIndex rightIndex =
+                    new OrdinalTupleList.TupleIndex(rightTuples);
+                for (int i = rightTuples.size() - 1; i >= 0; i--) {
+                    rightIndex.add(i);
                 }
 
                 final TupleList result =
-                    TupleCollections.createList(
+                    new OrdinalTupleList(
                         arity, Math.min(leftList.size(), rightList.size()));
-                final Set<List<Member>> resultSet =
-                    all ? null : new HashSet<List<Member>>();
-                for (List<Member> leftTuple : leftList) {
-                    List<Member> rightKey = rightSet.getKey(leftTuple);
-                    if (rightKey == null) {
+                final OrdinalTupleList leftTuples =
+                    all ? null : new OrdinalTupleList(arity);
+                final OrdinalTupleList.TupleIndex leftIndex =
+                    all ? null : new OrdinalTupleList.TupleIndex(leftTuples);
+                final Member[] tuple = new Member[arity];
+                final TupleCursor cursor = leftList.tupleCursor();
+                while (cursor.forward()) {
+                    final int rightPosition = rightIndex.indexOf(cursor);
+                    if (rightPosition < 0) {
                         continue;
                     }
-                    if (resultSet != null && !resultSet.add(leftTuple)) {
-                        continue;
+                    if (leftIndex != null) {
+                        leftTuples.addCurrent(cursor);
+                        if (!leftIndex.add(leftTuples.size() - 1)) {
+                            leftTuples.removeLast();
+                            continue;
+                        }
                     }
-                    result.add(
-                        copyTupleWithVisualTotalsMembersOverriding(
-                            leftTuple, rightKey));
+                    cursor.currentToArray(tuple, 0);
+                    overrideVisualTotalsMembers(
+                        tuple, rightTuples, rightPosition);
+                    result.addTuple(tuple);
                 }
                 return result;
             }
 
             /**
-             * Constructs a tuple consisting of members from
-             * {@code leftTuple}, but overridden by any corresponding
-             * members from {@code rightKey} that happen to be visual totals
-             * members.
-             *
-             * <p>Returns the original tuple if there are no visual totals
-             * members on the RHS.
+             * Overrides members of a tuple from the left side by any
+             * corresponding members of the right tuple that happen to be
+             * visual totals members.
              *
-             * @param leftTuple Original tuple
-             * @param rightKey Right tuple
-             * @return Copy of original tuple, with any VisualTotalMembers
-             *   from right tuple overriding
+             * @param tuple Members of left tuple; modified in place
+             * @param rightTuples Tuples from the right side
+             * @param rightPosition Position of right tuple
              */
-            private List<Member> copyTupleWithVisualTotalsMembersOverriding(
-                List<Member> leftTuple, List<Member> rightKey)
+            private void overrideVisualTotalsMembers(
+                Member[] tuple, TupleList rightTuples, int rightPosition)
             {
-                List<Member> tuple = leftTuple;
-                for (int i = 0; i < rightKey.size(); i++) {
-                    Member member = rightKey.get(i);
-                    if (!(tuple.get(i)
+                for (int i = 0; i < tuple.length; i++) {
+                    Member member = rightTuples.get(i, rightPosition);
+                    if (!(tuple[i]
                         instanceof VisualTotalsFunDef.VisualTotalMember)
                         && member instanceof
                         VisualTotalsFunDef.VisualTotalMember)
                     {
-                        if (tuple == leftTuple) {
-                            // clone on first VisualTotalMember -- to avoid
-                            // alloc/copy in the common case where there are
-                            // no VisualTotalMembers
-                            tuple = new ArrayList<Member>(leftTuple);
-                        }
-                        tuple.set(i, member);
+                        tuple[i] = member;
                     }
                 }
-                return tuple;
             }
         };
     }
-
-    /**
-     * Interface similar to the Set interface that allows key values to be
-     * returned.
-     *
-     * <p>Useful if multiple objects can compare equal (using
-     * {@link Object#equals(Object)} and {@link Object#hashCode()}, per the
-     * set contract) and you wish to distinguish them after they have been added
-     * to the set.
-     *
-     * @param <E> element type
-     */
-    private interface RetrievableSet<E> {
-        /**
-         * Returns the key in this set that compares equal to a given object,
-         * or null if there is no such key.
-         *
-         * @param e Key value
-         * @return Key in the set equal to given key value
-         */
-        E getKey(E e);
-
-        /**
-         * Analogous to {@link Set#add(Object)}.
-         *
-         * @param e element to be added to this set
-         * @return <tt>true</tt> if this set did not already contain the
-         *         specified element
-         */
-        boolean add(E e);
-    }
-
-    private static class RetrievableHashSet<E>
-        extends HashMap<E, E>
-        implements RetrievableSet<E>
-    {
-        public RetrievableHashSet(int initialCapacity) {
-            super(initialCapacity);
-        }
-
-        public E getKey(E e) {
-            return super.get(e);
-        }
-
-        public boolean add(E e) {
-            return super.put(e, e) == null;
-        }
-    }
 }
 
 // End IntersectFunDef.java
@@ -13,11 +13,15 @@
 package mondrian.olap.fun;
 
 import mondrian.calc.*;
+import mondrian.calc.impl.AbstractIterCalc;
 import mondrian.calc.impl.AbstractListCalc;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
+import mondrian.olap.type.SetType;
 import mondrian.rolap.RolapEvaluator;
 
+import java.util.Arrays;
+
 
 /**
  * Definition of the <code>NonEmptyCrossJoin</code> MDX function.
@@ -42,82 +46,130 @@ public class NonEmptyCrossJoinFunDef extends CrossJoinFunDef {
     public Calc compileCall(final ResolvedFunCall call, ExpCompiler compiler) {
         final ListCalc listCalc1 = compiler.compileList(call.getArg(0));
         final ListCalc listCalc2 = compiler.compileList(call.getArg(1));
-        return new AbstractListCalc(
-            call, new Calc[] {listCalc1, listCalc2}, false)
-        {
-            public TupleList evaluateList(Evaluator evaluator) {
-                SchemaReader schemaReader = evaluator.getSchemaReader();
-
-                // Evaluate the arguments in non empty mode, but remove from
-                // the slicer any members that will be overridden by args to
-                // the NonEmptyCrossjoin function. For example, in
-                //
-                //   SELECT NonEmptyCrossJoin(
-                //       [Store].[USA].Children,
-                //       [Product].[Beer].Children)
-                //    FROM [Sales]
-                //    WHERE [Store].[Mexico]
-                //
-                // we want all beers, not just those sold in Mexico.
-                final int savepoint = evaluator.savepoint();
-                try {
-                    evaluator.setNonEmpty(true);
-                    for (Member member
-                        : ((RolapEvaluator) evaluator).getSlicerMembers())
+        final Calc[] calcs = {listCalc1, listCalc2};
+        for (ResultStyle r : compiler.getAcceptableResultStyles()) {
+            if (r == ResultStyle.LIST || r == ResultStyle.MUTABLE_LIST) {
+                break;
+            }
+            if (r == ResultStyle.ITERABLE || r == ResultStyle.ANY) {
+                // The consumer can read the tuples as they are found, so
+                // there is no need to build the list.
+                return new AbstractIterCalc(call, calcs) {
+                    public TupleIterable evaluateIterable(
+                        Evaluator evaluator)
                     {
-                        if (getType().getElementType().usesHierarchy(
-                                member.getHierarchy(), true))
-                        {
-                            evaluator.setContext(
-                                member.getHierarchy().getAllMember());
-                        }
+                        // The iterable reads the evaluator after this method
+                        // returns, so it gets an evaluator of its own.
+                        return nonEmptyCrossJoin(
+                            call, this, evaluator.push(), listCalc1,
+                            listCalc2);
                     }
 
-                    NativeEvaluator nativeEvaluator =
-                        schemaReader.getNativeSetEvaluator(
-                            call.getFunDef(), call.getArgs(), evaluator, this);
-                    if (nativeEvaluator != null) {
-                        evaluator.restore(savepoint);
-                        return
-                            (TupleList) nativeEvaluator.execute(
-                                ResultStyle.LIST);
+                    public boolean dependsOn(Hierarchy hierarchy) {
+                        return super.dependsOn(hierarchy)
+                            || !argsUseHierarchy(
+                                listCalc1, listCalc2, hierarchy);
                     }
-
-                    final TupleList list1 = listCalc1.evaluateList(evaluator);
-                    if (list1.isEmpty()) {
-                        evaluator.restore(savepoint);
-                        return list1;
-                    }
-                    final TupleList list2 = listCalc2.evaluateList(evaluator);
-                    TupleList result = mutableCrossJoin(list1, list2);
-
-                    // remove any remaining empty crossings from the result
-                    result = nonEmptyList(evaluator, result, call);
-                    return result;
+                };
+            }
+        }
+        return new AbstractListCalc(call, calcs, false) {
+            public TupleList evaluateList(Evaluator evaluator) {
+                final int savepoint = evaluator.savepoint();
+                try {
+                    return TupleCollections.materialize(
+                        nonEmptyCrossJoin(
+                            call, this, evaluator, listCalc1, listCalc2),
+                        true);
                 } finally {
                     evaluator.restore(savepoint);
                 }
             }
 
             public boolean dependsOn(Hierarchy hierarchy) {
-                if (super.dependsOn(hierarchy)) {
-                    return true;
-                }
-                // Member calculations generate members, which mask the actual
-                // expression from the inherited context.
-                if (listCalc1.getType().usesHierarchy(hierarchy, true)) {
-                    return false;
-                }
-                if (listCalc2.getType().usesHierarchy(hierarchy, true)) {
-                    return false;
-                }
-                // The implicit value expression, executed to figure out
-                // whether a given tuple is empty, depends upon all dimensions.
-                return true;
+                return super.dependsOn(hierarchy)
+                    || !argsUseHierarchy(listCalc1, listCalc2, hierarchy);
             }
         };
     }
 
+    /**
+     * Evaluates a call to this function, returning the non-empty tuples of
+     * the cartesian product of its arguments without materializing the
+     * product.
+     *
+     * <p>Modifies the context of the evaluator, which must remain unchanged
+     * while the result is in use.
+     */
+    private TupleIterable nonEmptyCrossJoin(
+        ResolvedFunCall call,
+        Calc calc,
+        Evaluator evaluator,
+        ListCalc listCalc1,
+        ListCalc listCalc2)
+    {
+        SchemaReader schemaReader = evaluator.getSchemaReader();
+
+        // Evaluate the arguments in non empty mode, but remove from
+        // the slicer any members that will be overridden by args to
+        // the NonEmptyCrossjoin function. For example, in
+        //
+        //   SELECT NonEmptyCrossJoin(
+        //       [Store].[USA].Children,
+        //       [Product].[Beer].Children)
+        //    FROM [Sales]
+        //    WHERE [Store].[Mexico]
+        //
+        // we want all beers, not just those sold in Mexico.
+        final int savepoint = evaluator.savepoint();
+        evaluator.setNonEmpty(true);
+        for (Member member
+            : ((RolapEvaluator) evaluator).getSlicerMembers())
+        {
+            if (((SetType) calc.getType()).getElementType().usesHierarchy(
+                    member.getHierarchy(), true))
+            {
+                evaluator.setContext(
+                    member.getHierarchy().getAllMember());
+            }
+        }
+
+        NativeEvaluator nativeEvaluator =
+            schemaReader.getNativeSetEvaluator(
+                call.getFunDef(), call.getArgs(), evaluator, calc);
+        if (nativeEvaluator != null) {
+            evaluator.restore(savepoint);
+            return
+                (TupleIterable) nativeEvaluator.execute(
+                    calc.getResultStyle());
+        }
+
+        final TupleList list1 = listCalc1.evaluateList(evaluator);
+        if (list1.isEmpty()) {
+            return TupleCollections.emptyList(calc.getType().getArity());
+        }
+        final TupleList list2 = listCalc2.evaluateList(evaluator);
+
+        // remove empty crossings as the product is generated
+        return nonEmptyCrossJoinIterable(
+            evaluator, Arrays.asList(list1, list2), call);
+    }
+
+    /**
+     * Returns whether either argument's type uses a hierarchy. The implicit
+     * value expression, executed to figure out whether a given tuple is
+     * empty, depends upon all dimensions except those.
+     */
+    private static boolean argsUseHierarchy(
+        ListCalc listCalc1,
+        ListCalc listCalc2,
+        Hierarchy hierarchy)
+    {
+        // Member calculations generate members, which mask the actual
+        // expression from the inherited context.
+        return listCalc1.getType().usesHierarchy(hierarchy, true)
+            || listCalc2.getType().usesHierarchy(hierarchy, true);
+    }
 }
 
 // End NonEmptyCrossJoinFunDef.java
@@ -0,0 +1,302 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.Calc;
+import mondrian.calc.DoubleBatchCalc;
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleList;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapUtil;
+import mondrian.server.Execution;
+import mondrian.util.CancellationChecker;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Statistics over arrays of <code>double</code> values, for the aggregate functions in {@link FunUtil}.
+ *
+ * <p>{@link #evaluate} evaluates an expression over a list of tuples into a primitive array, in one call if the
+ * expression is a {@link DoubleBatchCalc}, rather than into a {@link FunUtil.SetWrapper} of boxed values. Variance,
+ * covariance and correlation are computed in one pass using Welford's method; median, percentile and quartile select
+ * the values they need in linear expected time rather than sorting; and large sums are computed in parallel.
+ */
+final class PrimitiveStatistics {
+  /**
+   * Minimum number of values for which {@link #sum(double[], BitSet)} sums in parallel.
+   */
+  static final int PARALLEL_SUM_THRESHOLD = 1 << 16;
+
+  /**
+   * Number of values that each task of a parallel sum adds up. Blocks are fixed, and their sums are added in order, so
+   * that the result does not depend on how the blocks are scheduled.
+   */
+  private static final int SUM_BLOCK_SIZE = 1 << 13;
+
+  private PrimitiveStatistics() {
+  }
+
+  /**
+   * Evaluates an expression for each tuple in a list.
+   *
+   * <p>As {@link FunUtil#evaluateSet}, skips null values, and counts values that are not ready as errors.
+   *
+   * @param evaluator Evaluator
+   * @param tupleList List of tuples
+   * @param calc      Expression
+   * @return Non-null values, or null if a value is neither numeric nor null
+   */
+  static Values evaluate( Evaluator evaluator, TupleList tupleList, Calc calc ) {
+    if ( calc instanceof DoubleBatchCalc ) {
+      final BitSet nulls = new BitSet();
+      final double[] values =
+        ( (DoubleBatchCalc) calc ).evaluateDoubleBatch( evaluator, tupleList, nulls );
+      if ( values != null ) {
+        return new Values( values, nulls, 0 );
+      }
+    }
+    final double[] values = new double[ tupleList.size() ];
+    final BitSet nulls = new BitSet();
+    int errorCount = 0;
+    final Execution execution =
+      evaluator.getQuery().getStatement().getCurrentExecution();
+    final int savepoint = evaluator.savepoint();
+    try {
+      final TupleCursor cursor = tupleList.tupleCursor();
+      for ( int i = 0; cursor.forward(); i++ ) {
+        CancellationChecker.checkCancelOrTimeout( i, execution );
+        cursor.setContext( evaluator );
+        final Object o = calc.evaluate( evaluator );
+        if ( o == null || o == Util.nullValue ) {
+          nulls.set( i );
+        } else if ( o == RolapUtil.valueNotReadyException ) {
+          // Carry on, so that a batching cell reader finds out all the
+          // cells it needs.
+          nulls.set( i );
+          errorCount++;
+        } else if ( o instanceof Number ) {
+          values[ i ] = ( (Number) o ).doubleValue();
+        } else {
+          return null;
+        }
+      }
+    } finally {
+      evaluator.restore( savepoint );
+    }
+    return new Values( values, nulls, errorCount );
+  }
+
+  /**
+   * Returns the variance of values, computed in one pass.
+   *
+   * @param values Values
+   * @param n      Number of values
+   * @param biased Whether to divide by <code>n</code> (population variance) rather than <code>n - 1</code>
+   */
+  static double variance( double[] values, int n, boolean biased ) {
+    double mean = 0d;
+    double m2 = 0d;
+    for ( int i = 0; i < n; i++ ) {
+      final double delta = values[ i ] - mean;
+      mean += delta / ( i + 1 );
+      m2 += delta * ( values[ i ] - mean );
+    }
+    return m2 / (double) ( biased ? n : n - 1 );
+  }
+
+  /**
+   * Returns the covariance of two lists of values, computed in one pass.
+   *
+   * @param xs     First values
+   * @param ys     Second values
+   * @param n      Number of values in each list
+   * @param biased Whether to divide by <code>n</code> rather than <code>n - 1</code>
+   */
+  static double covariance( double[] xs, double[] ys, int n, boolean biased ) {
+    double meanX = 0d;
+    double meanY = 0d;
+    double c = 0d;
+    for ( int i = 0; i < n; i++ ) {
+      final double dx = xs[ i ] - meanX;
+      meanX += dx / ( i + 1 );
+      meanY += ( ys[ i ] - meanY ) / ( i + 1 );
+      c += dx * ( ys[ i ] - meanY );
+    }
+    return c / (double) ( biased ? n : n - 1 );
+  }
+
+  /**
+   * Returns the correlation of two lists of values, computed in one pass; that is, their covariance divided by the
+   * square root of the product of their variances.
+   */
+  static double correlation( double[] xs, double[] ys, int n ) {
+    double meanX = 0d;
+    double meanY = 0d;
+    double m2x = 0d;
+    double m2y = 0d;
+    double c = 0d;
+    for ( int i = 0; i < n; i++ ) {
+      final double dx = xs[ i ] - meanX;
+      final double dy = ys[ i ] - meanY;
+      meanX += dx / ( i + 1 );
+      meanY += dy / ( i + 1 );
+      m2x += dx * ( xs[ i ] - meanX );
+      m2y += dy * ( ys[ i ] - meanY );
+      c += dx * ( ys[ i ] - meanY );
+    }
+    final double d = n - 1;
+    return ( c / d ) / Math.sqrt( ( m2x / d ) * ( m2y / d ) );
+  }
+
+  /**
+   * Returns the sum of values, skipping nulls, or {@link FunUtil#DoubleNull} if all values are null.
+   *
+   * <p>If there are many values, adds up blocks of values in parallel.
+   */
+  static double sum( double[] values, BitSet nulls ) {
+    if ( nulls.cardinality() == values.length ) {
+      return FunUtil.DoubleNull;
+    }
+    if ( values.length < PARALLEL_SUM_THRESHOLD ) {
+      return sum( values, nulls, 0, values.length );
+    }
+    final int blockCount = ( values.length + SUM_BLOCK_SIZE - 1 ) / SUM_BLOCK_SIZE;
+    final double[] blockSums = new double[ blockCount ];
+    IntStream.range( 0, blockCount ).parallel().forEach(
+      block -> blockSums[ block ] =
+        sum(
+          values, nulls, block * SUM_BLOCK_SIZE,
+          Math.min( values.length, ( block + 1 ) * SUM_BLOCK_SIZE ) ) );
+    double sum = 0d;
+    for ( double blockSum : blockSums ) {
+      sum += blockSum;
+    }
+    return sum;
+  }
+
+  private static double sum( double[] values, BitSet nulls, int from, int to ) {
+    double sum = 0d;
+    for ( int i = nulls.nextClearBit( from ); i < to; i = nulls.nextClearBit( i + 1 ) ) {
+      sum += values[ i ];
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the value that would be at position <code>k</code> if the first <code>n</code> values were sorted as {@link
+   * Arrays#sort(double[])} sorts them. Rearranges the values so that those before position <code>k</code> are no larger,
+   * and those after it no smaller.
+   *
+   * <p>Uses quickselect, which takes linear time on average, and sorts the remaining range if it does not shrink fast
+   * enough, so takes <code>O(n log n)</code> time at worst.
+   */
+  static double select( double[] values, int n, int k ) {
+    assert k >= 0 && k < n;
+    int from = 0;
+    int to = n - 1;
+    // Allow about 2 log2(n) partitions before sorting.
+    int budget = 2 * ( 32 - Integer.numberOfLeadingZeros( n ) );
+    while ( from < to ) {
+      if ( budget-- == 0 ) {
+        Arrays.sort( values, from, to + 1 );
+        break;
+      }
+      final int mid = ( from + to ) >>> 1;
+      // Median of three as pivot.
+      if ( Double.compare( values[ mid ], values[ from ] ) < 0 ) {
+        swap( values, mid, from );
+      }
+      if ( Double.compare( values[ to ], values[ from ] ) < 0 ) {
+        swap( values, to, from );
+      }
+      if ( Double.compare( values[ to ], values[ mid ] ) < 0 ) {
+        swap( values, to, mid );
+      }
+      final double pivot = values[ mid ];
+      int i = from;
+      int j = to;
+      while ( i <= j ) {
+        while ( Double.compare( values[ i ], pivot ) < 0 ) {
+          i++;
+        }
+        while ( Double.compare( values[ j ], pivot ) > 0 ) {
+          j--;
+        }
+        if ( i <= j ) {
+          swap( values, i++, j-- );
+        }
+      }
+      if ( k <= j ) {
+        to = j;
+      } else if ( k >= i ) {
+        from = i;
+      } else {
+        break;
+      }
+    }
+    return values[ k ];
+  }
+
+  /**
+   * Returns the value that would be at position <code>k + 1</code> if the first <code>n</code> values were sorted,
+   * after a call to {@link #select(double[], int, int) select(values, n, k)}.
+   */
+  static double selectNext( double[] values, int n, int k ) {
+    assert k + 1 < n;
+    double next = values[ k + 1 ];
+    for ( int i = k + 2; i < n; i++ ) {
+      if ( Double.compare( values[ i ], next ) < 0 ) {
+        next = values[ i ];
+      }
+    }
+    return next;
+  }
+
+  private static void swap( double[] values, int i, int j ) {
+    final double t = values[ i ];
+    values[ i ] = values[ j ];
+    values[ j ] = t;
+  }
+
+  /**
+   * Values of an expression over a list of tuples, without nulls.
+   */
+  static class Values {
+    /**
+     * Non-null values, in the order of the tuples; only the first {@link #count} are valid.
+     */
+    final double[] values;
+    final int count;
+    /**
+     * Number of values that were not ready.
+     */
+    final int errorCount;
+
+    Values( double[] values, BitSet nulls, int errorCount ) {
+      if ( nulls.isEmpty() ) {
+        this.values = values;
+        this.count = values.length;
+      } else {
+        int n = 0;
+        for ( int i = nulls.nextClearBit( 0 ); i < values.length; i = nulls.nextClearBit( i + 1 ) ) {
+          values[ n++ ] = values[ i ];
+        }
+        this.values = values;
+        this.count = n;
+      }
+      this.errorCount = errorCount;
+    }
+  }
+}
+
+// End PrimitiveStatistics.java
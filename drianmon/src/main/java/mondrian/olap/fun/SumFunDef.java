@@ -12,8 +12,11 @@ package mondrian.olap.fun;
 import mondrian.calc.*;
 import mondrian.calc.impl.AbstractDoubleCalc;
 import mondrian.calc.impl.ValueCalc;
+import mondrian.mdx.MemberExpr;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
+import mondrian.rolap.RolapEvaluator;
+import mondrian.rolap.TimeRangeAggregator;
 
 /**
  * Definition of the <code>Sum</code> MDX function.
@@ -68,6 +71,17 @@ class SumFunDef extends AbstractAggregateFunDef {
   }
 
   protected Calc compileCall( final ResolvedFunCall call, ExpCompiler compiler, ResultStyle resultStyle ) {
+    if ( MondrianProperties.instance().EnableNativeTimeRange.get() && isPeriodRange( call.getArg( 0 ) ) ) {
+      // Sum of a stored measure over a range of periods, such as
+      // Sum(Ytd(), [Measures].[Unit Sales]); try to compute it as one cell.
+      final Member measure = call.getArgCount() > 1 ? getStoredMeasure( call.getArg( 1 ) ) : null;
+      if ( call.getArgCount() == 1 || measure != null ) {
+        final ListCalc listCalc = compiler.compileList( call.getArg( 0 ) );
+        final Calc calc =
+            call.getArgCount() > 1 ? compiler.compileScalar( call.getArg( 1 ), true ) : new ValueCalc( call );
+        return genPeriodRangeCalc( call, listCalc, calc, measure );
+      }
+    }
     final Calc ncalc = compiler.compileIter( call.getArg( 0 ) );
     if ( ncalc == null ) {
       return null;
@@ -102,6 +116,52 @@ class SumFunDef extends AbstractAggregateFunDef {
     };
   }
 
+  protected Calc genPeriodRangeCalc( final ResolvedFunCall call, final ListCalc listCalc, final Calc calc,
+      final Member measure ) {
+    return new AbstractDoubleCalc( call, new Calc[] { listCalc, calc } ) {
+      public double evaluateDouble( Evaluator evaluator ) {
+        evaluator.getTiming().markStart( TIMING_NAME );
+        final int savepoint = evaluator.savepoint();
+        try {
+          TupleList memberList = evaluateCurrentList( listCalc, evaluator );
+          evaluator.setNonEmpty( false );
+          if ( evaluator instanceof RolapEvaluator ) {
+            if ( measure != null ) {
+              evaluator.setContext( measure );
+            }
+            final Object o = TimeRangeAggregator.aggregate( (RolapEvaluator) evaluator, memberList, true );
+            if ( o instanceof Number ) {
+              return ( (Number) o ).doubleValue();
+            } else if ( o == Util.nullValue ) {
+              return DoubleNull;
+            } else if ( o != null ) {
+              // The cell is not loaded yet.
+              return Double.NaN;
+            }
+          }
+          return sumDouble( evaluator, memberList, calc );
+        } finally {
+          evaluator.restore( savepoint );
+          evaluator.getTiming().markEnd( TIMING_NAME );
+        }
+      }
+
+      public boolean dependsOn( Hierarchy hierarchy ) {
+        return anyDependsButFirst( getCalcs(), hierarchy );
+      }
+    };
+  }
+
+  private static Member getStoredMeasure( Exp exp ) {
+    if ( exp instanceof MemberExpr ) {
+      final Member member = ( (MemberExpr) exp ).getMember();
+      if ( member.isMeasure() && !member.isCalculated() ) {
+        return member;
+      }
+    }
+    return null;
+  }
+
   protected Calc genListCalc( final ResolvedFunCall call, final ListCalc listCalc, final Calc calc ) {
     return new AbstractDoubleCalc( call, new Calc[] { listCalc, calc } ) {
       public double evaluateDouble( Evaluator evaluator ) {
@@ -19,9 +19,11 @@ import java.util.List;
 import mondrian.calc.Calc;
 import mondrian.calc.ExpCompiler;
 import mondrian.calc.IntegerCalc;
-import mondrian.calc.ListCalc;
+import mondrian.calc.IterCalc;
 import mondrian.calc.ResultStyle;
 import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleIterable;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.AbstractListCalc;
 import mondrian.calc.impl.DelegatingTupleList;
@@ -74,10 +76,12 @@ class TopBottomCountFunDef extends FunDefBase {
   }
 
   public Calc compileCall( final ResolvedFunCall call, ExpCompiler compiler ) {
-    // Compile the member list expression. Ask for a mutable list, because
+    // Compile the member list expression. Ask for an iterable, so that the
+    // set does not need to be materialized, or else a mutable list, because
     // we're going to sort it later.
-    final ListCalc listCalc =
-      compiler.compileList( call.getArg( 0 ), true );
+    final IterCalc iterCalc =
+      (IterCalc) compiler.compileAs(
+        call.getArg( 0 ), null, ResultStyle.ITERABLE_MUTABLELIST );
     final IntegerCalc integerCalc =
       compiler.compileInteger( call.getArg( 1 ) );
     final Calc orderCalc =
@@ -87,7 +91,7 @@ class TopBottomCountFunDef extends FunDefBase {
     final int arity = call.getType().getArity();
     return new AbstractListCalc(
       call,
-      new Calc[] { listCalc, integerCalc, orderCalc } ) {
+      new Calc[] { iterCalc, integerCalc, orderCalc } ) {
       public TupleList evaluateList( Evaluator evaluator ) {
         // Use a native evaluator, if more efficient.
         // TODO: Figure this out at compile time.
@@ -105,8 +109,14 @@ class TopBottomCountFunDef extends FunDefBase {
           return TupleCollections.emptyList( arity );
         }
 
-        TupleList list = listCalc.evaluateList( evaluator );
-        assert list.getArity() == arity;
+        final TupleIterable iterable = iterCalc.evaluateIterable( evaluator );
+        assert iterable.getArity() == arity;
+        if ( !( iterable instanceof TupleList ) && n > 0
+          && ( orderCalc != null || top ) ) {
+          return streamList( evaluator, iterable, n );
+        }
+
+        TupleList list = TupleCollections.materialize( iterable, true );
         if ( list.isEmpty() ) {
           return list;
         }
@@ -127,6 +137,33 @@ class TopBottomCountFunDef extends FunDefBase {
           Math.min( n, list.size() ) );
       }
 
+      /**
+       * Returns the first or best {@code n} tuples of an iterable that is
+       * not a list, without materializing it. Without an order expression,
+       * stops reading after {@code n} tuples; with one, keeps the best
+       * {@code n} tuples seen so far in a heap.
+       */
+      private TupleList streamList(
+        Evaluator evaluator,
+        TupleIterable iterable,
+        int n ) {
+        if ( orderCalc == null ) {
+          final TupleList list = TupleCollections.createList( arity );
+          final TupleCursor cursor = iterable.tupleCursor();
+          while ( list.size() < n && cursor.forward() ) {
+            list.addCurrent( cursor );
+          }
+          return list;
+        }
+        final int savepoint = evaluator.savepoint();
+        try {
+          return Sorter.partiallySortTuples(
+            evaluator, iterable, orderCalc, n, top );
+        } finally {
+          evaluator.restore( savepoint );
+        }
+      }
+
       private TupleList partiallySortList(
         Evaluator evaluator,
         TupleList list,
@@ -152,21 +189,23 @@ class TopBottomCountFunDef extends FunDefBase {
             evaluator, allChunkResults, false, n );
         }
 
-        // normal case: no need for chunks
+        // normal case: no need for chunks. The sorter mutates the
+        // evaluator's context, which is rolled back to the savepoint below,
+        // so there is no need to push a new evaluator.
         final int savepoint = evaluator.savepoint();
         try {
           switch ( list.getArity() ) {
             case 1:
               final List<Member> members =
                 Sorter.partiallySortMembers(
-                  evaluator.push(),
+                  evaluator,
                   list.slice( 0 ),
                   orderCalc, n, top );
               return new UnaryTupleList( members );
             default:
               final List<List<Member>> tuples =
                 partiallySortTuples(
-                  evaluator.push(),
+                  evaluator,
                   list,
                   orderCalc, n, top );
               return new DelegatingTupleList(
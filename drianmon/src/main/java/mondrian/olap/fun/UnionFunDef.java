@@ -9,10 +9,9 @@
 
 package mondrian.olap.fun;
 
-import java.util.*;
-
 import mondrian.calc.*;
 import mondrian.calc.impl.AbstractListCalc;
+import mondrian.calc.impl.OrdinalTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 
@@ -71,10 +70,13 @@ class UnionFunDef extends FunDefBase {
             result.addAll(list1);
             return result;
         } else {
-            Set<List<Member>> added = new HashSet<List<Member>>();
-            TupleList result = TupleCollections.createList(list0.getArity());
-            FunUtil.addUnique(result, list0, added);
-            FunUtil.addUnique(result, list1, added);
+            final OrdinalTupleList result =
+                new OrdinalTupleList(
+                    list0.getArity(), list0.size() + list1.size());
+            final OrdinalTupleList.TupleIndex index =
+                new OrdinalTupleList.TupleIndex(result);
+            index.addDistinct(list0);
+            index.addDistinct(list1);
             return result;
         }
     }
@@ -17,6 +17,7 @@ package mondrian.olap.fun.sort;
 import org.apache.logging.log4j.Logger;
 
 import mondrian.calc.Calc;
+import mondrian.calc.impl.UnaryTupleList;
 import mondrian.olap.Evaluator;
 import mondrian.olap.Member;
 import mondrian.olap.Util;
@@ -26,6 +27,7 @@ import org.apache.logging.log4j.LogManager;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -96,6 +98,13 @@ abstract class MemberComparator implements Comparator<Member> {
   // Preloads the value map by applying the expression to a Collection of
   // members.
   void preloadValues( Collection<Member> members ) {
+    if ( members instanceof List ) {
+      final List<Member> list = (List<Member>) members;
+      if ( Sorter.evaluateBatch(
+        evaluator, exp, new UnaryTupleList( list ), list, valueMap ) ) {
+        return;
+      }
+    }
     for ( Member m : members ) {
       eval( m );
     }
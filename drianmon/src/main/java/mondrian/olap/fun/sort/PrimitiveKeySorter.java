@@ -0,0 +1,297 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.olap.fun.sort;
+
+import mondrian.calc.Calc;
+import mondrian.calc.DoubleBatchCalc;
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleList;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Member;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapUtil;
+import mondrian.server.Execution;
+import mondrian.util.CancellationChecker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static mondrian.olap.fun.FunUtil.DoubleNull;
+
+/**
+ * Sorts tuples on breaking sort keys ({@code BASC} and {@code BDESC}) by evaluating every key of every tuple into
+ * primitive arrays first, then sorting an array of indexes.
+ *
+ * <p>A numeric value is held as a <code>double</code>; a string, date or {@link OrderKey} is replaced by its rank
+ * among the distinct values of its key. Together with a class code for nulls, infinities and so forth, the keys order
+ * the tuples exactly as {@link Sorter#compareValues(Object, Object)} does. The sort is stable, so the result is the
+ * same as that of a chain of {@link TupleExpMemoComparator.BreakTupleComparator}s, but each key is evaluated once per
+ * tuple (in one call if it is a {@link DoubleBatchCalc}), comparisons read arrays rather than unbox values, and large
+ * lists are sorted in parallel.
+ *
+ * <p>If the values of a key cannot be ranked, for instance because they are numbers and strings, {@link #sort} returns
+ * null and the caller sorts as before.
+ */
+final class PrimitiveKeySorter {
+  // Classes of value, in ascending order.
+  private static final byte NOT_READY = 0;
+  private static final byte NULL = 1;
+  private static final byte NEGATIVE_INFINITY = 2;
+  private static final byte DOUBLE_NULL = 3;
+  private static final byte VALUE = 4;
+  private static final byte NAN = 5;
+  private static final byte POSITIVE_INFINITY = 6;
+
+  private PrimitiveKeySorter() {
+  }
+
+  /**
+   * Sorts tuples on a list of breaking sort keys.
+   *
+   * <p>NOTE: Does not preserve the contents of the validator.
+   *
+   * @param evaluator   Evaluator
+   * @param tupleList   List of tuples
+   * @param keySpecList Sort keys; each must have a breaking direction
+   * @return Positions of the tuples in sorted order, or null if the values of a key cannot be ranked
+   */
+  static int[] sort(
+    Evaluator evaluator,
+    TupleList tupleList,
+    List<SortKeySpec> keySpecList ) {
+    final Key[] keys = new Key[ keySpecList.size() ];
+    final int savepoint = evaluator.savepoint();
+    try {
+      for ( int i = 0; i < keys.length; i++ ) {
+        final SortKeySpec keySpec = keySpecList.get( i );
+        assert keySpec.getDirection().brk;
+        keys[ i ] = evaluate(
+          evaluator, keySpec.getKey(), tupleList,
+          keySpec.getDirection().descending );
+        if ( keys[ i ] == null ) {
+          return null;
+        }
+      }
+    } finally {
+      evaluator.restore( savepoint );
+    }
+
+    final int n = tupleList.size();
+    final Integer[] indexes = new Integer[ n ];
+    for ( int i = 0; i < n; i++ ) {
+      indexes[ i ] = i;
+    }
+    // Arrays.parallelSort is stable, and sorts sequentially if the list is
+    // small.
+    Arrays.parallelSort(
+      indexes,
+      ( i0, i1 ) -> {
+        for ( Key key : keys ) {
+          final int c = key.compare( i0, i1 );
+          if ( c != 0 ) {
+            return c;
+          }
+        }
+        return 0;
+      } );
+    final int[] positions = new int[ n ];
+    for ( int i = 0; i < n; i++ ) {
+      positions[ i ] = indexes[ i ];
+    }
+    return positions;
+  }
+
+  /**
+   * Evaluates a sort key for each tuple in a list.
+   *
+   * @return Values of the key, or null if they cannot be ranked
+   */
+  private static Key evaluate(
+    Evaluator evaluator,
+    Calc calc,
+    TupleList tupleList,
+    boolean desc ) {
+    final int n = tupleList.size();
+    final Key key = new Key( n, desc );
+    if ( calc instanceof DoubleBatchCalc ) {
+      final BitSet nulls = new BitSet();
+      final double[] values =
+        ( (DoubleBatchCalc) calc ).evaluateDoubleBatch(
+          evaluator, tupleList, nulls );
+      if ( values != null ) {
+        for ( int i = 0; i < n; i++ ) {
+          if ( nulls.get( i ) ) {
+            key.classes[ i ] = NULL;
+          } else {
+            key.set( i, values[ i ] );
+          }
+        }
+        return key;
+      }
+    }
+
+    // As BreakTupleComparator does, set only the members of hierarchies
+    // that the key depends on, and evaluate once per distinct combination.
+    final int[] dependents = dependentIndexes( calc, tupleList );
+    final Map<List<Member>, Object> memo =
+      dependents.length < tupleList.getArity()
+        ? new HashMap<>()
+        : null;
+    final Execution execution =
+      evaluator.getQuery().getStatement().getCurrentExecution();
+    Object[] objects = null;
+    Class<?> objectClass = null;
+    boolean numeric = false;
+    final TupleCursor cursor = tupleList.tupleCursor();
+    for ( int i = 0; cursor.forward(); i++ ) {
+      CancellationChecker.checkCancelOrTimeout( i, execution );
+      final List<Member> tuple = cursor.current();
+      Object value;
+      if ( memo == null ) {
+        value = evaluateCalc( evaluator, calc, tuple );
+      } else {
+        final List<Member> members = new ArrayList<>( dependents.length );
+        for ( int dependent : dependents ) {
+          members.add( tuple.get( dependent ) );
+        }
+        value = memo.get( members );
+        if ( value == null ) {
+          value = evaluateCalc( evaluator, calc, members );
+          memo.put( members, value );
+        }
+      }
+      if ( value == RolapUtil.valueNotReadyException ) {
+        key.classes[ i ] = NOT_READY;
+      } else if ( value == Util.nullValue ) {
+        key.classes[ i ] = NULL;
+      } else if ( value instanceof Number ) {
+        numeric = true;
+        key.set( i, ( (Number) value ).doubleValue() );
+      } else if ( value instanceof String
+        || value instanceof Date
+        || value instanceof OrderKey ) {
+        if ( objectClass == null ) {
+          objectClass = value.getClass();
+          objects = new Object[ n ];
+        } else if ( value.getClass() != objectClass ) {
+          return null;
+        }
+        key.classes[ i ] = VALUE;
+        objects[ i ] = value;
+      } else {
+        return null;
+      }
+    }
+    if ( objects != null ) {
+      if ( numeric ) {
+        return null;
+      }
+      rank( objects, key.values );
+    }
+    return key;
+  }
+
+  private static Object evaluateCalc(
+    Evaluator evaluator,
+    Calc calc,
+    List<Member> members ) {
+    evaluator.setContext( members );
+    final Object value = calc.evaluate( evaluator );
+    return value == null ? Util.nullValue : value;
+  }
+
+  private static int[] dependentIndexes( Calc calc, TupleList tupleList ) {
+    if ( tupleList.isEmpty() ) {
+      return new int[ 0 ];
+    }
+    final List<Member> tuple = tupleList.get( 0 );
+    final int[] indexes = new int[ tuple.size() ];
+    int count = 0;
+    for ( int i = 0; i < tuple.size(); i++ ) {
+      if ( calc.dependsOn( tuple.get( i ).getHierarchy() ) ) {
+        indexes[ count++ ] = i;
+      }
+    }
+    return Arrays.copyOf( indexes, count );
+  }
+
+  /**
+   * Replaces each non-null object by its rank among the distinct objects. Objects that compare equal, such as strings
+   * that differ only in case, have the same rank.
+   */
+  private static void rank( Object[] objects, double[] ranks ) {
+    final Map<Object, Integer> rankMap = new HashMap<>();
+    for ( Object object : objects ) {
+      if ( object != null ) {
+        rankMap.put( object, 0 );
+      }
+    }
+    final Object[] distinct = rankMap.keySet().toArray();
+    Arrays.sort( distinct, Sorter::compareValues );
+    int rank = 0;
+    for ( int i = 0; i < distinct.length; i++ ) {
+      if ( i > 0 && Sorter.compareValues( distinct[ i - 1 ], distinct[ i ] ) != 0 ) {
+        ++rank;
+      }
+      rankMap.put( distinct[ i ], rank );
+    }
+    for ( int i = 0; i < objects.length; i++ ) {
+      if ( objects[ i ] != null ) {
+        ranks[ i ] = rankMap.get( objects[ i ] );
+      }
+    }
+  }
+
+  /**
+   * Values of one sort key for each tuple: a class code and, for class {@link #VALUE}, a number or rank.
+   */
+  private static class Key {
+    final byte[] classes;
+    final double[] values;
+    final boolean desc;
+
+    Key( int n, boolean desc ) {
+      this.classes = new byte[ n ];
+      this.values = new double[ n ];
+      this.desc = desc;
+    }
+
+    void set( int i, double d ) {
+      if ( Double.isNaN( d ) ) {
+        classes[ i ] = NAN;
+      } else if ( d == Double.NEGATIVE_INFINITY ) {
+        classes[ i ] = NEGATIVE_INFINITY;
+      } else if ( d == Double.POSITIVE_INFINITY ) {
+        classes[ i ] = POSITIVE_INFINITY;
+      } else if ( d == DoubleNull ) {
+        classes[ i ] = DOUBLE_NULL;
+      } else {
+        classes[ i ] = VALUE;
+        // -0.0 equals 0.0, as in Sorter.compareValues
+        values[ i ] = d == 0d ? 0d : d;
+      }
+    }
+
+    int compare( int i0, int i1 ) {
+      int c = Byte.compare( classes[ i0 ], classes[ i1 ] );
+      if ( c == 0 && classes[ i0 ] == VALUE ) {
+        c = Double.compare( values[ i0 ], values[ i1 ] );
+      }
+      return desc ? -c : c;
+    }
+  }
+}
+
+// End PrimitiveKeySorter.java
@@ -13,11 +13,13 @@ package mondrian.olap.fun.sort;
 import com.google.common.annotations.VisibleForTesting;
 
 import mondrian.calc.Calc;
+import mondrian.calc.DoubleBatchCalc;
 import mondrian.calc.TupleCollections;
 import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleIterable;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.DelegatingTupleList;
+import mondrian.calc.impl.UnaryTupleList;
 import mondrian.olap.Dimension;
 import mondrian.olap.Evaluator;
 import mondrian.olap.Member;
@@ -39,6 +41,7 @@ import org.apache.logging.log4j.LogManager;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -84,7 +87,46 @@ public class Sorter {
     try {
       assert exp.getType() instanceof ScalarType;
       Map<Member, Object> mapMemberToValue = new HashMap<>();
+      if ( exp instanceof DoubleBatchCalc ) {
+        final List<Member> members;
+        if ( memberIter instanceof List ) {
+          members = (List<Member>) memberIter;
+        } else {
+          members = new ArrayList<>();
+          for ( Member member : memberIter ) {
+            members.add( member );
+          }
+        }
+        if ( evaluateBatch(
+          evaluator, exp, new UnaryTupleList( members ), members,
+          mapMemberToValue ) ) {
+          if ( memberList != null && memberList != members ) {
+            memberList.addAll( members );
+          }
+          if ( parentsToo ) {
+            for ( Member member : members ) {
+              member = member.getParentMember();
+              while ( member != null
+                && !mapMemberToValue.containsKey( member ) ) {
+                evaluator.setContext( member );
+                Object result = exp.evaluate( evaluator );
+                if ( result == null ) {
+                  result = Util.nullValue;
+                }
+                mapMemberToValue.put( member, result );
+                member = member.getParentMember();
+              }
+            }
+          }
+          return mapMemberToValue;
+        }
+        memberIter = members;
+      }
+      int currentIteration = 0;
+      final Execution execution =
+        evaluator.getQuery().getStatement().getCurrentExecution();
       for ( Member member : memberIter ) {
+        CancellationChecker.checkCancelOrTimeout( currentIteration++, execution );
         if ( memberList != null ) {
           memberList.add( member );
         }
@@ -130,6 +172,10 @@ public class Sorter {
       assert exp.getType() instanceof ScalarType;
       final Map<List<Member>, Object> mapMemberToValue =
         new HashMap<>();
+      if ( evaluateBatch(
+        evaluator, exp, tuples, tuples, mapMemberToValue ) ) {
+        return mapMemberToValue;
+      }
       for ( List<Member> tuple : tuples ) {
         evaluator.setContext( tuple );
         Object result = exp.evaluate( evaluator );
@@ -144,6 +190,39 @@ public class Sorter {
     }
   }
 
+  /**
+   * Evaluates an expression for each tuple in a list in one call, if the expression supports batch evaluation, and
+   * puts the values in a map.
+   *
+   * @param evaluator Evaluation context
+   * @param exp       Expression to evaluate
+   * @param tuples    List of tuples
+   * @param keys      Map key for each tuple
+   * @param map       Map to populate
+   * @return false, having done nothing, if the expression does not support batch evaluation or yields a value that is
+   * not numeric
+   */
+  static <T> boolean evaluateBatch(
+    Evaluator evaluator,
+    Calc exp,
+    TupleList tuples,
+    List<T> keys,
+    Map<T, Object> map ) {
+    if ( !( exp instanceof DoubleBatchCalc ) ) {
+      return false;
+    }
+    final BitSet nulls = new BitSet();
+    final double[] values =
+      ( (DoubleBatchCalc) exp ).evaluateDoubleBatch( evaluator, tuples, nulls );
+    if ( values == null ) {
+      return false;
+    }
+    for ( int i = 0; i < values.length; i++ ) {
+      map.put( keys.get( i ), nulls.get( i ) ? Util.nullValue : values[ i ] );
+    }
+    return true;
+  }
+
   /**
    * Helper function to sort a list of members according to an expression.
    *
@@ -179,6 +258,23 @@ public class Sorter {
     boolean timingEval = true;
     boolean timingSort = false;
     try {
+      if ( brk ) {
+        if ( memberList == null ) {
+          memberList = new ArrayList<>();
+          for ( Member member : memberIter ) {
+            memberList.add( member );
+          }
+          if ( memberList.size() <= 1 ) {
+            return memberList;
+          }
+        }
+        if ( sortOnPrimitiveKeys(
+          evaluator, new UnaryTupleList( memberList ), memberList,
+          Collections.singletonList( new SortKeySpec( exp, desc ? Flag.BDESC : Flag.BASC ) ) ) ) {
+          return memberList;
+        }
+        memberIter = memberList;
+      }
       // REVIEW mberkowitz 1/09: test whether precomputing
       // values saves time.
       Map<Member, Object> mapMemberToValue;
@@ -246,6 +342,10 @@ public class Sorter {
         return memberList;
       }
     }
+    if ( sortOnPrimitiveKeys(
+      evaluator, new UnaryTupleList( memberList ), memberList, keySpecList ) ) {
+      return memberList;
+    }
 
     ComparatorChain chain = new ComparatorChain();
     for ( SortKeySpec key : keySpecList ) {
@@ -298,7 +398,7 @@ public class Sorter {
     // as fully as sortMembers. This is because sortMembers evaluates all
     // sort expressions up front. There, it is efficient to unravel the
     // iterator and evaluate the sort expressions at the same time.
-    List<List<Member>> tupleArrayList;
+    TupleList tupleArrayList;
     if ( tupleList == null ) {
       final TupleCursor cursor = tupleIterable.tupleCursor();
       tupleArrayList = iterableToList( evaluator, cursor );
@@ -314,6 +414,20 @@ public class Sorter {
       tupleArrayList = tupleList;
     }
 
+    if ( brk ) {
+      final int[] positions = PrimitiveKeySorter.sort(
+        evaluator, tupleArrayList,
+        Collections.singletonList( new SortKeySpec( exp, desc ? Flag.BDESC : Flag.BASC ) ) );
+      if ( positions != null ) {
+        final List<List<Member>> sorted = new ArrayList<>( positions.length );
+        for ( int position : positions ) {
+          sorted.add( tupleArrayList.get( position ) );
+        }
+        logTuples( tupleList, "Sorter.sortTuples" );
+        return new DelegatingTupleList( tupleIterable.getArity(), sorted );
+      }
+    }
+
     @SuppressWarnings( { "unchecked" } )
     List<Member>[] tuples =
       tupleArrayList.toArray( new List[ tupleArrayList.size() ] );
@@ -413,6 +527,10 @@ public class Sorter {
     if ( tupleList.size() <= 1 ) {
       return tupleList;
     }
+    if ( sortOnPrimitiveKeys( evaluator, tupleList, tupleList, keySpecList ) ) {
+      logTuples( tupleList, "Sorter.sortTuples" );
+      return tupleList;
+    }
 
     ComparatorChain chain = new ComparatorChain();
     for ( SortKeySpec key : keySpecList ) {
@@ -423,6 +541,44 @@ public class Sorter {
     return tupleList;
   }
 
+  /**
+   * Sorts a list in place on precomputed primitive keys, if every sort key is breaking ({@code BASC} or {@code BDESC})
+   * and the values of each key can be ranked. See {@link PrimitiveKeySorter}.
+   *
+   * @param evaluator   Evaluator
+   * @param tupleList   Tuples to evaluate the keys for
+   * @param list        List to sort; element i corresponds to tuple i
+   * @param keySpecList Sort keys
+   * @return whether the list was sorted
+   */
+  private static <T> boolean sortOnPrimitiveKeys(
+    Evaluator evaluator,
+    TupleList tupleList,
+    List<T> list,
+    List<SortKeySpec> keySpecList ) {
+    if ( list.size() <= 1 ) {
+      return true;
+    }
+    for ( SortKeySpec key : keySpecList ) {
+      if ( !key.getDirection().brk ) {
+        return false;
+      }
+    }
+    final int[] positions =
+      PrimitiveKeySorter.sort( evaluator, tupleList, keySpecList );
+    if ( positions == null ) {
+      return false;
+    }
+    final List<T> sorted = new ArrayList<>( positions.length );
+    for ( int position : positions ) {
+      sorted.add( list.get( position ) );
+    }
+    for ( int i = 0; i < positions.length; i++ ) {
+      list.set( i, sorted.get( i ) );
+    }
+    return true;
+  }
+
   @VisibleForTesting
   static void applySortSpecToComparator( Evaluator evaluator, int arity, ComparatorChain chain,
                                          SortKeySpec key ) {
@@ -488,6 +644,80 @@ public class Sorter {
     return stablePartialSort( list, comp, limit );
   }
 
+  /**
+   * Partially sorts the tuples of an iterable by the value of an applied expression, without materializing the
+   * iterable.
+   *
+   * <p>Evaluates the expression once per tuple, and keeps the best {@code limit} tuples seen so far in a heap, so
+   * uses memory proportional to {@code limit} rather than to the number of tuples. Ties are broken by position in the
+   * iterable, so the result is the same as that of
+   * {@link #partiallySortTuples(Evaluator, TupleList, Calc, int, boolean)} on the materialized list.
+   *
+   * <p>NOTE: Does not preserve the contents of the validator.
+   *
+   * @param evaluator     Evaluator
+   * @param tupleIterable an iterable over tuples
+   * @param exp           a Calc applied to each tuple to find its sort-key
+   * @param limit         maximum count of tuples to return; must be positive
+   * @param desc          true to sort descending (and find TopCount), false to sort ascending (and find BottomCount).
+   * @return the top or bottom tuples, as a new list.
+   */
+  public static TupleList partiallySortTuples(
+    Evaluator evaluator,
+    TupleIterable tupleIterable,
+    Calc exp,
+    int limit,
+    final boolean desc ) {
+    assert limit > 0;
+    final int arity = tupleIterable.getArity();
+    // Orders tuples best first; the head of the queue is the worst tuple
+    // kept so far, which the next better tuple replaces.
+    final Comparator<ValuedTuple> comp =
+      ( o1, o2 ) -> {
+        int c = compareValues( o1.value, o2.value );
+        if ( desc ) {
+          c = -c;
+        }
+        if ( c == 0 ) {
+          c = Util.compare( o1.ordinal, o2.ordinal );
+        }
+        return c;
+      };
+    final PriorityQueue<ValuedTuple> queue =
+      new PriorityQueue<>( Math.min( limit, 1024 ), Collections.reverseOrder( comp ) );
+    final TupleCursor cursor = tupleIterable.tupleCursor();
+    int ordinal = 0;
+    Execution execution = evaluator.getQuery().getStatement().getCurrentExecution();
+    while ( cursor.forward() ) {
+      CancellationChecker.checkCancelOrTimeout( ordinal, execution );
+      cursor.setContext( evaluator );
+      Object value = exp.evaluate( evaluator );
+      if ( value == null ) {
+        value = Util.nullValue;
+      }
+      final ValuedTuple tuple = new ValuedTuple( value, ordinal++ );
+      if ( queue.size() == limit ) {
+        if ( comp.compare( tuple, queue.element() ) >= 0 ) {
+          continue;
+        }
+        discard( queue.remove() );
+      }
+      tuple.members = new Member[ arity ];
+      cursor.currentToArray( tuple.members, 0 );
+      queue.offer( tuple );
+    }
+
+    final ValuedTuple[] tuples = new ValuedTuple[ queue.size() ];
+    for ( int n = tuples.length; n > 0; ) {
+      tuples[ --n ] = queue.poll();
+    }
+    final TupleList result = TupleCollections.createList( arity, tuples.length );
+    for ( ValuedTuple tuple : tuples ) {
+      result.addTuple( tuple.members );
+    }
+    return result;
+  }
+
   /**
    * Sorts a list of members into hierarchical order. The members must belong to the same dimension.
    *
@@ -978,5 +1208,21 @@ public class Sorter {
       return "<" + t + ", " + i + ">";
     }
   }
+
+  /**
+   * Tuple with its sort-key and its position in its iterable, as held in the heap of
+   * {@link #partiallySortTuples(Evaluator, TupleIterable, Calc, int, boolean)}. The members are only copied if the
+   * tuple enters the heap.
+   */
+  private static class ValuedTuple {
+    final Object value;
+    final int ordinal;
+    Member[] members;
+
+    ValuedTuple( Object value, int ordinal ) {
+      this.value = value;
+      this.ordinal = ordinal;
+    }
+  }
 }
 
@@ -19,6 +19,7 @@ import mondrian.xmla.XmlaHandler;
 
 import org.olap4j.*;
 import org.olap4j.Cell;
+import org.olap4j.Position;
 import org.olap4j.metadata.*;
 import org.olap4j.metadata.Cube;
 import org.olap4j.metadata.Hierarchy;
@@ -350,6 +351,32 @@ class MondrianOlap4jExtra implements XmlaHandler.XmlaExtra {
         }
     }
 
+    public void prefetchMemberProperties(
+        CellSetAxis axis,
+        List<org.olap4j.metadata.Property> properties)
+    {
+        // CHILDREN_CARDINALITY (and DISPLAY_INFO, which is derived from it)
+        // reads the children of the member. Read the children of all
+        // members on the axis in one query per level.
+        if (!properties.contains(
+                org.olap4j.metadata.Property.StandardMemberProperty
+                    .CHILDREN_CARDINALITY)
+            && !properties.contains(
+                org.olap4j.metadata.Property.StandardMemberProperty
+                    .DISPLAY_INFO))
+        {
+            return;
+        }
+        final List<mondrian.olap.Member> members =
+            new ArrayList<mondrian.olap.Member>();
+        for (Position position : axis.getPositions()) {
+            for (Member member : position.getMembers()) {
+                members.add(((MondrianOlap4jMember) member).member);
+            }
+        }
+        RolapMemberBase.prefetchChildren(members);
+    }
+
     public Object getMemberKey(Member m) throws OlapException {
         try {
             return ((MondrianOlap4jMember)m)
@@ -15,6 +15,7 @@ import org.olap4j.mdx.*;
 
 import mondrian.calc.ResultStyle;
 import mondrian.olap.*;
+import mondrian.rolap.QueryPlanCache;
 import mondrian.rolap.RolapConnection;
 import mondrian.server.*;
 import mondrian.util.Pair;
@@ -51,6 +52,13 @@ abstract class MondrianOlap4jStatement
      */
     MondrianOlap4jCellSet openCellSet;
 
+    /**
+     * Query most recently executed by this statement. If it came from the
+     * {@link QueryPlanCache}, it is released when the statement executes
+     * another query or is closed.
+     */
+    private Query executedQuery;
+
     MondrianOlap4jStatement(
         MondrianOlap4jConnection olap4jConnection)
     {
@@ -143,6 +151,10 @@ abstract class MondrianOlap4jStatement
                 openCellSet = null;
                 c.close();
             }
+            if (executedQuery != null) {
+                QueryPlanCache.instance().release(executedQuery);
+                executedQuery = null;
+            }
         }
     }
 
@@ -360,11 +372,10 @@ abstract class MondrianOlap4jStatement
                     public Pair<Query, MondrianOlap4jCellSetMetaData> execute()
                     {
                         final Query query =
-                            (Query) mondrianConnection.parseStatement(
+                            (Query) QueryPlanCache.instance().parse(
+                                mondrianConnection,
                                 MondrianOlap4jStatement.this,
-                                mdx,
-                                null,
-                                false);
+                                mdx);
                         final MondrianOlap4jCellSetMetaData cellSetMetaData =
                             new MondrianOlap4jCellSetMetaData(
                                 MondrianOlap4jStatement.this, query);
@@ -403,6 +414,11 @@ abstract class MondrianOlap4jStatement
                 }
             }
 
+            if (executedQuery != null && executedQuery != query) {
+                QueryPlanCache.instance().release(executedQuery);
+            }
+            executedQuery = query;
+
             if (olap4jConnection.preferList) {
                 query.setResultStyle(ResultStyle.LIST);
             }
@@ -200,6 +200,9 @@ public class CacheControlImpl implements CacheControl {
             throw MondrianResource.instance().CacheFlushRegionMustContainMembers
                 .ex();
         }
+        ExpResultCache.flush(
+            connection == null ? null : connection.getSchema(),
+            getStarList(region));
         final UnionCellRegion union = normalize((CellRegionImpl) region);
         for (CellRegionImpl cellRegion : union.regions) {
             // Figure out the bits.
@@ -626,6 +629,8 @@ public class CacheControlImpl implements CacheControl {
         synchronized (MEMBER_CACHE_LOCK) {
             // firstly clear all cache associated with native sets
             connection.getSchema().getNativeRegistry().flushAllNativeSetCache();
+            QueryPlanCache.instance().flush(connection.getSchema());
+            ExpResultCache.flush(connection.getSchema());
             final List<CellRegion> cellRegionList = new ArrayList<CellRegion>();
             ((MemberSetPlus) memberSet).accept(
                 new MemberSetVisitorImpl() {
@@ -830,6 +835,10 @@ public class CacheControlImpl implements CacheControl {
                 final List<CellRegion> cellRegionList =
                     new ArrayList<CellRegion>();
                 ((MemberEditCommandPlus) cmd).execute(cellRegionList);
+                final RolapSchema schema =
+                    connection == null ? null : connection.getSchema();
+                QueryPlanCache.instance().flush(schema);
+                ExpResultCache.flush(schema);
 
                 // Flush the cells touched by the regions
                 for (CellRegion memberRegion : cellRegionList) {
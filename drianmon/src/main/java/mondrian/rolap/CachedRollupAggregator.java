@@ -0,0 +1,153 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleList;
+import mondrian.olap.Aggregator;
+import mondrian.olap.Util;
+import mondrian.rolap.agg.CellRequest;
+import mondrian.rolap.agg.SegmentWithData;
+import mondrian.server.Execution;
+import mondrian.util.CancellationChecker;
+import mondrian.util.Counters;
+
+/**
+ * Computes the <code>Aggregate</code> of a stored measure over a list of
+ * tuples by rolling up the cells of segments in the cache.
+ *
+ * <p>Evaluating the aggregate tuple by tuple sets the context, evaluates the
+ * measure, and goes through the cell reader, for every tuple. When the cells
+ * are in the cache, usually in one or a few segments, which is the case for
+ * every pass after the first, it is cheaper to look up each tuple's key in
+ * the segment and combine the values directly. This class does so for the
+ * {@code sum}, {@code min} and {@code max} rollups (the rollup of
+ * {@code count} is {@code sum}).
+ *
+ * <p>If any cell is not in the cache, or the context contains calculated
+ * members, {@link #aggregate} returns null and the caller evaluates tuple
+ * by tuple as before, which requests the missing cells.
+ */
+public final class CachedRollupAggregator {
+    private CachedRollupAggregator() {
+    }
+
+    /**
+     * Aggregates the current measure over a list of tuples using cells in
+     * the cache.
+     *
+     * @param evaluator Evaluator; its measure is the one to aggregate
+     * @param tupleList List of tuples
+     * @param rollup Rollup aggregator
+     * @return Aggregated value, {@link Util#nullValue} if every cell is
+     *     empty, or null if the value cannot be computed from the cache
+     */
+    public static Object aggregate(
+        RolapEvaluator evaluator,
+        TupleList tupleList,
+        Aggregator rollup)
+    {
+        if (rollup != RolapAggregator.Sum
+            && rollup != RolapAggregator.Min
+            && rollup != RolapAggregator.Max)
+        {
+            return null;
+        }
+        // Compound predicates (of a compound slicer, or of an enclosing
+        // Aggregate) are the same for every tuple, so are built only for the
+        // first; the other tuples' cells are then looked up in the segment
+        // that holds the first one.
+        final boolean compound =
+            evaluator.getAggregationLists() != null
+            && !evaluator.getAggregationLists().isEmpty();
+        final Execution execution =
+            evaluator.getQuery().getStatement().getCurrentExecution();
+        // A worker thread shares the query thread's local cache, so must
+        // hold the worker's lock while it reads it.
+        final Object lock = RolapResult.getLocalCacheLock(evaluator);
+        final int savepoint = evaluator.savepoint();
+        try {
+            RolapStar.Measure measure = null;
+            SegmentWithData segment = null;
+            double result = 0d;
+            int count = 0;
+            final TupleCursor cursor = tupleList.tupleCursor();
+            for (int i = 0; cursor.forward(); i++) {
+                CancellationChecker.checkCancelOrTimeout(i, execution);
+                cursor.setContext(evaluator);
+                if (evaluator.hasCalculations()) {
+                    return null;
+                }
+                final CellRequest request =
+                    compound && i > 0
+                        ? RolapAggregationManager.makeRequest(
+                            evaluator.getNonAllMembers())
+                        : RolapAggregationManager.makeRequest(evaluator);
+                if (request == null) {
+                    if (compound) {
+                        return null;
+                    }
+                    continue; // the cell is empty
+                }
+                if (request.isUnsatisfiable()) {
+                    continue;
+                }
+                if (measure == null) {
+                    measure = request.getMeasure();
+                } else if (request.getMeasure() != measure) {
+                    return null;
+                }
+                Object o = null;
+                if (segment != null
+                    && segment.getConstrainedColumnsBitKey().equals(
+                        request.getConstrainedColumnsBitKey()))
+                {
+                    o = segment.getCellValue(request.getSingleValues());
+                }
+                if (o == null) {
+                    if (compound && i > 0) {
+                        return null;
+                    }
+                    segment =
+                        measure.getStar().getSegmentFromCache(request, lock);
+                    if (segment == null) {
+                        return null;
+                    }
+                    o = segment.getCellValue(request.getSingleValues());
+                }
+                if (o == null) {
+                    return null;
+                }
+                if (o == Util.nullValue) {
+                    continue;
+                }
+                if (!(o instanceof Number)) {
+                    return null;
+                }
+                final double d = ((Number) o).doubleValue();
+                if (count++ == 0) {
+                    result = d;
+                } else if (rollup == RolapAggregator.Sum) {
+                    result += d;
+                } else if (rollup == RolapAggregator.Min) {
+                    result = Math.min(result, d);
+                } else {
+                    result = Math.max(result, d);
+                }
+            }
+            Counters.CACHED_ROLLUP_COUNT.incrementAndGet();
+            return count == 0 ? Util.nullValue : (Object) result;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+}
+
+// End CachedRollupAggregator.java
@@ -0,0 +1,359 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ResultStyle;
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleList;
+import mondrian.mdx.MdxVisitorImpl;
+import mondrian.mdx.MemberExpr;
+import mondrian.mdx.NamedSetExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.Dimension;
+import mondrian.olap.Exp;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Member;
+import mondrian.olap.ResultLimitExceededException;
+import mondrian.olap.type.DimensionType;
+import mondrian.olap.type.HierarchyType;
+import mondrian.olap.type.LevelType;
+import mondrian.olap.type.MemberType;
+import mondrian.olap.type.SetType;
+import mondrian.olap.type.Type;
+import mondrian.rolap.agg.CellRequestQuantumExceededException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Predicts the cells of stored measures that the cells of a query will need,
+ * and requests them before the cells are first evaluated.
+ *
+ * <p>A cell of a calculated measure usually reads cells of stored measures,
+ * sometimes of other members; for example, the cells that
+ * <code>([Measures].[Unit Sales], ParallelPeriod([Time].[Year]))</code>
+ * reads are in the previous year. When they are not in the cache, each
+ * evaluation pass of {@link RolapResult} finds only some of them (the
+ * evaluation of a calculation stops at the first cell that is not ready), and
+ * each pass ends in a round trip to the database.
+ *
+ * <p>The predictor walks the expressions of calculated measures, recursively,
+ * and collects the stored measures they reference, and the expressions that
+ * move the context to other members ({@code ParallelPeriod},
+ * {@code PrevMember}, {@code Ancestor}, {@code Lag}, {@code YTD}, a member in
+ * a tuple, and so forth). It only collects expressions that it can evaluate
+ * without reading cells. Then, for each cell of the query, it evaluates those
+ * expressions, and requests the cell of each stored measure at the cell's
+ * coordinates and at each member they return. The caller loads the requests
+ * in one batch.
+ *
+ * <p>Predictions may be wrong both ways: they may request cells that are not
+ * needed, for instance in a branch of {@code IIf} that is not taken, and may
+ * miss cells, which the evaluation passes then request as usual.
+ *
+ * <p>A predictor is not thread-safe.
+ */
+class CellRequestPredictor {
+    /** Maximum number of context-moving expressions per measure. */
+    private static final int MAX_SHIFT_COUNT = 16;
+
+    /** Maximum number of members of a set-valued expression to request. */
+    private static final int MAX_SET_SIZE = 64;
+
+    private final RolapEvaluator evaluator;
+    private final FastBatchingCellReader reader;
+    private final Hierarchy measuresHierarchy;
+    private final Dimension measuresDimension;
+    private final Map<Member, Plan> plans = new HashMap<Member, Plan>();
+    private int requestCount;
+
+    /**
+     * Creates a predictor.
+     *
+     * @param evaluator Evaluator whose context is the slicer
+     * @param reader Reader into which to record cell requests
+     */
+    CellRequestPredictor(
+        RolapEvaluator evaluator,
+        FastBatchingCellReader reader)
+    {
+        this.evaluator = evaluator;
+        this.reader = reader;
+        this.measuresHierarchy = evaluator.getCube().getMeasuresHierarchy();
+        this.measuresDimension = measuresHierarchy.getDimension();
+    }
+
+    /**
+     * Requests the predicted cells of every cell of a grid.
+     *
+     * @param axisLists Positions of each axis
+     * @param slicerList Slicer tuples; only the first is used, as in the
+     *     evaluation of cells
+     * @return Number of cells requested, including cells that were in the
+     *     cache
+     */
+    int predict(List<TupleList> axisLists, TupleList slicerList) {
+        final int savepoint = evaluator.savepoint();
+        try {
+            evaluator.setNonEmpty(false);
+            predict(axisLists.size() - 1, axisLists, slicerList);
+        } catch (CellRequestQuantumExceededException e) {
+            // The batch is full. Load what has been requested; evaluation
+            // will request the rest.
+        } finally {
+            evaluator.restore(savepoint);
+        }
+        return requestCount;
+    }
+
+    private void predict(
+        int axisOrdinal,
+        List<TupleList> axisLists,
+        TupleList slicerList)
+    {
+        if (axisOrdinal < 0) {
+            if (!slicerList.isEmpty()) {
+                final int savepoint = evaluator.savepoint();
+                try {
+                    evaluator.setContext(slicerList.get(0));
+                    predictCell();
+                } finally {
+                    evaluator.restore(savepoint);
+                }
+            }
+            return;
+        }
+        final TupleCursor cursor = axisLists.get(axisOrdinal).tupleCursor();
+        final int savepoint = evaluator.savepoint();
+        try {
+            while (cursor.forward()) {
+                evaluator.root.execution.checkCancelOrTimeout();
+                cursor.setContext(evaluator);
+                predict(axisOrdinal - 1, axisLists, slicerList);
+                evaluator.restore(savepoint);
+            }
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Requests the predicted cells of the cell at the evaluator's current
+     * context.
+     */
+    private void predictCell() {
+        final Member measure = evaluator.getContext(measuresHierarchy);
+        Plan plan = plans.get(measure);
+        if (plan == null) {
+            plan = new Plan(measure);
+            plans.put(measure, plan);
+        }
+        if (plan.measures.isEmpty()) {
+            return;
+        }
+        request(plan);
+        for (Calc shift : plan.shifts) {
+            final Object o;
+            try {
+                o = shift.evaluate(evaluator);
+            } catch (ResultLimitExceededException e) {
+                throw e;
+            } catch (CellRequestQuantumExceededException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                // Cannot predict this part of the calculation; evaluation
+                // will request its cells.
+                continue;
+            }
+            if (o instanceof Member) {
+                request(plan, (Member) o);
+            } else if (o instanceof TupleList) {
+                final List<Member> members = ((TupleList) o).slice(0);
+                final int n = Math.min(members.size(), MAX_SET_SIZE);
+                for (int i = 0; i < n; i++) {
+                    request(plan, members.get(i));
+                }
+            }
+        }
+    }
+
+    private void request(Plan plan, Member member) {
+        if (member == null || member.isNull() || member.isCalculated()) {
+            return;
+        }
+        final int savepoint = evaluator.savepoint();
+        try {
+            evaluator.setContext(member);
+            request(plan);
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Requests the cell of each of a plan's stored measures at the current
+     * context, unless the context contains calculated members.
+     */
+    private void request(Plan plan) {
+        final int savepoint = evaluator.savepoint();
+        try {
+            for (RolapStoredMeasure measure : plan.measures) {
+                evaluator.setContext(measure);
+                if (evaluator.hasCalculations()) {
+                    return;
+                }
+                ++requestCount;
+                // Like an evaluation would, records a request if the cell is
+                // not in the cache.
+                reader.get(evaluator);
+            }
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * What the cells of a measure need: stored measures, and expressions that
+     * move the context to members whose cells are needed too.
+     */
+    private class Plan {
+        final Set<RolapStoredMeasure> measures =
+            new LinkedHashSet<RolapStoredMeasure>();
+        final List<Calc> shifts = new ArrayList<Calc>();
+        private final Set<Exp> shiftExps = new HashSet<Exp>();
+        private final Set<Member> activeMeasures = new HashSet<Member>();
+
+        Plan(Member measure) {
+            addMeasure(measure);
+        }
+
+        private void addMeasure(Member measure) {
+            if (measure instanceof RolapStoredMeasure) {
+                measures.add((RolapStoredMeasure) measure);
+            } else if (measure.isCalculated()
+                && activeMeasures.add(measure))
+            {
+                final Exp exp = measure.getExpression();
+                if (exp != null) {
+                    exp.accept(new Collector());
+                }
+                activeMeasures.remove(measure);
+            }
+        }
+
+        private void addShift(Exp exp) {
+            if (shifts.size() >= MAX_SHIFT_COUNT || !shiftExps.add(exp)) {
+                return;
+            }
+            try {
+                shifts.add(
+                    evaluator.root.getCompiled(
+                        exp, false, ResultStyle.LIST));
+            } catch (RuntimeException e) {
+                // Cannot compile the expression on its own; ignore it.
+            }
+        }
+
+        /**
+         * Collects the stored measures and context-moving expressions of an
+         * expression.
+         */
+        private class Collector extends MdxVisitorImpl {
+            public Object visit(MemberExpr memberExpr) {
+                final Member member = memberExpr.getMember();
+                if (member.isMeasure()) {
+                    addMeasure(member);
+                } else if (!member.isCalculated()) {
+                    addShift(memberExpr);
+                }
+                return null;
+            }
+
+            public Object visit(ResolvedFunCall call) {
+                if (isShift(call)) {
+                    addShift(call);
+                    turnOffVisitChildren();
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns whether an expression returns members, or a set of members, of
+     * dimensions other than Measures, and can be evaluated without reading
+     * cells.
+     */
+    private boolean isShift(ResolvedFunCall call) {
+        final Type type = call.getType();
+        if (!(type instanceof MemberType
+                || type instanceof SetType && type.getArity() == 1))
+        {
+            return false;
+        }
+        final CellFreeChecker checker = new CellFreeChecker();
+        call.accept(checker);
+        return checker.cellFree;
+    }
+
+    /**
+     * Decides whether an expression can be evaluated without reading cells:
+     * it only references members, levels, hierarchies, dimensions and
+     * literals other than measures, and only calls functions that return
+     * members or sets (except those, such as {@code NonEmpty}, that read
+     * cells implicitly) or levels, hierarchies or dimensions.
+     */
+    private class CellFreeChecker extends MdxVisitorImpl {
+        boolean cellFree = true;
+
+        public Object visit(MemberExpr memberExpr) {
+            final Member member = memberExpr.getMember();
+            if (member.isMeasure() || member.isCalculated()) {
+                cellFree = false;
+            }
+            return null;
+        }
+
+        public Object visit(NamedSetExpr namedSetExpr) {
+            cellFree = false;
+            return null;
+        }
+
+        public Object visit(ResolvedFunCall call) {
+            final Type type = call.getType();
+            if (type instanceof MemberType || type instanceof SetType) {
+                if (type.usesDimension(measuresDimension, false)
+                    || call.getFunName().equalsIgnoreCase("NonEmpty")
+                    || call.getFunName().equalsIgnoreCase(
+                        "NonEmptyCrossJoin"))
+                {
+                    cellFree = false;
+                }
+            } else if (!(type instanceof LevelType
+                    || type instanceof HierarchyType
+                    || type instanceof DimensionType))
+            {
+                cellFree = false;
+            }
+            if (!cellFree) {
+                turnOffVisitChildren();
+            }
+            return null;
+        }
+    }
+}
+
+// End CellRequestPredictor.java
@@ -292,8 +292,13 @@ public class CompoundPredicateInfo {
         // ListColumnPredicate or OrPredicate in a single batch. See MONDRIAN-2719
         if ( tuplePredicateList.get( 0 ) instanceof StarColumnPredicate ) {
           StarColumnPredicate scp = (StarColumnPredicate) tuplePredicateList.get( 0 );
-          compoundGroupPredicate =
-              new ListColumnPredicate( scp.getConstrainedColumn(), Util.cast( tuplePredicateList ) );
+          // A contiguous run of members, such as the days of Ytd(), can be
+          // constrained by a range rather than a list of values.
+          compoundGroupPredicate = makeRangePredicate( scp.getConstrainedColumn(), group, evaluator );
+          if ( compoundGroupPredicate == null ) {
+            compoundGroupPredicate =
+                new ListColumnPredicate( scp.getConstrainedColumn(), Util.cast( tuplePredicateList ) );
+          }
         } else {
           compoundGroupPredicate = new OrPredicate( tuplePredicateList );
         }
@@ -317,6 +322,18 @@ public class CompoundPredicateInfo {
     return compoundPredicate;
   }
 
+  private StarPredicate makeRangePredicate( RolapStar.Column column, List<RolapCubeMember[]> group,
+      Evaluator evaluator ) {
+    List<RolapCubeMember> members = new ArrayList<RolapCubeMember>( group.size() );
+    for ( RolapCubeMember[] tuple : group ) {
+      if ( tuple.length != 1 ) {
+        return null;
+      }
+      members.add( tuple[0] );
+    }
+    return TimeRangeAggregator.makeRangePredicate( column, members, evaluator );
+  }
+
   private StarPredicate makePredicateForMember( RolapCubeMember member, RolapCube baseCube,
       StarPredicate memberPredicate, Evaluator evaluator ) {
     while ( member != null ) {
@@ -0,0 +1,225 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of expression results that outlives a query.
+ *
+ * <p>Each query has its own expression result cache (see
+ * {@link RolapEvaluatorRoot#getCacheResult}). If
+ * {@link MondrianProperties#ExpResultCacheScope} is "connection" or
+ * "server", results that are valid (computed without missing cells) are also
+ * stored in a cache of this class, held by the connection or shared by the
+ * server, so that later queries can use them.
+ *
+ * <p>The caller builds a key that does not depend on objects local to a
+ * query, such as expression parse trees; the key must include the cube and
+ * role, because they are not included implicitly.
+ *
+ * <p>Each cache is bounded by {@link MondrianProperties#ExpResultCacheSize}
+ * and discards the least recently used results first. {@link #flush} removes
+ * results when {@link mondrian.olap.CacheControl} flushes cells or members.
+ */
+class ExpResultCache {
+    /**
+     * Scope of expression results.
+     */
+    enum Scope {
+        QUERY,
+        CONNECTION,
+        SERVER
+    }
+
+    private static final ExpResultCache SERVER_CACHE = new ExpResultCache();
+
+    /** Caches of connections, so that they can be flushed. Held weakly;
+     * a cache is released when its connection is. */
+    private static final Map<ExpResultCache, Boolean> CONNECTION_CACHES =
+        new WeakHashMap<ExpResultCache, Boolean>();
+
+    /** Number of calls to {@link #flush}. A result computed while a flush
+     * happened is not cached, because it may have read flushed cells. */
+    private static final AtomicInteger FLUSH_COUNT = new AtomicInteger();
+
+    private final Map<Object, Entry> map =
+        new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    ExpResultCache() {
+    }
+
+    /**
+     * Returns the cache that a connection should use for results that outlive
+     * a query, or null if results must not outlive a query.
+     *
+     * @param connection Connection
+     * @return Cache, or null
+     */
+    static ExpResultCache forConnection(RolapConnection connection) {
+        if (connection.getScenario() != null) {
+            // Cell values depend on the scenario's writeback.
+            return null;
+        }
+        switch (scope()) {
+        case CONNECTION:
+            return connection.getExpResultCache();
+        case SERVER:
+            return SERVER_CACHE;
+        default:
+            return null;
+        }
+    }
+
+    private static Scope scope() {
+        return Util.lookup(
+            Scope.class,
+            MondrianProperties.instance().ExpResultCacheScope.get()
+                .toUpperCase(),
+            Scope.QUERY);
+    }
+
+    /**
+     * Creates a cache for a connection.
+     *
+     * @return New cache
+     */
+    static ExpResultCache createConnectionCache() {
+        final ExpResultCache cache = new ExpResultCache();
+        synchronized (CONNECTION_CACHES) {
+            CONNECTION_CACHES.put(cache, Boolean.TRUE);
+        }
+        return cache;
+    }
+
+    /**
+     * Looks up a result.
+     *
+     * @param key Key
+     * @return Result, or null if not cached
+     */
+    synchronized Object get(Object key) {
+        final Entry entry = map.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Returns the number of flushes so far. Call before computing a result,
+     * and pass the value to {@link #put}.
+     *
+     * @return Flush count
+     */
+    static int flushCount() {
+        return FLUSH_COUNT.get();
+    }
+
+    /**
+     * Adds a result, unless a flush has happened since it started to be
+     * computed.
+     *
+     * @param key Key
+     * @param cube Cube in which the result was computed
+     * @param value Result; not null
+     * @param flushCount Value of {@link #flushCount()} before the result was
+     *   computed
+     */
+    synchronized void put(
+        Object key,
+        RolapCube cube,
+        Object value,
+        int flushCount)
+    {
+        if (flushCount != FLUSH_COUNT.get()) {
+            return;
+        }
+        map.put(key, new Entry(cube, value));
+        final int maxSize =
+            MondrianProperties.instance().ExpResultCacheSize.get();
+        for (Iterator<Object> iterator = map.keySet().iterator();
+             map.size() > maxSize && iterator.hasNext();)
+        {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void flushInternal(
+        RolapSchema schema,
+        Collection<RolapStar> stars)
+    {
+        for (Iterator<Entry> iterator = map.values().iterator();
+             iterator.hasNext();)
+        {
+            final RolapCube cube = iterator.next().cube;
+            if ((schema == null || cube.getSchema() == schema)
+                && (stars == null
+                    || cube.isVirtual()
+                    || stars.contains(cube.getStar())))
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes results that may depend on cells or members being flushed,
+     * from the server cache and all connection caches.
+     *
+     * <p>A result computed in a virtual cube is removed if any cells of its
+     * schema are flushed.
+     *
+     * @param schema Schema, or null for all schemas
+     * @param stars Stars whose cells are flushed, or null to remove all
+     *   results of the schema
+     */
+    static void flush(RolapSchema schema, Collection<RolapStar> stars) {
+        FLUSH_COUNT.incrementAndGet();
+        final List<ExpResultCache> caches = new ArrayList<ExpResultCache>();
+        caches.add(SERVER_CACHE);
+        synchronized (CONNECTION_CACHES) {
+            caches.addAll(CONNECTION_CACHES.keySet());
+        }
+        for (ExpResultCache cache : caches) {
+            cache.flushInternal(schema, stars);
+        }
+    }
+
+    /**
+     * Removes all results of a schema.
+     *
+     * @param schema Schema, or null for all schemas
+     */
+    static void flush(RolapSchema schema) {
+        flush(schema, null);
+    }
+
+    /** Cached result and the cube it was computed in. */
+    private static class Entry {
+        final RolapCube cube;
+        final Object value;
+
+        Entry(RolapCube cube, Object value) {
+            this.cube = cube;
+            this.value = value;
+        }
+    }
+}
+
+// End ExpResultCache.java
@@ -0,0 +1,167 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Access;
+import mondrian.olap.Role;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Per-level bitmaps that record the access a role has to the members of a
+ * hierarchy.
+ *
+ * <p>Computing the access to a member via
+ * {@link Role.HierarchyAccess#getAccess(mondrian.olap.Member)} walks the
+ * member grants of the role and the ancestors of the member. This class
+ * computes it once per member and records it in bitmaps indexed by
+ * {@link RolapMemberBase#getBitmapIndex()}, so that subsequent checks, and
+ * the filtering of children lists in {@link RestrictedMemberReader}, are
+ * bitmap tests.
+ *
+ * <p>Only accesses {@link Access#NONE}, {@link Access#CUSTOM} and
+ * {@link Access#ALL} are recorded; anything else, and members that are not
+ * stored members (calculated members, rollup wrappers), is passed through
+ * to the underlying hierarchy access every time.
+ *
+ * <p>Bitmaps are held by {@link MemberCacheHelper#getAccessBitmap}, per
+ * hierarchy access (that is, per role and hierarchy), and discarded when the
+ * member cache is flushed. Because a bitmap index is never reused, a stale
+ * bitmap cannot give a wrong answer for a newly loaded member.
+ *
+ * <p>The hierarchy access must not change after the bitmap is created, so
+ * bitmaps are not used for mutable roles.
+ *
+ * <p>Synchronization: each level's bitmaps are guarded by their own lock.
+ */
+class MemberAccessBitmap {
+    /** Bitmaps for members of the shared hierarchy, indexed by depth. */
+    private final List<LevelBitmap> levels = new ArrayList<LevelBitmap>();
+
+    /** Bitmaps for members of a cube hierarchy, indexed by depth. Cube
+     * members share the bitmap index of the member they wrap, so they are
+     * kept apart from the shared members, whose unique names may differ. */
+    private final List<LevelBitmap> cubeLevels = new ArrayList<LevelBitmap>();
+
+    /**
+     * Returns the access to a member.
+     *
+     * <p>The bitmap does not hold on to the hierarchy access, because it is
+     * the key under which the bitmap is cached; the caller must always pass
+     * the same one.
+     *
+     * @param hierarchyAccess Access of a role to the member's hierarchy
+     * @param member Member
+     * @return Access, same as the hierarchy access would return
+     */
+    Access getAccess(
+        Role.HierarchyAccess hierarchyAccess,
+        RolapMember member)
+    {
+        final RolapMemberBase base;
+        final List<LevelBitmap> levelList;
+        if (member instanceof RolapCubeMember) {
+            final RolapMember rolapMember =
+                ((RolapCubeMember) member).getRolapMember();
+            if (!(rolapMember instanceof RolapMemberBase)) {
+                return hierarchyAccess.getAccess(member);
+            }
+            base = (RolapMemberBase) rolapMember;
+            levelList = cubeLevels;
+        } else if (member instanceof RolapMemberBase
+            && !member.isCalculated())
+        {
+            base = (RolapMemberBase) member;
+            levelList = levels;
+        } else {
+            return hierarchyAccess.getAccess(member);
+        }
+        final RolapLevel level = base.getLevel();
+        final LevelBitmap bitmap = getLevelBitmap(levelList, level);
+        if (bitmap.level != level) {
+            // Bitmap indexes are allocated per level; a different level at
+            // the same depth cannot share the bitmap.
+            return hierarchyAccess.getAccess(member);
+        }
+        final int index = base.getBitmapIndex();
+        Access access = bitmap.get(index);
+        if (access == null) {
+            access = hierarchyAccess.getAccess(member);
+            bitmap.set(index, access);
+        }
+        return access;
+    }
+
+    private LevelBitmap getLevelBitmap(
+        List<LevelBitmap> levelList,
+        RolapLevel level)
+    {
+        final int depth = level.getDepth();
+        synchronized (levelList) {
+            while (levelList.size() <= depth) {
+                levelList.add(null);
+            }
+            LevelBitmap bitmap = levelList.get(depth);
+            if (bitmap == null) {
+                bitmap = new LevelBitmap(level);
+                levelList.set(depth, bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Bitmaps for the members of one level. A member's access is known if
+     * its bit is set in {@code known}; it is then NONE, CUSTOM or ALL
+     * according to the {@code visible} and {@code custom} bits.
+     */
+    private static class LevelBitmap {
+        private final RolapLevel level;
+        private final BitSet known = new BitSet();
+        private final BitSet visible = new BitSet();
+        private final BitSet custom = new BitSet();
+
+        LevelBitmap(RolapLevel level) {
+            this.level = level;
+        }
+
+        synchronized Access get(int index) {
+            if (!known.get(index)) {
+                return null;
+            }
+            if (!visible.get(index)) {
+                return Access.NONE;
+            }
+            return custom.get(index) ? Access.CUSTOM : Access.ALL;
+        }
+
+        synchronized void set(int index, Access access) {
+            switch (access) {
+            case NONE:
+                break;
+            case CUSTOM:
+                visible.set(index);
+                custom.set(index);
+                break;
+            case ALL:
+                visible.set(index);
+                break;
+            default:
+                // Not representable; leave it unknown.
+                return;
+            }
+            known.set(index);
+        }
+    }
+}
+
+// End MemberAccessBitmap.java
@@ -14,6 +14,7 @@ package mondrian.rolap;
 import org.apache.commons.collections.Predicate;
 
 import mondrian.olap.Level;
+import mondrian.olap.Role;
 import mondrian.olap.Util;
 import mondrian.rolap.cache.*;
 import mondrian.rolap.sql.MemberChildrenConstraint;
@@ -23,7 +24,6 @@ import mondrian.util.*;
 
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.stream.Collectors;
 
 import static org.apache.commons.collections.CollectionUtils.filter;
 
@@ -57,6 +57,13 @@ public class MemberCacheHelper implements MemberCache {
     final SmartMemberListCache<RolapLevel, List<RolapMember>>
         mapLevelToMembers;
 
+    /** indexes cached members by (parent, name) and by (level, name) */
+    final MemberNameIndex nameIndex;
+
+    /** maps a role's access to this hierarchy to its compiled bitmaps */
+    private final Map<Role.HierarchyAccess, MemberAccessBitmap> accessBitmaps =
+        new WeakHashMap<Role.HierarchyAccess, MemberAccessBitmap>();
+
     /**
      * Creates a MemberCacheHelper.
      *
@@ -72,6 +79,7 @@ public class MemberCacheHelper implements MemberCache {
             new SmartMemberListCache<RolapMember, List<RolapMember>>();
         this.mapParentToNamedChildren =
             new SmartIncrementalCache<RolapMember, Collection<RolapMember>>();
+        this.nameIndex = new MemberNameIndex();
 
         if (rolapHierarchy != null) {
             changeListener =
@@ -134,6 +142,7 @@ public class MemberCacheHelper implements MemberCache {
         List<RolapMember> members)
     {
         mapLevelToMembers.put(level, constraint, members);
+        nameIndex.putAll(members);
     }
 
     public List<RolapMember> getChildrenFromCache(
@@ -154,36 +163,75 @@ public class MemberCacheHelper implements MemberCache {
     /**
      * Attempts to find all children requested by the ChildByNameConstraint
      * in cache.  Returns null if the complete list is not found.
+     *
+     * <p>Children are looked up in the {@link MemberNameIndex}. If the
+     * index is incomplete (its entries are soft references) it is
+     * re-populated from the cached lists of children.
      */
     private List<RolapMember> findNamedChildrenInCache(
         final RolapMember parent, final List<String> childNames)
     {
-        List<RolapMember> children =
-            checkDefaultAndNamedChildrenCache(parent);
-        if (children == null || childNames == null
-            || childNames.size() > children.size())
-        {
+        if (childNames == null) {
             return null;
         }
-
         List<RolapMember> foundElements =
-          children.parallelStream().filter( member -> childNames.contains( ( (RolapMember) member ).getName() ) )
-            .collect( Collectors.toList() );
-        return childNames.size() == foundElements.size() ? foundElements : null;
+            lookupChildrenInIndex(parent, childNames);
+        if (foundElements != null) {
+            return foundElements;
+        }
+        final List<RolapMember> allChildren =
+            mapMemberToChildren.get(
+                parent, DefaultMemberChildrenConstraint.instance());
+        if (allChildren != null) {
+            nameIndex.putChildren(parent, allChildren);
+        } else {
+            final Collection<RolapMember> namedChildren =
+                mapParentToNamedChildren.get(parent);
+            if (namedChildren == null) {
+                return null;
+            }
+            nameIndex.putChildren(
+                parent, new ArrayList<RolapMember>(namedChildren));
+        }
+        return lookupChildrenInIndex(parent, childNames);
     }
 
-    private List<RolapMember> checkDefaultAndNamedChildrenCache(
-        RolapMember parent)
+    /**
+     * Looks up each of a list of names among the indexed children of a
+     * member, and returns every child that has one of the names. Returns
+     * null unless each name matches at least one child.
+     */
+    private List<RolapMember> lookupChildrenInIndex(
+        RolapMember parent, List<String> childNames)
     {
-        Collection<RolapMember> children = mapMemberToChildren
-            .get(parent, DefaultMemberChildrenConstraint.instance());
-        if (children == null) {
-            children = mapParentToNamedChildren.get(parent);
+        final Set<RolapMember> children = new LinkedHashSet<RolapMember>();
+        for (String childName : childNames) {
+            final List<RolapMember> namedChildren =
+                nameIndex.getChildren(parent, childName);
+            if (namedChildren.isEmpty()) {
+                return null;
+            }
+            children.addAll(namedChildren);
         }
-        return children == null ? Collections.emptyList()
-            : new ArrayList(children);
+        return new ArrayList<RolapMember>(children);
     }
 
+    /**
+     * Returns the cached members of a level which have a given name,
+     * honoring the {@link mondrian.olap.MondrianProperties#CaseSensitive}
+     * property. Does not go to the member source, so the list is empty if
+     * no such members have been loaded.
+     *
+     * @param level Level
+     * @param name Member name
+     * @return List of cached members with the given name, never null
+     */
+    public List<RolapMember> getLevelMembersByName(
+        RolapLevel level,
+        String name)
+    {
+        return nameIndex.getLevelMembers(level, name);
+    }
 
     public void putChildren(
         RolapMember member,
@@ -199,6 +247,9 @@ public class MemberCacheHelper implements MemberCache {
         } else {
             mapMemberToChildren.put(member, constraint, children);
         }
+        if (children != null) {
+            nameIndex.putChildren(member, children);
+        }
     }
 
     private void putChildrenInChildNameCache(
@@ -235,12 +286,37 @@ public class MemberCacheHelper implements MemberCache {
         mapKeyToMember.clear();
         mapLevelToMembers.clear();
         mapParentToNamedChildren.clear();
+        nameIndex.clear();
+        synchronized (accessBitmaps) {
+            accessBitmaps.clear();
+        }
         // We also need to clear the approxRowCount of each level.
         for (Level level : rolapHierarchy.getLevels()) {
             ((RolapLevel)level).setApproxRowCount(Integer.MIN_VALUE);
         }
     }
 
+    /**
+     * Returns the access bitmap for a role's access to this hierarchy,
+     * creating it if necessary. Bitmaps are discarded when the cache is
+     * flushed.
+     *
+     * @param hierarchyAccess Access of a role to this hierarchy
+     * @return Access bitmap
+     */
+    public MemberAccessBitmap getAccessBitmap(
+        Role.HierarchyAccess hierarchyAccess)
+    {
+        synchronized (accessBitmaps) {
+            MemberAccessBitmap bitmap = accessBitmaps.get(hierarchyAccess);
+            if (bitmap == null) {
+                bitmap = new MemberAccessBitmap();
+                accessBitmaps.put(hierarchyAccess, bitmap);
+            }
+            return bitmap;
+        }
+    }
+
     public DataSourceChangeListener getChangeListener() {
         return changeListener;
     }
@@ -358,6 +434,7 @@ public class MemberCacheHelper implements MemberCache {
                     }
                 }
             } });
+            nameIndex.remove(member);
             // drop it from the lookup-cache
             return mapKeyToMember.put(key, null);
         }
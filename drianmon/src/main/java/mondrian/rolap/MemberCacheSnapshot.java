@@ -0,0 +1,857 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Annotation;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Level;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Property;
+import mondrian.olap.Util;
+import mondrian.rolap.sql.MemberChildrenConstraint;
+import mondrian.rolap.sql.TupleConstraint;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+import mondrian.util.Pair;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the member caches of a schema to a local file, and reads them back
+ * when a schema with the same content is loaded again.
+ *
+ * <p>A snapshot holds, for each shared hierarchy, the levels whose members
+ * are fully cached, starting at the top: the key, name, caption, ordinal,
+ * order key and level properties of each member, and a link to its parent.
+ * The file is named after the {@link SchemaContentKey} of the schema, and is
+ * stored in the directory given by
+ * {@link MondrianProperties#MemberCacheSnapshotDir}.
+ *
+ * <p>Only hierarchies whose dimension (or the hierarchy itself) has a
+ * {@link #FRESHNESS_ANNOTATION} annotation are written. The annotation is
+ * a SQL query that returns a single value. The query is run just before the
+ * members of a level are read from the database, and its value is stored
+ * with the members; the hierarchy is restored only if the query returns the
+ * same value at load time. If the dimension table changes after the token is
+ * read, the token changes too, so members are never restored from a
+ * snapshot that is older than the data.
+ *
+ * <p>The snapshot is written when the schema is flushed, or when the JVM
+ * shuts down, whichever comes first.
+ *
+ * <p>Parent-child levels are not snapshotted, and nor are levels below
+ * them.
+ */
+class MemberCacheSnapshot {
+    private static final Logger LOGGER =
+        LogManager.getLogger(MemberCacheSnapshot.class);
+
+    /**
+     * Name of the dimension or hierarchy annotation that holds the
+     * freshness check SQL.
+     */
+    static final String FRESHNESS_ANNOTATION = "SnapshotFreshnessSql";
+
+    private static final int MAGIC = 0x4d43534e; // "MCSN"
+    private static final int VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BIG_DECIMAL = 5;
+    private static final byte SQL_DATE = 6;
+    private static final byte SQL_TIMESTAMP = 7;
+    private static final byte SQL_TIME = 8;
+    private static final byte DATE = 9;
+    private static final byte BOOLEAN = 10;
+    private static final byte SHORT = 11;
+    private static final byte FLOAT = 12;
+    private static final byte BIG_INTEGER = 13;
+    private static final byte BYTE = 14;
+    private static final byte LIST = 15;
+    private static final byte SQL_NULL = 16;
+
+    /**
+     * Snapshots of live schemas, to be saved if the JVM shuts down. Weak, so
+     * that a schema that is no longer used can be garbage-collected.
+     */
+    private static final Set<MemberCacheSnapshot> LIVE_SNAPSHOTS =
+        Collections.synchronizedSet(
+            Collections.newSetFromMap(
+                new WeakHashMap<MemberCacheSnapshot, Boolean>()));
+
+    private static boolean shutdownHookRegistered;
+
+    private final RolapSchema schema;
+    private final File file;
+
+    /**
+     * Freshness token of each level whose members were read, as it was just
+     * before they were read. A level that has members in the cache but no
+     * token is not written.
+     */
+    private final Map<RolapLevel, String> levelTokens =
+        new HashMap<RolapLevel, String>();
+
+    /** Whether the snapshot has been written. It is written at most once. */
+    private final AtomicBoolean saved = new AtomicBoolean();
+
+    private MemberCacheSnapshot(RolapSchema schema, File file) {
+        this.schema = schema;
+        this.file = file;
+    }
+
+    /**
+     * Creates a snapshot handler for a schema, or returns null if snapshots
+     * are disabled.
+     *
+     * @param schema Schema
+     * @return Snapshot handler, or null
+     */
+    static MemberCacheSnapshot create(RolapSchema schema) {
+        final String dir =
+            MondrianProperties.instance().MemberCacheSnapshotDir.get();
+        if (Util.isEmpty(dir)
+            || schema.key == null
+            || schema.key.left == null)
+        {
+            return null;
+        }
+        final MemberCacheSnapshot snapshot =
+            new MemberCacheSnapshot(
+                schema,
+                new File(dir, "members-" + schema.key.left + ".snapshot"));
+        registerShutdownHook();
+        LIVE_SNAPSHOTS.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Registers, once per JVM, a hook that saves the snapshots of the live
+     * schemas when the JVM shuts down.
+     */
+    private static synchronized void registerShutdownHook() {
+        if (shutdownHookRegistered) {
+            return;
+        }
+        shutdownHookRegistered = true;
+        Runtime.getRuntime().addShutdownHook(
+            new Thread("MemberCacheSnapshot.shutdown") {
+                public void run() {
+                    final List<MemberCacheSnapshot> snapshots;
+                    synchronized (LIVE_SNAPSHOTS) {
+                        snapshots =
+                            new ArrayList<MemberCacheSnapshot>(LIVE_SNAPSHOTS);
+                    }
+                    for (MemberCacheSnapshot snapshot : snapshots) {
+                        snapshot.save();
+                    }
+                }
+            });
+    }
+
+    /**
+     * Called just before the members of a level are read from the database.
+     * If the hierarchy may be written to the snapshot, reads its freshness
+     * token and remembers it for the level.
+     *
+     * @param level Level whose members are about to be read
+     */
+    void levelLoading(RolapLevel level) {
+        final RolapHierarchy hierarchy = level.getHierarchy();
+        final String sql = getFreshnessSql(hierarchy);
+        if (sql == null) {
+            return;
+        }
+        try {
+            final String token = readFreshnessToken(hierarchy, sql);
+            synchronized (levelTokens) {
+                levelTokens.put(level, token);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn(
+                "Freshness check failed for hierarchy "
+                + hierarchy.getUniqueName()
+                + "; not writing it to member cache snapshot",
+                e);
+            synchronized (levelTokens) {
+                levelTokens.remove(level);
+            }
+        }
+    }
+
+    /**
+     * Returns the freshness token of the members of a level, as it was just
+     * before they were read, or null if there is none.
+     */
+    String getLevelToken(RolapLevel level) {
+        synchronized (levelTokens) {
+            return levelTokens.get(level);
+        }
+    }
+
+    /**
+     * Writes the member caches of the schema to the snapshot file, unless
+     * they have been written already. Failures are logged and otherwise
+     * ignored.
+     */
+    void save() {
+        if (!saved.compareAndSet(false, true)) {
+            return;
+        }
+        LIVE_SNAPSHOTS.remove(this);
+        final List<HierarchyData> hierarchies = new ArrayList<HierarchyData>();
+        for (Hierarchy h : schema.getSharedHierarchies()) {
+            final RolapHierarchy hierarchy = (RolapHierarchy) h;
+            final String sql = getFreshnessSql(hierarchy);
+            if (sql == null) {
+                continue;
+            }
+            final MemberCacheHelper cache = getCache(hierarchy);
+            if (cache == null) {
+                continue;
+            }
+            final List<Pair<RolapLevel, List<RolapMember>>> levels =
+                getCachedLevels(hierarchy, cache);
+            final String token = retainSameToken(levels);
+            if (levels.isEmpty()) {
+                continue;
+            }
+            try {
+                hierarchies.add(
+                    new HierarchyData(
+                        hierarchy, token, encodeLevels(levels)));
+            } catch (IOException e) {
+                LOGGER.warn(
+                    "Cannot write hierarchy " + hierarchy.getUniqueName()
+                    + " to member cache snapshot",
+                    e);
+            }
+        }
+        if (hierarchies.isEmpty()) {
+            return;
+        }
+        final File tmpFile =
+            new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            if (!file.getParentFile().isDirectory()
+                && !file.getParentFile().mkdirs())
+            {
+                throw new IOException(
+                    "Cannot create directory " + file.getParentFile());
+            }
+            final DataOutputStream out =
+                new DataOutputStream(
+                    new BufferedOutputStream(
+                        new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, schema.key.left.toString());
+                out.writeInt(hierarchies.size());
+                for (HierarchyData data : hierarchies) {
+                    writeString(out, data.hierarchy.getUniqueName());
+                    writeNullableString(out, data.token);
+                    out.writeInt(data.bytes.length);
+                    out.write(data.bytes);
+                }
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Cannot delete " + file);
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmpFile);
+            }
+            LOGGER.debug(
+                "Wrote member cache snapshot " + file + " ("
+                + hierarchies.size() + " hierarchies)");
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write member cache snapshot " + file, e);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Reads the snapshot file, if present, and populates the member caches
+     * of those hierarchies whose freshness check still matches. Failures
+     * are logged and otherwise ignored.
+     */
+    void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            final MappedByteBuffer buffer;
+            try {
+                buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            final DataInputStream in =
+                new DataInputStream(new ByteBufferInputStream(buffer));
+            if (in.readInt() != MAGIC
+                || in.readInt() != VERSION
+                || !readString(in).equals(schema.key.left.toString()))
+            {
+                LOGGER.warn("Ignoring invalid member cache snapshot " + file);
+                return;
+            }
+            final int hierarchyCount = in.readInt();
+            for (int i = 0; i < hierarchyCount; i++) {
+                final String uniqueName = readString(in);
+                final String token = readNullableString(in);
+                final int length = in.readInt();
+                final RolapHierarchy hierarchy = findHierarchy(uniqueName);
+                final int end = buffer.position() + length;
+                if (hierarchy != null && isFresh(hierarchy, token)) {
+                    readHierarchy(in, hierarchy, token);
+                }
+                buffer.position(end);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read member cache snapshot " + file, e);
+        }
+    }
+
+    /**
+     * Removes from a list of cached levels the first level that has no
+     * freshness token, or whose token differs from that of the first level,
+     * and all levels below it. Returns the token of the remaining levels.
+     */
+    private String retainSameToken(
+        List<Pair<RolapLevel, List<RolapMember>>> levels)
+    {
+        synchronized (levelTokens) {
+            String token = null;
+            for (int i = 0; i < levels.size(); i++) {
+                final RolapLevel level = levels.get(i).left;
+                if (!levelTokens.containsKey(level)
+                    || i > 0 && !Util.equals(token, levelTokens.get(level)))
+                {
+                    levels.subList(i, levels.size()).clear();
+                    break;
+                }
+                token = levelTokens.get(level);
+            }
+            return token;
+        }
+    }
+
+    private RolapHierarchy findHierarchy(String uniqueName) {
+        for (Hierarchy hierarchy : schema.getSharedHierarchies()) {
+            if (hierarchy.getUniqueName().equals(uniqueName)) {
+                return (RolapHierarchy) hierarchy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the members of a hierarchy that were written with a
+     * given freshness token are still up to date.
+     */
+    boolean isFresh(RolapHierarchy hierarchy, String token) {
+        final String sql = getFreshnessSql(hierarchy);
+        if (sql == null || getCache(hierarchy) == null) {
+            return false;
+        }
+        try {
+            return Util.equals(token, readFreshnessToken(hierarchy, sql));
+        } catch (RuntimeException e) {
+            LOGGER.warn(
+                "Freshness check failed for hierarchy "
+                + hierarchy.getUniqueName()
+                + "; not using member cache snapshot",
+                e);
+            return false;
+        }
+    }
+
+    private static String getFreshnessSql(RolapHierarchy hierarchy) {
+        Annotation annotation =
+            hierarchy.getAnnotationMap().get(FRESHNESS_ANNOTATION);
+        if (annotation == null) {
+            annotation = hierarchy.getDimension().getAnnotationMap()
+                .get(FRESHNESS_ANNOTATION);
+        }
+        if (annotation == null || annotation.getValue() == null) {
+            return null;
+        }
+        return annotation.getValue().toString();
+    }
+
+    private String readFreshnessToken(RolapHierarchy hierarchy, String sql) {
+        final SqlStatement stmt =
+            RolapUtil.executeQuery(
+                schema.getInternalConnection().getDataSource(),
+                sql,
+                new Locus(
+                    new Execution(
+                        schema.getInternalConnection().getInternalStatement(),
+                        0),
+                    "MemberCacheSnapshot.readFreshnessToken",
+                    "Checking freshness of hierarchy "
+                    + hierarchy.getUniqueName()));
+        try {
+            final ResultSet resultSet = stmt.getResultSet();
+            if (resultSet.next()) {
+                ++stmt.rowCount;
+                return resultSet.getString(1);
+            }
+            return null;
+        } catch (SQLException e) {
+            throw stmt.handle(e);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static MemberCacheHelper getCache(RolapHierarchy hierarchy) {
+        final MemberReader reader = hierarchy.getMemberReader();
+        if (reader instanceof SmartMemberReader) {
+            final MemberCache cache =
+                ((SmartMemberReader) reader).getMemberCache();
+            if (cache instanceof MemberCacheHelper) {
+                return (MemberCacheHelper) cache;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the member lists of the levels of a hierarchy that are fully
+     * cached, starting at the first non-all level and stopping at the first
+     * level that is not cached or cannot be snapshotted.
+     */
+    private static List<Pair<RolapLevel, List<RolapMember>>> getCachedLevels(
+        RolapHierarchy hierarchy,
+        MemberCacheHelper cache)
+    {
+        final List<Pair<RolapLevel, List<RolapMember>>> levels =
+            new ArrayList<Pair<RolapLevel, List<RolapMember>>>();
+        final TupleConstraint constraint = DefaultTupleConstraint.instance();
+        Set<RolapMember> parents = null;
+        for (Level l : hierarchy.getLevels()) {
+            final RolapLevel level = (RolapLevel) l;
+            if (level.isAll()) {
+                continue;
+            }
+            if (level.isParentChild()) {
+                break;
+            }
+            final List<RolapMember> members;
+            synchronized (cache) {
+                members = cache.getLevelMembersFromCache(level, constraint);
+            }
+            if (members == null || !canWrite(members, parents)) {
+                break;
+            }
+            levels.add(Pair.of(level, members));
+            parents = new HashSet<RolapMember>(members);
+        }
+        return levels;
+    }
+
+    private static boolean canWrite(
+        List<RolapMember> members,
+        Set<RolapMember> parents)
+    {
+        for (RolapMember member : members) {
+            if (member.getClass() != RolapMemberBase.class) {
+                return false;
+            }
+            if (parents != null && !parents.contains(member.getParentMember()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the members of the cached levels of a hierarchy. The result is
+     * written to the file as a length-prefixed block, so that the reader can
+     * skip a stale hierarchy without decoding it.
+     */
+    private static byte[] encodeLevels(
+        List<Pair<RolapLevel, List<RolapMember>>> levels)
+        throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(levels.size());
+        Map<RolapMember, Integer> parentOrdinals = null;
+        for (Pair<RolapLevel, List<RolapMember>> pair : levels) {
+            final RolapLevel level = pair.left;
+            final List<RolapMember> members = pair.right;
+            writeString(out, level.getUniqueName());
+            out.writeInt(members.size());
+            final Map<RolapMember, Integer> ordinals =
+                new HashMap<RolapMember, Integer>();
+            for (RolapMember m : members) {
+                final RolapMemberBase member = (RolapMemberBase) m;
+                ordinals.put(member, ordinals.size());
+                out.writeInt(
+                    parentOrdinals == null
+                        ? -1
+                        : parentOrdinals.get(member.getParentMember()));
+                writeValue(out, member.getKey());
+                writeValue(
+                    out,
+                    member.getPropertyFromMap(Property.NAME.name, true));
+                writeValue(
+                    out,
+                    level.hasCaptionColumn() ? member.getCaptionValue() : null);
+                out.writeInt(member.getOrdinal());
+                writeValue(out, member.getOrderKey());
+                for (RolapProperty property : level.getProperties()) {
+                    writeValue(
+                        out,
+                        member.getPropertyFromMap(property.getName(), true));
+                }
+            }
+            parentOrdinals = ordinals;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void readHierarchy(
+        DataInputStream in,
+        RolapHierarchy hierarchy,
+        String token)
+        throws IOException
+    {
+        final MemberCacheHelper cache = getCache(hierarchy);
+        final RolapMember allMember = hierarchy.hasAll()
+            ? hierarchy.getAllMember()
+            : null;
+        final int levelCount = in.readInt();
+        final List<List<RolapMember>> levels =
+            new ArrayList<List<RolapMember>>();
+        List<RolapMember> parents = null;
+        for (int i = 0; i < levelCount; i++) {
+            final String levelName = readString(in);
+            final int memberCount = in.readInt();
+            final RolapLevel level = findLevel(hierarchy, levelName);
+            if (level == null) {
+                // Schema has changed underneath us. The content key should
+                // prevent this, but play safe.
+                return;
+            }
+            final List<RolapMember> members =
+                new ArrayList<RolapMember>(memberCount);
+            for (int j = 0; j < memberCount; j++) {
+                final int parentOrdinal = in.readInt();
+                final RolapMember parent = parentOrdinal < 0
+                    ? allMember
+                    : parents.get(parentOrdinal);
+                final Object key = readValue(in);
+                final Object name = readValue(in);
+                final Object caption = readValue(in);
+                final int ordinal = in.readInt();
+                final Object orderKey = readValue(in);
+                final RolapMemberBase member =
+                    new RolapMemberBase(parent, level, key);
+                if (name != null) {
+                    member.setProperty(Property.NAME.name, name);
+                }
+                if (caption != null) {
+                    member.setCaptionValue(caption);
+                }
+                if (ordinal >= 0) {
+                    member.setOrdinal(ordinal);
+                }
+                member.setOrderKey((Comparable) orderKey);
+                for (RolapProperty property : level.getProperties()) {
+                    final Object value = readValue(in);
+                    if (value != null) {
+                        member.setProperty(property.getName(), value);
+                    }
+                }
+                members.add(member);
+            }
+            levels.add(members);
+            parents = members;
+        }
+
+        synchronized (cache) {
+            final TupleConstraint levelConstraint =
+                DefaultTupleConstraint.instance();
+            final MemberChildrenConstraint childrenConstraint =
+                DefaultMemberChildrenConstraint.instance();
+            for (int i = 0; i < levels.size(); i++) {
+                final List<RolapMember> members = levels.get(i);
+                if (members.isEmpty()) {
+                    continue;
+                }
+                final RolapLevel level = members.get(0).getLevel();
+                if (cache.getLevelMembersFromCache(level, levelConstraint)
+                    != null)
+                {
+                    // Already loaded, perhaps by a query that got in first.
+                    // Leave the cache alone.
+                    return;
+                }
+                final Map<RolapMember, List<RolapMember>> children =
+                    new LinkedHashMap<RolapMember, List<RolapMember>>();
+                if (i > 0) {
+                    for (RolapMember parent : levels.get(i - 1)) {
+                        children.put(parent, new ArrayList<RolapMember>());
+                    }
+                }
+                for (RolapMember member : members) {
+                    cache.putMember(
+                        cache.makeKey(
+                            member.getParentMember(), member.getKey()),
+                        member);
+                    final RolapMember parent = member.getParentMember();
+                    if (parent != null) {
+                        List<RolapMember> list = children.get(parent);
+                        if (list == null) {
+                            list = new ArrayList<RolapMember>();
+                            children.put(parent, list);
+                        }
+                        list.add(member);
+                    }
+                }
+                for (Map.Entry<RolapMember, List<RolapMember>> entry
+                    : children.entrySet())
+                {
+                    cache.putChildren(
+                        entry.getKey(), childrenConstraint, entry.getValue());
+                }
+                cache.putChildren(level, levelConstraint, members);
+                synchronized (levelTokens) {
+                    levelTokens.put(level, token);
+                }
+            }
+        }
+    }
+
+    private static RolapLevel findLevel(
+        RolapHierarchy hierarchy,
+        String uniqueName)
+    {
+        for (Level level : hierarchy.getLevels()) {
+            if (level.getUniqueName().equals(uniqueName)) {
+                return (RolapLevel) level;
+            }
+        }
+        return null;
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        // DataOutputStream.writeUTF is limited to 64KB, so write the
+        // length and bytes ourselves.
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String s)
+        throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in)
+        throws IOException
+    {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    private static void writeValue(DataOutputStream out, Object o)
+        throws IOException
+    {
+        if (o == null) {
+            out.writeByte(NULL);
+        } else if (o == RolapUtil.sqlNullValue) {
+            out.writeByte(SQL_NULL);
+        } else if (o instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) o);
+        } else if (o instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) o);
+        } else if (o instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) o);
+        } else if (o instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) o);
+        } else if (o instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, o.toString());
+        } else if (o instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((java.sql.Date) o).getTime());
+        } else if (o instanceof java.sql.Timestamp) {
+            out.writeByte(SQL_TIMESTAMP);
+            out.writeLong(((java.sql.Timestamp) o).getTime());
+            out.writeInt(((java.sql.Timestamp) o).getNanos());
+        } else if (o instanceof java.sql.Time) {
+            out.writeByte(SQL_TIME);
+            out.writeLong(((java.sql.Time) o).getTime());
+        } else if (o.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) o).getTime());
+        } else if (o instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) o);
+        } else if (o instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) o);
+        } else if (o instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) o);
+        } else if (o instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, o.toString());
+        } else if (o instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) o);
+        } else if (o instanceof List) {
+            // Composite keys and order keys
+            final List<?> list = (List<?>) o;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object e : list) {
+                writeValue(out, e);
+            }
+        } else {
+            throw new IOException(
+                "Cannot write value of type " + o.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case SQL_NULL:
+            return RolapUtil.sqlNullValue;
+        case STRING:
+            return readString(in);
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case BIG_DECIMAL:
+            return new BigDecimal(readString(in));
+        case SQL_DATE:
+            return new java.sql.Date(in.readLong());
+        case SQL_TIMESTAMP:
+            final java.sql.Timestamp timestamp =
+                new java.sql.Timestamp(in.readLong());
+            timestamp.setNanos(in.readInt());
+            return timestamp;
+        case SQL_TIME:
+            return new java.sql.Time(in.readLong());
+        case DATE:
+            return new Date(in.readLong());
+        case BOOLEAN:
+            return in.readBoolean();
+        case SHORT:
+            return in.readShort();
+        case FLOAT:
+            return in.readFloat();
+        case BIG_INTEGER:
+            return new BigInteger(readString(in));
+        case BYTE:
+            return in.readByte();
+        case LIST:
+            final int size = in.readInt();
+            final List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readValue(in));
+            }
+            return list;
+        default:
+            throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    /** Members of a hierarchy to be written to a snapshot. */
+    private static class HierarchyData {
+        final RolapHierarchy hierarchy;
+        final String token;
+        final byte[] bytes;
+
+        HierarchyData(RolapHierarchy hierarchy, String token, byte[] bytes) {
+            this.hierarchy = hierarchy;
+            this.token = token;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Input stream that reads from a memory-mapped buffer. */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+
+        public long skip(long n) {
+            final int k = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+    }
+}
+
+// End MemberCacheSnapshot.java
@@ -0,0 +1,227 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Util;
+import mondrian.rolap.cache.SmartCache;
+import mondrian.rolap.cache.SoftSmartCache;
+
+import java.util.*;
+
+/**
+ * Index of cached members by name, maintained by {@link MemberCacheHelper}
+ * as members are loaded.
+ *
+ * <p>Two lookups are supported: the children of a given parent with a given
+ * name, and all members of a level with a given name. Several members may
+ * have the same name, even under the same parent. Names are normalized
+ * using {@link Util#normalizeName(String)}, so matching honors the
+ * {@link mondrian.olap.MondrianProperties#CaseSensitive} property.
+ *
+ * <p>The index is soft-referenced, like the other member caches. A miss
+ * does not mean that the member does not exist; callers must fall back to
+ * the member source.
+ *
+ * <p>Synchronization: all methods are synchronized on the index.
+ */
+class MemberNameIndex {
+    /** maps a parent member to its cached children, keyed by name */
+    private final SmartCache<RolapMember, Map<String, List<RolapMember>>>
+        parentToChildrenByName =
+        new SoftSmartCache<RolapMember, Map<String, List<RolapMember>>>();
+
+    /** maps a level to its cached members, keyed by name */
+    private final SmartCache<RolapLevel, Map<String, List<RolapMember>>>
+        levelToMembersByName =
+        new SoftSmartCache<RolapLevel, Map<String, List<RolapMember>>>();
+
+    /**
+     * Adds a list of members to the index, each under its own parent.
+     *
+     * @param members Members
+     */
+    synchronized void putAll(List<RolapMember> members) {
+        for (RolapMember member : members) {
+            if (member != null) {
+                put(member.getParentMember(), member);
+            }
+        }
+    }
+
+    /**
+     * Adds the children of a member to the index.
+     *
+     * @param parent Parent member
+     * @param children Children
+     */
+    synchronized void putChildren(
+        RolapMember parent,
+        List<RolapMember> children)
+    {
+        for (RolapMember child : children) {
+            if (child != null) {
+                put(parent, child);
+            }
+        }
+    }
+
+    private void put(RolapMember parent, RolapMember member) {
+        if (member.getName() == null) {
+            return;
+        }
+        final String name = Util.normalizeName(member.getName());
+        if (parent != null) {
+            Map<String, List<RolapMember>> children =
+                parentToChildrenByName.get(parent);
+            if (children == null) {
+                children = new HashMap<String, List<RolapMember>>();
+                parentToChildrenByName.put(parent, children);
+            }
+            add(children, name, member);
+        }
+        final RolapLevel level = member.getLevel();
+        if (level == null) {
+            return;
+        }
+        Map<String, List<RolapMember>> levelMembers =
+            levelToMembersByName.get(level);
+        if (levelMembers == null) {
+            levelMembers = new HashMap<String, List<RolapMember>>();
+            levelToMembersByName.put(level, levelMembers);
+        }
+        add(levelMembers, name, member);
+    }
+
+    /**
+     * Adds a member to the list of members with a given name, unless it is
+     * already there.
+     */
+    private static void add(
+        Map<String, List<RolapMember>> membersByName,
+        String name,
+        RolapMember member)
+    {
+        List<RolapMember> list = membersByName.get(name);
+        if (list == null) {
+            membersByName.put(name, Collections.singletonList(member));
+        } else if (!list.contains(member)) {
+            if (list.size() == 1) {
+                list = new ArrayList<RolapMember>(list);
+                membersByName.put(name, list);
+            }
+            list.add(member);
+        }
+    }
+
+    /**
+     * Removes a member from the list of members with a given name.
+     */
+    private static void remove(
+        Map<String, List<RolapMember>> membersByName,
+        String name,
+        RolapMember member)
+    {
+        final List<RolapMember> list = membersByName.get(name);
+        if (list != null && list.contains(member)) {
+            if (list.size() == 1) {
+                membersByName.remove(name);
+            } else {
+                list.remove(member);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the list of members with a given name, or an empty
+     * list.
+     */
+    private static List<RolapMember> get(
+        Map<String, List<RolapMember>> membersByName,
+        String name)
+    {
+        if (membersByName == null) {
+            return Collections.emptyList();
+        }
+        final List<RolapMember> list =
+            membersByName.get(Util.normalizeName(name));
+        return list == null
+            ? Collections.<RolapMember>emptyList()
+            : new ArrayList<RolapMember>(list);
+    }
+
+    /**
+     * Returns the cached children of a member with a given name. The list is
+     * empty if no child of that name is in the index.
+     *
+     * @param parent Parent member
+     * @param name Name of child
+     * @return Children with the given name; never null
+     */
+    synchronized List<RolapMember> getChildren(
+        RolapMember parent,
+        String name)
+    {
+        return get(parentToChildrenByName.get(parent), name);
+    }
+
+    /**
+     * Returns the cached members of a level with a given name. The list is
+     * empty if no member of that name is in the index.
+     *
+     * @param level Level
+     * @param name Member name
+     * @return Members with the given name; never null
+     */
+    synchronized List<RolapMember> getLevelMembers(
+        RolapLevel level,
+        String name)
+    {
+        return get(levelToMembersByName.get(level), name);
+    }
+
+    /**
+     * Removes a member, and its list of children, from the index.
+     *
+     * @param member Member
+     */
+    synchronized void remove(RolapMember member) {
+        parentToChildrenByName.remove(member);
+        if (member.getName() == null) {
+            return;
+        }
+        final String name = Util.normalizeName(member.getName());
+        final RolapMember parent = member.getParentMember();
+        if (parent != null) {
+            final Map<String, List<RolapMember>> children =
+                parentToChildrenByName.get(parent);
+            if (children != null) {
+                remove(children, name, member);
+            }
+        }
+        if (member.getLevel() == null) {
+            return;
+        }
+        final Map<String, List<RolapMember>> levelMembers =
+            levelToMembersByName.get(member.getLevel());
+        if (levelMembers != null) {
+            remove(levelMembers, name, member);
+        }
+    }
+
+    /**
+     * Removes all entries from the index.
+     */
+    synchronized void clear() {
+        parentToChildrenByName.clear();
+        levelToMembersByName.clear();
+    }
+}
+
+// End MemberNameIndex.java
@@ -0,0 +1,241 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Evaluator;
+import mondrian.olap.Member;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.agg.CellRequest;
+import mondrian.rolap.agg.SegmentWithData;
+import mondrian.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides whether the cells of stored measures in an evaluator's context are
+ * empty, using the bitmaps of non-null cells of segments in the local cache.
+ *
+ * <p>Used by {@link mondrian.olap.fun.CrossJoinFunDef} to drop empty tuples
+ * of a NON EMPTY crossjoin that is not evaluated in SQL, without evaluating
+ * each tuple's cells. Consecutive tuples usually fall in the same segment,
+ * so the pruner remembers the last segment of each measure.
+ *
+ * <p>If a cell is not in a segment in the local cache, the pruner requests
+ * it from the query's {@link FastBatchingCellReader}, as evaluating it would.
+ * The batch loads, for each group of requests, the cartesian product of the
+ * column values requested, so the pruner makes a request only if it has a
+ * column value that no earlier request had; the batch then loads the same
+ * segments, with far fewer requests.
+ *
+ * <p>A pruner is valid for one pass over a list; it is not thread-safe.
+ */
+public class OccupancyPruner {
+    /**
+     * Result of {@link #check()}.
+     */
+    public enum Occupancy {
+        /** At least one of the cells has a value. */
+        OCCUPIED,
+        /** All of the cells are null. */
+        EMPTY,
+        /** Some of the cells have been requested, and the others are
+         * null. Until the cells are loaded, the tuple must be treated as
+         * non-empty. */
+        PENDING,
+        /** The pruner cannot decide, because there are calculated members
+         * in the context; the caller must evaluate the cells. */
+        UNKNOWN
+    }
+
+    private final RolapEvaluator evaluator;
+    private final FastBatchingCellReader reader;
+    private final List<RolapStoredMeasure> measures;
+    private final Map<RolapStar.Measure, SegmentWithData> lastSegments =
+        new HashMap<RolapStar.Measure, SegmentWithData>();
+    private final Map<Pair<RolapStar.Measure, BitKey>, List<Set<Object>>>
+        requestedValues =
+            new HashMap<Pair<RolapStar.Measure, BitKey>, List<Set<Object>>>();
+
+    private OccupancyPruner(
+        RolapEvaluator evaluator,
+        FastBatchingCellReader reader,
+        List<RolapStoredMeasure> measures)
+    {
+        this.evaluator = evaluator;
+        this.reader = reader;
+        this.measures = measures;
+    }
+
+    /**
+     * Creates a pruner, or returns null if pruning is disabled or not
+     * possible for the given evaluator and measures.
+     *
+     * @param evaluator Evaluator; the pruner checks its current context
+     * @param measures Measures whose cells to check; if any of them is not a
+     *     stored measure, returns null
+     * @return Pruner, or null
+     */
+    public static OccupancyPruner create(
+        Evaluator evaluator,
+        Collection<Member> measures)
+    {
+        if (!MondrianProperties.instance().EnableOccupancyPruning.get()
+            || !(evaluator instanceof RolapEvaluator)
+            || measures.isEmpty())
+        {
+            return null;
+        }
+        final RolapEvaluator rolapEvaluator = (RolapEvaluator) evaluator;
+        if (!(rolapEvaluator.cellReader instanceof FastBatchingCellReader)
+            || rolapEvaluator.getSlicerTuples() != null)
+        {
+            return null;
+        }
+        final List<RolapStoredMeasure> storedMeasures =
+            new ArrayList<RolapStoredMeasure>();
+        for (Member measure : measures) {
+            if (!(measure instanceof RolapStoredMeasure)) {
+                return null;
+            }
+            storedMeasures.add((RolapStoredMeasure) measure);
+        }
+        return new OccupancyPruner(
+            rolapEvaluator,
+            (FastBatchingCellReader) rolapEvaluator.cellReader,
+            storedMeasures);
+    }
+
+    /**
+     * Checks the cells of the measures in the evaluator's current context.
+     *
+     * <p>Like evaluating the cells, requests those that are not in the
+     * cache. Restores the evaluator's context before returning.
+     *
+     * @return Whether the cells are empty
+     */
+    public Occupancy check() {
+        final int savepoint = evaluator.savepoint();
+        try {
+            boolean occupied = false;
+            boolean pending = false;
+            for (RolapStoredMeasure measure : measures) {
+                evaluator.setContext(measure);
+                if (evaluator.hasCalculations()) {
+                    return Occupancy.UNKNOWN;
+                }
+                final CellRequest request =
+                    RolapAggregationManager.makeRequest(evaluator);
+                if (request == null || request.isUnsatisfiable()) {
+                    continue;
+                }
+                final Boolean cellOccupied = lookup(request);
+                if (cellOccupied != null) {
+                    occupied |= cellOccupied;
+                } else if (reader.getMissCount() == 0) {
+                    // Let the reader look in the external cache before
+                    // making the first request, as it would for evaluation.
+                    final Object o = reader.get(evaluator);
+                    if (o == RolapUtil.valueNotReadyException) {
+                        addRequestedValues(request);
+                        pending = true;
+                    } else if (o != null
+                        && o != Util.nullValue
+                        && !(o instanceof Throwable))
+                    {
+                        occupied = true;
+                    }
+                } else {
+                    request(request);
+                    pending = true;
+                }
+            }
+            return occupied
+                ? Occupancy.OCCUPIED
+                : pending
+                ? Occupancy.PENDING
+                : Occupancy.EMPTY;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Returns whether a requested cell has a value, or null if it is not in
+     * a segment in the local cache.
+     */
+    private Boolean lookup(CellRequest request) {
+        final RolapStar.Measure measure = request.getMeasure();
+        final boolean simple = !request.hasCompoundPredicates();
+        SegmentWithData segment = lastSegments.get(measure);
+        if (simple
+            && segment != null
+            && segment.getConstrainedColumnsBitKey().equals(
+                request.getConstrainedColumnsBitKey()))
+        {
+            final Boolean occupied =
+                segment.isOccupied(request.getSingleValues());
+            if (occupied != null) {
+                return occupied;
+            }
+        }
+        segment = measure.getStar().getSegmentFromCache(request);
+        if (segment == null) {
+            return null;
+        }
+        if (simple) {
+            lastSegments.put(measure, segment);
+        }
+        return segment.isOccupied(request.getSingleValues());
+    }
+
+    /**
+     * Records a request for a cell that is not in the cache, unless an
+     * earlier request of the same shape has each of its column values.
+     */
+    private void request(CellRequest request) {
+        if (addRequestedValues(request) || request.hasCompoundPredicates()) {
+            reader.recordCellRequest(request);
+        }
+    }
+
+    /**
+     * Remembers the column values of a request, and returns whether any of
+     * them is new.
+     */
+    private boolean addRequestedValues(CellRequest request) {
+        final Object[] values = request.getSingleValues();
+        final Pair<RolapStar.Measure, BitKey> key =
+            Pair.of(
+                request.getMeasure(),
+                request.getConstrainedColumnsBitKey());
+        List<Set<Object>> valueSets = requestedValues.get(key);
+        if (valueSets == null) {
+            valueSets = new ArrayList<Set<Object>>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                valueSets.add(new HashSet<Object>());
+            }
+            requestedValues.put(key, valueSets);
+        }
+        boolean newValue = false;
+        for (int i = 0; i < values.length; i++) {
+            newValue |= valueSets.get(i).add(values[i]);
+        }
+        return newValue;
+    }
+}
+
+// End OccupancyPruner.java
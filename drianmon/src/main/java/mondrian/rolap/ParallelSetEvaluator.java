@@ -0,0 +1,161 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ResultStyle;
+import mondrian.calc.TupleList;
+import mondrian.mdx.NamedSetExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Exp;
+import mondrian.olap.Formula;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.fun.FunUtil;
+
+import java.util.List;
+
+/**
+ * Evaluates an expression for each tuple of a large set in parallel, on
+ * behalf of set functions such as <code>Filter</code> and
+ * <code>Generate</code>.
+ *
+ * <p>Once the cells that an expression needs have been loaded, evaluating it
+ * for each tuple of a set is pure computation, and the tuples are
+ * independent. {@link #evaluate} divides the set into partitions, and
+ * evaluates each partition on its own thread, with its own copy of the
+ * evaluator. Cells that are not yet loaded are requested from the query's
+ * batching cell reader, so the requests of all partitions are loaded together
+ * in the next pass.
+ *
+ * <p>Sets are evaluated in parallel only if
+ * {@link MondrianProperties#SetEvaluationParallelism} is greater than 1 and
+ * they have at least
+ * {@link MondrianProperties#SetEvaluationParallelThreshold} tuples.
+ *
+ * <p>Iterations over a named set are always evaluated serially. Each step
+ * of such an iteration moves the position that
+ * <code>&lt;Named Set&gt;.Current</code> and
+ * <code>&lt;Named Set&gt;.CurrentOrdinal</code> read, and that position is
+ * held by the query's named set evaluator, not by the evaluator that is
+ * copied for each partition.
+ */
+public final class ParallelSetEvaluator {
+    private ParallelSetEvaluator() {
+    }
+
+    /**
+     * Evaluates an expression for each tuple of a list, in parallel, or
+     * returns null if the list should be evaluated serially by the caller.
+     *
+     * <p>The expression is compiled for each worker, so the caller passes the
+     * expression rather than its compiled form.
+     *
+     * @param evaluator Evaluator
+     * @param list List of tuples
+     * @param setExp Expression that the list was evaluated from
+     * @param exp Expression
+     * @param scalar Whether the expression is to be compiled as a scalar
+     * @param resultStyle Result style in which to compile the expression
+     * @param function Function that evaluates the compiled expression for a
+     *     tuple; called concurrently, with the tuple as the context of the
+     *     evaluator
+     * @param <T> Type of the value computed for each tuple
+     * @return Value of the function for each tuple, in the same order as the
+     *     list, or null
+     */
+    public static <T> List<T> evaluate(
+        Evaluator evaluator,
+        TupleList list,
+        Exp setExp,
+        Exp exp,
+        boolean scalar,
+        ResultStyle resultStyle,
+        TupleFunction<T> function)
+    {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final int parallelism = properties.SetEvaluationParallelism.get();
+        if (parallelism <= 1
+            || list.size()
+            < Math.max(2, properties.SetEvaluationParallelThreshold.get())
+            || !(evaluator instanceof RolapEvaluator))
+        {
+            return null;
+        }
+        final RolapEvaluator rolapEvaluator = (RolapEvaluator) evaluator;
+        if (!(rolapEvaluator.root
+            instanceof RolapResult.RolapResultEvaluatorRoot))
+        {
+            return null;
+        }
+        if (iteratesNamedSet(setExp)
+            || FunUtil.dependsOnNamedSetIteration(exp)
+            || formulasDependOnNamedSetIteration(evaluator))
+        {
+            return null;
+        }
+        final RolapResult result =
+            ((RolapResult.RolapResultEvaluatorRoot) rolapEvaluator.root)
+                .result;
+        return result.evaluateParallel(
+            rolapEvaluator, list, exp, scalar, resultStyle, function,
+            parallelism);
+    }
+
+    /**
+     * Returns whether a set expression evaluates to a list that reports its
+     * position to a named set evaluator as it is iterated; that is, a
+     * reference to a named set, or an inline named set defined by the
+     * <code>AS</code> operator.
+     */
+    private static boolean iteratesNamedSet(Exp setExp) {
+        return setExp instanceof NamedSetExpr
+            || setExp instanceof ResolvedFunCall
+            && ((ResolvedFunCall) setExp).getFunName().equals("AS");
+    }
+
+    /**
+     * Returns whether any member defined in the query reads the position of
+     * an iteration over a named set. Such a member may be evaluated for each
+     * tuple without being named in the expression, for instance if it is the
+     * current measure.
+     */
+    private static boolean formulasDependOnNamedSetIteration(
+        Evaluator evaluator)
+    {
+        for (Formula formula : evaluator.getQuery().getFormulas()) {
+            if (formula.isMember()
+                && FunUtil.dependsOnNamedSetIteration(formula.getExpression()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes a value for a tuple, given an evaluator whose context is the
+     * tuple and the compiled expression.
+     *
+     * @param <T> Type of the value
+     */
+    public interface TupleFunction<T> {
+        /**
+         * Computes the value for the current tuple.
+         *
+         * @param evaluator Evaluator whose context is the tuple
+         * @param calc Compiled expression
+         * @return Value
+         */
+        T apply(Evaluator evaluator, Calc calc);
+    }
+}
+
+// End ParallelSetEvaluator.java
@@ -0,0 +1,328 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.mdx.MdxVisitorImpl;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Query;
+import mondrian.olap.QueryPart;
+import mondrian.olap.Role;
+import mondrian.olap.Util;
+import mondrian.server.Statement;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of parsed, validated and compiled queries, shared by all connections
+ * in the JVM.
+ *
+ * <p>Dashboards tend to send the same MDX text over and over. Rather than
+ * parse, validate and compile each time, a statement can ask this cache for
+ * a query that was prepared for the same text, and
+ * {@link Query#bind bind} it to itself.
+ *
+ * <p>Compiled expressions are not thread-safe (some keep working storage
+ * between calls), so a query is used by one statement at a time. A query
+ * parsed via {@link #parse} is "checked out" until the statement calls
+ * {@link #release}; it then becomes available to the next statement that
+ * parses the same text. Several statements executing the same text at the
+ * same time each get their own query.
+ *
+ * <p>The key is the MDX text, the schema (by identity), the role and
+ * locale of the connection, and the values of the properties that are read
+ * when a query is parsed, resolved or compiled (such as
+ * {@link mondrian.olap.MondrianProperties#CaseSensitive},
+ * {@link mondrian.olap.MondrianProperties#NullDenominatorProducesNull}, and
+ * those that choose how expressions are compiled). Queries that have
+ * parameters, or that call
+ * <code>NativizeSet</code> (which rewrites the query while compiling it),
+ * are not cached.
+ *
+ * <p>All queries of a schema are removed by {@link #flush(RolapSchema)},
+ * which is called when the schema is flushed and when its member cache is
+ * modified via {@link mondrian.olap.CacheControl}, because a cached query
+ * holds members resolved from the member cache.
+ *
+ * <p>The cache is enabled by
+ * {@link mondrian.olap.MondrianProperties#QueryPlanCacheSize}, which limits
+ * the number of distinct MDX statements held. Hits and misses are reported
+ * in {@link mondrian.server.monitor.ServerInfo}.
+ */
+public class QueryPlanCache {
+    private static final Logger LOGGER =
+        LogManager.getLogger(QueryPlanCache.class);
+
+    private static final QueryPlanCache INSTANCE = new QueryPlanCache();
+
+    /** Idle queries, by key, least recently used first. */
+    private final Map<Key, Deque<Query>> idleMap =
+        new LinkedHashMap<Key, Deque<Query>>(16, 0.75f, true);
+
+    /** Queries that have been handed to a statement and not released. */
+    private final Map<Query, Key> checkedOutMap = new WeakHashMap<Query, Key>();
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /** Number of calls to {@link #flush}; a query parsed while a flush
+     * happened is not cached. */
+    private int flushCount;
+
+    QueryPlanCache() {
+    }
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return Query plan cache
+     */
+    public static QueryPlanCache instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Parses an MDX statement, reusing a cached query if possible.
+     *
+     * <p>If the result is a {@link Query}, the caller must call
+     * {@link #release} when the statement no longer needs it.
+     *
+     * @param connection Connection
+     * @param statement Statement that will execute the query
+     * @param mdx MDX text
+     * @return Parse tree
+     */
+    public QueryPart parse(
+        RolapConnection connection,
+        Statement statement,
+        String mdx)
+    {
+        final int maxSize =
+            MondrianProperties.instance().QueryPlanCacheSize.get();
+        if (maxSize <= 0) {
+            return connection.parseStatement(statement, mdx, null, false);
+        }
+        final Key key = new Key(mdx, connection);
+        final Query cachedQuery;
+        final int flushCount0;
+        synchronized (this) {
+            cachedQuery = checkOut(key);
+            flushCount0 = flushCount;
+        }
+        if (cachedQuery != null) {
+            hitCount.incrementAndGet();
+            cachedQuery.bind(statement);
+            return cachedQuery;
+        }
+        missCount.incrementAndGet();
+        final QueryPart queryPart =
+            connection.parseStatement(statement, mdx, null, false);
+        if (queryPart instanceof Query && isCacheable((Query) queryPart)) {
+            synchronized (this) {
+                if (flushCount == flushCount0) {
+                    checkedOutMap.put((Query) queryPart, key);
+                }
+            }
+        }
+        return queryPart;
+    }
+
+    private Query checkOut(Key key) {
+        final Deque<Query> idle = idleMap.get(key);
+        if (idle == null) {
+            return null;
+        }
+        final Query query = idle.pop();
+        if (idle.isEmpty()) {
+            idleMap.remove(key);
+        }
+        checkedOutMap.put(query, key);
+        return query;
+    }
+
+    /**
+     * Returns a query to the cache after its statement has finished with it.
+     * Does nothing if the query did not come from {@link #parse}, or if its
+     * schema has been flushed since.
+     *
+     * @param query Query
+     */
+    public synchronized void release(Query query) {
+        final Key key = checkedOutMap.remove(query);
+        if (key == null) {
+            return;
+        }
+        Deque<Query> idle = idleMap.get(key);
+        if (idle == null) {
+            idle = new ArrayDeque<Query>();
+            idleMap.put(key, idle);
+        }
+        idle.push(query);
+        final int maxSize =
+            MondrianProperties.instance().QueryPlanCacheSize.get();
+        for (Iterator<Key> iterator = idleMap.keySet().iterator();
+             idleMap.size() > maxSize && iterator.hasNext();)
+        {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all queries of a schema, including those currently checked
+     * out, which will not be returned to the cache.
+     *
+     * @param schema Schema, or null to remove the queries of all schemas
+     */
+    public synchronized void flush(RolapSchema schema) {
+        ++flushCount;
+        int count = 0;
+        for (Iterator<Key> iterator = idleMap.keySet().iterator();
+             iterator.hasNext();)
+        {
+            final Key key = iterator.next();
+            if (schema == null || key.schema == schema) {
+                iterator.remove();
+                ++count;
+            }
+        }
+        for (Iterator<Key> iterator = checkedOutMap.values().iterator();
+             iterator.hasNext();)
+        {
+            final Key key = iterator.next();
+            if (schema == null || key.schema == schema) {
+                iterator.remove();
+            }
+        }
+        if (count > 0) {
+            LOGGER.debug(
+                "Flushed " + count + " cached queries of schema "
+                + (schema == null ? "(all)" : schema.getName()));
+        }
+    }
+
+    /**
+     * Returns the number of times a cached query was reused.
+     *
+     * @return Hit count
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of times a query was parsed because no cached query
+     * was available, while the cache was enabled.
+     *
+     * @return Miss count
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    private static boolean isCacheable(Query query) {
+        if (query.getParameters().length > 0) {
+            return false;
+        }
+        final boolean[] nativize = {false};
+        query.accept(
+            new MdxVisitorImpl() {
+                public Object visit(ResolvedFunCall call) {
+                    if (call.getFunName().equalsIgnoreCase("NativizeSet")) {
+                        nativize[0] = true;
+                    }
+                    return null;
+                }
+            });
+        return !nativize[0];
+    }
+
+    /**
+     * Key of a cached query.
+     */
+    private static class Key {
+        private final String mdx;
+        private final RolapSchema schema;
+        private final Role role;
+        private final Locale locale;
+        private final List<Object> properties;
+        private final int hashCode;
+
+        Key(String mdx, RolapConnection connection) {
+            this.mdx = mdx;
+            this.schema = connection.getSchema();
+            this.role = connection.getRole();
+            this.locale = connection.getLocale();
+            this.properties = getCompileProperties();
+            int h = Util.hash(
+                mdx.hashCode(), System.identityHashCode(schema));
+            h = Util.hash(h, role);
+            h = Util.hash(h, locale);
+            this.hashCode = Util.hash(h, properties);
+        }
+
+        /**
+         * Returns the values of the properties that are read when a query
+         * is parsed, resolved or compiled, and so are built into its plan.
+         * For example, how names are matched to members depends on
+         * CaseSensitive and SsasCompatibleNaming, and whether an invalid
+         * member is an error on IgnoreInvalidMembers and
+         * IgnoreInvalidMembersDuringQuery; the calc of the "/" operator, and
+         * any constant it is folded to, depend on NullDenominatorProducesNull;
+         * and whether Sum and Aggregate over a range of time members read a
+         * single cell depends on EnableNativeTimeRange.
+         */
+        private static List<Object> getCompileProperties() {
+            final MondrianProperties properties =
+                MondrianProperties.instance();
+            return Arrays.<Object>asList(
+                properties.NullDenominatorProducesNull.get(),
+                properties.SimplifyExpressions.get(),
+                properties.EliminateCommonSubexpressions.get(),
+                properties.CompileCalcsToMethodHandles.get(),
+                properties.EnableNativeTimeRange.get(),
+                properties.CaseSensitive.get(),
+                properties.SsasCompatibleNaming.get(),
+                properties.IgnoreInvalidMembers.get(),
+                properties.IgnoreInvalidMembersDuringQuery.get(),
+                properties.ExpCompilerClass.get());
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return mdx.equals(that.mdx)
+                && schema == that.schema
+                && Util.equals(role, that.role)
+                && Util.equals(locale, that.locale)
+                && properties.equals(that.properties);
+        }
+    }
+}
+
+// End QueryPlanCache.java
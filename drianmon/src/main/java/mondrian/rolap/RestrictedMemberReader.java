@@ -32,6 +32,12 @@ class RestrictedMemberReader extends DelegatingMemberReader {
         SqlConstraintFactory.instance();
     final Role role;
 
+    /**
+     * Cache whose access bitmaps this reader uses, or null if the role is
+     * mutable or the underlying reader has no member cache.
+     */
+    private final MemberCacheHelper accessBitmapCache;
+
     /**
      * Creates a <code>RestrictedMemberReader</code>.
      *
@@ -56,6 +62,37 @@ class RestrictedMemberReader extends DelegatingMemberReader {
         } else {
             hierarchyAccess = role.getAccessDetails(hierarchy);
         }
+        accessBitmapCache = getAccessBitmapCache(memberReader, role);
+    }
+
+    private static MemberCacheHelper getAccessBitmapCache(
+        MemberReader memberReader,
+        Role role)
+    {
+        if (role instanceof RoleImpl && ((RoleImpl) role).isMutable()) {
+            // Grants may still change; access must be computed every time.
+            return null;
+        }
+        if (memberReader instanceof SmartMemberReader) {
+            final MemberCache cache =
+                ((SmartMemberReader) memberReader).getMemberCache();
+            if (cache instanceof MemberCacheHelper) {
+                return (MemberCacheHelper) cache;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the access of this reader's role to a member, using the access
+     * bitmap if there is one.
+     */
+    private Access getAccess(RolapMember member) {
+        if (accessBitmapCache == null) {
+            return hierarchyAccess.getAccess(member);
+        }
+        return accessBitmapCache.getAccessBitmap(hierarchyAccess)
+            .getAccess(hierarchyAccess, member);
     }
 
     public boolean setCache(MemberCache cache) {
@@ -129,7 +166,11 @@ class RestrictedMemberReader extends DelegatingMemberReader {
         // todo: optimize if parentMember is beyond last level
         List<RolapMember> grandChildren = null;
         Map<RolapMember, Access> memberToAccessMap =
-            new LinkedHashMap<RolapMember, Access>();
+            new LinkedHashMap<RolapMember, Access>(
+                fullChildren.size() * 4 / 3 + 1);
+        final MemberAccessBitmap bitmap = accessBitmapCache == null
+            ? null
+            : accessBitmapCache.getAccessBitmap(hierarchyAccess);
         for (int i = 0; i < fullChildren.size(); i++) {
             RolapMember member = fullChildren.get(i);
 
@@ -158,7 +199,9 @@ class RestrictedMemberReader extends DelegatingMemberReader {
             // Filter out children which are invisible because of
             // access-control.
             final Access access;
-            if (hierarchyAccess != null) {
+            if (bitmap != null) {
+                access = bitmap.getAccess(hierarchyAccess, member);
+            } else if (hierarchyAccess != null) {
                 access = hierarchyAccess.getAccess(member);
             } else {
                 access = Access.ALL;
@@ -196,8 +239,7 @@ class RestrictedMemberReader extends DelegatingMemberReader {
             return false;
         }
         if (hierarchyAccess != null) {
-            final Access access = hierarchyAccess.getAccess(member);
-            return access != Access.NONE;
+            return getAccess(member) != Access.NONE;
         }
         return true;
     }
@@ -306,7 +348,7 @@ class RestrictedMemberReader extends DelegatingMemberReader {
         }
         // Skip over non-accessible parents.
         if (parentMember != null) {
-            if (hierarchyAccess.getAccess(parentMember) == Access.NONE) {
+            if (getAccess(parentMember) == Access.NONE) {
                 return null;
             }
         }
@@ -76,6 +76,12 @@ public class RolapConnection extends ConnectionBase {
   private Scenario scenario;
   private boolean closed = false;
 
+  /**
+   * Expression results kept between queries on this connection; created on
+   * first use.
+   */
+  private ExpResultCache expResultCache;
+
   private static DataSourceResolver dataSourceResolver;
   private final int id;
   private final Statement internalStatement;
@@ -720,6 +726,20 @@ public class RolapConnection extends ConnectionBase {
     return scenario;
   }
 
+  /**
+   * Returns the cache of expression results kept between queries on this
+   * connection, creating it if necessary. Used if
+   * {@link MondrianProperties#ExpResultCacheScope} is "connection".
+   *
+   * @return Expression result cache
+   */
+  synchronized ExpResultCache getExpResultCache() {
+    if ( expResultCache == null ) {
+      expResultCache = ExpResultCache.createConnectionCache();
+    }
+    return expResultCache;
+  }
+
   /**
    * Returns the server (mondrian instance) that this connection belongs to.
    * Usually there is only one server instance in a given JVM.
@@ -36,6 +36,11 @@ public class RolapCubeLevel extends RolapLevel {
     private final RolapCube cube;
     private final RolapCubeLevel parentCubeLevel;
     private RolapCubeLevel childCubeLevel;
+    /**
+     * Keys of the members of this level, computed and cached by
+     * {@link TimeRangeAggregator}; null until first needed.
+     */
+    private volatile TimeRangeAggregator.LevelKeys timeRangeKeys;
 
     public RolapCubeLevel(RolapLevel level, RolapCubeHierarchy cubeHierarchy) {
         super(
@@ -207,6 +212,14 @@ public class RolapCubeLevel extends RolapLevel {
         return levelReader;
     }
 
+    TimeRangeAggregator.LevelKeys getTimeRangeKeys() {
+        return timeRangeKeys;
+    }
+
+    void setTimeRangeKeys(TimeRangeAggregator.LevelKeys timeRangeKeys) {
+        this.timeRangeKeys = timeRangeKeys;
+    }
+
     /**
      * this method returns the RolapStar.Column if non-virtual,
      * if virtual, find the base cube level and return it's
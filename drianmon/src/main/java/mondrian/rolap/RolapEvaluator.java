@@ -536,6 +536,16 @@ public class RolapEvaluator implements Evaluator {
     }
   }
 
+  /**
+   * Returns whether any member in the current context is calculated, in
+   * which case {@link #evaluateCurrent()} does not simply read a cell.
+   *
+   * @return whether the context contains calculations
+   */
+  final boolean hasCalculations() {
+    return calculationCount > 0;
+  }
+
   /**
    * Return the list of compound slicer tuples
    */
@@ -1026,7 +1036,7 @@ public class RolapEvaluator implements Evaluator {
    * Creates a key which uniquely identifes an expression and its context. The context includes members of dimensions
    * which the expression is dependent upon.
    */
-  private Object getExpResultCacheKey( ExpCacheDescriptor descriptor ) {
+  private List<Object> getExpResultCacheKey( ExpCacheDescriptor descriptor ) {
     boolean includeAggregationList = false;
     if ( aggregationLists != null && !aggregationLists.isEmpty() ) {
       // Don't include empty aggregation lists in the cache key or we'll get
@@ -1063,12 +1073,52 @@ public class RolapEvaluator implements Evaluator {
     return key;
   }
 
+  /**
+   * Creates a key for the expression result cache that outlives the query (see {@link ExpResultCache}), from the key
+   * within the query. Returns null if the result cannot be shared with other queries: if the expression or the context
+   * contains members or sets defined by the query.
+   */
+  private Object getSharedExpResultCacheKey( ExpCacheDescriptor descriptor, List<Object> key ) {
+    if ( aggregationLists != null && !aggregationLists.isEmpty() ) {
+      return null;
+    }
+    final String text = descriptor.getSharedText();
+    if ( text == null ) {
+      return null;
+    }
+    final List<Object> sharedKey = new ArrayList<>( key.size() + 3 );
+    sharedKey.add( root.cube );
+    sharedKey.add( root.schemaReader.getRole() );
+    sharedKey.add( nonEmpty );
+    sharedKey.add( text );
+    for ( int i = 1; i < key.size(); i++ ) {
+      final Object o = key.get( i );
+      if ( ( (Member) o ).isCalculated() ) {
+        return null;
+      }
+      sharedKey.add( o );
+    }
+    return sharedKey;
+  }
+
   public final Object getCachedResult( ExpCacheDescriptor cacheDescriptor ) {
     // Look up a cached result, and if not present, compute one and add to
     // cache. Use a dummy value to represent nulls.
-    final Object key = getExpResultCacheKey( cacheDescriptor );
+    final List<Object> key = getExpResultCacheKey( cacheDescriptor );
     Object result = root.getCacheResult( key );
     if ( result == null ) {
+      // Look in the cache that outlives the query, if there is one.
+      final ExpResultCache sharedCache = root.sharedExpResultCache;
+      final Object sharedKey = sharedCache == null ? null : getSharedExpResultCacheKey( cacheDescriptor, key );
+      if ( sharedKey != null ) {
+        result = sharedCache.get( sharedKey );
+        if ( result != null ) {
+          Counters.SHARED_EXP_RESULT_CACHE_HIT_COUNT.incrementAndGet();
+          root.putCacheResult( key, result, true );
+          return result == nullResult ? null : result;
+        }
+      }
+      final int flushCount = ExpResultCache.flushCount();
       boolean aggCacheDirty = cellReader.isDirty();
       int aggregateCacheMissCountBefore = cellReader.getMissCount();
       result = cacheDescriptor.evaluate( this );
@@ -1087,7 +1137,11 @@ public class RolapEvaluator implements Evaluator {
         // evaluation uses missing aggregates.
         isValidResult = false;
       }
-      root.putCacheResult( key, result == null ? nullResult : result, isValidResult );
+      final Object value = result == null ? nullResult : result;
+      root.putCacheResult( key, value, isValidResult );
+      if ( isValidResult && sharedKey != null ) {
+        sharedCache.put( sharedKey, root.cube, value, flushCount );
+      }
     } else if ( result == nullResult ) {
       result = null;
     }
@@ -32,6 +32,12 @@ import mondrian.spi.DialectManager;
 class RolapEvaluatorRoot {
   final Map<Object, Object> expResultCache = new HashMap<Object, Object>();
   final Map<Object, Object> tmpExpResultCache = new HashMap<Object, Object>();
+
+  /**
+   * Cache of expression results that outlives the query, or null if results are only cached for the duration of the
+   * query.
+   */
+  final ExpResultCache sharedExpResultCache;
   final RolapCube cube;
   final RolapConnection connection;
   final SchemaReader schemaReader;
@@ -85,6 +91,7 @@ class RolapEvaluatorRoot {
     this.query = statement.getQuery();
     this.cube = (RolapCube) query.getCube();
     this.connection = statement.getMondrianConnection();
+    this.sharedExpResultCache = ExpResultCache.forConnection( connection );
     this.schemaReader = query.getSchemaReader( true );
     this.queryStartTime = new Date();
     List<RolapMember> list = new ArrayList<RolapMember>();
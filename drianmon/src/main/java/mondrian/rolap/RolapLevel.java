@@ -28,6 +28,7 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <code>RolapLevel</code> implements {@link Level} for a ROLAP database.
@@ -89,6 +90,9 @@ public class RolapLevel extends LevelBase {
     private final Map<String, Annotation> annotationMap;
     private final SqlStatement.Type internalType; // may be null
 
+    /** Source of {@link RolapMemberBase#getBitmapIndex()} values. */
+    private final AtomicInteger bitmapIndexSequence = new AtomicInteger();
+
     /**
      * Creates a level.
      *
@@ -297,6 +301,14 @@ public class RolapLevel extends LevelBase {
         return nullParentValue;
     }
 
+    /**
+     * Allocates a dense index for a member of this level. Indexes are never
+     * reused, even after the member cache is flushed.
+     */
+    int nextBitmapIndex() {
+        return bitmapIndexSequence.getAndIncrement();
+    }
+
     /**
      * Returns whether this level is parent-child.
      */
@@ -562,6 +574,16 @@ public class RolapLevel extends LevelBase {
         }
         List<Member> levelMembers = schemaReader.getLevelMembers(this, true);
         if (levelMembers.size() > 0) {
+            if (matchType.isExact()
+                && name instanceof Id.NameSegment
+                && name.quoting != Id.Quoting.KEY)
+            {
+                final Member member =
+                    lookupCachedMember(schemaReader, (Id.NameSegment) name);
+                if (member != null) {
+                    return member;
+                }
+            }
             Member parent = levelMembers.get(0).getParentMember();
             return
                 RolapUtil.findBestMemberMatch(
@@ -574,6 +596,47 @@ public class RolapLevel extends LevelBase {
         return null;
     }
 
+    /**
+     * Looks up a member of this level by name in the name index of the
+     * member cache, rather than scanning the level's members. Returns null
+     * if the index does not hold exactly one member of that name, or if the
+     * role may not see every member of the hierarchy, in which case the
+     * index might hold members that the role cannot see.
+     */
+    private Member lookupCachedMember(
+        SchemaReader schemaReader,
+        Id.NameSegment name)
+    {
+        final RolapHierarchy hierarchy = getHierarchy();
+        if (hierarchy.isRagged()
+            || schemaReader.getRole().getAccess(hierarchy) != Access.ALL)
+        {
+            return null;
+        }
+        final MemberReader reader = hierarchy.getMemberReader();
+        final MemberCache cache;
+        if (reader
+            instanceof RolapCubeHierarchy.RolapCubeHierarchyMemberReader)
+        {
+            cache =
+                ((RolapCubeHierarchy.RolapCubeHierarchyMemberReader) reader)
+                    .getRolapCubeMemberCacheHelper();
+        } else if (reader instanceof SmartMemberReader) {
+            cache = ((SmartMemberReader) reader).getMemberCache();
+        } else {
+            return null;
+        }
+        if (!(cache instanceof MemberCacheHelper)) {
+            return null;
+        }
+        // If there are several, the scan returns the first in level order,
+        // which the index does not know.
+        final List<RolapMember> members =
+            ((MemberCacheHelper) cache).getLevelMembersByName(
+                this, name.name);
+        return members.size() == 1 ? members.get(0) : null;
+    }
+
     private List<MondrianDef.Expression> getInheritedKeyExps() {
         final List<MondrianDef.Expression> list =
             new ArrayList<MondrianDef.Expression>();
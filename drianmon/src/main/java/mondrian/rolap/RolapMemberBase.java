@@ -78,6 +78,10 @@ public class RolapMemberBase
     private int ordinal;
     private final Object key;
 
+    /** Dense index of this member within its level, allocated on first use
+     * by {@link #getBitmapIndex()}; -1 until then. */
+    private volatile int bitmapIndex = -1;
+
     /**
      * Maps property name to property value.
      *
@@ -529,6 +533,26 @@ public class RolapMemberBase
       }
   }
 
+    /**
+     * Returns the index of this member within its level, for use in bitmaps
+     * such as {@link MemberAccessBitmap}. Unlike {@link #getOrdinal()}, the
+     * index is always assigned, and is unique among the members of the level
+     * that have ever been loaded.
+     */
+    int getBitmapIndex() {
+        int index = bitmapIndex;
+        if (index < 0) {
+            synchronized (this) {
+                index = bitmapIndex;
+                if (index < 0) {
+                    index = getLevel().nextBitmapIndex();
+                    bitmapIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     void setOrderKey(Comparable orderKey) {
         this.orderKey = orderKey;
     }
@@ -715,6 +739,83 @@ public class RolapMemberBase
         return cardinality;
     }
 
+    /**
+     * Loads into the member cache the children of each of a list of
+     * members, so that properties computed from a member's children, such
+     * as {@link Property#CHILDREN_CARDINALITY}, can then be evaluated for
+     * each member without a query per member.
+     *
+     * <p>Members are grouped by level and their children are read with one
+     * query per level (or per {@link MondrianProperties#MaxConstraints}
+     * members), rather than one per member. Calculated members, members of
+     * parent-child levels and members of the bottom level are ignored.
+     *
+     * @param members Members, typically all members on an axis
+     */
+    public static void prefetchChildren(Collection<? extends Member> members) {
+        final Map<RolapLevel, Set<RolapMember>> levelMembers =
+            new LinkedHashMap<RolapLevel, Set<RolapMember>>();
+        for (Member member : members) {
+            if (member instanceof RolapCubeMember) {
+                member = ((RolapCubeMember) member).getRolapMember();
+            }
+            if (!(member instanceof RolapMemberBase)
+                || member.isCalculated()
+                || member.isNull())
+            {
+                continue;
+            }
+            final RolapMemberBase rolapMember = (RolapMemberBase) member;
+            final RolapLevel level = rolapMember.getLevel();
+            if (level.isParentChild()
+                || level.getChildLevel() == null
+                || (rolapMember.isAll()
+                    && rolapMember.childLevelHasApproxRowCount()))
+            {
+                continue;
+            }
+            Set<RolapMember> set = levelMembers.get(level);
+            if (set == null) {
+                set = new LinkedHashSet<RolapMember>();
+                levelMembers.put(level, set);
+            }
+            set.add(rolapMember);
+        }
+        final int maxConstraints = Math.max(
+            1, MondrianProperties.instance().MaxConstraints.get());
+        for (Map.Entry<RolapLevel, Set<RolapMember>> entry
+            : levelMembers.entrySet())
+        {
+            final RolapLevel level = entry.getKey();
+            final List<RolapMember> parents =
+                new ArrayList<RolapMember>(entry.getValue());
+            final MemberReader memberReader =
+                level.getHierarchy().getMemberReader();
+            Locus.execute(
+                ((RolapSchema) level.getDimension().getSchema())
+                    .getInternalConnection(),
+                "RolapMemberBase.prefetchChildren",
+                new Locus.Action<Void>() {
+                    public Void execute() {
+                        final List<RolapMember> children =
+                            new ArrayList<RolapMember>();
+                        for (int i = 0; i < parents.size();
+                            i += maxConstraints)
+                        {
+                            children.clear();
+                            memberReader.getMemberChildren(
+                                parents.subList(
+                                    i,
+                                    Math.min(
+                                        i + maxConstraints, parents.size())),
+                                children);
+                        }
+                        return null;
+                    }
+                });
+        }
+    }
+
     /**
      * Sets member ordinal values using a Bottom-up/Top-down algorithm.
      *
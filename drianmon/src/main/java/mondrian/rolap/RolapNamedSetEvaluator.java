@@ -40,6 +40,9 @@ class RolapNamedSetEvaluator implements Evaluator.NamedSetEvaluator, TupleList.P
   /** Value of this named set; set on first use. */
   private TupleList list;
 
+  /** Value of this named set, without position callback; set on first use. */
+  private TupleList rawList;
+
   /**
    * Dummy list used as a marker to detect re-entrant calls to {@link #ensureList}.
    */
@@ -64,6 +67,40 @@ class RolapNamedSetEvaluator implements Evaluator.NamedSetEvaluator, TupleList.P
     this.namedSet = namedSet;
   }
 
+  /**
+   * Creates a RolapNamedSetEvaluator whose value has already been computed, by an evaluator in another root context.
+   *
+   * @param rrer
+   *          Evaluation root context
+   * @param namedSet
+   *          Named set
+   * @param rawList
+   *          Value of the named set
+   */
+  RolapNamedSetEvaluator( RolapResult.RolapResultEvaluatorRoot rrer, NamedSet namedSet, TupleList rawList ) {
+    this( rrer, namedSet );
+    this.rawList = rawList;
+    this.list = rawList.withPositionCallback( this );
+  }
+
+  /**
+   * Returns the named set.
+   *
+   * @return Named set
+   */
+  NamedSet getNamedSet() {
+    return namedSet;
+  }
+
+  /**
+   * Returns the value of this named set, or null if it has not been evaluated.
+   *
+   * @return Value of named set, or null
+   */
+  TupleList getRawList() {
+    return rawList;
+  }
+
   public TupleIterable evaluateTupleIterable( Evaluator evaluator ) {
     ensureList( evaluator );
     return list;
@@ -89,7 +126,7 @@ class RolapNamedSetEvaluator implements Evaluator.NamedSetEvaluator, TupleList.P
     list = DUMMY_LIST; // recursion detection
     try {
       final Calc calc = rrer.getCompiled( namedSet.getExp(), false, ResultStyle.ITERABLE );
-      TupleIterable iterable = (TupleIterable) rrer.result.evaluateExp( calc, rrer.result.slicerEvaluator, evaluator );
+      TupleIterable iterable = (TupleIterable) rrer.evaluateExp( calc, evaluator );
 
       // Axes can be in two forms: list or iterable. If iterable, we
       // need to materialize it, to ensure that all cell values are in
@@ -118,6 +155,7 @@ class RolapNamedSetEvaluator implements Evaluator.NamedSetEvaluator, TupleList.P
       // Wrap list so that currentOrdinal is updated whenever the list
       // is accessed. The list is immutable, because we don't override
       // AbstractList.set(int, Object).
+      this.rawList = rawList;
       this.list = rawList.withPositionCallback( this );
     } finally {
       if ( this.list == DUMMY_LIST ) {
@@ -11,15 +11,23 @@
 package mondrian.rolap;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.Logger;
 
@@ -27,12 +35,14 @@ import mondrian.calc.Calc;
 import mondrian.calc.DummyExp;
 import mondrian.calc.IterCalc;
 import mondrian.calc.ParameterSlot;
+import mondrian.calc.ResultStyle;
 import mondrian.calc.TupleCollections;
 import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleIterable;
 import mondrian.calc.TupleIterator;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.CacheCalc;
+import mondrian.calc.impl.CommonSubexpressionCompiler;
 import mondrian.calc.impl.DelegatingTupleList;
 import mondrian.calc.impl.GenericCalc;
 import mondrian.calc.impl.ListTupleList;
@@ -41,6 +51,7 @@ import mondrian.mdx.DimensionExpr;
 import mondrian.mdx.HierarchyExpr;
 import mondrian.mdx.MdxVisitorImpl;
 import mondrian.mdx.MemberExpr;
+import mondrian.mdx.NamedSetExpr;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.Axis;
 import mondrian.olap.Cell;
@@ -75,6 +86,7 @@ import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.spi.CellFormatter;
 import mondrian.util.CancellationChecker;
+import mondrian.util.Counters;
 import mondrian.util.Format;
 import mondrian.util.ObjectPool;
 import mondrian.resource.MondrianResource;
@@ -100,6 +112,16 @@ public class RolapResult extends ResultBase {
   private CellInfoContainer cellInfos;
   private FastBatchingCellReader batchingReader;
   private final CellReader aggregatingReader;
+
+  /**
+   * Serializes access to {@link #batchingReader} while cells are evaluated in parallel.
+   */
+  private final Object evaluationLock = new Object();
+
+  /**
+   * Serializes access to the cell reader and the slicer evaluator while the tuples of a set are evaluated in parallel.
+   */
+  private final Object setEvaluationLock = new Object();
   private Modulos modulos = null;
   private final int maxEvalDepth = MondrianProperties.instance().MaxEvalDepth.get();
 
@@ -150,6 +172,9 @@ public class RolapResult extends ResultBase {
       // nothing happens.
       // Clear the local cache before a query has run
       cube.clearCachedAggregations();
+      if ( query.getCommonSubexpressions() != null ) {
+        query.getCommonSubexpressions().resetCounts();
+      }
 
       /////////////////////////////////////////////////////////////////
       //
@@ -403,10 +428,16 @@ public class RolapResult extends ResultBase {
       // reset to total member count
       axisMembers.clearTotalCellCount();
 
-      for ( int i = 0; i < axes.length; i++ ) {
-        final QueryAxis axis = query.axes[i];
-        final Calc calc = query.axisCalcs[i];
-        loadMembers( emptyNonAllMembers, evaluator, axis, calc, axisMembers );
+      if ( MondrianProperties.instance().ConcurrentAxisEvaluation.get() && canEvaluateConcurrently()
+          && evaluator.getSlicerTuples() == null ) {
+        loadMembersConcurrently( emptyNonAllMembers, axisMembers );
+        evaluator.setCellReader( batchingReader );
+      } else {
+        for ( int i = 0; i < axes.length; i++ ) {
+          final QueryAxis axis = query.axes[i];
+          final Calc calc = query.axisCalcs[i];
+          loadMembers( emptyNonAllMembers, evaluator, axis, calc, axisMembers );
+        }
       }
 
       if ( !axisMembers.isEmpty() ) {
@@ -542,6 +573,12 @@ public class RolapResult extends ResultBase {
         // clear out the whole expression cache at the end of a query.
         evaluator.clearExpResultCache( true );
         execution.setExpCacheCounts( evaluator.root.expResultCacheHitCount, evaluator.root.expResultCacheMissCount );
+        final CommonSubexpressionCompiler.Subexpressions subexpressions = query.getCommonSubexpressions();
+        if ( subexpressions != null ) {
+          Util.explain( statement.getProfileHandler(), "Common subexpressions: " + subexpressions.getSharedCount()
+              + " shared, " + subexpressions.getEliminatedCount() + " evaluations eliminated", null, evaluator
+                  .getTiming() );
+        }
       }
       if ( LOGGER.isDebugEnabled() ) {
         LOGGER.debug( "RolapResult<init>: " + Util.printMemory() );
@@ -582,18 +619,39 @@ public class RolapResult extends ResultBase {
   }
 
   private boolean phase() {
-    if ( batchingReader.isDirty() ) {
-      execution.tracePhase( batchingReader.getHitCount(), batchingReader.getMissCount(), batchingReader
-          .getPendingCount() );
+    return phase( batchingReader, evaluator );
+  }
+
+  /**
+   * Loads the cells requested via a batching cell reader.
+   *
+   * <p>
+   * Only the query's own reader reports its statistics to the execution; readers of axes and named sets evaluated
+   * concurrently do not.
+   *
+   * @param reader
+   *          Batching cell reader
+   * @param evaluator
+   *          Evaluator whose invalid expression results to clear
+   * @return Whether any cells were loaded
+   */
+  private boolean phase( FastBatchingCellReader reader, RolapEvaluator evaluator ) {
+    final boolean trace = reader == batchingReader;
+    if ( reader.isDirty() ) {
+      if ( trace ) {
+        execution.tracePhase( reader.getHitCount(), reader.getMissCount(), reader.getPendingCount() );
+      }
       // flush the expression cache during each
       // phase of loading aggregations
       evaluator.clearExpResultCache( false );
 
-      return batchingReader.loadAggregations();
+      return reader.loadAggregations();
     } else {
-      execution.setCellCacheHitCount( batchingReader.getHitCount() );
-      execution.setCellCacheMissCount( batchingReader.getMissCount() );
-      execution.setCellCachePendingCount( batchingReader.getPendingCount() );
+      if ( trace ) {
+        execution.setCellCacheHitCount( reader.getHitCount() );
+        execution.setCellCacheMissCount( reader.getMissCount() );
+        execution.setCellCachePendingCount( reader.getPendingCount() );
+      }
       return false;
     }
   }
@@ -721,8 +779,13 @@ public class RolapResult extends ResultBase {
 
   protected void loadMembers( List<List<Member>> nonAllMembers, RolapEvaluator evaluator, QueryAxis axis, Calc calc,
       AxisMemberList axisMembers ) {
+    loadMembers( nonAllMembers, evaluator, axis, calc, axisMembers, batchingReader );
+  }
+
+  private void loadMembers( List<List<Member>> nonAllMembers, RolapEvaluator evaluator, QueryAxis axis, Calc calc,
+      AxisMemberList axisMembers, FastBatchingCellReader reader ) {
     int attempt = 0;
-    evaluator.setCellReader( batchingReader );
+    evaluator.setCellReader( reader );
     while ( true ) {
       axisMembers.clearAxisCount();
       final int savepoint = evaluator.savepoint();
@@ -737,7 +800,7 @@ public class RolapResult extends ResultBase {
         evaluator.restore( savepoint );
       }
 
-      if ( !phase() ) {
+      if ( !phase( reader, evaluator ) ) {
         break;
       } else {
         // Clear invalid expression result so that the next evaluation
@@ -752,6 +815,160 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Returns whether parts of the query can be evaluated on other threads. Not if the query is being profiled, or is
+   * testing expression dependencies.
+   */
+  private boolean canEvaluateConcurrently() {
+    return !( evaluator instanceof RolapDependencyTestingEvaluator ) && statement.getProfileHandler() == null;
+  }
+
+  /**
+   * Loads the members of each axis, as {@link #loadMembers} does, but evaluates the axes concurrently.
+   *
+   * <p>
+   * First evaluates the named sets that the axes use, concurrently where they do not depend on each other. Then
+   * evaluates each axis on its own thread, with its own evaluator root and batching cell reader, so that SQL to load
+   * members, native sets and cells is issued in parallel. The named sets are given to each axis's root, and to the
+   * query's root, so that they are evaluated only once. Finally merges the members of the axes, in axis order, so that
+   * the result is the same as if the axes had been loaded in sequence.
+   *
+   * @param nonAllMembers
+   *          Members of hierarchies that have no 'all' member
+   * @param axisMembers
+   *          List into which to merge members of the axes
+   */
+  private void loadMembersConcurrently( final List<List<Member>> nonAllMembers, AxisMemberList axisMembers ) {
+    final Map<NamedSet, TupleList> namedSetValues = evaluateNamedSetsConcurrently();
+    final RolapResultEvaluatorRoot root = (RolapResultEvaluatorRoot) evaluator.root;
+    for ( Map.Entry<NamedSet, TupleList> entry : namedSetValues.entrySet() ) {
+      root.putNamedSetValue( entry.getKey(), entry.getValue() );
+    }
+    final List<Callable<AxisMemberList>> tasks = new ArrayList<Callable<AxisMemberList>>();
+    for ( int i = 0; i < axes.length; i++ ) {
+      final QueryAxis axis = query.axes[i];
+      final Calc calc = query.axisCalcs[i];
+      final IsolatedEvaluatorRoot axisRoot = new IsolatedEvaluatorRoot( namedSetValues );
+      final RolapEvaluator axisEvaluator = new RolapEvaluator( axisRoot, evaluator, null );
+      tasks.add( new IsolatedTask<AxisMemberList>() {
+        AxisMemberList evaluate() {
+          final AxisMemberList list = new AxisMemberList();
+          loadMembers( nonAllMembers, axisEvaluator, axis, calc, list, axisRoot.batchingReader );
+          return list;
+        }
+      } );
+    }
+    for ( AxisMemberList list : invokeAll( tasks ) ) {
+      axisMembers.addAll( list );
+    }
+  }
+
+  /**
+   * Evaluates the static named sets used by the axes of the query, in waves: each wave evaluates concurrently the sets
+   * whose named set dependencies have been evaluated by earlier waves.
+   *
+   * <p>
+   * A named set is evaluated in the context of the slicer, whichever root evaluates it, so its value does not depend on
+   * the thread. Sets that fail to evaluate, or depend on each other cyclically, are left to be evaluated on first use,
+   * so that errors are reported as they would be otherwise.
+   *
+   * @return Values of named sets, including those already evaluated in the query's root
+   */
+  private Map<NamedSet, TupleList> evaluateNamedSetsConcurrently() {
+    final Map<NamedSet, TupleList> values = ( (RolapResultEvaluatorRoot) evaluator.root ).getNamedSetValues();
+    final Set<String> evaluated = new HashSet<String>();
+    for ( NamedSet namedSet : values.keySet() ) {
+      evaluated.add( namedSet.getNameUniqueWithinQuery() );
+    }
+    final NamedSetCollector axisCollector = new NamedSetCollector();
+    for ( QueryAxis axis : query.axes ) {
+      axis.getSet().accept( axisCollector );
+    }
+    final Map<NamedSet, Set<String>> pending = new LinkedHashMap<NamedSet, Set<String>>();
+    for ( NamedSet namedSet : axisCollector.getNamedSets() ) {
+      if ( namedSet.isDynamic() || evaluated.contains( namedSet.getNameUniqueWithinQuery() ) ) {
+        continue;
+      }
+      final NamedSetCollector collector = new NamedSetCollector();
+      namedSet.getExp().accept( collector );
+      final Set<String> dependencies = new HashSet<String>();
+      for ( NamedSet dependency : collector.getNamedSets() ) {
+        if ( !dependency.isDynamic() ) {
+          dependencies.add( dependency.getNameUniqueWithinQuery() );
+        }
+      }
+      pending.put( namedSet, dependencies );
+    }
+    while ( !pending.isEmpty() ) {
+      final List<NamedSet> wave = new ArrayList<NamedSet>();
+      final List<Callable<TupleList>> tasks = new ArrayList<Callable<TupleList>>();
+      for ( Map.Entry<NamedSet, Set<String>> entry : pending.entrySet() ) {
+        if ( !evaluated.containsAll( entry.getValue() ) ) {
+          continue;
+        }
+        final NamedSet namedSet = entry.getKey();
+        final IsolatedEvaluatorRoot root = new IsolatedEvaluatorRoot( values );
+        wave.add( namedSet );
+        tasks.add( new IsolatedTask<TupleList>() {
+          TupleList evaluate() {
+            try {
+              // Named sets referenced by an axis are evaluated while
+              // evaluating axes.
+              final RolapEvaluator contextEvaluator = root.slicerEvaluator.push();
+              contextEvaluator.setEvalAxes( true );
+              root.evaluateNamedSet( namedSet, true ).evaluateTupleIterable( contextEvaluator );
+              return root.getNamedSetValues().get( namedSet );
+            } catch ( RuntimeException e ) {
+              execution.checkCancelOrTimeout();
+              return null;
+            }
+          }
+        } );
+      }
+      if ( wave.isEmpty() ) {
+        break;
+      }
+      final List<TupleList> lists = invokeAll( tasks );
+      for ( int i = 0; i < wave.size(); i++ ) {
+        pending.remove( wave.get( i ) );
+        if ( lists.get( i ) != null ) {
+          values.put( wave.get( i ), lists.get( i ) );
+          evaluated.add( wave.get( i ).getNameUniqueWithinQuery() );
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Runs tasks on {@link EvaluationPool} and waits for them to finish.
+   *
+   * @param tasks
+   *          Tasks
+   * @return Results of tasks, in the same order as the tasks
+   */
+  private static <T> List<T> invokeAll( List<? extends Callable<T>> tasks ) {
+    final List<Future<T>> futures = EvaluationPool.INSTANCE.invokeAll( tasks );
+    final List<T> results = new ArrayList<T>( futures.size() );
+    for ( Future<T> future : futures ) {
+      try {
+        results.add( future.get() );
+      } catch ( InterruptedException e ) {
+        throw Util.newError( e, "Interrupted while evaluating query" );
+      } catch ( ExecutionException e ) {
+        final Throwable cause = e.getCause();
+        if ( cause instanceof RuntimeException ) {
+          throw (RuntimeException) cause;
+        }
+        if ( cause instanceof Error ) {
+          throw (Error) cause;
+        }
+        throw Util.newError( cause, "Error while evaluating query" );
+      }
+    }
+    return results;
+  }
+
   void evalLoad( List<List<Member>> nonAllMembers, int cnt, Evaluator evaluator, QueryAxis axis, Calc calc,
       AxisMemberList axisMembers ) {
     final int savepoint = evaluator.savepoint();
@@ -939,10 +1156,16 @@ public class RolapResult extends ResultBase {
     // evaluator which collects requests.
     int count = 0;
     final int savepoint = evaluator.savepoint();
+    final List<CellWorker> workers = createCellWorkers( evaluator );
+    predictCellRequests( evaluator );
     while ( true ) {
       evaluator.setCellReader( batchingReader );
       try {
-        executeStripe( query.axes.length - 1, evaluator, pos );
+        if ( workers == null ) {
+          executeStripe( query.axes.length - 1, evaluator, pos );
+        } else {
+          executeStripeParallel( evaluator, workers );
+        }
       } catch ( CellRequestQuantumExceededException e ) {
         // Safe to ignore. Need to call 'phase' and loop again.
         // Decrement count because it wasn't a recursive formula that
@@ -981,6 +1204,181 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Creates workers to evaluate the cells of the query in parallel, or returns null if cells are to be evaluated
+   * serially.
+   *
+   * <p>
+   * The positions of the outermost axis are divided into {@link MondrianProperties#CellEvaluationParallelism}
+   * partitions. Axes of high cardinality are read in chunks by position, so queries with such an axis are evaluated
+   * serially, as are queries being profiled or testing expression dependencies.
+   *
+   * @param evaluator
+   *          Evaluator whose context is the slicer
+   * @return List of workers, or null
+   */
+  private List<CellWorker> createCellWorkers( RolapEvaluator evaluator ) {
+    final int parallelism = MondrianProperties.instance().CellEvaluationParallelism.get();
+    if ( parallelism <= 1 || axes.length == 0 || !canEvaluateConcurrently() ) {
+      return null;
+    }
+    for ( int i = 0; i < axes.length; i++ ) {
+      if ( isAxisHighCardinality( i, ( (RolapAxis) axes[i] ).getTupleList() ) ) {
+        return null;
+      }
+    }
+    final int size = ( (RolapAxis) axes[axes.length - 1] ).getTupleList().size();
+    final int workerCount = Math.min( parallelism, size );
+    if ( workerCount <= 1 ) {
+      return null;
+    }
+    final Map<RolapStar, RolapStar.Bar> bars = new HashMap<RolapStar, RolapStar.Bar>();
+    for ( RolapStar star : getCube().getSchema().getStars() ) {
+      bars.put( star, star.getLocalBar() );
+    }
+    final Map<NamedSet, TupleList> namedSetValues = ( (RolapResultEvaluatorRoot) evaluator.root ).getNamedSetValues();
+    final List<CellWorker> workers = new ArrayList<CellWorker>( workerCount );
+    for ( int i = 0; i < workerCount; i++ ) {
+      workers.add( new CellWorker( i * size / workerCount, ( i + 1 ) * size / workerCount, bars, namedSetValues ) );
+    }
+    return workers;
+  }
+
+  /**
+   * Evaluates all cells once, using a worker per partition of the outermost axis, and puts them into
+   * {@link #cellInfos}.
+   *
+   * <p>
+   * Workers read cells via the batching cell reader, one at a time, so the cell requests of all partitions are loaded
+   * by the next {@link #phase()}.
+   *
+   * @param evaluator
+   *          Evaluator whose context is the slicer
+   * @param workers
+   *          Workers
+   */
+  private void executeStripeParallel( RolapEvaluator evaluator, List<CellWorker> workers ) {
+    for ( int i = 0; i < axes.length; i++ ) {
+      processDistinctMeasureExprs( ( (RolapAxis) axes[i] ).getTupleList() );
+    }
+    final CellReader cellReader = new SynchronizedCellReader( batchingReader, evaluationLock );
+    for ( CellWorker worker : workers ) {
+      worker.init( evaluator, cellReader );
+    }
+    invokeAll( workers );
+    for ( CellWorker worker : workers ) {
+      worker.cells.copyTo( cellInfos, point );
+      worker.cells.clear();
+    }
+  }
+
+  /**
+   * Evaluates an expression for each tuple of a list, using a worker per partition of the list, or returns null if the
+   * list is to be evaluated serially.
+   *
+   * <p>
+   * Each worker has its own evaluator root, in which the expression is compiled, so that compiled expressions and
+   * cached expression results are not shared between threads; the roots are kept for the rest of the query. Workers
+   * read cells via the evaluator's cell reader, one at a time, so that cell requests of all partitions are loaded by
+   * the next pass, and share the local segment cache of the calling thread.
+   *
+   * <p>
+   * Lists are evaluated serially if the query is being profiled or is testing expression dependencies, and if the
+   * caller is itself a thread of {@link EvaluationPool}, such as a thread that evaluates cells in parallel.
+   *
+   * @param evaluator
+   *          Evaluator; its root must belong to this result
+   * @param list
+   *          List of tuples
+   * @param exp
+   *          Expression
+   * @param scalar
+   *          Whether the expression is to be compiled as a scalar
+   * @param resultStyle
+   *          Result style in which to compile the expression
+   * @param function
+   *          Function that evaluates the compiled expression for a tuple
+   * @param parallelism
+   *          Maximum number of workers
+   * @return Value of the function for each tuple, in the same order as the list, or null
+   */
+  <T> List<T> evaluateParallel( RolapEvaluator evaluator, TupleList list, Exp exp, boolean scalar,
+      ResultStyle resultStyle, ParallelSetEvaluator.TupleFunction<T> function, int parallelism ) {
+    final int workerCount = Math.min( parallelism, list.size() );
+    if ( workerCount <= 1 || !canEvaluateConcurrently() || ForkJoinTask.inForkJoinPool() ) {
+      return null;
+    }
+    final RolapResultEvaluatorRoot root = (RolapResultEvaluatorRoot) evaluator.root;
+    while ( root.setWorkerRoots.size() < workerCount ) {
+      root.setWorkerRoots.add( new SetWorkerRoot() );
+    }
+    final Map<RolapStar, RolapStar.Bar> bars = new HashMap<RolapStar, RolapStar.Bar>();
+    for ( RolapStar star : getCube().getSchema().getStars() ) {
+      bars.put( star, star.getLocalBar() );
+    }
+    final Map<NamedSet, TupleList> namedSetValues = root.getNamedSetValues();
+    final CellReader cellReader = new SynchronizedCellReader( evaluator.cellReader, setEvaluationLock );
+    final List<SetWorker<T>> workers = new ArrayList<SetWorker<T>>( workerCount );
+    final int size = list.size();
+    for ( int i = 0; i < workerCount; i++ ) {
+      final RolapResultEvaluatorRoot workerRoot = root.setWorkerRoots.get( i );
+      workerRoot.clearResultCache( false );
+      for ( Map.Entry<NamedSet, TupleList> entry : namedSetValues.entrySet() ) {
+        workerRoot.putNamedSetValue( entry.getKey(), entry.getValue() );
+      }
+      // Compile on this thread; compiling an expression is not thread-safe.
+      final Calc calc = workerRoot.getCompiled( exp, scalar, resultStyle );
+      final RolapEvaluator workerEvaluator = new RolapEvaluator( workerRoot, evaluator, null );
+      workerEvaluator.setCellReader( cellReader );
+      workers.add( new SetWorker<T>( list.subList( i * size / workerCount, ( i + 1 ) * size / workerCount ),
+          workerEvaluator, calc, function, bars ) );
+    }
+    Counters.PARALLEL_SET_EVALUATION_COUNT.incrementAndGet();
+    final List<T> values = new ArrayList<T>( size );
+    for ( List<T> workerValues : invokeAll( workers ) ) {
+      values.addAll( workerValues );
+    }
+    return values;
+  }
+
+  /**
+   * Requests the cells that the cells of the query are predicted to need, and loads them, before the cells are first
+   * evaluated. Each evaluation pass that finds cells missing costs a round trip to the database; loading the predicted
+   * cells up front saves most of them for queries with nested calculated measures.
+   *
+   * <p>
+   * Does nothing unless {@link MondrianProperties#SpeculativeCellRequests} is set, or if an axis is high-cardinality,
+   * because then the cells are evaluated a chunk at a time.
+   *
+   * @param evaluator
+   *          Evaluator whose context is the slicer
+   * @see CellRequestPredictor
+   */
+  private void predictCellRequests( RolapEvaluator evaluator ) {
+    if ( !MondrianProperties.instance().SpeculativeCellRequests.get() ) {
+      return;
+    }
+    final List<TupleList> axisLists = new ArrayList<TupleList>( axes.length );
+    for ( int i = 0; i < axes.length; i++ ) {
+      final TupleList tupleList = ( (RolapAxis) axes[i] ).getTupleList();
+      if ( isAxisHighCardinality( i, tupleList ) ) {
+        return;
+      }
+      axisLists.add( tupleList );
+    }
+    final int savepoint = evaluator.savepoint();
+    try {
+      evaluator.setCellReader( batchingReader );
+      new CellRequestPredictor( evaluator, batchingReader ).predict( axisLists,
+          ( (RolapAxis) slicerAxis ).getTupleList() );
+    } finally {
+      evaluator.restore( savepoint );
+    }
+    if ( phase() ) {
+      evaluator.clearExpResultCache( false );
+    }
+  }
+
   boolean isDirty() {
     return batchingReader.isDirty();
   }
@@ -1000,6 +1398,28 @@ public class RolapResult extends ResultBase {
    * @return Result
    */
   Object evaluateExp( Calc calc, RolapEvaluator slicerEvaluator, Evaluator contextEvaluator ) {
+    // Threads that evaluate cells in parallel share the batching cell reader
+    // and the slicer evaluator.
+    synchronized ( evaluationLock ) {
+      return evaluateExp( calc, slicerEvaluator, contextEvaluator, batchingReader );
+    }
+  }
+
+  /**
+   * Evaluates an expression, reading cells via a given batching cell reader.
+   *
+   * @param calc
+   *          Compiled expression
+   * @param slicerEvaluator
+   *          Evaluation context for slicers
+   * @param contextEvaluator
+   *          Evaluation context (optional)
+   * @param reader
+   *          Batching cell reader
+   * @return Result
+   */
+  private Object evaluateExp( Calc calc, RolapEvaluator slicerEvaluator, Evaluator contextEvaluator,
+      FastBatchingCellReader reader ) {
     int attempt = 0;
 
     RolapEvaluator evaluator = slicerEvaluator.push();
@@ -1008,12 +1428,12 @@ public class RolapResult extends ResultBase {
     }
 
     final int savepoint = evaluator.savepoint();
-    boolean dirty = batchingReader.isDirty();
+    boolean dirty = reader.isDirty();
     try {
       while ( true ) {
         evaluator.restore( savepoint );
 
-        evaluator.setCellReader( batchingReader );
+        evaluator.setCellReader( reader );
         Object preliminaryValue = calc.evaluate( evaluator );
 
         if ( preliminaryValue instanceof TupleIterable ) {
@@ -1027,7 +1447,7 @@ public class RolapResult extends ResultBase {
           }
         }
 
-        if ( !phase() ) {
+        if ( !phase( reader, evaluator ) ) {
           break;
         } else {
           // Clear invalid expression result so that the next
@@ -1046,7 +1466,7 @@ public class RolapResult extends ResultBase {
       // reader's 'dirty' flag so that the caller knows that it must
       // re-evaluate them.
       if ( dirty ) {
-        batchingReader.setDirty( true );
+        reader.setDirty( true );
       }
 
       evaluator.restore( savepoint );
@@ -1059,6 +1479,27 @@ public class RolapResult extends ResultBase {
   }
 
   private void executeStripe( int axisOrdinal, RolapEvaluator revaluator, final int[] pos ) {
+    executeStripe( axisOrdinal, revaluator, pos, point, cellInfos, true );
+  }
+
+  /**
+   * Evaluates the cells of an axis and of the axes inside it, in the current context of an evaluator.
+   *
+   * @param axisOrdinal
+   *          Ordinal of axis, or -1 to evaluate the cell at the current position
+   * @param revaluator
+   *          Evaluator
+   * @param pos
+   *          Position requested from high-cardinality axes
+   * @param cellKey
+   *          Position of the current cell; modified
+   * @param cells
+   *          Container into which to put evaluated cells
+   * @param expandVisualTotals
+   *          Whether to expand visual totals of distinct-count measures; false if the caller has already done so
+   */
+  private void executeStripe( int axisOrdinal, RolapEvaluator revaluator, final int[] pos, CellKey cellKey,
+      CellInfoContainer cells, boolean expandVisualTotals ) {
     if ( axisOrdinal < 0 ) {
       RolapAxis axis = (RolapAxis) slicerAxis;
       TupleList tupleList = axis.getTupleList();
@@ -1090,7 +1531,7 @@ public class RolapResult extends ResultBase {
 
           // Create a CellInfo object for the given position
           // integer array.
-          ci = cellInfos.create( point.getOrdinals() );
+          ci = cells.create( cellKey.getOrdinals() );
 
           String cachedFormatString = null;
 
@@ -1173,39 +1614,31 @@ public class RolapResult extends ResultBase {
           pi = positionIndex;
         }
         for ( final List<Member> tuple : subTuples ) {
-          point.setAxis( axisOrdinal, pi );
+          cellKey.setAxis( axisOrdinal, pi );
           final int savepoint = revaluator.savepoint();
           try {
             revaluator.setContext( tuple );
             execution.checkCancelOrTimeout();
-            executeStripe( axisOrdinal - 1, revaluator, pos );
+            executeStripe( axisOrdinal - 1, revaluator, pos, cellKey, cells, expandVisualTotals );
           } finally {
             revaluator.restore( savepoint );
           }
           pi++;
         }
       } else {
-        for ( List<Member> tuple : tupleList ) {
-          List<Member> measures = new ArrayList<Member>( statement.getQuery().getMeasuresMembers() );
-          for ( Member measure : measures ) {
-            if ( measure instanceof RolapBaseCubeMeasure ) {
-              RolapBaseCubeMeasure baseCubeMeasure = (RolapBaseCubeMeasure) measure;
-              if ( baseCubeMeasure.getAggregator() == RolapAggregator.DistinctCount ) {
-                processDistinctMeasureExpr( tuple, baseCubeMeasure );
-              }
-            }
-          }
+        if ( expandVisualTotals ) {
+          processDistinctMeasureExprs( tupleList );
         }
 
         int tupleIndex = 0;
         for ( final List<Member> tuple : tupleList ) {
-          point.setAxis( axisOrdinal, tupleIndex );
+          cellKey.setAxis( axisOrdinal, tupleIndex );
           final int savepoint = revaluator.savepoint();
           try {
             revaluator.setEvalAxes( true );
             revaluator.setContext( tuple );
             execution.checkCancelOrTimeout();
-            executeStripe( axisOrdinal - 1, revaluator, pos );
+            executeStripe( axisOrdinal - 1, revaluator, pos, cellKey, cells, expandVisualTotals );
           } finally {
             revaluator.restore( savepoint );
           }
@@ -1215,6 +1648,20 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  private void processDistinctMeasureExprs( TupleList tupleList ) {
+    for ( List<Member> tuple : tupleList ) {
+      List<Member> measures = new ArrayList<Member>( statement.getQuery().getMeasuresMembers() );
+      for ( Member measure : measures ) {
+        if ( measure instanceof RolapBaseCubeMeasure ) {
+          RolapBaseCubeMeasure baseCubeMeasure = (RolapBaseCubeMeasure) measure;
+          if ( baseCubeMeasure.getAggregator() == RolapAggregator.DistinctCount ) {
+            processDistinctMeasureExpr( tuple, baseCubeMeasure );
+          }
+        }
+      }
+    }
+  }
+
   private boolean isAxisHighCardinality( int axisOrdinal, TupleList tupleList ) {
     Boolean highCardinality = positionsHighCardinality.get( axisOrdinal );
     if ( highCardinality != null ) {
@@ -1490,6 +1937,20 @@ public class RolapResult extends ResultBase {
       this.totalCellCount = 1;
     }
 
+    /**
+     * Adds the members of another list that are not already in this list.
+     *
+     * @param list
+     *          List of members
+     */
+    void addAll( AxisMemberList list ) {
+      for ( Member member : list.members ) {
+        if ( !contains( member ) ) {
+          addMember( member );
+        }
+      }
+    }
+
     void mergeTupleList( TupleList list ) {
       mergeTupleIter( list.tupleCursor() );
     }
@@ -1591,6 +2052,12 @@ public class RolapResult extends ResultBase {
         new HashMap<String, RolapNamedSetEvaluator>();
 
     final RolapResult result;
+
+    /**
+     * Roots of the workers that evaluate sets in parallel for this root. Created on demand, and kept so that their
+     * compiled expressions are reused.
+     */
+    final List<RolapResultEvaluatorRoot> setWorkerRoots = new ArrayList<RolapResultEvaluatorRoot>();
     private static final Object CycleSentinel = new Object();
     private static final Object NullSentinel = new Object();
 
@@ -1599,6 +2066,52 @@ public class RolapResult extends ResultBase {
       this.result = result;
     }
 
+    /**
+     * Evaluates an expression in the context of the slicer. Used to evaluate sets, named sets and the default values
+     * of parameters.
+     *
+     * @param calc
+     *          Compiled expression
+     * @param contextEvaluator
+     *          Evaluation context (optional)
+     * @return Result
+     */
+    Object evaluateExp( Calc calc, Evaluator contextEvaluator ) {
+      return result.evaluateExp( calc, result.slicerEvaluator, contextEvaluator );
+    }
+
+    /**
+     * Returns the values of the named sets that have been evaluated in this root context, not including dynamic sets.
+     *
+     * @return Map from named set to its value
+     */
+    Map<NamedSet, TupleList> getNamedSetValues() {
+      final Map<NamedSet, TupleList> map = new LinkedHashMap<NamedSet, TupleList>();
+      for ( RolapNamedSetEvaluator value : namedSetEvaluators.values() ) {
+        if ( value.getRawList() != null && !value.getNamedSet().isDynamic() ) {
+          map.put( value.getNamedSet(), value.getRawList() );
+        }
+      }
+      return map;
+    }
+
+    /**
+     * Sets the value of a named set that was evaluated in another root context, so that this root context does not
+     * need to evaluate it. Does nothing if this root context has already evaluated it.
+     *
+     * @param namedSet
+     *          Named set; must not be dynamic
+     * @param list
+     *          Value of named set
+     */
+    void putNamedSetValue( NamedSet namedSet, TupleList list ) {
+      final String name = namedSet.getNameUniqueWithinQuery();
+      final RolapNamedSetEvaluator value = namedSetEvaluators.get( name );
+      if ( value == null || value.getRawList() == null ) {
+        namedSetEvaluators.put( name, new RolapNamedSetEvaluator( this, namedSet, list ) );
+      }
+    }
+
     protected Evaluator.NamedSetEvaluator evaluateNamedSet( final NamedSet namedSet, boolean create ) {
       final String name = namedSet.getNameUniqueWithinQuery();
       RolapNamedSetEvaluator value;
@@ -1685,7 +2198,7 @@ public class RolapResult extends ResultBase {
       }
       // Set value to a sentinel, so we can detect cyclic evaluation.
       slot.setCachedDefaultValue( CycleSentinel );
-      value = result.evaluateExp( slot.getDefaultValueCalc(), result.slicerEvaluator, null );
+      value = evaluateExp( slot.getDefaultValueCalc(), null );
       if ( value == null ) {
         liftedValue = NullSentinel;
       } else {
@@ -1696,6 +2209,325 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Evaluation root that has its own batching cell reader and slicer evaluator, so that it can evaluate axes and named
+   * sets on another thread, concurrently with other roots.
+   */
+  private class IsolatedEvaluatorRoot extends RolapResultEvaluatorRoot {
+    private final FastBatchingCellReader batchingReader;
+    private final RolapEvaluator slicerEvaluator;
+
+    /**
+     * Creates an IsolatedEvaluatorRoot.
+     *
+     * @param namedSetValues
+     *          Values of named sets that have already been evaluated
+     */
+    IsolatedEvaluatorRoot( Map<NamedSet, TupleList> namedSetValues ) {
+      super( RolapResult.this );
+      this.batchingReader =
+          new FastBatchingCellReader( execution, getCube(), execution.getMondrianStatement().getMondrianConnection()
+              .getServer().getAggregationManager() );
+      this.slicerEvaluator = new RolapEvaluator( this, RolapResult.this.slicerEvaluator, null );
+      for ( Map.Entry<NamedSet, TupleList> entry : namedSetValues.entrySet() ) {
+        putNamedSetValue( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    Object evaluateExp( Calc calc, Evaluator contextEvaluator ) {
+      return RolapResult.this.evaluateExp( calc, slicerEvaluator, contextEvaluator, batchingReader );
+    }
+
+    public Object getParameterValue( ParameterSlot slot ) {
+      // The default value of a parameter is evaluated once, and cached
+      // in the slot.
+      synchronized ( evaluationLock ) {
+        return super.getParameterValue( slot );
+      }
+    }
+  }
+
+  /**
+   * Task that evaluates part of a query on a thread of {@link EvaluationPool}. The task has its own local segment
+   * cache, which is discarded when it finishes, as the query's thread discards its cache after each query.
+   *
+   * @param <T> Result type
+   */
+  private abstract class IsolatedTask<T> implements Callable<T> {
+    private final Locus locus = Locus.peek();
+
+    public T call() {
+      Locus.push( locus );
+      final Map<RolapStar, RolapStar.Bar> bars = new HashMap<RolapStar, RolapStar.Bar>();
+      for ( RolapStar star : getCube().getSchema().getStars() ) {
+        bars.put( star, new RolapStar.Bar() );
+      }
+      final Map<RolapStar, RolapStar.Bar> savedBars = swapLocalBars( bars );
+      try {
+        return evaluate();
+      } finally {
+        swapLocalBars( savedBars );
+        Locus.pop( locus );
+      }
+    }
+
+    /**
+     * Evaluates the part of the query.
+     *
+     * @return Result
+     */
+    abstract T evaluate();
+  }
+
+  /**
+   * Sets the local segment caches of the current thread.
+   *
+   * @param bars
+   *          Local segment cache for each star
+   * @return Previous local segment cache for each star
+   */
+  private static Map<RolapStar, RolapStar.Bar> swapLocalBars( Map<RolapStar, RolapStar.Bar> bars ) {
+    final Map<RolapStar, RolapStar.Bar> previous = new HashMap<RolapStar, RolapStar.Bar>();
+    for ( Map.Entry<RolapStar, RolapStar.Bar> entry : bars.entrySet() ) {
+      previous.put( entry.getKey(), entry.getKey().getLocalBar() );
+      entry.getKey().setLocalBar( entry.getValue() );
+    }
+    return previous;
+  }
+
+  /**
+   * Collects the named sets that an expression uses, directly or via other named sets and calculated members.
+   */
+  private static class NamedSetCollector extends MdxVisitorImpl {
+    private final Map<String, NamedSet> namedSets = new LinkedHashMap<String, NamedSet>();
+    private final Set<Member> members = new HashSet<Member>();
+
+    Collection<NamedSet> getNamedSets() {
+      return namedSets.values();
+    }
+
+    public Object visit( NamedSetExpr namedSetExpr ) {
+      final NamedSet namedSet = namedSetExpr.getNamedSet();
+      if ( !namedSets.containsKey( namedSet.getNameUniqueWithinQuery() ) ) {
+        namedSets.put( namedSet.getNameUniqueWithinQuery(), namedSet );
+        namedSet.getExp().accept( this );
+      }
+      return null;
+    }
+
+    public Object visit( MemberExpr memberExpr ) {
+      final Member member = memberExpr.getMember();
+      if ( member.isCalculated() && member.getExpression() != null && members.add( member ) ) {
+        member.getExpression().accept( this );
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Evaluates the cells at a range of positions of the outermost axis, on a thread of {@link EvaluationPool}.
+   *
+   * <p>
+   * Has its own evaluator root, so that compiled expressions and cached expression results are not shared between
+   * threads, and puts cells into its own container, which is merged into {@link #cellInfos} after each pass. Shares
+   * the query thread's local segment cache, which is accessed only via the synchronized cell reader.
+   */
+  private class CellWorker implements Callable<Void> {
+    private final int start;
+    private final int end;
+    private final Map<RolapStar, RolapStar.Bar> bars;
+    private final RolapResultEvaluatorRoot root;
+    private final CellKey cellKey = CellKey.Generator.newCellKey( axes.length );
+    private final CellInfoMap cells = new CellInfoMap( cellKey );
+    private RolapEvaluator evaluator;
+
+    CellWorker( int start, int end, Map<RolapStar, RolapStar.Bar> bars, Map<NamedSet, TupleList> namedSetValues ) {
+      this.start = start;
+      this.end = end;
+      this.bars = bars;
+      this.root = new RolapResultEvaluatorRoot( RolapResult.this ) {
+        public Object getParameterValue( ParameterSlot slot ) {
+          // The default value of a parameter is evaluated once, and cached
+          // in the slot.
+          synchronized ( evaluationLock ) {
+            return super.getParameterValue( slot );
+          }
+        }
+      };
+      for ( Map.Entry<NamedSet, TupleList> entry : namedSetValues.entrySet() ) {
+        root.putNamedSetValue( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    /**
+     * Prepares for a pass.
+     *
+     * @param evaluator
+     *          Evaluator whose context is the slicer
+     * @param cellReader
+     *          Cell reader
+     */
+    void init( RolapEvaluator evaluator, CellReader cellReader ) {
+      root.clearResultCache( false );
+      this.evaluator = new RolapEvaluator( root, evaluator, null );
+      this.evaluator.setCellReader( cellReader );
+      cells.clear();
+    }
+
+    public Void call() {
+      final Locus locus = new Locus( execution, null, "Loading cells" );
+      Locus.push( locus );
+      final Map<RolapStar, RolapStar.Bar> savedBars = swapLocalBars( bars );
+      try {
+        final int axisOrdinal = axes.length - 1;
+        final TupleList tupleList = ( (RolapAxis) axes[axisOrdinal] ).getTupleList();
+        final int[] pos = new int[axes.length];
+        for ( int i = start; i < end; i++ ) {
+          cellKey.setAxis( axisOrdinal, i );
+          final int savepoint = evaluator.savepoint();
+          try {
+            evaluator.setEvalAxes( true );
+            evaluator.setContext( tupleList.get( i ) );
+            execution.checkCancelOrTimeout();
+            executeStripe( axisOrdinal - 1, evaluator, pos, cellKey, cells, false );
+          } finally {
+            evaluator.restore( savepoint );
+          }
+        }
+        return null;
+      } finally {
+        swapLocalBars( savedBars );
+        Locus.pop( locus );
+      }
+    }
+  }
+
+  /**
+   * Returns the lock that an evaluator must hold while it reads the local cache of segments directly, rather than via
+   * its cell reader, or null if it needs no lock. An evaluator of a worker that evaluates part of a query shares the
+   * local cache of the query's thread and of the other workers.
+   *
+   * @param evaluator Evaluator
+   * @return Lock, or null
+   */
+  static Object getLocalCacheLock( RolapEvaluator evaluator ) {
+    return evaluator.cellReader instanceof SynchronizedCellReader
+      ? ( (SynchronizedCellReader) evaluator.cellReader ).lock
+      : null;
+  }
+
+  /**
+   * Cell reader that allows several threads to share a {@link FastBatchingCellReader}.
+   */
+  private static class SynchronizedCellReader implements CellReader {
+    private final CellReader cellReader;
+    private final Object lock;
+
+    SynchronizedCellReader( CellReader cellReader, Object lock ) {
+      this.cellReader = cellReader;
+      this.lock = lock;
+    }
+
+    public Object get( RolapEvaluator evaluator ) {
+      synchronized ( lock ) {
+        return cellReader.get( evaluator );
+      }
+    }
+
+    public int getMissCount() {
+      synchronized ( lock ) {
+        return cellReader.getMissCount();
+      }
+    }
+
+    public boolean isDirty() {
+      synchronized ( lock ) {
+        return cellReader.isDirty();
+      }
+    }
+  }
+
+  /**
+   * Evaluation root of a worker that evaluates part of a set, on a thread of {@link EvaluationPool}. Evaluates named
+   * sets and the default values of parameters under {@link #setEvaluationLock}, not the evaluation lock, because the
+   * query's thread may hold the evaluation lock while it waits for the workers.
+   */
+  private class SetWorkerRoot extends RolapResultEvaluatorRoot {
+    SetWorkerRoot() {
+      super( RolapResult.this );
+    }
+
+    Object evaluateExp( Calc calc, Evaluator contextEvaluator ) {
+      synchronized ( setEvaluationLock ) {
+        return RolapResult.this.evaluateExp( calc, slicerEvaluator, contextEvaluator, batchingReader );
+      }
+    }
+
+    public Object getParameterValue( ParameterSlot slot ) {
+      synchronized ( setEvaluationLock ) {
+        return super.getParameterValue( slot );
+      }
+    }
+  }
+
+  /**
+   * Evaluates an expression for each tuple of a partition of a set, on a thread of {@link EvaluationPool}.
+   *
+   * @param <T> Type of the value computed for each tuple
+   */
+  private class SetWorker<T> implements Callable<List<T>> {
+    private final TupleList list;
+    private final RolapEvaluator evaluator;
+    private final Calc calc;
+    private final ParallelSetEvaluator.TupleFunction<T> function;
+    private final Map<RolapStar, RolapStar.Bar> bars;
+    private final Locus locus = Locus.peek();
+
+    SetWorker( TupleList list, RolapEvaluator evaluator, Calc calc, ParallelSetEvaluator.TupleFunction<T> function,
+        Map<RolapStar, RolapStar.Bar> bars ) {
+      this.list = list;
+      this.evaluator = evaluator;
+      this.calc = calc;
+      this.function = function;
+      this.bars = bars;
+    }
+
+    public List<T> call() {
+      Locus.push( locus );
+      final Map<RolapStar, RolapStar.Bar> savedBars = swapLocalBars( bars );
+      try {
+        final List<T> values = new ArrayList<T>( list.size() );
+        final TupleCursor cursor = list.tupleCursor();
+        int currentIteration = 0;
+        while ( cursor.forward() ) {
+          CancellationChecker.checkCancelOrTimeout( currentIteration++, execution );
+          cursor.setContext( evaluator );
+          values.add( function.apply( evaluator, calc ) );
+        }
+        return values;
+      } finally {
+        swapLocalBars( savedBars );
+        Locus.pop( locus );
+      }
+    }
+  }
+
+  /**
+   * Holder for the pool of threads that evaluate cells, axes and named sets concurrently. The pool is created on first
+   * use.
+   */
+  private static class EvaluationPool {
+    static final ForkJoinPool INSTANCE =
+        new ForkJoinPool( Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+          public ForkJoinWorkerThread newThread( ForkJoinPool pool ) {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+            thread.setDaemon( true );
+            thread.setName( "mondrian.rolap.RolapResult$EvaluationPool_" + thread.getPoolIndex() );
+            return thread;
+          }
+        }, null, false );
+  }
+
   /**
    * Formatter to convert values into formatted strings.
    *
@@ -1957,6 +2789,24 @@ public class RolapResult extends ResultBase {
       CellKey key = CellKey.Generator.newCellKey( pos );
       return this.cellInfoMap.get( key );
     }
+    /**
+     * Copies the cells of this container into another container.
+     *
+     * @param target
+     *          Target container
+     * @param targetPoint
+     *          Cell position used by the target container; modified
+     */
+    void copyTo( CellInfoContainer target, CellKey targetPoint ) {
+      for ( Map.Entry<CellKey, CellInfo> entry : this.cellInfoMap.entrySet() ) {
+        final int[] pos = entry.getKey().getOrdinals();
+        targetPoint.setOrdinals( pos );
+        final CellInfo ci = target.create( pos );
+        ci.value = entry.getValue().value;
+        ci.formatString = entry.getValue().formatString;
+        ci.valueFormatter = entry.getValue().valueFormatter;
+      }
+    }
   }
 
   /**
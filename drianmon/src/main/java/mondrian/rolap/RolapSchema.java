@@ -153,6 +153,13 @@ public class RolapSchema implements Schema {
     private final List<Exception> warningList = new ArrayList<Exception>();
     private Map<String, Annotation> annotationMap;
 
+    /**
+     * Writes the member caches of this schema to a file when the schema is
+     * flushed, and restores them when it is loaded; null if member cache
+     * snapshots are disabled.
+     */
+    private MemberCacheSnapshot memberCacheSnapshot;
+
     /**
      * Unique schema instance id that will be used
      * to inform clients when the schema has changed.
@@ -219,6 +226,13 @@ public class RolapSchema implements Schema {
         this(key, connectInfo, dataSource, md5Bytes, md5Bytes != null);
         load(catalogUrl, catalogStr, connectInfo);
         assert this.md5Bytes != null;
+
+        // Restore member caches written when a schema with the same content
+        // was last flushed.
+        memberCacheSnapshot = MemberCacheSnapshot.create(this);
+        if (memberCacheSnapshot != null) {
+            memberCacheSnapshot.load();
+        }
     }
 
     /**
@@ -247,6 +261,14 @@ public class RolapSchema implements Schema {
         }
     }
 
+    /**
+     * Returns the handler that writes the member caches of this schema to a
+     * snapshot file, or null if snapshots are disabled.
+     */
+    MemberCacheSnapshot getMemberCacheSnapshot() {
+        return memberCacheSnapshot;
+    }
+
     /**
      * Clears the cache of JDBC tables for the aggs.
      */
@@ -263,6 +285,21 @@ public class RolapSchema implements Schema {
      * Only called internally when a schema and it's data must be refreshed.
      */
     protected void finalCleanUp() {
+        // Save the member caches, so that the next schema with the same
+        // content can start warm.
+        if (memberCacheSnapshot != null) {
+            memberCacheSnapshot.save();
+        }
+
+        // Member readers this schema shares with other schemas belong to
+        // it; those schemas must be flushed too.
+        SharedMemberReaderPool.instance().release(this);
+
+        // Queries compiled against this schema, and expression results
+        // computed in it, can no longer be reused.
+        QueryPlanCache.instance().flush(this);
+        ExpResultCache.flush(this);
+
         // Cleanup the segment data.
         flushSegments();
 
@@ -1175,7 +1212,21 @@ public class RolapSchema implements Schema {
         if (sharedName != null) {
             reader = mapSharedHierarchyToReader.get(sharedName);
             if (reader == null) {
-                reader = createMemberReader(hierarchy, memberReaderClass);
+                if (memberReaderClass == null
+                    && MondrianProperties.instance().ShareMemberCaches.get()
+                    && SharedMemberReaderPool.canShare(this, hierarchy))
+                {
+                    reader = SharedMemberReaderPool.instance().get(
+                        this,
+                        hierarchy,
+                        new Util.Functor1<MemberReader, RolapHierarchy>() {
+                            public MemberReader apply(RolapHierarchy h) {
+                                return createMemberReader(h, null);
+                            }
+                        });
+                } else {
+                    reader = createMemberReader(hierarchy, memberReaderClass);
+                }
                 // share, for other uses of the same shared hierarchy
                 if (false) {
                     mapSharedHierarchyToReader.put(sharedName, reader);
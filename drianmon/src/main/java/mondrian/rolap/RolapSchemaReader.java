@@ -556,6 +556,25 @@ public class RolapSchemaReader
         return childMembers;
     }
 
+    public List<Member> lookupMemberChildrenByNames(
+        List<Member> parents,
+        List<Id.NameSegment> childNames,
+        MatchType matchType)
+    {
+        if (parents.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Member firstParent = parents.get(0);
+        MemberChildrenConstraint constraint = sqlConstraintFactory
+            .getChildrenByNamesConstraint(
+                (RolapMember) firstParent, childNames);
+        final List<RolapMember> rolapParents = Util.cast(parents);
+        final List<RolapMember> children = new ArrayList<RolapMember>();
+        getMemberReader(firstParent.getHierarchy()).getMemberChildren(
+            rolapParents, children, constraint);
+        return new ArrayList<Member>(children);
+    }
+
     public Member getCalculatedMember(List<Id.Segment> nameParts) {
         // There are no calculated members defined against a schema.
         return null;
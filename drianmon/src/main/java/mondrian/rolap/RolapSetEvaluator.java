@@ -89,9 +89,7 @@ class RolapSetEvaluator
                 rrer.getCompiled(
                     exp, false, ResultStyle.ITERABLE);
             TupleIterable iterable =
-                    (TupleIterable) rrer.result.evaluateExp(
-                        calc,
-                        rrer.result.slicerEvaluator, null);
+                    (TupleIterable) rrer.evaluateExp(calc, null);
 
             // Axes can be in two forms: list or iterable. If iterable, we
             // need to materialize it, to ensure that all cell values are in
@@ -173,6 +173,52 @@ public class RolapStar {
         return null;
     }
 
+    /**
+     * Looks up the segment in the local cache that contains the cell of a
+     * given request.
+     *
+     * @param request Cell request
+     * @return Segment, or null if no segment in the local cache contains the
+     * requested cell
+     */
+    public SegmentWithData getSegmentFromCache(CellRequest request) {
+        AggregationKey aggregationKey = new AggregationKey(request);
+
+        final Bar bar = localBars.get();
+        for (SegmentWithData segment : Util.GcIterator.over(bar.segmentRefs)) {
+            if (segment.getConstrainedColumnsBitKey().equals(
+                    request.getConstrainedColumnsBitKey())
+                && segment.matches(aggregationKey, request.getMeasure())
+                && segment.isOccupied(request.getSingleValues()) != null)
+            {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the segment in the local cache that contains the cell of a
+     * given request, holding a lock if the local cache is shared with other
+     * threads.
+     *
+     * @param request Cell request
+     * @param lock Lock that guards the local cache, or null if the cache
+     *     belongs to the current thread only
+     * @return Segment, or null if no segment in the local cache contains the
+     * requested cell
+     *
+     * @see RolapResult#getLocalCacheLock(RolapEvaluator)
+     */
+    SegmentWithData getSegmentFromCache(CellRequest request, Object lock) {
+        if (lock == null) {
+            return getSegmentFromCache(request);
+        }
+        synchronized (lock) {
+            return getSegmentFromCache(request);
+        }
+    }
+
     public Object getCellFromAllCaches(final CellRequest request) {
         // First, try the local/thread cache.
         Object result = getCellFromCache(request, null);
@@ -198,6 +244,32 @@ public class RolapStar {
             new SoftReference<SegmentWithData>(segment));
     }
 
+    /**
+     * Returns the local cache of the current thread.
+     *
+     * @return Local cache
+     */
+    Bar getLocalBar() {
+        return localBars.get();
+    }
+
+    /**
+     * Sets the local cache of the current thread. Allows a thread that
+     * evaluates part of a query to see the segments loaded by the query's
+     * thread, or to use a cache of its own that it discards afterwards. The
+     * caller must ensure that threads sharing a cache do not access it
+     * concurrently.
+     *
+     * @param bar Local cache, or null to revert to a cache of the thread's own
+     */
+    void setLocalBar(Bar bar) {
+        if (bar == null) {
+            localBars.remove();
+        } else {
+            localBars.set(bar);
+        }
+    }
+
     public RolapStatisticsCache getStatisticsCache() {
         return statisticsCache;
     }
@@ -0,0 +1,319 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Access;
+import mondrian.olap.Member;
+import mondrian.olap.Util;
+import mondrian.rolap.sql.MemberChildrenConstraint;
+import mondrian.rolap.sql.TupleConstraint;
+import mondrian.util.ByteString;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of member readers for shared dimensions, shared between schemas.
+ *
+ * <p>A dynamic schema processor may generate a slightly different schema for
+ * each tenant or role, and {@link RolapSchemaPool} creates a separate
+ * {@link RolapSchema} for each. Most of their shared dimensions are
+ * identical, however. If
+ * {@link mondrian.olap.MondrianProperties#ShareMemberCaches} is enabled,
+ * {@link RolapSchema} asks this pool for the member reader of each shared
+ * hierarchy, and a hierarchy whose definition and connection are the same as
+ * one already loaded gets that hierarchy's reader, and so its member cache.
+ *
+ * <p>The key is an MD5 hash of the hierarchy's unique name, its XML
+ * definition, its relation and the {@link ConnectionKey} of the schema.
+ *
+ * <p>A shared reader, and the members in its cache, belong to the schema
+ * that created it (the owner). Other schemas use it through a
+ * {@link RebindingMemberReader}, which passes the owner's levels to it in
+ * place of their own, so that the cache never refers to them. When the
+ * owner is flushed, its readers are removed from the pool, and the schemas
+ * that use them are flushed too; so a shared reader never outlives its
+ * schema.
+ *
+ * <p>Readers are held weakly; a reader is released when no schema uses it.
+ *
+ * <p>To lookup a reader, call
+ * <code>SharedMemberReaderPool.{@link #instance}().{@link #get}</code>.
+ */
+class SharedMemberReaderPool {
+    private static final Logger LOGGER =
+        LogManager.getLogger(SharedMemberReaderPool.class);
+
+    private static final SharedMemberReaderPool INSTANCE =
+        new SharedMemberReaderPool();
+
+    private final Map<ByteString, WeakReference<MemberReader>> map =
+        new HashMap<ByteString, WeakReference<MemberReader>>();
+
+    /**
+     * Schemas that use a reader owned by another schema, by owner. Both
+     * sides are weak, so that the map does not keep a schema alive.
+     */
+    private final Map<RolapSchema, Set<RolapSchema>> dependents =
+        new WeakHashMap<RolapSchema, Set<RolapSchema>>();
+
+    private SharedMemberReaderPool() {
+    }
+
+    static SharedMemberReaderPool instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the member reader for a shared hierarchy, creating it if no
+     * schema has an identical hierarchy.
+     *
+     * @param schema Schema the hierarchy belongs to
+     * @param hierarchy Shared hierarchy
+     * @param factory Creates a reader if there is none to share
+     * @return Member reader
+     */
+    synchronized MemberReader get(
+        RolapSchema schema,
+        RolapHierarchy hierarchy,
+        Util.Functor1<MemberReader, RolapHierarchy> factory)
+    {
+        final ByteString key = makeKey(schema, hierarchy);
+        final WeakReference<MemberReader> ref = map.get(key);
+        MemberReader reader = ref == null ? null : ref.get();
+        if (reader != null) {
+            final RolapSchema owner = reader.getHierarchy().getRolapSchema();
+            if (owner == schema) {
+                return reader;
+            }
+            LOGGER.debug(
+                "Sharing member reader for hierarchy "
+                + hierarchy.getUniqueName() + " with another schema");
+            Set<RolapSchema> schemas = dependents.get(owner);
+            if (schemas == null) {
+                schemas =
+                    Collections.newSetFromMap(
+                        new WeakHashMap<RolapSchema, Boolean>());
+                dependents.put(owner, schemas);
+            }
+            schemas.add(schema);
+            return new RebindingMemberReader(reader, hierarchy);
+        }
+        purge();
+        reader = factory.apply(hierarchy);
+        map.put(key, new WeakReference<MemberReader>(reader));
+        return reader;
+    }
+
+    /**
+     * Called when a schema is flushed. Removes the readers that the schema
+     * owns, and flushes the schemas that use them, because the members in
+     * their caches belong to the schema.
+     *
+     * @param schema Schema being flushed
+     */
+    void release(RolapSchema schema) {
+        final List<RolapSchema> schemas = new ArrayList<RolapSchema>();
+        synchronized (this) {
+            for (Iterator<WeakReference<MemberReader>> iterator =
+                     map.values().iterator();
+                 iterator.hasNext();)
+            {
+                final MemberReader reader = iterator.next().get();
+                if (reader == null
+                    || reader.getHierarchy().getRolapSchema() == schema)
+                {
+                    iterator.remove();
+                }
+            }
+            final Set<RolapSchema> set = dependents.remove(schema);
+            if (set != null) {
+                schemas.addAll(set);
+            }
+        }
+        for (RolapSchema dependent : schemas) {
+            LOGGER.debug(
+                "Flushing schema " + dependent.getName()
+                + ", which shares member readers with a flushed schema");
+            RolapSchemaPool.instance().remove(dependent);
+        }
+    }
+
+    /** Removes entries whose reader has been garbage-collected. */
+    private void purge() {
+        for (Iterator<WeakReference<MemberReader>> iterator =
+                 map.values().iterator();
+             iterator.hasNext();)
+        {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static ByteString makeKey(
+        RolapSchema schema,
+        RolapHierarchy hierarchy)
+    {
+        final StringBuilder buf = new StringBuilder();
+        ConnectionKey.attributeValue(
+            buf, "connection", schema.key == null ? null : schema.key.right);
+        ConnectionKey.attributeValue(
+            buf, "hierarchy", hierarchy.getUniqueName());
+        ConnectionKey.attributeValue(
+            buf,
+            "definition",
+            hierarchy.xmlHierarchy == null
+                ? null
+                : hierarchy.xmlHierarchy.toCompactXML());
+        ConnectionKey.attributeValue(
+            buf,
+            "relation",
+            hierarchy.getRelation() == null
+                ? null
+                : hierarchy.getRelation().toCompactXML());
+        return new ByteString(Util.digestMd5(buf.toString()));
+    }
+
+    /**
+     * Returns whether a hierarchy is eligible for sharing.
+     *
+     * @param schema Schema
+     * @param hierarchy Hierarchy
+     * @return Whether the hierarchy's member reader may be shared
+     */
+    static boolean canShare(RolapSchema schema, RolapHierarchy hierarchy) {
+        return schema.key != null
+            && hierarchy.xmlHierarchy != null
+            && !(hierarchy instanceof RolapCubeHierarchy)
+            && !hierarchy.getDimension().isHighCardinality();
+    }
+
+    /**
+     * Member reader through which a schema uses a reader owned by another
+     * schema.
+     *
+     * <p>The schema's levels, and its all member, are replaced by the
+     * equivalent objects of the owner's hierarchy before they are passed to
+     * the shared reader, so that they do not become keys of the shared
+     * cache, and members are read in the owner's levels. Queries see the
+     * members wrapped as {@link RolapCubeMember}s, whose levels are those of
+     * the schema's own cubes.
+     */
+    static class RebindingMemberReader extends DelegatingMemberReader {
+        private final RolapHierarchy hierarchy;
+        private final RolapHierarchy sharedHierarchy;
+
+        RebindingMemberReader(
+            MemberReader memberReader,
+            RolapHierarchy hierarchy)
+        {
+            super(memberReader);
+            this.hierarchy = hierarchy;
+            this.sharedHierarchy = memberReader.getHierarchy();
+        }
+
+        private RolapLevel rebind(RolapLevel level) {
+            if (level == null || level.getHierarchy() != hierarchy) {
+                return level;
+            }
+            return (RolapLevel) sharedHierarchy.getLevels()[level.getDepth()];
+        }
+
+        private RolapMember rebind(RolapMember member) {
+            return member == hierarchy.getAllMember()
+                ? sharedHierarchy.getAllMember()
+                : member;
+        }
+
+        private List<RolapMember> rebind(List<RolapMember> members) {
+            if (!members.contains(hierarchy.getAllMember())) {
+                return members;
+            }
+            final List<RolapMember> list =
+                new ArrayList<RolapMember>(members.size());
+            for (RolapMember member : members) {
+                list.add(rebind(member));
+            }
+            return list;
+        }
+
+        public RolapHierarchy getHierarchy() {
+            return hierarchy;
+        }
+
+        public RolapMember getMemberByKey(
+            RolapLevel level, List<Comparable> keyValues)
+        {
+            return memberReader.getMemberByKey(rebind(level), keyValues);
+        }
+
+        public List<RolapMember> getMembersInLevel(RolapLevel level) {
+            return memberReader.getMembersInLevel(rebind(level));
+        }
+
+        public List<RolapMember> getMembersInLevel(
+            RolapLevel level, TupleConstraint constraint)
+        {
+            return memberReader.getMembersInLevel(rebind(level), constraint);
+        }
+
+        public int getLevelMemberCount(RolapLevel level) {
+            return memberReader.getLevelMemberCount(rebind(level));
+        }
+
+        public void getMemberRange(
+            RolapLevel level,
+            RolapMember startMember,
+            RolapMember endMember,
+            List<RolapMember> list)
+        {
+            memberReader.getMemberRange(
+                rebind(level), rebind(startMember), rebind(endMember), list);
+        }
+
+        public Map<? extends Member, Access> getMemberChildren(
+            RolapMember parentMember,
+            List<RolapMember> children,
+            MemberChildrenConstraint constraint)
+        {
+            return memberReader.getMemberChildren(
+                rebind(parentMember), children, constraint);
+        }
+
+        public void getMemberChildren(
+            List<RolapMember> parentMembers,
+            List<RolapMember> children)
+        {
+            memberReader.getMemberChildren(rebind(parentMembers), children);
+        }
+
+        public Map<? extends Member, Access> getMemberChildren(
+            List<RolapMember> parentMembers,
+            List<RolapMember> children,
+            MemberChildrenConstraint constraint)
+        {
+            return memberReader.getMemberChildren(
+                rebind(parentMembers), children, constraint);
+        }
+    }
+}
+
+// End SharedMemberReaderPool.java
@@ -148,6 +148,16 @@ public class SmartMemberReader implements MemberReader {
                 return members;
             }
 
+            if (constraint == DefaultTupleConstraint.instance()) {
+                // If the members may be written to a snapshot, check the
+                // freshness of the dimension before reading them.
+                final MemberCacheSnapshot snapshot =
+                    level.getHierarchy().getRolapSchema()
+                        .getMemberCacheSnapshot();
+                if (snapshot != null) {
+                    snapshot.levelLoading(level);
+                }
+            }
             members =
                 source.getMembersInLevel(
                     level, constraint);
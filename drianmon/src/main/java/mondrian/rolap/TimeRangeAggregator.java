@@ -0,0 +1,282 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2021 Hitachi Vantara and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.TupleList;
+import mondrian.olap.Access;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Member;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.SchemaReader;
+import mondrian.olap.Util;
+import mondrian.rolap.agg.RangeColumnPredicate;
+import mondrian.rolap.agg.ValueColumnPredicate;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes the aggregate of a stored measure over a range of periods, such as
+ * those returned by <code>Ytd</code>, <code>PeriodsToDate</code> or
+ * <code>LastPeriods</code>, as a single cell.
+ *
+ * <p>Evaluating <code>Sum(Ytd(), [Measures].[Unit Sales])</code> tuple by
+ * tuple requests a cell for every day of the year. {@link #aggregate} instead
+ * evaluates the measure once, in a context whose aggregation list is the
+ * periods, so the cell request carries a compound predicate on the time key,
+ * and the cell is loaded by one SQL statement or rolled up from cached
+ * segments by {@link CachedRollupAggregator}.
+ *
+ * <p>If the periods are a contiguous run of members of a level whose keys
+ * are unique and ascending, {@link #makeRangePredicate} expresses the
+ * compound predicate as a range on the key column rather than a list of its
+ * values.
+ *
+ * <p>Both are used only if {@link MondrianProperties#EnableNativeTimeRange}
+ * is true.
+ */
+public final class TimeRangeAggregator {
+    /**
+     * Minimum number of members for which {@link #makeRangePredicate}
+     * creates a range; a list of one or two values is as good.
+     */
+    private static final int MIN_RANGE_SIZE = 3;
+
+    private TimeRangeAggregator() {
+    }
+
+    /**
+     * Aggregates the current measure over a list of members as one cell.
+     *
+     * <p>Returns null if the aggregate cannot be computed that way: if the
+     * current measure is calculated, or its aggregator does not roll up
+     * (distinct-count and average), or the context contains calculated
+     * members, or the list is not a list of stored members of one level.
+     *
+     * @param evaluator Evaluator; its measure is the one to aggregate
+     * @param tupleList List of members
+     * @param sum Whether the values are to be summed (as by the
+     *     <code>Sum</code> function) rather than aggregated using the
+     *     measure's aggregator (as by <code>Aggregate</code>)
+     * @return Aggregated value, {@link Util#nullValue} if every cell is
+     *     empty, or null if the value cannot be computed as one cell
+     */
+    public static Object aggregate(
+        RolapEvaluator evaluator,
+        TupleList tupleList,
+        boolean sum)
+    {
+        if (tupleList.getArity() != 1 || tupleList.size() < 2) {
+            return null;
+        }
+        final Member measure = evaluator.getMembers()[0];
+        if (!(measure instanceof RolapStoredMeasure)) {
+            return null;
+        }
+        final RolapAggregator aggregator =
+            ((RolapStoredMeasure) measure).getAggregator();
+        if (aggregator != RolapAggregator.Sum
+            && aggregator != RolapAggregator.Count
+            && (sum
+                || aggregator != RolapAggregator.Min
+                && aggregator != RolapAggregator.Max))
+        {
+            return null;
+        }
+        final RolapCube cube = ((RolapStoredMeasure) measure).getCube();
+        RolapCubeLevel level = null;
+        for (Member member : tupleList.slice(0)) {
+            if (!(member instanceof RolapCubeMember)
+                || member.isCalculated()
+                || member.isAll())
+            {
+                return null;
+            }
+            if (level == null) {
+                level = ((RolapCubeMember) member).getLevel();
+                if (level.getBaseStarKeyColumn(cube) == null) {
+                    return null;
+                }
+            } else if (member.getLevel() != level) {
+                return null;
+            }
+        }
+        if (evaluator.getSchemaReader().getRole().getAccess(
+                level.getHierarchy()) != Access.ALL)
+        {
+            return null;
+        }
+        final int savepoint = evaluator.savepoint();
+        try {
+            evaluator.setNonEmpty(false);
+            evaluator.setContext(tupleList.get(0).get(0));
+            if (evaluator.hasCalculations()) {
+                return null;
+            }
+            final Object o =
+                CachedRollupAggregator.aggregate(
+                    evaluator, tupleList, aggregator.getRollup());
+            if (o != null) {
+                return o;
+            }
+            final Evaluator evaluator2 = evaluator.pushAggregation(tupleList);
+            evaluator2.setNonEmpty(false);
+            return evaluator2.evaluateCurrent();
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Creates a predicate that constrains a column to the keys of a list of
+     * members, as a range, if the members are all of the members of their
+     * level between the lowest and highest key.
+     *
+     * <p>Returns null unless the members are of one time level whose
+     * members are unique, whose keys are numbers or dates (whose order in
+     * the database is the same as in Java), unique and ascending, and to all
+     * of whose members the current role has access. Only time levels are
+     * considered, because checking the order reads every member of the
+     * level.
+     *
+     * @param column Key column of the members' level
+     * @param members Members
+     * @param evaluator Evaluator
+     * @return Range predicate, or null
+     */
+    static RangeColumnPredicate makeRangePredicate(
+        RolapStar.Column column,
+        List<RolapCubeMember> members,
+        Evaluator evaluator)
+    {
+        if (!MondrianProperties.instance().EnableNativeTimeRange.get()
+            || members.size() < MIN_RANGE_SIZE
+            || evaluator == null)
+        {
+            return null;
+        }
+        final RolapCubeLevel level = members.get(0).getLevel();
+        if (!level.getLevelType().isTime()
+            || !level.isUnique()
+            || evaluator.getSchemaReader().getRole().getAccess(
+                level.getHierarchy()) != Access.ALL)
+        {
+            return null;
+        }
+        final Object[] keys =
+            getLevelKeys(level, evaluator.getSchemaReader());
+        if (keys == null) {
+            return null;
+        }
+        final Set<Object> memberKeys = new HashSet<Object>();
+        Comparable<Object> lower = null;
+        Comparable<Object> upper = null;
+        for (RolapCubeMember member : members) {
+            if (member.getLevel() != level || member.isCalculated()) {
+                return null;
+            }
+            final Object key = member.getKey();
+            if (!isOrdered(key)
+                || key.getClass() != keys[0].getClass()
+                || !memberKeys.add(key))
+            {
+                return null;
+            }
+            final Comparable<Object> comparable = comparable(key);
+            if (lower == null || comparable.compareTo(lower) < 0) {
+                lower = comparable;
+            }
+            if (upper == null || comparable.compareTo(upper) > 0) {
+                upper = comparable;
+            }
+        }
+        // The members, whose keys are distinct, are the whole run if the run
+        // between the lowest and highest key is no longer.
+        final int from = Arrays.binarySearch(keys, lower);
+        final int to = Arrays.binarySearch(keys, upper);
+        if (from < 0 || to < 0 || to - from + 1 != members.size()) {
+            return null;
+        }
+        return new RangeColumnPredicate(
+            column,
+            true,
+            new ValueColumnPredicate(column, lower),
+            true,
+            new ValueColumnPredicate(column, upper));
+    }
+
+    /**
+     * Returns the keys of the members of a level, in order, or null if they
+     * are not unique, ascending numbers or dates.
+     */
+    private static Object[] getLevelKeys(
+        RolapCubeLevel level,
+        SchemaReader schemaReader)
+    {
+        // The member reader caches the list, so the list is the same object
+        // until the cache is flushed. The keys are held by the level, so
+        // that they go away with its schema.
+        final List<Member> members =
+            schemaReader.getLevelMembers(level, (Evaluator) null);
+        final LevelKeys levelKeys = level.getTimeRangeKeys();
+        if (levelKeys != null && levelKeys.members == members) {
+            return levelKeys.keys;
+        }
+        Object[] keys = new Object[members.size()];
+        for (int i = 0; i < keys.length; i++) {
+            final Object key = members.get(i).isCalculated()
+                ? null
+                : ((RolapMember) members.get(i)).getKey();
+            if (!isOrdered(key)
+                || i > 0
+                && (key.getClass() != keys[0].getClass()
+                    || comparable(key).compareTo(keys[i - 1]) <= 0))
+            {
+                keys = null;
+                break;
+            }
+            keys[i] = key;
+        }
+        if (keys != null && keys.length == 0) {
+            keys = null;
+        }
+        level.setTimeRangeKeys(new LevelKeys(members, keys));
+        return keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> comparable(Object key) {
+        return (Comparable<Object>) key;
+    }
+
+    private static boolean isOrdered(Object key) {
+        return key instanceof Number && key instanceof Comparable
+            || key instanceof Date;
+    }
+
+    /**
+     * Keys of the members of a level, if they are unique and ascending,
+     * together with the list of members they were computed from.
+     */
+    static class LevelKeys {
+        final List<Member> members;
+        final Object[] keys;
+
+        LevelKeys(List<Member> members, Object[] keys) {
+            this.members = members;
+            this.keys = keys;
+        }
+    }
+}
+
+// End TimeRangeAggregator.java
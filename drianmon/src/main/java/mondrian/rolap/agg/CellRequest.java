@@ -279,6 +279,16 @@ public class CellRequest {
         return compoundPredicateMap;
     }
 
+    /**
+     * Returns whether this request has compound predicates.
+     *
+     * @return whether there are compound predicates
+     */
+    public boolean hasCompoundPredicates() {
+        return compoundPredicateMap != null
+            && !compoundPredicateMap.isEmpty();
+    }
+
     public List<String> getCompoundPredicateStrings() {
         if (compoundPredicateStrings != null) {
             return Collections.unmodifiableList(compoundPredicateStrings);
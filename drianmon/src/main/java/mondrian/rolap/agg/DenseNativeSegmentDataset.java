@@ -13,6 +13,7 @@
 
 package mondrian.rolap.agg;
 
+import java.util.Arrays;
 import java.util.BitSet;
 
 import mondrian.rolap.CellKey;
@@ -48,6 +49,16 @@ abstract class DenseNativeSegmentDataset extends DenseSegmentDataset {
         return isNull(offset);
     }
 
+    @Override
+    public BitSet getOccupancy(int[] axisMultipliers) {
+        assert Arrays.equals(axisMultipliers, this.axisMultipliers);
+        // Native values are null where the null indicator is set.
+        final BitSet occupancy = new BitSet(getSize());
+        occupancy.set(0, getSize());
+        occupancy.andNot(nullValues);
+        return occupancy;
+    }
+
     /**
      * Returns whether the value at the given offset is null.
      *
@@ -13,6 +13,8 @@
 
 package mondrian.rolap.agg;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -103,6 +105,18 @@ outer:
 
     protected abstract int getSize();
 
+    public BitSet getOccupancy(int[] axisMultipliers) {
+        assert Arrays.equals(axisMultipliers, this.axisMultipliers);
+        final int size = getSize();
+        final BitSet occupancy = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (getObject(i) != null) {
+                occupancy.set(i);
+            }
+        }
+        return occupancy;
+    }
+
     /**
      * Iterator over a DenseSegmentDataset.
      *
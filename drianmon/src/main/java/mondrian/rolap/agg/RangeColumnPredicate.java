@@ -11,7 +11,9 @@ package mondrian.rolap.agg;
 
 import java.util.Collection;
 
+import mondrian.olap.Util;
 import mondrian.rolap.*;
+import mondrian.rolap.sql.SqlQuery;
 
 /**
  * Predicate constraining a column to be greater than or less than a given
@@ -59,9 +61,9 @@ public class RangeColumnPredicate extends AbstractColumnPredicate {
 
     public int hashCode() {
         int h = lowerInclusive ? 2 : 1;
-        h = 31 * h + lowerBound.hashCode();
+        h = 31 * h + Util.hash(0, lowerBound);
         h = 31 * h + (upperInclusive ? 2 : 1);
-        h = 31 * h + upperBound.hashCode();
+        h = 31 * h + Util.hash(0, upperBound);
         return h;
     }
 
@@ -70,14 +72,21 @@ public class RangeColumnPredicate extends AbstractColumnPredicate {
             RangeColumnPredicate that =
                 (RangeColumnPredicate) obj;
             return this.lowerInclusive == that.lowerInclusive
-                && this.lowerBound.equals(that.lowerBound)
+                && Util.equals(this.lowerBound, that.lowerBound)
                 && this.upperInclusive == that.upperInclusive
-                && this.upperBound.equals(that.upperBound);
+                && Util.equals(this.upperBound, that.upperBound);
         } else {
             return false;
         }
     }
 
+    public boolean equalConstraint(StarPredicate that) {
+        return that instanceof RangeColumnPredicate
+            && getConstrainedColumnBitKey().equals(
+                that.getConstrainedColumnBitKey())
+            && equals(that);
+    }
+
     public void values(Collection<Object> collection) {
         // Besides the end points, don't know what values may be in the range.
         // FIXME: values() is only a half-useful method. Replace it?
@@ -124,6 +133,30 @@ public class RangeColumnPredicate extends AbstractColumnPredicate {
         buf.append(")");
     }
 
+    public void toSql(SqlQuery sqlQuery, StringBuilder buf) {
+        final RolapStar.Column column = getConstrainedColumn();
+        final String expr = column.generateExprString(sqlQuery);
+        if (lowerBound == null && upperBound == null) {
+            buf.append("true");
+            return;
+        }
+        if (lowerBound != null) {
+            buf.append(expr);
+            buf.append(lowerInclusive ? " >= " : " > ");
+            sqlQuery.getDialect().quote(
+                buf, lowerBound.getValue(), column.getDatatype());
+        }
+        if (upperBound != null) {
+            if (lowerBound != null) {
+                buf.append(" and ");
+            }
+            buf.append(expr);
+            buf.append(upperInclusive ? " <= " : " < ");
+            sqlQuery.getDialect().quote(
+                buf, upperBound.getValue(), column.getDatatype());
+        }
+    }
+
     public Overlap intersect(StarColumnPredicate predicate) {
         throw new UnsupportedOperationException();
     }
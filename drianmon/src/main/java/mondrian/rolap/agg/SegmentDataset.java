@@ -67,6 +67,19 @@ public interface SegmentDataset extends Iterable<Map.Entry<CellKey, Object>> {
      */
     boolean exists(CellKey pos);
 
+    /**
+     * Returns a bitmap of the cells that have a value.
+     *
+     * <p>The bit for a cell is at the offset of its {@link CellKey},
+     * computed using the given axis multipliers; the bit is set if the
+     * cell's value is not null.
+     *
+     * @param axisMultipliers For each axis, the product of the lengths of
+     *     the following axes
+     * @return Bitmap of non-null cells
+     */
+    BitSet getOccupancy(int[] axisMultipliers);
+
     /**
      * Returns the number of bytes occupied by this dataset.
      *
@@ -52,6 +52,16 @@ public class SegmentWithData extends Segment {
      */
     private final SegmentDataset data;
 
+    /**
+     * Bitmap of cells that have a value, indexed by cell offset; computed
+     * on first use by {@link #isOccupied(Object[])}. Null if not yet
+     * computed, or if the segment has too many cells to index.
+     */
+    private volatile BitSet occupancy;
+
+    /** Multiplier of each axis's offset in an index of {@link #occupancy}. */
+    private int[] axisMultipliers;
+
     /**
      * Creates a SegmentWithData from an existing Segment.
      *
@@ -184,6 +194,68 @@ public class SegmentWithData extends Segment {
         }
     }
 
+    /**
+     * Returns whether the cell at the location identified by
+     * <code>keys</code> has a value.
+     *
+     * <p>Returns the same answer as {@link #getCellValue(Object[])}, but
+     * uses a bitmap of the segment's non-null cells, and does not
+     * allocate.</p>
+     *
+     * @param keys Column values
+     * @return {@link Boolean#TRUE} if the cell has a value,
+     *     {@link Boolean#FALSE} if it is null, or <code>null</code> if the
+     *     cell is not supposed to be in this segment
+     */
+    public Boolean isOccupied(Object[] keys) {
+        final BitSet occupancy = getOccupancy();
+        if (occupancy == null) {
+            final Object o = getCellValue(keys);
+            return o == null ? null : o != Util.nullValue;
+        }
+        assert keys.length == axes.length;
+        int missed = 0;
+        int cellOffset = 0;
+        for (int i = 0; i < keys.length; i++) {
+            Comparable key = (Comparable) keys[i];
+            int offset = axes[i].getOffset(key);
+            if (offset < 0) {
+                if (axes[i].wouldContain(key)) {
+                    missed++;
+                    continue;
+                } else {
+                    return null;
+                }
+            }
+            cellOffset += offset * axisMultipliers[i];
+        }
+        if (isExcluded(keys)) {
+            return null;
+        }
+        return missed == 0 && occupancy.get(cellOffset);
+    }
+
+    private BitSet getOccupancy() {
+        BitSet occupancy = this.occupancy;
+        if (occupancy == null && axisMultipliers == null) {
+            final int[] multipliers = new int[axes.length];
+            long multiplier = 1;
+            for (int i = axes.length - 1; i >= 0; --i) {
+                multipliers[i] = (int) multiplier;
+                multiplier *= axes[i].getKeys().length;
+                if (multiplier > Integer.MAX_VALUE) {
+                    // Too many cells to index by an int offset.
+                    axisMultipliers = new int[0];
+                    return null;
+                }
+            }
+            occupancy = data.getOccupancy(multipliers);
+            axisMultipliers = multipliers;
+            this.occupancy = occupancy;
+        }
+        return occupancy;
+    }
+
     /**
      * Returns whether the given set of key values will be in this segment
      * when it finishes loading.
@@ -76,6 +76,16 @@ class SparseSegmentDataset implements SegmentDataset {
         values.put(key, value);
     }
 
+    public BitSet getOccupancy(int[] axisMultipliers) {
+        final BitSet occupancy = new BitSet();
+        for (Map.Entry<CellKey, Object> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                occupancy.set(entry.getKey().getOffset(axisMultipliers));
+            }
+        }
+        return occupancy;
+    }
+
     public Iterator<Map.Entry<CellKey, Object>> iterator() {
         return values.entrySet().iterator();
     }
@@ -46,7 +46,10 @@ public class Execution {
    */
   private final Map<Locus, java.sql.Statement> statements = new HashMap<Locus, java.sql.Statement>();
 
-  private State state = State.FRESH;
+  /**
+   * State of this execution. Volatile so that {@link #checkCancelOrTimeout()} can read it without taking a lock.
+   */
+  private volatile State state = State.FRESH;
 
   /**
    * Lock monitor for SQL statements. All operations on {@link Execution#statements} need to be synchronized on this.
@@ -170,14 +173,32 @@ public class Execution {
    * the user thread.
    * <p>
    * It won't throw anything if the query has successfully completed.
+   * <p>
+   * This method is called very often (for instance, every time an evaluator is pushed), so the common case of a
+   * running query that has not timed out is handled without taking a lock: a read of the volatile state and, if the
+   * query has a timeout, of the clock.
    * 
    * @throws MondrianException
    *           The exception encountered.
    */
-  public synchronized void checkCancelOrTimeout() throws MondrianException {
+  public void checkCancelOrTimeout() throws MondrianException {
     if ( parent != null ) {
       parent.checkCancelOrTimeout();
     }
+    switch ( this.state ) {
+      case FRESH:
+      case DONE:
+        return;
+      case RUNNING:
+        if ( timeoutTimeMillis == 0L || System.currentTimeMillis() <= timeoutTimeMillis ) {
+          return;
+        }
+        break;
+    }
+    checkCancelOrTimeoutLocked();
+  }
+
+  private synchronized void checkCancelOrTimeoutLocked() throws MondrianException {
     boolean needInterrupt = false;
     switch ( this.state ) {
       case CANCELED:
@@ -14,6 +14,7 @@ import mondrian.olap.MondrianProperties;
 import org.apache.logging.log4j.Logger;
 
 import mondrian.olap.Util;
+import mondrian.rolap.QueryPlanCache;
 import mondrian.rolap.RolapUtil;
 import mondrian.server.monitor.*;
 import mondrian.util.*;
@@ -224,7 +225,8 @@ class MonitorImpl implements Monitor, MonitorMXBean {
                   - aggExec.cellCacheSegmentDeleteCount ), aggExec.cellCacheSegmentCreateCount,
           aggExec.cellCacheSegmentCreateViaExternalCount, aggExec.cellCacheSegmentDeleteViaExternalCount,
           aggExec.cellCacheSegmentCreateViaRollupCount, aggExec.cellCacheSegmentCreateViaSqlCount,
-          aggExec.cellCacheSegmentCellCount, aggExec.cellCacheSegmentCoordinateSum );
+          aggExec.cellCacheSegmentCellCount, aggExec.cellCacheSegmentCoordinateSum,
+          QueryPlanCache.instance().getHitCount(), QueryPlanCache.instance().getMissCount() );
     }
   }
 
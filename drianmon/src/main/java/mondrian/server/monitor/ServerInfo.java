@@ -102,6 +102,19 @@ public class ServerInfo extends Info {
      */
     public final int cellCoordinateCount;
 
+    /**
+     * The number of times a query was taken from the
+     * {@link mondrian.rolap.QueryPlanCache query plan cache} rather than
+     * parsed.
+     */
+    public final int queryPlanCacheHitCount;
+
+    /**
+     * The number of times a query was parsed because the query plan cache
+     * had none for its MDX text.
+     */
+    public final int queryPlanCacheMissCount;
+
     public ServerInfo(
         String stack,
         int connectionStartCount,
@@ -130,7 +143,9 @@ public class ServerInfo extends Info {
         int segmentCreateViaRollupCount,
         int segmentCreateViaSqlCount,
         int cellCount,
-        int cellCoordinateCount)
+        int cellCoordinateCount,
+        int queryPlanCacheHitCount,
+        int queryPlanCacheMissCount)
     {
         super(stack);
         this.connectionStartCount = connectionStartCount;
@@ -160,6 +175,8 @@ public class ServerInfo extends Info {
         this.segmentCreateViaSqlCount = segmentCreateViaSqlCount;
         this.cellCount = cellCount;
         this.cellCoordinateCount = cellCoordinateCount;
+        this.queryPlanCacheHitCount = queryPlanCacheHitCount;
+        this.queryPlanCacheMissCount = queryPlanCacheMissCount;
     }
 
     public int getCellCacheMissCount() {
@@ -297,6 +314,14 @@ public class ServerInfo extends Info {
     public int getCellCoordinateCount() {
         return cellCoordinateCount;
     }
+
+    public int getQueryPlanCacheHitCount() {
+        return queryPlanCacheHitCount;
+    }
+
+    public int getQueryPlanCacheMissCount() {
+        return queryPlanCacheMissCount;
+    }
 }
 
 // End ServerInfo.java
@@ -14,7 +14,9 @@ import java.util.List;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
 import mondrian.rolap.RolapUtil;
+import mondrian.server.Execution;
 import mondrian.spi.UserDefinedFunction;
+import mondrian.util.CancellationChecker;
 
 /**
  * Definition of the user-defined function "LastNonEmpty".
@@ -61,49 +63,63 @@ public class LastNonEmptyUdf implements UserDefinedFunction {
         final Argument exp = arguments[1];
         int nullCount = 0;
         int missCount = 0;
-        for (int i = memberList.size() - 1; i >= 0; --i) {
-            Member member = (Member) memberList.get(i);
-            // Create an evaluator with the member as its context.
-            Evaluator subEvaluator = evaluator.push();
-            subEvaluator.setContext(member);
-            int missCountBefore = subEvaluator.getMissCount();
-            final Object o = exp.evaluateScalar(subEvaluator);
-            int missCountAfter = subEvaluator.getMissCount();
-            if (Util.isNull(o)) {
-                ++nullCount;
-                continue;
-            }
-            if (missCountAfter > missCountBefore) {
-                // There was a cache miss while evaluating the expression, so
-                // the result is bogus. It would be a mistake to give up after
-                // one cache miss, because then it would take us N
-                // evaluate/fetch passes to move back through N members, which
-                // is way too many.
-                //
-                // Carry on until we have seen as many misses as we have seen
-                // null cells. The effect of this policy is that each pass
-                // examines twice as many cells as the previous pass. Thus
-                // we can move back through N members in log2(N) passes.
-                ++missCount;
-                if (missCount < 2 * nullCount + 1) {
+        // Set each member as the context of the evaluator in turn, and roll
+        // back to the savepoint afterwards, rather than creating an evaluator
+        // per member. Pushing an evaluator checks for cancellation, so check
+        // here instead.
+        final Execution execution =
+            evaluator.getQuery().getStatement().getCurrentExecution();
+        int currentIteration = 0;
+        final int savepoint = evaluator.savepoint();
+        try {
+            for (int i = memberList.size() - 1; i >= 0; --i) {
+                CancellationChecker.checkCancelOrTimeout(
+                    currentIteration++, execution);
+                Member member = (Member) memberList.get(i);
+                evaluator.restore(savepoint);
+                evaluator.setContext(member);
+                int missCountBefore = evaluator.getMissCount();
+                final Object o = exp.evaluateScalar(evaluator);
+                int missCountAfter = evaluator.getMissCount();
+                if (Util.isNull(o)) {
+                    ++nullCount;
                     continue;
                 }
-            }
-            if (o == RolapUtil.valueNotReadyException) {
-                // Value is not in the cache yet, so we don't know whether
-                // it will be empty. Carry on...
-                continue;
-            }
-            if (o instanceof RuntimeException) {
-                RuntimeException runtimeException = (RuntimeException) o;
+                if (missCountAfter > missCountBefore) {
+                    // There was a cache miss while evaluating the
+                    // expression, so the result is bogus. It would be a
+                    // mistake to give up after one cache miss, because then
+                    // it would take us N evaluate/fetch passes to move back
+                    // through N members, which is way too many.
+                    //
+                    // Carry on until we have seen as many misses as we have
+                    // seen null cells. The effect of this policy is that each
+                    // pass examines twice as many cells as the previous pass.
+                    // Thus we can move back through N members in log2(N)
+                    // passes.
+                    ++missCount;
+                    if (missCount < 2 * nullCount + 1) {
+                        continue;
+                    }
+                }
                 if (o == RolapUtil.valueNotReadyException) {
                     // Value is not in the cache yet, so we don't know whether
                     // it will be empty. Carry on...
                     continue;
                 }
-                return runtimeException;
+                if (o instanceof RuntimeException) {
+                    RuntimeException runtimeException = (RuntimeException) o;
+                    if (o == RolapUtil.valueNotReadyException) {
+                        // Value is not in the cache yet, so we don't know
+                        // whether it will be empty. Carry on...
+                        continue;
+                    }
+                    return runtimeException;
+                }
+                return member;
             }
-            return member;
+        } finally {
+            evaluator.restore(savepoint);
         }
         // Not found. Return the hierarchy's 'null member'.
         // It is possible that a MemberType has a Dimension but
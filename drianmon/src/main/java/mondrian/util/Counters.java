@@ -25,6 +25,20 @@ public abstract class Counters {
     /** Number of times {@code SqlStatement.close} has been called. */
     public static final AtomicLong SQL_STATEMENT_CLOSE_COUNT = new AtomicLong();
 
+    /** Number of times {@code CachedRollupAggregator} has computed an
+     * aggregate from cells in the cache. */
+    public static final AtomicLong CACHED_ROLLUP_COUNT = new AtomicLong();
+
+    /** Number of times {@code RolapResult} has evaluated an expression for
+     * the tuples of a set in parallel. */
+    public static final AtomicLong PARALLEL_SET_EVALUATION_COUNT =
+        new AtomicLong();
+
+    /** Number of times {@code RolapEvaluator} has found the result of an
+     * expression in a cache that outlives the query. */
+    public static final AtomicLong SHARED_EXP_RESULT_CACHE_HIT_COUNT =
+        new AtomicLong();
+
     /** Ids of all {@code SqlStatement} instances that are executing. */
     public static final Set<Long> SQL_STATEMENT_EXECUTING_IDS =
         Collections.synchronizedSet(new HashSet<Long>());
@@ -18,6 +18,9 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import mondrian.olap.Util;
 
@@ -72,16 +75,29 @@ public class Format {
     public static final int CacheLimit = 1000;
 
     /**
-     * Maps (formatString, locale) pairs to {@link Format} objects.
+     * Maps locales, then format strings, to {@link Format} objects.
      *
-     * <p>If the number of entries in the cache exceeds 1000,
+     * <p>The cache is read and written without locking, because it is
+     * consulted each time a cell is formatted. Two levels of map mean that
+     * looking up a format does not need to build a key. Formats for the null
+     * locale are held in {@link #nullLocaleCache}.
+     *
+     * <p>If the number of entries in the cache exceeds {@link #CacheLimit},
+     * entries are evicted.
      */
-    private static final Map<String, Format> cache =
-        new LinkedHashMap<String, Format>() {
-            public boolean removeEldestEntry(Map.Entry<String, Format> entry) {
-                return size() > CacheLimit;
-            }
-        };
+    private static final ConcurrentMap<Locale, ConcurrentMap<String, Format>>
+        cache = new ConcurrentHashMap<Locale, ConcurrentMap<String, Format>>();
+
+    /**
+     * Maps format strings to {@link Format} objects for the null locale.
+     */
+    private static final ConcurrentMap<String, Format> nullLocaleCache =
+        new ConcurrentHashMap<String, Format>();
+
+    /**
+     * Number of entries in {@link #cache} and {@link #nullLocaleCache}.
+     */
+    private static final AtomicInteger cacheSize = new AtomicInteger();
 
     static final char thousandSeparator_en = ',';
     static final char decimalPlaceholder_en = '.';
@@ -118,8 +134,8 @@ public class Format {
      * tokens length. Used so we don't have to tokenize a format string
      * over and over again.
      */
-    private static final Map<String, ArrayStack<Integer>>
-        thousandSeparatorTokenMap = new HashMap<String, ArrayStack<Integer>>();
+    private static final Map<String, int[]> thousandSeparatorTokenMap =
+        new ConcurrentHashMap<String, int[]>();
 
     /**
      * Locale for US English, also the default for English and for all
@@ -693,7 +709,19 @@ public class Format {
         final boolean useDecimal;
         final boolean useThouSep;
 
-        final ArrayStack<Integer> cachedThousandSeparatorPositions;
+        /**
+         * Lengths of the groups of digits between thousand separators. The
+         * last element is the length of the rightmost group, and the first
+         * element is re-applied if the number has more digits than the
+         * format string. Shared between formats, so must not be modified.
+         */
+        final int[] thousandSeparatorPositions;
+
+        /**
+         * Integers of smaller magnitude than this are held exactly by a
+         * double.
+         */
+        private static final double MAX_EXACT_INTEGER = 1L << 53;
 
         NumericFormat(
             String token,
@@ -742,9 +770,9 @@ public class Format {
             // an actual format string.
             formatString = MacroToken.expand(locale, formatString);
 
-            if (thousandSeparatorTokenMap.containsKey(formatString)) {
-                cachedThousandSeparatorPositions =
-                    thousandSeparatorTokenMap.get(formatString);
+            final int[] positions = thousandSeparatorTokenMap.get(formatString);
+            if (positions != null) {
+                thousandSeparatorPositions = positions;
             } else {
                 // To provide backwards compatibility, we apply the old
                 // formatting rules if there are less than 2 thousand
@@ -763,7 +791,7 @@ public class Format {
                     countOccurrences(
                         formatStringBuffer,
                         getFormatToken(FORMAT_THOUSEP).charAt(0));
-                cachedThousandSeparatorPositions = new ArrayStack<Integer>();
+                final List<Integer> positionList = new ArrayList<Integer>();
                 if (nbThousandSeparators > 1) {
                     // Extract the whole part of the format string
                     final int decimalPos =
@@ -792,15 +820,18 @@ public class Format {
                         // list will be re-applied if the number is
                         // longer than the format string.
                         while (st.hasMoreTokens()) {
-                            cachedThousandSeparatorPositions.push(
-                                st.nextToken().length());
+                            positionList.add(st.nextToken().length());
                         }
                 } else if (nbThousandSeparators == 1) {
                     // Use old style formatting.
-                    cachedThousandSeparatorPositions.add(3);
+                    positionList.add(3);
+                }
+                thousandSeparatorPositions = new int[positionList.size()];
+                for (int i = 0; i < thousandSeparatorPositions.length; i++) {
+                    thousandSeparatorPositions[i] = positionList.get(i);
                 }
                 thousandSeparatorTokenMap.put(
-                    formatString, cachedThousandSeparatorPositions);
+                    formatString, thousandSeparatorPositions);
             }
         }
 
@@ -808,11 +839,6 @@ public class Format {
             return FormatType.NUMERIC;
         }
 
-        private ArrayStack<Integer> getThousandSeparatorPositions() {
-            // Defensive copy
-            return new ArrayStack<Integer>(cachedThousandSeparatorPositions);
-        }
-
         private int countOccurrences(final String s, final char c) {
             final char[] chars = s.toCharArray();
             int count = 0;
@@ -824,7 +850,72 @@ public class Format {
             return count;
         }
 
+        /**
+         * Returns whether a value can be formatted by
+         * {@link #formatIntegral}: the format has no exponent and does not
+         * divide the value, and the value is an integer small enough to be
+         * held exactly in a double.
+         */
+        private boolean isIntegral(double n) {
+            return expChar == 0
+                && decimalShift >= 0
+                && n == (long) n
+                && n > -MAX_EXACT_INTEGER
+                && n < MAX_EXACT_INTEGER;
+        }
+
+        /**
+         * Formats an integer without converting it to a string first.
+         *
+         * <p>Produces the same output as formatting the value via a
+         * {@link MondrianFloatingDecimal}, but uses the per-thread
+         * {@link FormatBuffers} and so allocates nothing.
+         *
+         * @param n Value
+         * @param shiftZero Whether to apply {@link #decimalShift} if the
+         *     value is zero
+         * @param buf Buffer to append to
+         */
+        private void formatIntegral(
+            long n,
+            boolean shiftZero,
+            StringBuilder buf)
+        {
+            final MondrianFloatingDecimal fd = FormatBuffers.get().fd;
+            fd.setIntegral(n);
+            if (n != 0 || shiftZero) {
+                fd.decExponent += decimalShift;
+            }
+            formatFd0(
+                fd,
+                buf,
+                zeroesLeftOfPoint,
+                locale.decimalPlaceholder,
+                zeroesRightOfPoint,
+                zeroesRightOfPoint + digitsRightOfPoint,
+                expChar,
+                expSign,
+                zeroesRightOfExp,
+                useThouSep ? locale.thousandSeparator : '\0',
+                useDecimal,
+                thousandSeparatorPositions);
+        }
+
         void format(double n, StringBuilder buf)
+        {
+            if (isIntegral(n)) {
+                // Zero is not shifted, as in formatFloatingDecimal.
+                formatIntegral((long) n, false, buf);
+            } else {
+                formatFloatingDecimal(n, buf);
+            }
+        }
+
+        /**
+         * Formats a double via a {@link MondrianFloatingDecimal}. Works for
+         * all values and formats.
+         */
+        void formatFloatingDecimal(double n, StringBuilder buf)
         {
             MondrianFloatingDecimal fd = new MondrianFloatingDecimal(n);
             shift(fd, decimalShift);
@@ -847,11 +938,12 @@ public class Format {
                 zeroesRightOfExp,
                 useThouSep ? locale.thousandSeparator : '\0',
                 useDecimal,
-                getThousandSeparatorPositions());
+                thousandSeparatorPositions);
         }
 
         boolean isApplicableTo(double n) {
-            if (n >= 0) {
+            if (n >= 0 || isIntegral(n)) {
+                // A negative integer is at least 1 in magnitude, so shows.
                 return true;
             }
             MondrianFloatingDecimal fd = new MondrianFloatingDecimal(n);
@@ -879,6 +971,19 @@ public class Format {
         }
 
         void format(long n, StringBuilder buf)
+        {
+            if (isIntegral(n)) {
+                formatIntegral(n, true, buf);
+            } else {
+                formatFloatingDecimal(n, buf);
+            }
+        }
+
+        /**
+         * Formats a long via a {@link MondrianFloatingDecimal}. Works for
+         * all values and formats.
+         */
+        void formatFloatingDecimal(long n, StringBuilder buf)
         {
             MondrianFloatingDecimal fd =
                 new MondrianFloatingDecimal(n);
@@ -895,7 +1000,7 @@ public class Format {
                 zeroesRightOfExp,
                 useThouSep ? locale.thousandSeparator : '\0',
                 useDecimal,
-                getThousandSeparatorPositions());
+                thousandSeparatorPositions);
         }
     }
 
@@ -2115,7 +2220,10 @@ public class Format {
      * one from the cache if one already exists.
      *
      * <p>If the number of entries in the cache exceeds {@link #CacheLimit},
-     * replaces the eldest entry in the cache.
+     * evicts another entry from the cache.
+     *
+     * <p>Does not lock. If two threads ask for the same format at the same
+     * time, both may construct it, but both receive the same object.
      *
      * @param formatString the format string; see
      *   <a href="http://www.apostate.com/programming/vb-format.html">this
@@ -2124,20 +2232,76 @@ public class Format {
      * @return format for given format string in given locale
      */
     public static Format get(String formatString, Locale locale) {
-        String key = formatString + "@@@" + locale;
-        Format format = cache.get(key);
-        if (format == null) {
-            synchronized (cache) {
-                format = cache.get(key);
-                if (format == null) {
-                    format = new Format(formatString, locale);
-                    cache.put(key, format);
+        if (formatString == null) {
+            formatString = "";
+        }
+        ConcurrentMap<String, Format> map;
+        if (locale == null) {
+            map = nullLocaleCache;
+        } else {
+            map = cache.get(locale);
+            if (map == null) {
+                map = new ConcurrentHashMap<String, Format>();
+                final ConcurrentMap<String, Format> map2 =
+                    cache.putIfAbsent(locale, map);
+                if (map2 != null) {
+                    map = map2;
                 }
             }
         }
+        Format format = map.get(formatString);
+        if (format == null) {
+            format = new Format(formatString, locale);
+            final Format format2 = map.putIfAbsent(formatString, format);
+            if (format2 != null) {
+                return format2;
+            }
+            if (cacheSize.incrementAndGet() > CacheLimit) {
+                evict(map, formatString);
+            }
+        }
         return format;
     }
 
+    /**
+     * Removes an entry from the format cache, preferably one other than the
+     * entry that has just been added.
+     *
+     * @param map Map to which an entry has just been added
+     * @param formatString Format string of the entry just added
+     */
+    private static void evict(
+        ConcurrentMap<String, Format> map,
+        String formatString)
+    {
+        for (String key : map.keySet()) {
+            if (!key.equals(formatString)) {
+                if (map.remove(key) != null) {
+                    cacheSize.decrementAndGet();
+                }
+                return;
+            }
+        }
+        for (ConcurrentMap<String, Format> map2 : cache.values()) {
+            if (map2 != map) {
+                for (String key : map2.keySet()) {
+                    if (map2.remove(key) != null) {
+                        cacheSize.decrementAndGet();
+                    }
+                    return;
+                }
+            }
+        }
+        if (map != nullLocaleCache) {
+            for (String key : nullLocaleCache.keySet()) {
+                if (nullLocaleCache.remove(key) != null) {
+                    cacheSize.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
     /**
      * Create a {@link FormatLocale} object characterized by the given
      * properties.
@@ -2915,6 +3079,63 @@ public class Format {
         }
     }
 
+    /**
+     * Buffers used while formatting a number, one set per thread, so that
+     * formatting a cell value allocates nothing but the resulting string.
+     *
+     * <p>Formatting a number does not call back into other formats, so a
+     * buffer is in use by at most one format at a time.
+     */
+    private static class FormatBuffers {
+        private static final ThreadLocal<FormatBuffers> THREAD_LOCAL =
+            new ThreadLocal<FormatBuffers>() {
+                protected FormatBuffers initialValue() {
+                    return new FormatBuffers();
+                }
+            };
+
+        /**
+         * Decimal for integral values; see
+         * {@link MondrianFloatingDecimal#setIntegral(long)}.
+         */
+        final MondrianFloatingDecimal fd = new MondrianFloatingDecimal();
+        private char[] result = new char[64];
+        private char[] digits = new char[64];
+        private char[] wholeDigits = new char[64];
+
+        static FormatBuffers get() {
+            return THREAD_LOCAL.get();
+        }
+
+        /** Returns the buffer for the formatted number. */
+        char[] result(int length) {
+            if (result.length < length) {
+                result = new char[Math.max(length, result.length * 2)];
+            }
+            return result;
+        }
+
+        /** Returns the buffer for the padded digits of the number. */
+        char[] digits(int length) {
+            if (digits.length < length) {
+                digits = new char[Math.max(length, digits.length * 2)];
+            }
+            return digits;
+        }
+
+        /**
+         * Returns the buffer for the digits left of the decimal point and
+         * their thousand separators, which are written right to left.
+         */
+        char[] wholeDigits(int length) {
+            if (wholeDigits.length < length) {
+                wholeDigits =
+                    new char[Math.max(length, wholeDigits.length * 2)];
+            }
+            return wholeDigits;
+        }
+    }
+
     /** Formats a floating decimal to a given buffer. */
     private static void formatFd0(
         MondrianFloatingDecimal fd,
@@ -2928,7 +3149,7 @@ public class Format {
         int minExpDigits, // minimum digits in exponent
         char thousandChar, // ',' or '.', or 0
         boolean useDecimal,
-        ArrayStack<Integer> thousandSeparatorPositions)
+        int[] thousandSeparatorPositions)
     {
         // char result[] = new char[nDigits + 10]; // crashes for 1.000.000,00
         // the result length does *not* depend from nDigits
@@ -2937,13 +3158,23 @@ public class Format {
         //          + 10  (for decimal point and sign or -Infinity)
         //         +decExponent/3 (for the thousand separators)
         // crashes e.g. for 1.1 and format '0000000000000'
+        // Groups may be shorter than 3 digits, as in '#,#,#', and then
+        // there is a separator every 1 or 2 digits.
+        int minGroup = 3;
+        if (thousandChar != '\0') {
+            for (int position : thousandSeparatorPositions) {
+                if (position > 0 && position < minGroup) {
+                    minGroup = position;
+                }
+            }
+        }
+        final int wholeDigits =
+            Math.max(Math.abs(fd.decExponent), minDigitsLeftOfDecimal);
         int resultLen =
             10
-            + Math.max(
-                Math.abs(fd.decExponent),
-                minDigitsLeftOfDecimal) * 4 / 3
+            + wholeDigits + wholeDigits / minGroup
             + maxDigitsRightOfDecimal;
-        char result[] = new char[resultLen];
+        char result[] = FormatBuffers.get().result(resultLen);
         int i = formatFd1(
             fd,
             result,
@@ -2975,7 +3206,7 @@ public class Format {
         int minExpDigits, // minimum digits in exponent
         char thousandChar, // ',' or '.' or 0
         boolean useDecimal,
-        ArrayStack<Integer> thousandSeparatorPositions)
+        int[] thousandSeparatorPositions)
     {
         if (expChar != 0) {
             // Print the digits left of the 'E'.
@@ -3025,7 +3256,7 @@ public class Format {
         int maxDigitsRightOfDecimal,
         char thousandChar, // ',' or '.' or 0
         boolean useDecimal,
-        ArrayStack<Integer> thousandSeparatorPositions)
+        int[] thousandSeparatorPositions)
     {
         if (fd.isNegative) {
             result[i++] = '-';
@@ -3049,7 +3280,8 @@ public class Format {
             fractionDigits = Math.max(
                 fd.nDigits - fd.decExponent, minDigitsRightOfDecimal),
             totalDigits = wholeDigits + fractionDigits;
-        char[] digits2 = new char[totalDigits];
+        final FormatBuffers buffers = FormatBuffers.get();
+        char[] digits2 = buffers.digits(totalDigits + 1);
         for (int j = 0; j < totalDigits; j++) {
             digits2[j] = '0';
         }
@@ -3070,7 +3302,7 @@ public class Format {
             // We need to truncate -- also round if the trailing digits are
             // 5000... or greater.
             int m = totalDigits;
-            if ( digits2.length >= lastDigit && lastDigit != 0 ) {
+            if ( totalDigits >= lastDigit && lastDigit != 0 ) {
               while ( digits2[lastDigit - 1] < '0' || digits2[lastDigit - 1] > '9' ) {
                 // BACKLOG-15504
                 lastDigit--;
@@ -3079,15 +3311,14 @@ public class Format {
             while (true) {
                 m--;
                 if (m < 0) {
-                    // The entire number was 9s.  Re-allocate, so we can
-                    // prepend a '1'.
+                    // The entire number was 9s.  Shift right, so we can
+                    // prepend a '1'. (The buffer has room for one more
+                    // digit.)
+                    System.arraycopy(digits2, 0, digits2, 1, totalDigits);
+                    digits2[0] = '1';
                     wholeDigits++;
                     totalDigits++;
                     lastDigit++;
-                    char[] old = digits2;
-                    digits2 = new char[totalDigits];
-                    digits2[0] = '1';
-                    System.arraycopy(old, 0, digits2, 1, old.length);
                     break;
                 } else if (m == lastDigit) {
                     char d = digits2[m];
@@ -3132,37 +3363,40 @@ public class Format {
         }
 
         if (thousandChar != '\0'
-            && thousandSeparatorPositions.size() > 0)
+            && thousandSeparatorPositions.length > 0)
         {
             // Now print the number. That will happen backwards, so we
-            // store it temporarily and then invert.
-            ArrayStack<Character> formattedWholeDigits =
-                new ArrayStack<Character>();
+            // store it at the end of a temporary buffer and then copy.
+            final char[] formattedWholeDigits =
+                buffers.wholeDigits(
+                    2 * Math.max(wholeDigits - firstDigitToPrint, 0));
+            int k = formattedWholeDigits.length;
+            // Index of the current format token; we start with the last.
+            int p = thousandSeparatorPositions.length - 1;
             // We need to keep track of how many digits we printed in the
             // current token.
             int nbInserted = 0;
             for (int j = wholeDigits - 1; j >= firstDigitToPrint; j--) {
                 // Check if we need to insert another thousand separator
-                if (nbInserted % thousandSeparatorPositions.peek() == 0
+                if (nbInserted % thousandSeparatorPositions[p] == 0
                     && nbInserted > 0)
                 {
-                    formattedWholeDigits.push(thousandChar);
+                    formattedWholeDigits[--k] = thousandChar;
                     nbInserted = 0;
-                    // The last format token is kept because we re-apply it
+                    // The first format token is kept because we re-apply it
                     // until the end of the digits.
-                    if (thousandSeparatorPositions.size() > 1) {
-                        thousandSeparatorPositions.pop();
+                    if (p > 0) {
+                        --p;
                     }
                 }
                 // Insert the next digit.
-                formattedWholeDigits.push(digits2[j]);
+                formattedWholeDigits[--k] = digits2[j];
                 nbInserted++;
             }
-            // We're done. Invert the print out and add it to
-            // the result array.
-            while (formattedWholeDigits.size() > 0) {
-                result[i++] = formattedWholeDigits.pop();
-            }
+            // We're done. Add the print out to the result array.
+            final int n = formattedWholeDigits.length - k;
+            System.arraycopy(formattedWholeDigits, k, result, i, n);
+            i += n;
         } else {
             // There are no thousand separators. Just put the
             // digits in the results array.
@@ -44,6 +44,53 @@ class MondrianFloatingDecimal {
         decExponent = digitList.decimalAt;
     }
 
+    /**
+     * Creates a MondrianFloatingDecimal whose value is to be set by
+     * {@link #setIntegral(long)}, so that it can be reused.
+     */
+    MondrianFloatingDecimal() {
+        digits = new char[DigitList.MAX_LONG_DIGITS];
+    }
+
+    /**
+     * Sets this to an integer, without converting it to a string.
+     *
+     * <p>Formats the same as {@link #MondrianFloatingDecimal(double)} for the
+     * same value, except that {@link #nDigits} does not count trailing zeros,
+     * so when printing the mantissa of a number in exponential format the
+     * result may differ.
+     *
+     * @param v Value; its magnitude must be less than 2<sup>53</sup>, so that
+     *     it is held exactly by a double
+     */
+    void setIntegral(long v) {
+        isExceptional = false;
+        isNegative = v < 0;
+        if (v == 0) {
+            // Same as "0.0"; see DigitList.set(double, int, boolean).
+            nDigits = 0;
+            decExponent = -1;
+            return;
+        }
+        if (v < 0) {
+            v = -v;
+        }
+        int n = 0;
+        for (long w = v; w > 0; w /= 10) {
+            ++n;
+        }
+        decExponent = n;
+        while (v % 10 == 0) {
+            v /= 10;
+            --n;
+        }
+        nDigits = n;
+        while (--n >= 0) {
+            digits[n] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+    }
+
     public String toString() {
         final StringBuilder s = new StringBuilder(MAX_SIGNIFICANT_DIGITS);
         if (nDigits == 0) {
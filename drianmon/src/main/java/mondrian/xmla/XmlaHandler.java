@@ -2262,6 +2262,16 @@ public class XmlaHandler {
                 "name", axisName);
             writer.startSequence("Tuples", "Tuple");
 
+            // Let the server load in bulk any properties it would otherwise
+            // compute member by member.
+            final List<Property> longPropList =
+                new ArrayList<Property>(props.size());
+            for (Property prop : props) {
+                final Property longProp = longProps.get(prop.getName());
+                longPropList.add(longProp == null ? prop : longProp);
+            }
+            extra.prefetchMemberProperties(axis, longPropList);
+
             List<Position> positions = axis.getPositions();
             Iterator<Position> pit = positions.iterator();
             Position prevPosition = null;
@@ -3177,6 +3187,21 @@ public class XmlaHandler {
          */
         Object getOrderKey(Member m) throws OlapException;
 
+        /**
+         * Prepares to write the properties of the members of an axis. An
+         * implementation may load in bulk any property that it would
+         * otherwise compute one member at a time, such as
+         * CHILDREN_CARDINALITY. The default implementation does nothing.
+         *
+         * @param axis Axis whose members will be written
+         * @param properties Properties that will be written for each member
+         */
+        default void prefetchMemberProperties(
+            CellSetAxis axis,
+            List<Property> properties)
+        {
+        }
+
         /**
          * Returns the data type of the level's key.
          * 